@@ -0,0 +1,118 @@
+package serpent.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import serpent.BatchCounterMode;
+import serpent.BlockCipher;
+import serpent.SerpentKey;
+
+/**
+ * Messages per second for small CTR messages, each with its own counter
+ * block: one at a time through engines keyed in advance, one per key,
+ * against one <TT>BatchCounterMode</TT> call per batch. With several keys,
+ * messages are grouped by key, as the batch API recommends.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "--add-modules=jdk.incubator.vector"})
+@State(Scope.Thread)
+public class BatchBenchmark {
+
+    private static final int MESSAGES = 1024;
+
+    @Param({"SerpentBitsliced", "SerpentVector"})
+    public String cipher;
+
+    @Param({"32", "256"})
+    public int size;
+
+    @Param({"1", "16"})
+    public int keys;
+
+    private BatchCounterMode batch;
+    private SerpentKey[] schedules;
+    private SerpentKey[] messageKeys;
+    private BlockCipher[] engines;
+    private int[] keyIndex;
+    private byte[] buf;
+    private int[] offsets;
+    private int[] lengths;
+    private byte[] ivs;
+    private byte[] keystream;
+
+    @Setup
+    public void setup() {
+        batch = new BatchCounterMode(Ciphers.factory(cipher));
+        schedules = new SerpentKey[keys];
+        engines = new BlockCipher[keys];
+        for (int k = 0; k < keys; k++) {
+            byte[] key = Ciphers.data(32, k);
+            schedules[k] = new SerpentKey(key);
+            engines[k] = Ciphers.factory(cipher).get();
+            engines[k].setKey(key);
+        }
+        messageKeys = new SerpentKey[MESSAGES];
+        keyIndex = new int[MESSAGES];
+        offsets = new int[MESSAGES];
+        lengths = new int[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            keyIndex[i] = i * keys / MESSAGES;
+            messageKeys[i] = schedules[keyIndex[i]];
+            offsets[i] = i * size;
+            lengths[i] = size;
+        }
+        buf = Ciphers.data(MESSAGES * size, 2);
+        ivs = Ciphers.data(16 * MESSAGES, 3);
+        keystream = new byte[(size + 15) & ~15];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public byte[] oneAtATime(Bytes bytes) {
+        int blocks = keystream.length / 16;
+        for (int m = 0; m < MESSAGES; m++) {
+            for (int b = 0; b < blocks; b++) {
+                //Counter block b is iv + b as a 128-bit big-endian number.
+                int carry = b;
+                for (int i = 15; i >= 0; i--) {
+                    int sum = (ivs[16*m+i] & 0xFF) + (carry & 0xFF);
+                    keystream[16*b+i] = (byte)sum;
+                    carry = (carry >>> 8) + (sum >>> 8);
+                }
+            }
+            engines[keyIndex[m]].encryptBlocks(keystream, 0, keystream, 0, blocks);
+            int off = offsets[m];
+            for (int i = 0; i < size; i++) {
+                buf[off+i] ^= keystream[i];
+            }
+        }
+        bytes.bytes += MESSAGES * size;
+        return buf;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public byte[] batched(Bytes bytes) {
+        if (keys == 1) {
+            batch.process(schedules[0], buf, offsets, lengths, ivs);
+        }
+        else {
+            batch.process(messageKeys, buf, offsets, lengths, ivs);
+        }
+        bytes.bytes += MESSAGES * size;
+        return buf;
+    }
+}
@@ -0,0 +1,70 @@
+package serpent.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import serpent.BlockCipher;
+
+/**
+ * Key schedule and single-block cost of each <TT>BlockCipher</TT>
+ * implementation, measured separately. Run with <TT>-prof gc</TT> to see the
+ * allocation rate per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "--add-modules=jdk.incubator.vector"})
+@State(Scope.Thread)
+public class BlockCipherBenchmark {
+
+    @Param({"Serpent", "SerpentOptimized", "SerpentBitsliced", "SerpentVector"})
+    public String cipher;
+
+    @Param({"16", "32"})
+    public int keyLength;
+
+    private BlockCipher engine;
+    private byte[] key;
+    private byte[] plaintext;
+    private byte[] ciphertext;
+    private byte[] out;
+
+    @Setup
+    public void setup() {
+        engine = Ciphers.factory(cipher).get();
+        key = Ciphers.data(keyLength, 1);
+        engine.setKey(key);
+        plaintext = Ciphers.data(16, 2);
+        ciphertext = new byte[16];
+        engine.encrypt(plaintext, 0, ciphertext, 0);
+        out = new byte[16];
+    }
+
+    @Benchmark
+    public BlockCipher setKey() {
+        engine.setKey(key);
+        return engine;
+    }
+
+    @Benchmark
+    public byte[] encryptBlock() {
+        engine.encrypt(plaintext, 0, out, 0);
+        return out;
+    }
+
+    @Benchmark
+    public byte[] decryptBlock() {
+        engine.decrypt(ciphertext, 0, out, 0);
+        return out;
+    }
+}
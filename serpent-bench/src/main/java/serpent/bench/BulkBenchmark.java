@@ -0,0 +1,62 @@
+package serpent.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import serpent.BlockCipher;
+
+/**
+ * Bulk throughput of <TT>encryptBlocks()</TT> and <TT>decryptBlocks()</TT>
+ * for each <TT>BlockCipher</TT> implementation. The <TT>bytes</TT> counter
+ * gives bytes per second. 16 MB takes minutes per operation with
+ * <TT>Serpent</TT>; use <TT>-p cipher=...</TT> to leave it out.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "--add-modules=jdk.incubator.vector"})
+@State(Scope.Thread)
+public class BulkBenchmark {
+
+    @Param({"Serpent", "SerpentOptimized", "SerpentBitsliced", "SerpentVector"})
+    public String cipher;
+
+    @Param({"1024", "65536", "16777216"})
+    public int size;
+
+    private BlockCipher engine;
+    private byte[] src;
+    private byte[] dst;
+
+    @Setup
+    public void setup() {
+        engine = Ciphers.factory(cipher).get();
+        engine.setKey(Ciphers.data(32, 1));
+        src = Ciphers.data(size, 2);
+        dst = new byte[size];
+    }
+
+    @Benchmark
+    public byte[] encryptBlocks(Bytes bytes) {
+        engine.encryptBlocks(src, 0, dst, 0, size / 16);
+        bytes.bytes += size;
+        return dst;
+    }
+
+    @Benchmark
+    public byte[] decryptBlocks(Bytes bytes) {
+        engine.decryptBlocks(src, 0, dst, 0, size / 16);
+        bytes.bytes += size;
+        return dst;
+    }
+}
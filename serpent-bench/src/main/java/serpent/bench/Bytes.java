@@ -0,0 +1,23 @@
+package serpent.bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counts bytes processed, so throughput benchmarks also report bytes per
+ * second next to operations per second.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Bytes {
+
+    public long bytes;
+
+    @Setup(Level.Iteration)
+    public void clear() {
+        bytes = 0;
+    }
+}
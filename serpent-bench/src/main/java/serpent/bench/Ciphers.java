@@ -0,0 +1,48 @@
+package serpent.bench;
+
+import java.util.Random;
+import java.util.function.Supplier;
+import serpent.BlockCipher;
+import serpent.Serpent;
+import serpent.SerpentBitsliced;
+import serpent.SerpentOptimized;
+import serpent.SerpentVector;
+
+/**
+ * Cipher implementations by the names used in benchmark parameters, and
+ * seeded test data so that every run processes the same bytes.
+ */
+final class Ciphers {
+
+    private Ciphers() {
+    }
+
+    /**
+     * Returns a factory for the named <TT>BlockCipher</TT> implementation.
+     *
+     * @param name Simple class name.
+     */
+    static Supplier<BlockCipher> factory(String name) {
+        switch (name) {
+            case "Serpent":
+                return Serpent::new;
+            case "SerpentOptimized":
+                return SerpentOptimized::new;
+            case "SerpentBitsliced":
+                return SerpentBitsliced::new;
+            case "SerpentVector":
+                return SerpentVector::new;
+            default:
+                throw new IllegalArgumentException("Unknown cipher " + name);
+        }
+    }
+
+    /**
+     * Returns <TT>n</TT> pseudorandom bytes from a fixed seed.
+     */
+    static byte[] data(int n, long seed) {
+        byte[] data = new byte[n];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,138 @@
+package serpent.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.AEADBadTagException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import serpent.ContainerFile;
+import serpent.CtrFileChannel;
+import serpent.FileCipher;
+import serpent.FilePipeline;
+import serpent.MappedFileCipher;
+import serpent.SerpentEngines;
+
+/**
+ * Streaming (<TT>FileCipher</TT>), pipelined (<TT>FilePipeline</TT>) and
+ * memory-mapped (<TT>MappedFileCipher</TT>) file encryption over the fastest engine, and
+ * 4 KB reads at random offsets through <TT>CtrFileChannel</TT>, and the
+ * chunked, authenticated <TT>ContainerFile</TT>.
+ * The files live in the default temporary directory, so results depend on
+ * that file system and the page cache.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "--add-modules=jdk.incubator.vector"})
+@State(Scope.Benchmark)
+public class FileBenchmark {
+
+    @Param({"67108864"})
+    public int size;
+
+    private File in;
+    private File out;
+    private File container;
+    private byte[] key;
+    private byte[] iv;
+    private CtrFileChannel channel;
+    private FilePipeline pipeline;
+    private ByteBuffer page;
+    private long seed;
+
+    @Setup
+    public void setup() throws IOException {
+        in = File.createTempFile("serpent-bench", ".in");
+        out = File.createTempFile("serpent-bench", ".out");
+        Files.write(in.toPath(), Ciphers.data(size, 2));
+        key = Ciphers.data(32, 1);
+        iv = Ciphers.data(16, 3);
+        channel = CtrFileChannel.open(in, SerpentEngines.fastest(), key, iv);
+        page = ByteBuffer.allocate(4096);
+        pipeline = new FilePipeline();
+        container = File.createTempFile("serpent-bench", ".srpc");
+        ContainerFile.encrypt(in, container, SerpentEngines.fastest(), key, ContainerFile.DEFAULT_CHUNK, ForkJoinPool.commonPool());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        channel.close();
+        in.delete();
+        out.delete();
+        container.delete();
+    }
+
+    @Benchmark
+    public void ctrStream(Bytes bytes) throws IOException {
+        FileCipher.ctr(in, out, SerpentEngines.fastest(), key, iv, ForkJoinPool.commonPool());
+        bytes.bytes += size;
+    }
+
+    @Benchmark
+    public void ctrMapped(Bytes bytes) throws IOException {
+        MappedFileCipher.ctr(in, out, SerpentEngines.fastest(), key, iv, ForkJoinPool.commonPool());
+        bytes.bytes += size;
+    }
+
+    @Benchmark
+    public void ctrPipelined(Bytes bytes) throws IOException {
+        pipeline.ctr(in, out, SerpentEngines.fastest(), key, iv, ForkJoinPool.commonPool());
+        bytes.bytes += size;
+    }
+
+    @Benchmark
+    public void cbcEncryptStream(Bytes bytes) throws IOException {
+        FileCipher.encryptCbc(in, out, SerpentEngines.fastest(), key, iv);
+        bytes.bytes += size;
+    }
+
+    @Benchmark
+    public void cbcEncryptPipelined(Bytes bytes) throws IOException {
+        pipeline.encryptCbc(in, out, SerpentEngines.fastest(), key, iv);
+        bytes.bytes += size;
+    }
+
+    @Benchmark
+    public void cbcEncryptMapped(Bytes bytes) throws IOException {
+        MappedFileCipher.encryptCbc(in, out, SerpentEngines.fastest(), key, iv);
+        bytes.bytes += size;
+    }
+
+    @Benchmark
+    public ByteBuffer ctrSeekRead(Bytes bytes) throws IOException {
+        //Any offset, aligned or not, in the first size - 4 KB bytes
+        seed = seed * 6364136223846793005L + 1442695040888963407L;
+        long pos = (seed >>> 1) % (size - page.capacity());
+        page.clear();
+        channel.read(page, pos);
+        bytes.bytes += page.capacity();
+        return page;
+    }
+
+    @Benchmark
+    public void containerEncrypt(Bytes bytes) throws IOException {
+        ContainerFile.encrypt(in, out, SerpentEngines.fastest(), key, ContainerFile.DEFAULT_CHUNK, ForkJoinPool.commonPool());
+        bytes.bytes += size;
+    }
+
+    @Benchmark
+    public void containerDecrypt(Bytes bytes) throws IOException, AEADBadTagException {
+        ContainerFile.decrypt(container, out, SerpentEngines.fastest(), key, ForkJoinPool.commonPool());
+        bytes.bytes += size;
+    }
+}
@@ -0,0 +1,76 @@
+package serpent.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import serpent.BlockCipher;
+import serpent.KeyScheduleCache;
+
+/**
+ * Switching one engine between many tenant keys, each switch followed by a
+ * single block: plain <TT>setKey()</TT> against a <TT>KeyScheduleCache</TT>.
+ * With more tenants than cache entries the cached variant also pays for
+ * misses and evictions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "--add-modules=jdk.incubator.vector"})
+@State(Scope.Thread)
+public class KeySwitchBenchmark {
+
+    private static final int CACHE_ENTRIES = 1024;
+
+    @Param({"SerpentBitsliced", "SerpentVector"})
+    public String cipher;
+
+    @Param({"16", "1024", "4096"})
+    public int tenants;
+
+    private BlockCipher engine;
+    private KeyScheduleCache cache;
+    private byte[][] keys;
+    private byte[] block;
+    private int next;
+
+    @Setup
+    public void setup() {
+        engine = Ciphers.factory(cipher).get();
+        cache = new KeyScheduleCache(CACHE_ENTRIES);
+        keys = new byte[tenants][];
+        for (int i = 0; i < tenants; i++) {
+            keys[i] = Ciphers.data(32, i);
+        }
+        block = new byte[16];
+    }
+
+    @Benchmark
+    public byte[] setKey() {
+        engine.setKey(keys[tenant()]);
+        engine.encrypt(block, 0, block, 0);
+        return block;
+    }
+
+    @Benchmark
+    public byte[] cached() {
+        cache.setKey(engine, keys[tenant()]);
+        engine.encrypt(block, 0, block, 0);
+        return block;
+    }
+
+    private int tenant() {
+        int t = next;
+        next = (t + 1) % tenants;
+        return t;
+    }
+}
@@ -0,0 +1,80 @@
+package serpent.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import serpent.BlockCipher;
+import serpent.CounterMode;
+
+/**
+ * Cost of <TT>CipherMetrics</TT>: small CTR calls and <TT>setKey</TT> with
+ * metrics off, the default, and on. The <TT>Off</TT> results should match
+ * <TT>ModeBenchmark.ctrSerial</TT> and <TT>BlockCipherBenchmark.setKey</TT>
+ * of a build without instrumentation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "--add-modules=jdk.incubator.vector"})
+@State(Scope.Thread)
+public class MetricsBenchmark {
+
+    @Param({"SerpentBitsliced", "SerpentVector"})
+    public String cipher;
+
+    @Param({"256", "4096"})
+    public int size;
+
+    private CounterMode ctr;
+    private BlockCipher engine;
+    private byte[] key;
+    private byte[] src;
+    private byte[] dst;
+
+    @Setup
+    public void setup() {
+        key = Ciphers.data(32, 1);
+        ctr = new CounterMode(Ciphers.factory(cipher), key, Ciphers.data(16, 3));
+        engine = Ciphers.factory(cipher).get();
+        src = Ciphers.data(size, 2);
+        dst = new byte[size];
+    }
+
+    @Benchmark
+    public byte[] ctrOff(Bytes bytes) {
+        ctr.process(src, 0, dst, 0, size);
+        bytes.bytes += size;
+        return dst;
+    }
+
+    @Benchmark
+    @Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "--add-modules=jdk.incubator.vector", "-Dserpent.metrics=true"})
+    public byte[] ctrOn(Bytes bytes) {
+        ctr.process(src, 0, dst, 0, size);
+        bytes.bytes += size;
+        return dst;
+    }
+
+    @Benchmark
+    public BlockCipher setKeyOff() {
+        engine.setKey(key);
+        return engine;
+    }
+
+    @Benchmark
+    @Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "--add-modules=jdk.incubator.vector", "-Dserpent.metrics=true"})
+    public BlockCipher setKeyOn() {
+        engine.setKey(key);
+        return engine;
+    }
+}
@@ -0,0 +1,142 @@
+package serpent.bench;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import serpent.CbcMode;
+import serpent.CounterMode;
+import serpent.GcmMode;
+import serpent.SerpentProvider;
+import serpent.XtsMode;
+
+/**
+ * Serial against parallel CTR, CBC, GCM and XTS over the scalar and vector
+ * engines, and CTR through the JCA <TT>Cipher</TT> of <TT>SerpentProvider</TT>,
+ * which uses the fastest engine. Each GCM invocation is one message, including
+ * its setup. XTS uses 4 KB sectors and encrypts in place.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "--add-modules=jdk.incubator.vector"})
+@State(Scope.Thread)
+public class ModeBenchmark {
+
+    @Param({"SerpentBitsliced", "SerpentVector"})
+    public String cipher;
+
+    @Param({"65536", "16777216"})
+    public int size;
+
+    private CounterMode ctr;
+    private CbcMode cbc;
+    private XtsMode xts;
+    private ByteBuffer sectors;
+    private byte[] key;
+    private byte[] nonce;
+    private Cipher jca;
+    private byte[] src;
+    private byte[] dst;
+
+    @Setup
+    public void setup() throws Exception {
+        key = Ciphers.data(32, 1);
+        byte[] iv = Ciphers.data(16, 3);
+        nonce = Ciphers.data(12, 4);
+        ctr = new CounterMode(Ciphers.factory(cipher), key, iv);
+        cbc = new CbcMode(Ciphers.factory(cipher), key, iv);
+        xts = new XtsMode(Ciphers.factory(cipher), key, Ciphers.data(32, 5), 4096);
+        jca = Cipher.getInstance("Serpent/CTR/NoPadding", new SerpentProvider());
+        jca.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "Serpent"), new IvParameterSpec(iv));
+        src = Ciphers.data(size, 2);
+        dst = new byte[size];
+        sectors = ByteBuffer.wrap(dst);
+    }
+
+    @Benchmark
+    public byte[] ctrSerial(Bytes bytes) {
+        ctr.process(src, 0, dst, 0, size);
+        bytes.bytes += size;
+        return dst;
+    }
+
+    @Benchmark
+    public byte[] ctrParallel(Bytes bytes) {
+        ctr.processParallel(src, 0, dst, 0, size, ForkJoinPool.commonPool());
+        bytes.bytes += size;
+        return dst;
+    }
+
+    @Benchmark
+    public byte[] ctrCipher(Bytes bytes) throws Exception {
+        jca.update(src, 0, size, dst, 0);
+        bytes.bytes += size;
+        return dst;
+    }
+
+    @Benchmark
+    public byte[] cbcEncrypt(Bytes bytes) {
+        cbc.encrypt(src, 0, dst, 0, size);
+        bytes.bytes += size;
+        return dst;
+    }
+
+    @Benchmark
+    public byte[] cbcDecrypt(Bytes bytes) {
+        cbc.decrypt(src, 0, dst, 0, size);
+        bytes.bytes += size;
+        return dst;
+    }
+
+    @Benchmark
+    public byte[] cbcDecryptParallel(Bytes bytes) {
+        cbc.decryptParallel(src, 0, dst, 0, size, ForkJoinPool.commonPool());
+        bytes.bytes += size;
+        return dst;
+    }
+
+    @Benchmark
+    public byte[] gcmEncrypt(Bytes bytes) {
+        GcmMode gcm = new GcmMode(Ciphers.factory(cipher), key, nonce, true);
+        gcm.update(src, 0, dst, 0, size);
+        bytes.bytes += size;
+        return gcm.doFinal();
+    }
+
+    @Benchmark
+    public byte[] gcmEncryptParallel(Bytes bytes) {
+        GcmMode gcm = new GcmMode(Ciphers.factory(cipher), key, nonce, true);
+        gcm.update(src, 0, dst, 0, size, ForkJoinPool.commonPool());
+        bytes.bytes += size;
+        return gcm.doFinal();
+    }
+
+    @Benchmark
+    public ByteBuffer xtsEncrypt(Bytes bytes) {
+        xts.encryptSectors(0, sectors);
+        bytes.bytes += size;
+        return sectors;
+    }
+
+    @Benchmark
+    public ByteBuffer xtsEncryptParallel(Bytes bytes) {
+        xts.encryptSectors(0, sectors, ForkJoinPool.commonPool());
+        bytes.bytes += size;
+        return sectors;
+    }
+}
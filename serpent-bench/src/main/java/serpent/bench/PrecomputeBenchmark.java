@@ -0,0 +1,79 @@
+package serpent.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import serpent.CounterMode;
+import serpent.PrecomputedCounterMode;
+
+/**
+ * Latency distribution of small CTR requests computed on demand by
+ * <TT>CounterMode</TT> against XORed with keystream from
+ * <TT>PrecomputedCounterMode</TT>. Requests run back to back, so they ask
+ * for keystream faster than the cipher makes it: the precomputed run shows
+ * the hit latency in its lower percentiles and the waits for the refill
+ * thread in its tail, more of them when the refill thread has no core of its
+ * own. The hit ratio and refill lag are printed at tear-down.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "--add-modules=jdk.incubator.vector"})
+@State(Scope.Thread)
+public class PrecomputeBenchmark {
+
+    @Param({"SerpentBitsliced", "SerpentVector"})
+    public String cipher;
+
+    @Param({"256", "4096"})
+    public int size;
+
+    private CounterMode ctr;
+    private PrecomputedCounterMode precomputed;
+    private byte[] src;
+    private byte[] dst;
+    private long pos;
+
+    @Setup
+    public void setup() {
+        byte[] key = Ciphers.data(32, 1);
+        byte[] iv = Ciphers.data(16, 3);
+        ctr = new CounterMode(Ciphers.factory(cipher), key, iv);
+        precomputed = new PrecomputedCounterMode(Ciphers.factory(cipher), key, iv);
+        src = Ciphers.data(size, 2);
+        dst = new byte[size];
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (precomputed.hits() + precomputed.misses() > 0) {
+            System.out.printf("%nhit ratio %.3f, refill lag p99 %d us%n",
+                precomputed.hitRatio(), precomputed.refillLag().valueAtPercentile(99) / 1000);
+        }
+        precomputed.close();
+    }
+
+    @Benchmark
+    public byte[] onDemand() {
+        ctr.process(src, 0, dst, 0, size, pos);
+        pos += size;
+        return dst;
+    }
+
+    @Benchmark
+    public byte[] precomputed() {
+        precomputed.process(src, 0, dst, 0, size);
+        return dst;
+    }
+}
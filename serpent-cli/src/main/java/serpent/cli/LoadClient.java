@@ -0,0 +1,131 @@
+package serpent.cli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import serpent.metrics.LatencyHistogram;
+
+/**
+ * Load generator for <TT>SerpentServer</TT>: opens a number of connections
+ * at once, each sending the same number of CTR requests back to back under
+ * key 0, and reports requests per second and the latency distribution of
+ * single requests, measured from writing the request to reading the whole
+ * response.
+ */
+public final class LoadClient {
+
+    private LoadClient() {
+    }
+
+    /**
+     * Run the load and print the results.
+     *
+     * @param address Server address, as taken by <TT>SerpentServer</TT>.
+     * @param connections Number of concurrent connections.
+     * @param requests Requests per connection.
+     * @param size Payload bytes per request.
+     *
+     * @exception IOException Thrown if a connection failed or the server
+     *            rejected a request.
+     * @exception InterruptedException Thrown if interrupted while waiting
+     *            for the connections to finish.
+     */
+    public static void run(String address, int connections, int requests, int size) throws IOException, InterruptedException {
+        SocketAddress target = SerpentServer.address(address);
+        LatencyHistogram latency = new LatencyHistogram();
+        AtomicReference<IOException> failure = new AtomicReference<>();
+        ExecutorService executor = SerpentServer.virtualThreadExecutor();
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(connections);
+        }
+        CountDownLatch ready = new CountDownLatch(connections);
+        CountDownLatch go = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(connections);
+        for (int c = 0; c < connections; c++) {
+            long seed = c;
+            executor.execute(() -> {
+                SocketChannel connected = null;
+                try {
+                    connected = SerpentServer.connect(target);
+                }
+                catch (IOException e) {
+                    failure.compareAndSet(null, e);
+                }
+                finally {
+                    ready.countDown();
+                }
+                if (connected == null) {
+                    done.countDown();
+                    return;
+                }
+                try (SocketChannel channel = connected) {
+                    go.await();
+                    connection(channel, requests, size, seed, latency);
+                }
+                catch (IOException e) {
+                    failure.compareAndSet(null, e);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                finally {
+                    done.countDown();
+                }
+            });
+        }
+        //Connect everything first, so setup is not timed.
+        ready.await();
+        long start = System.nanoTime();
+        go.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        long n = latency.count();
+        System.out.printf("%d requests of %d bytes over %d connections in %.2f s%n",
+            n, size, connections, elapsed / 1e9);
+        System.out.printf("%.0f requests/s, %.1f MB/s%n", n * 1e9 / elapsed, n * size * 1e3 / elapsed);
+        System.out.printf("latency us: mean %.1f, p50 %.1f, p99 %.1f, p99.9 %.1f, max %.1f%n",
+            latency.mean() / 1e3, latency.valueAtPercentile(50) / 1e3, latency.valueAtPercentile(99) / 1e3,
+            latency.valueAtPercentile(99.9) / 1e3, latency.max() / 1e3);
+    }
+
+    private static void connection(SocketChannel channel, int requests, int size, long seed, LatencyHistogram latency) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 64*1024));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64*1024));
+        Random random = new Random(seed);
+        byte[] counter = new byte[16];
+        byte[] payload = new byte[size];
+        byte[] response = new byte[size];
+        random.nextBytes(payload);
+        for (int r = 0; r < requests; r++) {
+            random.nextBytes(counter);
+            long start = System.nanoTime();
+            out.writeByte(SerpentServer.CTR);
+            out.writeInt(0);
+            out.write(counter);
+            out.writeInt(size);
+            out.write(payload);
+            out.flush();
+            int status = in.readUnsignedByte();
+            int len = in.readInt();
+            if (status != SerpentServer.OK || len != size) {
+                throw new IOException("Server answered status " + status + ", length " + len);
+            }
+            in.readFully(response, 0, len);
+            latency.record(System.nanoTime() - start);
+        }
+    }
+}
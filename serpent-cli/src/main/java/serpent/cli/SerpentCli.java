@@ -0,0 +1,209 @@
+package serpent.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import javax.crypto.AEADBadTagException;
+import serpent.BlockCipher;
+import serpent.ContainerFile;
+import serpent.FileCipher;
+import serpent.FilePipeline;
+import serpent.MappedFileCipher;
+import serpent.Serpent;
+import serpent.SerpentBitsliced;
+import serpent.SerpentEngines;
+import serpent.SerpentOptimized;
+import serpent.SerpentVector;
+import serpent.util.Hex;
+import serpent.util.Packing;
+
+/**
+ * Command line front end for the Serpent implementations, formerly the
+ * <TT>main()</TT> of each cipher class. All implementations produce the same
+ * output; <TT>-cipher</TT> selects one. The default is the fastest engine the
+ * JVM can run, <TT>SerpentVector</TT> when started with
+ * <TT>--add-modules jdk.incubator.vector</TT> and <TT>SerpentBitsliced</TT>
+ * otherwise.
+ */
+public class SerpentCli {
+
+    private SerpentCli() {
+    }
+
+    /**
+     * Main function, does one of two things:
+     * sets an all-zero-byte key, performs N encryptions of an all-zero-byte plaintext block
+     * or 
+     * encrypts the contents of the input file, storing the result in an output file
+     * args are optionally -cipher followed by Serpent, SerpentOptimized, SerpentBitsliced or SerpentVector, then either N or 
+     * input filename, output filename, key (up to 32 bytes in hex), nonce (integer), and [e]ncrypt or [d]ecrypt in CBC mode, or [c] to encrypt/decrypt in CTR mode,
+     * optionally followed by [m] to memory-map the files instead of streaming them, or [p] to stream them
+     * through a read/encrypt/write pipeline and print where the time went,
+     * or input filename, output filename, key, and [E]ncrypt or [D]ecrypt as an authenticated chunked container.
+     * -serve address key [key ...] runs SerpentServer until killed, and
+     * -load address connections requests size runs LoadClient against it.
+     */
+    public static void main( String[] args ) {
+        if(args.length >= 3 && args[0].equals("-serve")) {
+            serve(args);
+            return;
+        }
+        if(args.length == 5 && args[0].equals("-load")) {
+            try{
+                LoadClient.run(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+            }
+            catch(IOException | InterruptedException e){
+                System.err.println(e.getMessage());
+            }
+            return;
+        }
+        Supplier<BlockCipher> factory = SerpentEngines.fastest();
+        if(args.length >= 2 && args[0].equals("-cipher")) {
+            factory = factory(args[1]);
+            if(factory == null && args[1].equals("SerpentVector")) {
+                System.out.println("SerpentVector needs the JVM option --add-modules jdk.incubator.vector.");
+                return;
+            }
+            if(factory == null) {
+                System.out.println("Cipher invalid, input Serpent, SerpentOptimized, SerpentBitsliced or SerpentVector after -cipher.");
+                return;
+            }
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+        BlockCipher serpent = factory.get();
+        if(args.length == 1)
+        {
+            byte[] test_in = new byte[16];
+            byte[] test_key = new byte[32];
+            int iters = Integer.parseInt(args[0]);
+            for(int n = 0; n < iters; n++){
+                serpent.setKey(test_key);
+                serpent.encrypt(test_in);
+            }
+            System.out.println(Hex.toString(test_in));
+        }
+        else if (args.length == 4) {
+            try{
+                File file_in = new File(args[0]);
+                File file_out = new File(args[1]);
+                byte[] key = Hex.toByteArray(args[2]);
+                //Chunks are encrypted with their own IV and tag, spread over all cores
+                if(args[3].equals("E")) {
+                    ContainerFile.encrypt(file_in, file_out, factory, key, ContainerFile.DEFAULT_CHUNK, ForkJoinPool.commonPool());
+                }
+                else if(args[3].equals("D")) {
+                    ContainerFile.decrypt(file_in, file_out, factory, key, ForkJoinPool.commonPool());
+                }
+                else {
+                    System.out.println("Container option invalid, input E or D as 4th argument.");
+                }
+            }
+            catch(AEADBadTagException e){
+                System.err.println("Authentication failed, wrong key or altered file: " + e.getMessage());
+            }
+            catch(IOException e){
+                System.err.println(e.getMessage());
+            }
+        }
+        else if (args.length == 5 || (args.length == 6 && (args[5].equals("m") || args[5].equals("p")))) {
+            try{
+                File file_in = new File(args[0]);
+                File file_out = new File(args[1]);
+                byte[] key = Hex.toByteArray(args[2]);
+                //set key
+                serpent.setKey(key);
+                byte[] iv = new byte[16];
+                //Create Nonce from 4th argument.
+                Packing.unpackIntLittleEndian(Integer.parseInt(args[3]),iv,0);
+                serpent.encrypt(iv);
+                //Files are streamed through fixed-size buffers by FileCipher,
+                //mapped into memory by MappedFileCipher, or streamed through
+                //FilePipeline with reading, encryption and writing overlapped.
+                boolean mapped = args.length == 6 && args[5].equals("m");
+                FilePipeline pipeline = args.length == 6 && args[5].equals("p") ? new FilePipeline() : null;
+                FilePipeline.Stats stats = null;
+                //File encryption in CBC mode
+                if(args[4].equals("e")) {
+                    if(mapped) {
+                        MappedFileCipher.encryptCbc(file_in, file_out, factory, key, iv);
+                    }
+                    else if(pipeline != null) {
+                        stats = pipeline.encryptCbc(file_in, file_out, factory, key, iv);
+                    }
+                    else {
+                        FileCipher.encryptCbc(file_in, file_out, factory, key, iv);
+                    }
+                }
+                //File decryption in CBC mode, segments decrypted in parallel
+                else if(args[4].equals("d")) {
+                    if(mapped) {
+                        MappedFileCipher.decryptCbc(file_in, file_out, factory, key, iv, ForkJoinPool.commonPool());
+                    }
+                    else if(pipeline != null) {
+                        stats = pipeline.decryptCbc(file_in, file_out, factory, key, iv, ForkJoinPool.commonPool());
+                    }
+                    else {
+                        FileCipher.decryptCbc(file_in, file_out, factory, key, iv, ForkJoinPool.commonPool());
+                    }
+                }
+                //File encryption or decryption in CTR mode, spread over all cores
+                else if(args[4].equals("c")) {
+                    if(mapped) {
+                        MappedFileCipher.ctr(file_in, file_out, factory, key, iv, ForkJoinPool.commonPool());
+                    }
+                    else if(pipeline != null) {
+                        stats = pipeline.ctr(file_in, file_out, factory, key, iv, ForkJoinPool.commonPool());
+                    }
+                    else {
+                        FileCipher.ctr(file_in, file_out, factory, key, iv, ForkJoinPool.commonPool());
+                    }
+                }
+                else {
+                    System.out.println("Encrypt/Decrypt option invalid, input e, d or c as 5th argument.");
+                }
+                if(stats != null) {
+                    System.out.println(stats);
+                }
+            }
+            catch(IOException e){
+                System.err.println(e.getMessage());
+            }
+        }
+    }
+
+    private static void serve(String[] args) {
+        List<byte[]> keys = new ArrayList<>();
+        for(int i = 2; i < args.length; i++) {
+            keys.add(Hex.toByteArray(args[i]));
+        }
+        try{
+            SerpentServer server = new SerpentServer(args[1], keys);
+            System.out.println("Serving " + keys.size() + " keys on " + server.address() + " with " +
+                (server.virtualThreads() ? "virtual" : "platform") + " threads.");
+            server.serve();
+        }
+        catch(IOException e){
+            System.err.println(e.getMessage());
+        }
+    }
+
+    private static Supplier<BlockCipher> factory(String name) {
+        switch (name) {
+            case "Serpent":
+                return Serpent::new;
+            case "SerpentOptimized":
+                return SerpentOptimized::new;
+            case "SerpentBitsliced":
+                return SerpentBitsliced::new;
+            case "SerpentVector":
+                //Needs --add-modules jdk.incubator.vector
+                return SerpentEngines.vectorAvailable() ? () -> new SerpentVector() : null;
+            default:
+                return null;
+        }
+    }
+}
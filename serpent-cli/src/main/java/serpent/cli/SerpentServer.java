@@ -0,0 +1,264 @@
+package serpent.cli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import serpent.BatchCounterMode;
+import serpent.SerpentBitsliced;
+import serpent.SerpentKey;
+
+/**
+ * Long-lived encryption service: clients connect over a Unix-domain or
+ * loopback TCP socket and send any number of requests on each connection,
+ * one at a time. Every connection is served by its own thread, a virtual
+ * thread when the JVM has them (JDK 21 and later) and a pooled platform
+ * thread otherwise, so blocking reads and writes are the whole programming
+ * model.
+ * <P>
+ * The keys are given when the server starts and expanded once into
+ * <TT>SerpentKey</TT>s, which every connection shares; a request names its
+ * key by index and pays no key setup. Requests are encrypted by one shared
+ * <TT>BatchCounterMode</TT>, which only copies the round keys into a pooled
+ * cipher, so a connection holds nothing but a 64 KB buffer; a longer payload
+ * gets a buffer of its own that is dropped once it has been answered.
+ * <P>
+ * Frames are length-prefixed, numbers big-endian:
+ * <PRE>
+ *     request:  op (1 byte, 1 = CTR) | key index (4) | counter block (16)
+ *               | length (4) | payload
+ *     response: status (1 byte) | length (4) | payload
+ * </PRE>
+ * CTR encryption and decryption are the same operation; the response
+ * payload has the length of the request payload. Status is <TT>OK</TT>,
+ * <TT>UNKNOWN_KEY</TT> with an empty payload, after which the connection
+ * takes the next request, or <TT>BAD_REQUEST</TT> with an empty payload,
+ * after which the server closes the connection, since the rest of the
+ * stream cannot be framed.
+ */
+public class SerpentServer implements Closeable {
+
+    /** Request operation: encrypt or decrypt in CTR mode. */
+    public static final int CTR = 1;
+
+    /** Response status: the payload is the result. */
+    public static final int OK = 0;
+
+    /** Response status: unknown operation or payload too long. */
+    public static final int BAD_REQUEST = 1;
+
+    /** Response status: no key with the requested index. */
+    public static final int UNKNOWN_KEY = 2;
+
+    /** Longest payload accepted, 16 MB. */
+    public static final int MAX_PAYLOAD = 16*1024*1024;
+
+    //Payload buffer each connection keeps between requests.
+    private static final int KEPT_BUFFER = 64*1024;
+
+    private final ServerSocketChannel server;
+    private final SocketAddress address;
+    private final SerpentKey[] keys;
+    private final BatchCounterMode ctr = new BatchCounterMode(SerpentBitsliced::new);
+    private final ExecutorService executor;
+    private final boolean virtual;
+
+    /**
+     * Bind a server to <TT>address</TT>. Nothing is accepted until
+     * <TT>serve()</TT> is called.
+     *
+     * @param address <TT>unix:</TT><I>path</I> for a Unix-domain socket,
+     *                or a port number or <I>host</I><TT>:</TT><I>port</I>,
+     *                on the loopback interface if no host is given.
+     * @param keys Keys, up to 32 bytes each, numbered from 0.
+     *
+     * @exception IOException Thrown if the address cannot be bound.
+     */
+    public SerpentServer(String address, List<byte[]> keys) throws IOException {
+        this.address = address(address);
+        if (this.address instanceof UnixDomainSocketAddress) {
+            //A socket file left behind by a previous run blocks bind().
+            Files.deleteIfExists(((UnixDomainSocketAddress)this.address).getPath());
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        }
+        else {
+            server = ServerSocketChannel.open();
+            server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        }
+        server.bind(this.address);
+        this.keys = new SerpentKey[keys.size()];
+        for (int i = 0; i < this.keys.length; i++) {
+            this.keys[i] = new SerpentKey(keys.get(i));
+        }
+        ExecutorService virtualThreads = virtualThreadExecutor();
+        virtual = virtualThreads != null;
+        executor = virtual ? virtualThreads : Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "serpent-connection");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Returns the address the server is bound to.
+     *
+     * @return Address.
+     */
+    public SocketAddress address() {
+        return address;
+    }
+
+    /**
+     * Returns true if connections are served by virtual threads.
+     *
+     * @return True on JDK 21 and later.
+     */
+    public boolean virtualThreads() {
+        return virtual;
+    }
+
+    /**
+     * Accept connections on the calling thread until the server is closed.
+     *
+     * @exception IOException Thrown if accepting failed for another reason
+     *            than the server being closed.
+     */
+    public void serve() throws IOException {
+        try {
+            while (true) {
+                SocketChannel channel = server.accept();
+                executor.execute(() -> handle(channel));
+            }
+        }
+        catch (AsynchronousCloseException e) {
+            //close() was called
+        }
+    }
+
+    /**
+     * Stop accepting connections. Connections already open are served until
+     * their clients close them.
+     *
+     * @exception IOException Thrown if the socket could not be closed.
+     */
+    public void close() throws IOException {
+        server.close();
+        executor.shutdown();
+        if (address instanceof UnixDomainSocketAddress) {
+            Files.deleteIfExists(((UnixDomainSocketAddress)address).getPath());
+        }
+    }
+
+    /**
+     * Serve one connection until the client closes it.
+     */
+    private void handle(SocketChannel channel) {
+        try (channel) {
+            if (channel.supportedOptions().contains(StandardSocketOptions.TCP_NODELAY)) {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            }
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 64*1024));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64*1024));
+            byte[] counter = new byte[16];
+            byte[] kept = new byte[KEPT_BUFFER];
+            while (true) {
+                int op;
+                try {
+                    op = in.readUnsignedByte();
+                }
+                catch (EOFException e) {
+                    return;
+                }
+                int keyIndex = in.readInt();
+                in.readFully(counter);
+                int len = in.readInt();
+                if (op != CTR || len < 0 || len > MAX_PAYLOAD) {
+                    respond(out, BAD_REQUEST, kept, 0);
+                    return;
+                }
+                byte[] data = len <= kept.length ? kept : new byte[len];
+                in.readFully(data, 0, len);
+                if (keyIndex < 0 || keyIndex >= keys.length) {
+                    respond(out, UNKNOWN_KEY, data, 0);
+                    continue;
+                }
+                ctr.process(keys[keyIndex], data, new int[] {0}, new int[] {len}, counter);
+                respond(out, OK, data, len);
+            }
+        }
+        catch (IOException e) {
+            //The client went away; nothing to answer.
+        }
+    }
+
+    private static void respond(DataOutputStream out, int status, byte[] data, int len) throws IOException {
+        out.writeByte(status);
+        out.writeInt(len);
+        out.write(data, 0, len);
+        out.flush();
+    }
+
+    /**
+     * Parse an address in the form taken by the constructor.
+     */
+    static SocketAddress address(String address) throws IOException {
+        if (address.startsWith("unix:")) {
+            return UnixDomainSocketAddress.of(Path.of(address.substring(5)));
+        }
+        int colon = address.lastIndexOf(':');
+        try {
+            if (colon < 0) {
+                return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(address));
+            }
+            return new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+        }
+        catch (NumberFormatException e) {
+            throw new IOException("Bad address " + address + ", expected unix:PATH, PORT or HOST:PORT");
+        }
+    }
+
+    /**
+     * Open a blocking connection to <TT>address</TT>.
+     */
+    static SocketChannel connect(SocketAddress address) throws IOException {
+        SocketChannel channel = address instanceof UnixDomainSocketAddress
+            ? SocketChannel.open(StandardProtocolFamily.UNIX) : SocketChannel.open();
+        channel.connect(address);
+        if (channel.supportedOptions().contains(StandardSocketOptions.TCP_NODELAY)) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        }
+        return channel;
+    }
+
+    /**
+     * Returns a thread-per-task executor of virtual threads, or null if the
+     * JVM has none. Looked up reflectively, so the code still compiles for
+     * and runs on Java 17.
+     */
+    static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
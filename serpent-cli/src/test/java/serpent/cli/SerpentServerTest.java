@@ -0,0 +1,165 @@
+package serpent.cli;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import serpent.CounterMode;
+import serpent.SerpentBitsliced;
+
+/**
+ * Requests to a <TT>SerpentServer</TT> over a Unix-domain socket: CTR
+ * answers match <TT>CounterMode</TT> under each key, an unknown key is
+ * answered and the connection goes on, and a frame that cannot be served is
+ * answered with <TT>BAD_REQUEST</TT> and the connection closed.
+ */
+class SerpentServerTest {
+
+    private static final List<byte[]> KEYS = List.of(bytes(32, 1), bytes(16, 2));
+
+    @TempDir
+    Path dir;
+
+    private SerpentServer server;
+    private Thread serving;
+
+    @BeforeEach
+    void start() throws IOException {
+        server = new SerpentServer("unix:" + dir.resolve("serpent.sock"), KEYS);
+        serving = new Thread(() -> {
+            try {
+                server.serve();
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        serving.start();
+    }
+
+    @AfterEach
+    void stop() throws Exception {
+        server.close();
+        serving.join();
+    }
+
+    @Test
+    void ctrMatchesCounterMode() throws IOException {
+        try (Connection c = new Connection()) {
+            //Around the block size, past the kept buffer, then small again
+            int[] lengths = {0, 1, 15, 16, 17, 100, 70000, 33};
+            for (int i = 0; i < lengths.length; i++) {
+                int key = i % KEYS.size();
+                byte[] counter = bytes(16, 10 + i);
+                //Carries from the low half into the high half of the counter
+                Arrays.fill(counter, 8, 16, (byte)0xFF);
+                byte[] plain = bytes(lengths[i], 20 + i);
+                byte[] expected = new byte[plain.length];
+                new CounterMode(SerpentBitsliced::new, KEYS.get(key), counter).process(plain, 0, expected, 0, plain.length);
+                String what = lengths[i] + " bytes, key " + key;
+                c.request(SerpentServer.CTR, key, counter, plain);
+                byte[] cipherText = c.response(SerpentServer.OK);
+                assertArrayEquals(expected, cipherText, what);
+                c.request(SerpentServer.CTR, key, counter, cipherText);
+                assertArrayEquals(plain, c.response(SerpentServer.OK), what + ", back");
+            }
+        }
+    }
+
+    @Test
+    void unknownKeyKeepsConnection() throws IOException {
+        try (Connection c = new Connection()) {
+            for (int key : new int[] {KEYS.size(), -1}) {
+                c.request(SerpentServer.CTR, key, new byte[16], bytes(40, 3));
+                assertEquals(0, c.response(SerpentServer.UNKNOWN_KEY).length, "Key " + key);
+            }
+            //The payload was consumed; the next frame is read as one.
+            byte[] plain = bytes(40, 4);
+            byte[] expected = new byte[plain.length];
+            new CounterMode(SerpentBitsliced::new, KEYS.get(0), new byte[16]).process(plain, 0, expected, 0, plain.length);
+            c.request(SerpentServer.CTR, 0, new byte[16], plain);
+            assertArrayEquals(expected, c.response(SerpentServer.OK));
+        }
+    }
+
+    @Test
+    void badRequestClosesConnection() throws IOException {
+        //Unknown operation
+        try (Connection c = new Connection()) {
+            c.request(7, 0, new byte[16], bytes(10, 5));
+            assertEquals(0, c.response(SerpentServer.BAD_REQUEST).length);
+            assertEquals(-1, c.in.read(), "Closed after BAD_REQUEST");
+        }
+        //Lengths out of range, sent without a payload
+        for (int len : new int[] {-1, SerpentServer.MAX_PAYLOAD + 1}) {
+            try (Connection c = new Connection()) {
+                c.out.writeByte(SerpentServer.CTR);
+                c.out.writeInt(0);
+                c.out.write(new byte[16]);
+                c.out.writeInt(len);
+                c.out.flush();
+                assertEquals(0, c.response(SerpentServer.BAD_REQUEST).length, "Length " + len);
+                assertEquals(-1, c.in.read(), "Closed after BAD_REQUEST, length " + len);
+            }
+        }
+    }
+
+    /**
+     * Client end of a connection, framing requests and responses.
+     */
+    private class Connection implements AutoCloseable {
+        final SocketChannel channel;
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        Connection() throws IOException {
+            channel = SerpentServer.connect(server.address());
+            in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        }
+
+        void request(int op, int key, byte[] counter, byte[] payload) throws IOException {
+            out.writeByte(op);
+            out.writeInt(key);
+            out.write(counter);
+            out.writeInt(payload.length);
+            out.write(payload);
+            out.flush();
+        }
+
+        /**
+         * Read a response, check its status and return its payload.
+         */
+        byte[] response(int status) throws IOException {
+            assertEquals(status, in.readUnsignedByte(), "Status");
+            byte[] payload = new byte[in.readInt()];
+            in.readFully(payload);
+            return payload;
+        }
+
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static byte[] bytes(int n, long seed) {
+        byte[] b = new byte[n];
+        new Random(seed).nextBytes(b);
+        return b;
+    }
+}
@@ -0,0 +1,291 @@
+package serpent;
+
+import serpent.metrics.CipherMetrics;
+import java.lang.ref.Reference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * CTR mode for many small messages at once, such as tokens and IDs of a few
+ * dozen to a few hundred bytes, where setting up a <TT>CounterMode</TT> or
+ * calling <TT>setKey()</TT> per message would cost more than encrypting it.
+ * Each message has its own 16-byte initial counter block and is processed as
+ * by <TT>CounterMode</TT> with that IV, in place.
+ * <P>
+ * The counter blocks of consecutive messages under the same key are laid out
+ * side by side and encrypted with one <TT>encryptBlocks()</TT> call, so
+ * blocks of different messages fill the lanes of a bitsliced or vector
+ * engine together instead of leaving most of them idle. Keys are
+ * <TT>SerpentKey</TT>s, expanded once by the caller; switching key between
+ * messages only copies the round keys into the worker's cipher. With
+ * per-message keys, messages should be ordered by key, since every key
+ * change ends a run of blocks.
+ * <P>
+ * One instance can be used by any number of threads; each call borrows a
+ * cipher and keystream buffer from a small pool kept by the instance.
+ */
+public class BatchCounterMode {
+
+    //Blocks encrypted per encryptBlocks() call, unless one message is longer.
+    private static final int WINDOW = 256;
+
+    private final WorkerPool<Worker> workers;
+
+    /**
+     * Construct a batch CTR instance.
+     *
+     * @param factory Creates a new, unkeyed cipher for each pooled worker.
+     */
+    public BatchCounterMode(Supplier<BlockCipher> factory) {
+        //The keys belong to the callers; only the pooled ciphers are wiped.
+        this.workers = new WorkerPool<>(this, () -> new Worker(factory.get()), Worker::wipe, () -> {});
+    }
+
+    /**
+     * Encrypt or decrypt messages of one array in place, all under one key.
+     *
+     * @param key Key.
+     * @param buf Array holding the messages.
+     * @param offsets Offset of each message in <TT>buf</TT>.
+     * @param lengths Length of each message.
+     * @param ivs Initial counter block of each message, 16 bytes each,
+     *            message <TT>i</TT> at <TT>16*i</TT>.
+     */
+    public void process(SerpentKey key, byte[] buf, int[] offsets, int[] lengths, byte[] ivs) {
+        run(key, null, new ArrayMessages(buf, offsets, lengths), ivs);
+    }
+
+    /**
+     * Encrypt or decrypt messages of one array in place, each under its own
+     * key.
+     *
+     * @param keys Key of each message.
+     * @param buf Array holding the messages.
+     * @param offsets Offset of each message in <TT>buf</TT>.
+     * @param lengths Length of each message.
+     * @param ivs Initial counter block of each message, 16 bytes each,
+     *            message <TT>i</TT> at <TT>16*i</TT>.
+     */
+    public void process(SerpentKey[] keys, byte[] buf, int[] offsets, int[] lengths, byte[] ivs) {
+        if (keys.length < offsets.length) {
+            throw new IllegalArgumentException("Fewer keys than messages");
+        }
+        run(null, keys, new ArrayMessages(buf, offsets, lengths), ivs);
+    }
+
+    /**
+     * Encrypt or decrypt buffers in place, all under one key. Each message
+     * runs from its buffer's position to its limit; positions and limits are
+     * not changed.
+     *
+     * @param key Key.
+     * @param messages Messages.
+     * @param ivs Initial counter block of each message, 16 bytes each,
+     *            message <TT>i</TT> at <TT>16*i</TT>.
+     */
+    public void process(SerpentKey key, List<ByteBuffer> messages, byte[] ivs) {
+        run(key, null, new BufferMessages(messages), ivs);
+    }
+
+    /**
+     * Encrypt or decrypt buffers in place, each under its own key. Each
+     * message runs from its buffer's position to its limit; positions and
+     * limits are not changed.
+     *
+     * @param keys Key of each message.
+     * @param messages Messages.
+     * @param ivs Initial counter block of each message, 16 bytes each,
+     *            message <TT>i</TT> at <TT>16*i</TT>.
+     */
+    public void process(SerpentKey[] keys, List<ByteBuffer> messages, byte[] ivs) {
+        if (keys.length < messages.size()) {
+            throw new IllegalArgumentException("Fewer keys than messages");
+        }
+        run(null, keys, new BufferMessages(messages), ivs);
+    }
+
+    private void run(SerpentKey key, SerpentKey[] keys, Messages messages, byte[] ivs) {
+        Worker w = workers.acquire();
+        try {
+            w.run(key, keys, messages, ivs);
+        }
+        finally {
+            workers.release(w);
+            Reference.reachabilityFence(this);
+        }
+    }
+
+    /**
+     * Where the messages of a batch are.
+     */
+    private interface Messages {
+        int count();
+        ByteBuffer buffer(int i);
+        int offset(int i);
+        int length(int i);
+    }
+
+    private static class ArrayMessages implements Messages {
+        private final ByteBuffer buffer;
+        private final int[] offsets;
+        private final int[] lengths;
+
+        ArrayMessages(byte[] buf, int[] offsets, int[] lengths) {
+            if (offsets.length != lengths.length) {
+                throw new IllegalArgumentException("Offsets and lengths differ in number");
+            }
+            for (int i = 0; i < offsets.length; i++) {
+                if (offsets[i] < 0 || lengths[i] < 0 || offsets[i] > buf.length - lengths[i]) {
+                    throw new IllegalArgumentException("Message " + i + " is outside the array");
+                }
+            }
+            this.buffer = ByteBuffer.wrap(buf);
+            this.offsets = offsets;
+            this.lengths = lengths;
+        }
+
+        public int count() {
+            return offsets.length;
+        }
+
+        public ByteBuffer buffer(int i) {
+            return buffer;
+        }
+
+        public int offset(int i) {
+            return offsets[i];
+        }
+
+        public int length(int i) {
+            return lengths[i];
+        }
+    }
+
+    private static class BufferMessages implements Messages {
+        private final List<ByteBuffer> messages;
+
+        BufferMessages(List<ByteBuffer> messages) {
+            this.messages = messages;
+        }
+
+        public int count() {
+            return messages.size();
+        }
+
+        public ByteBuffer buffer(int i) {
+            return messages.get(i);
+        }
+
+        public int offset(int i) {
+            return messages.get(i).position();
+        }
+
+        public int length(int i) {
+            return messages.get(i).remaining();
+        }
+    }
+
+    /**
+     * Pooled cipher and keystream buffer.
+     */
+    private static class Worker {
+        private final BlockCipher cipher;
+        //Schedule currently in cipher, if cipher takes round keys
+        private SerpentKey keyed;
+        private byte[] keystream;
+        //Big- and little-endian views of keystream, to match the messages.
+        private ByteBuffer keystreamBuffer;
+        private ByteBuffer keystreamLittle;
+
+        Worker(BlockCipher cipher) {
+            this.cipher = cipher;
+            wrap(new byte[16*WINDOW]);
+        }
+
+        private void wrap(byte[] ks) {
+            keystream = ks;
+            keystreamBuffer = ByteBuffer.wrap(ks);
+            keystreamLittle = ByteBuffer.wrap(ks).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        void wipe() {
+            if (keyed != null) {
+                WorkerPool.wipe(cipher);
+                keyed = null;
+            }
+        }
+
+        /**
+         * Process all messages, under <TT>key</TT> or, if it is null,
+         * <TT>keys[i]</TT>. Messages are gathered into runs of up to
+         * <TT>WINDOW</TT> blocks under one key.
+         */
+        void run(SerpentKey key, SerpentKey[] keys, Messages messages, byte[] ivs) {
+            int count = messages.count();
+            if (ivs.length < 16*count) {
+                throw new IllegalArgumentException("Fewer counter blocks than messages");
+            }
+            long start = CipherMetrics.ENABLED ? System.nanoTime() : 0;
+            long bytes = 0;
+            int first = 0;
+            int blocks = 0;
+            SerpentKey current = null;
+            for (int i = 0; i < count; i++) {
+                SerpentKey k = keys == null ? key : keys[i];
+                int n = (messages.length(i) + 15) / 16;
+                if (i > first && (k != current || blocks + n > WINDOW)) {
+                    flush(current, messages, first, i, blocks);
+                    first = i;
+                    blocks = 0;
+                }
+                current = k;
+                if (16*(blocks + n) > keystream.length) {
+                    //Only a message longer than the window gets here.
+                    wrap(new byte[16*n]);
+                }
+                for (int b = 0; b < n; b++) {
+                    CounterMode.counterBlock(ivs, 16*i, b, keystream, 16*(blocks + b));
+                }
+                blocks += n;
+                bytes += messages.length(i);
+            }
+            if (count > first) {
+                flush(current, messages, first, count, blocks);
+            }
+            if (keystream.length > 16*WINDOW) {
+                //Keep only a window's worth in the pool after a long message.
+                wrap(new byte[16*WINDOW]);
+            }
+            if (CipherMetrics.ENABLED) {
+                CipherMetrics.record(CipherMetrics.Operation.CTR, bytes, start);
+            }
+        }
+
+        /**
+         * Encrypt the <TT>blocks</TT> counter blocks of messages
+         * <TT>from</TT> to <TT>to-1</TT> and XOR each message with its part.
+         */
+        private void flush(SerpentKey key, Messages messages, int from, int to, int blocks) {
+            if (key != keyed && key.keyInto(cipher)) {
+                keyed = key;
+            }
+            if (key == keyed) {
+                cipher.encryptBlocks(keystream, 0, keystream, 0, blocks);
+            }
+            else {
+                //The cipher cannot take a schedule; use the stateless engine.
+                SerpentBitsliced.encryptBlocks(key, keystream, 0, keystream, 0, blocks);
+            }
+            int k = 0;
+            for (int m = from; m < to; m++) {
+                ByteBuffer buf = messages.buffer(m);
+                int off = messages.offset(m);
+                int len = messages.length(m);
+                CounterMode.xor(buf, off, buf, off, len, keystreamBuffer, keystreamLittle, k);
+                k += (len + 15) & ~15;
+            }
+        }
+    }
+}
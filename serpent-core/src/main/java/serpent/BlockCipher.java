@@ -0,0 +1,122 @@
+package serpent;
+
+public interface BlockCipher
+	{
+
+	/**
+	 * Returns this block cipher's block size in bytes.
+	 *
+	 * @return  Block size.
+	 */
+	public int blockSize();
+
+	/**
+	 * Returns this block cipher's key size in bytes.
+	 *
+	 * @return  Key size.
+	 */
+	public int keySize();
+
+	/**
+	 * Set the key for this block cipher. <TT>key</TT> must be an array of bytes
+	 * whose length is equal to <TT>keySize()</TT>.
+	 *
+	 * @param  key  Key.
+	 */
+	public void setKey
+		(byte[] key);
+
+	/**
+	 * Encrypt the given plaintext. <TT>text</TT> must be an array of bytes
+	 * whose length is equal to <TT>blockSize()</TT>. On input, <TT>text</TT>
+	 * contains the plaintext block. The plaintext block is encrypted using the
+	 * key specified in the most recent call to <TT>setKey()</TT>. On output,
+	 * <TT>text</TT> contains the ciphertext block.
+	 *
+	 * @param  text  Plaintext (on input), ciphertext (on output).
+	 */
+	public void encrypt
+		(byte[] text);
+
+	/**
+	 * Decrypt the given ciphertext. <TT>text</TT> must be an array of bytes
+	 * whose length is equal to <TT>blockSize()</TT>. On input, <TT>text</TT>
+	 * contains the ciphertext block. On output, <TT>text</TT> contains the
+	 * plaintext block.
+	 *
+	 * @param  text  Ciphertext (on input), plaintext (on output).
+	 */
+	public void decrypt
+		(byte[] text);
+
+	/**
+	 * Encrypt one block read from <TT>in</TT> at <TT>inOff</TT>, storing the
+	 * ciphertext block in <TT>out</TT> at <TT>outOff</TT>. The input and
+	 * output blocks may be the same.
+	 *
+	 * @param  in      Plaintext.
+	 * @param  inOff   Offset of the plaintext block in <TT>in</TT>.
+	 * @param  out     Ciphertext.
+	 * @param  outOff  Offset of the ciphertext block in <TT>out</TT>.
+	 */
+	public void encrypt
+		(byte[] in,
+		 int inOff,
+		 byte[] out,
+		 int outOff);
+
+	/**
+	 * Decrypt one block read from <TT>in</TT> at <TT>inOff</TT>, storing the
+	 * plaintext block in <TT>out</TT> at <TT>outOff</TT>. The input and
+	 * output blocks may be the same.
+	 *
+	 * @param  in      Ciphertext.
+	 * @param  inOff   Offset of the ciphertext block in <TT>in</TT>.
+	 * @param  out     Plaintext.
+	 * @param  outOff  Offset of the plaintext block in <TT>out</TT>.
+	 */
+	public void decrypt
+		(byte[] in,
+		 int inOff,
+		 byte[] out,
+		 int outOff);
+
+	/**
+	 * Encrypt <TT>nBlocks</TT> consecutive blocks in ECB fashion, reading
+	 * from <TT>src</TT> at <TT>srcOff</TT> and writing to <TT>dst</TT> at
+	 * <TT>dstOff</TT>. The source and destination ranges may be the same, but
+	 * must not otherwise overlap.
+	 *
+	 * @param  src      Plaintext blocks.
+	 * @param  srcOff   Offset of the first plaintext block in <TT>src</TT>.
+	 * @param  dst      Ciphertext blocks.
+	 * @param  dstOff   Offset of the first ciphertext block in <TT>dst</TT>.
+	 * @param  nBlocks  Number of blocks.
+	 */
+	public void encryptBlocks
+		(byte[] src,
+		 int srcOff,
+		 byte[] dst,
+		 int dstOff,
+		 int nBlocks);
+
+	/**
+	 * Decrypt <TT>nBlocks</TT> consecutive blocks in ECB fashion, reading
+	 * from <TT>src</TT> at <TT>srcOff</TT> and writing to <TT>dst</TT> at
+	 * <TT>dstOff</TT>. The source and destination ranges may be the same, but
+	 * must not otherwise overlap.
+	 *
+	 * @param  src      Ciphertext blocks.
+	 * @param  srcOff   Offset of the first ciphertext block in <TT>src</TT>.
+	 * @param  dst      Plaintext blocks.
+	 * @param  dstOff   Offset of the first plaintext block in <TT>dst</TT>.
+	 * @param  nBlocks  Number of blocks.
+	 */
+	public void decryptBlocks
+		(byte[] src,
+		 int srcOff,
+		 byte[] dst,
+		 int dstOff,
+		 int nBlocks);
+
+	}
@@ -0,0 +1,331 @@
+package serpent;
+
+import serpent.metrics.CipherMetrics;
+import java.lang.ref.Reference;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Supplier;
+
+/**
+ * Cipher block chaining (CBC) mode over a 16-byte <TT>BlockCipher</TT>.
+ * Encryption is inherently serial, but plaintext block <TT>i</TT> depends
+ * only on ciphertext blocks <TT>i</TT> and <TT>i-1</TT>, so decryption can be
+ * split into segments that are decrypted concurrently. Each segment is
+ * chained from the last ciphertext block of the segment before it, so
+ * <TT>decryptParallel()</TT> produces exactly the same output as
+ * <TT>decrypt()</TT>. Within a segment the blocks are decrypted with one
+ * <TT>decryptBlocks()</TT> call per chunk before the chaining values are
+ * XORed in.
+ * <P>
+ * Ciphers and scratch buffers are borrowed from a small pool kept by this
+ * instance, and the key material is overwritten once the instance has been
+ * garbage collected.
+ * <P>
+ * Lengths must be a multiple of the block size; padding is up to the caller.
+ * Every method throws <TT>IllegalArgumentException</TT> for any other length
+ * before it touches the output.
+ */
+public class CbcMode {
+
+    //Bytes handled by one fork-join leaf, a multiple of the block size.
+    private static final int CHUNK = 64*1024;
+
+    private final byte[] iv;
+    private final WorkerPool<Worker> workers;
+
+    /**
+     * Construct a CBC mode instance.
+     *
+     * @param factory Creates a new, unkeyed cipher for each pooled worker.
+     * @param key Key, expanded once and shared by every cipher instance.
+     * @param iv 16-byte initialization vector.
+     */
+    public CbcMode(Supplier<BlockCipher> factory, byte[] key, byte[] iv) {
+        byte[] keyCopy = key.clone();
+        SerpentKey schedule = new SerpentKey(key);
+        this.iv = iv.clone();
+        this.workers = new WorkerPool<>(this,
+            () -> new Worker(WorkerPool.keyed(factory, schedule, keyCopy)),
+            w -> WorkerPool.wipe(w.cipher),
+            () -> {
+                Arrays.fill(keyCopy, (byte)0);
+                schedule.wipe();
+            });
+    }
+
+    /**
+     * Encrypt <TT>len</TT> bytes on the calling thread.
+     *
+     * @param in Plaintext.
+     * @param inOff Offset of the first plaintext byte.
+     * @param out Ciphertext, may be the same range as the plaintext.
+     * @param outOff Offset of the first ciphertext byte.
+     * @param len Number of bytes, a multiple of the block size.
+     */
+    public void encrypt(byte[] in, int inOff, byte[] out, int outOff, int len) {
+        encrypt(in, inOff, out, outOff, len, iv);
+    }
+
+    /**
+     * Encrypt <TT>len</TT> bytes on the calling thread, chaining from
+     * <TT>prev</TT> instead of the IV. Used to continue a stream one buffer
+     * at a time, passing the last ciphertext block of the previous buffer.
+     *
+     * @param in Plaintext.
+     * @param inOff Offset of the first plaintext byte.
+     * @param out Ciphertext, may be the same range as the plaintext.
+     * @param outOff Offset of the first ciphertext byte.
+     * @param len Number of bytes, a multiple of the block size.
+     * @param prev Ciphertext block preceding this range.
+     */
+    public void encrypt(byte[] in, int inOff, byte[] out, int outOff, int len, byte[] prev) {
+        encrypt(ByteBuffer.wrap(in), inOff, ByteBuffer.wrap(out), outOff, len, prev);
+    }
+
+    /**
+     * Encrypt <TT>len</TT> bytes of a buffer on the calling thread, chaining
+     * from <TT>prev</TT>. Offsets are absolute indexes; the positions and
+     * limits of the buffers are not used or changed, so direct and
+     * memory-mapped buffers are processed without copying them to an array.
+     *
+     * @param in Plaintext.
+     * @param inOff Index of the first plaintext byte.
+     * @param out Ciphertext, may be the same range as the plaintext.
+     * @param outOff Index of the first ciphertext byte.
+     * @param len Number of bytes, a multiple of the block size.
+     * @param prev Ciphertext block preceding this range.
+     */
+    public void encrypt(ByteBuffer in, int inOff, ByteBuffer out, int outOff, int len, byte[] prev) {
+        checkLength(len);
+        long start = CipherMetrics.ENABLED ? System.nanoTime() : 0;
+        Worker w = workers.acquire();
+        try {
+            w.encrypt(in, inOff, out, outOff, len, prev);
+        }
+        finally {
+            workers.release(w);
+            Reference.reachabilityFence(this);
+        }
+        if (CipherMetrics.ENABLED) {
+            CipherMetrics.record(CipherMetrics.Operation.CBC_ENCRYPT, len, start);
+        }
+    }
+
+    /**
+     * Decrypt <TT>len</TT> bytes on the calling thread. This is the
+     * single-threaded reference for <TT>decryptParallel()</TT>.
+     *
+     * @param in Ciphertext.
+     * @param inOff Offset of the first ciphertext byte.
+     * @param out Plaintext, may be the same range as the ciphertext.
+     * @param outOff Offset of the first plaintext byte.
+     * @param len Number of bytes, a multiple of the block size.
+     */
+    public void decrypt(byte[] in, int inOff, byte[] out, int outOff, int len) {
+        decrypt(in, inOff, out, outOff, len, iv);
+    }
+
+    /**
+     * Decrypt <TT>len</TT> bytes on the calling thread, chaining from
+     * <TT>prev</TT> instead of the IV. Used to continue a stream one buffer
+     * at a time, passing the last ciphertext block of the previous buffer.
+     *
+     * @param in Ciphertext.
+     * @param inOff Offset of the first ciphertext byte.
+     * @param out Plaintext, may be the same range as the ciphertext.
+     * @param outOff Offset of the first plaintext byte.
+     * @param len Number of bytes, a multiple of the block size.
+     * @param prev Ciphertext block preceding this range.
+     */
+    public void decrypt(byte[] in, int inOff, byte[] out, int outOff, int len, byte[] prev) {
+        decrypt(ByteBuffer.wrap(in), inOff, ByteBuffer.wrap(out), outOff, len, prev);
+    }
+
+    /**
+     * Decrypt <TT>len</TT> bytes of a buffer on the calling thread, chaining
+     * from <TT>prev</TT>. Offsets are absolute indexes; the positions and
+     * limits of the buffers are not used or changed, so direct and
+     * memory-mapped buffers are processed without copying them to an array.
+     *
+     * @param in Ciphertext.
+     * @param inOff Index of the first ciphertext byte.
+     * @param out Plaintext, may be the same range as the ciphertext.
+     * @param outOff Index of the first plaintext byte.
+     * @param len Number of bytes, a multiple of the block size.
+     * @param prev Ciphertext block preceding this range.
+     */
+    public void decrypt(ByteBuffer in, int inOff, ByteBuffer out, int outOff, int len, byte[] prev) {
+        checkLength(len);
+        long start = CipherMetrics.ENABLED ? System.nanoTime() : 0;
+        Worker w = workers.acquire();
+        try {
+            w.decrypt(in, inOff, out, outOff, len, prev);
+        }
+        finally {
+            workers.release(w);
+            Reference.reachabilityFence(this);
+        }
+        if (CipherMetrics.ENABLED) {
+            CipherMetrics.record(CipherMetrics.Operation.CBC_DECRYPT, len, start);
+        }
+    }
+
+    /**
+     * Decrypt <TT>len</TT> bytes, splitting the work across the threads of
+     * <TT>pool</TT>.
+     *
+     * @param in Ciphertext.
+     * @param inOff Offset of the first ciphertext byte.
+     * @param out Plaintext, may be the same range as the ciphertext.
+     * @param outOff Offset of the first plaintext byte.
+     * @param len Number of bytes, a multiple of the block size.
+     * @param pool Pool to run on.
+     */
+    public void decryptParallel(byte[] in, int inOff, byte[] out, int outOff, int len, ForkJoinPool pool) {
+        decryptParallel(in, inOff, out, outOff, len, iv, pool);
+    }
+
+    /**
+     * Decrypt <TT>len</TT> bytes chaining from <TT>prev</TT> instead of the
+     * IV, splitting the work across the threads of <TT>pool</TT>.
+     *
+     * @param in Ciphertext.
+     * @param inOff Offset of the first ciphertext byte.
+     * @param out Plaintext, may be the same range as the ciphertext.
+     * @param outOff Offset of the first plaintext byte.
+     * @param len Number of bytes, a multiple of the block size.
+     * @param prev Ciphertext block preceding this range.
+     * @param pool Pool to run on.
+     */
+    public void decryptParallel(byte[] in, int inOff, byte[] out, int outOff, int len, byte[] prev, ForkJoinPool pool) {
+        decryptParallel(ByteBuffer.wrap(in), inOff, ByteBuffer.wrap(out), outOff, len, prev, pool);
+    }
+
+    /**
+     * Decrypt <TT>len</TT> bytes of a buffer chaining from <TT>prev</TT>,
+     * splitting the work across the threads of <TT>pool</TT>. Offsets are
+     * absolute indexes, as in <TT>decrypt(ByteBuffer, ...)</TT>.
+     *
+     * @param in Ciphertext.
+     * @param inOff Index of the first ciphertext byte.
+     * @param out Plaintext, may be the same range as the ciphertext.
+     * @param outOff Index of the first plaintext byte.
+     * @param len Number of bytes, a multiple of the block size.
+     * @param prev Ciphertext block preceding this range.
+     * @param pool Pool to run on.
+     */
+    public void decryptParallel(ByteBuffer in, int inOff, ByteBuffer out, int outOff, int len, byte[] prev, ForkJoinPool pool) {
+        checkLength(len);
+        long start = CipherMetrics.ENABLED ? System.nanoTime() : 0;
+        try {
+            pool.invoke(new Task(workers, in, inOff, out, outOff, len, prev));
+        }
+        finally {
+            Reference.reachabilityFence(this);
+        }
+        if (CipherMetrics.ENABLED) {
+            CipherMetrics.record(CipherMetrics.Operation.CBC_DECRYPT, len, start);
+        }
+    }
+
+    private static void checkLength(int len) {
+        if (len % 16 != 0) {
+            throw new IllegalArgumentException("Length is not a multiple of the block size");
+        }
+    }
+
+    /**
+     * Pooled cipher, chaining block and decryption scratch.
+     */
+    private static class Worker {
+        private final BlockCipher cipher;
+        private final byte[] chain;
+        //Ciphertext of the current chunk, and its decryption.
+        private final byte[] text;
+        private final byte[] plain;
+
+        Worker(BlockCipher cipher) {
+            this.cipher = cipher;
+            chain = new byte[16];
+            text = new byte[CHUNK];
+            plain = new byte[CHUNK];
+        }
+
+        void encrypt(ByteBuffer in, int inOff, ByteBuffer out, int outOff, int len, byte[] prev) {
+            System.arraycopy(prev, 0, chain, 0, 16);
+            for (int i = 0; i < len; i += 16) {
+                for (int n = 0; n < 16; n++) {
+                    chain[n] = (byte)(chain[n] ^ in.get(inOff+i+n));
+                }
+                cipher.encrypt(chain, 0, chain, 0);
+                out.put(outOff+i, chain);
+            }
+        }
+
+        void decrypt(ByteBuffer in, int inOff, ByteBuffer out, int outOff, int len, byte[] prev) {
+            System.arraycopy(prev, 0, chain, 0, 16);
+            for (int i = 0; i < len; i += CHUNK) {
+                int n = Math.min(len - i, CHUNK);
+                //Copy the ciphertext first; it may be overwritten in place.
+                in.get(inOff+i, text, 0, n);
+                cipher.decryptBlocks(text, 0, plain, 0, n / 16);
+                for (int j = 0; j < 16; j++) {
+                    plain[j] = (byte)(plain[j] ^ chain[j]);
+                }
+                for (int j = 16; j < n; j++) {
+                    plain[j] = (byte)(plain[j] ^ text[j-16]);
+                }
+                System.arraycopy(text, n - 16, chain, 0, 16);
+                out.put(outOff+i, plain, 0, n);
+            }
+        }
+    }
+
+    /**
+     * Splits a range in halves on block boundaries until it fits in a chunk.
+     * The right half is chained from a copy of the last ciphertext block of
+     * the left half, taken before either half runs.
+     */
+    private static class Task extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final WorkerPool<Worker> workers;
+        private final ByteBuffer in;
+        private final int inOff;
+        private final ByteBuffer out;
+        private final int outOff;
+        private final int len;
+        private final byte[] prev;
+
+        Task(WorkerPool<Worker> workers, ByteBuffer in, int inOff, ByteBuffer out, int outOff, int len, byte[] prev) {
+            this.workers = workers;
+            this.in = in;
+            this.inOff = inOff;
+            this.out = out;
+            this.outOff = outOff;
+            this.len = len;
+            this.prev = prev;
+        }
+
+        protected void compute() {
+            if (len <= CHUNK) {
+                Worker w = workers.acquire();
+                try {
+                    w.decrypt(in, inOff, out, outOff, len, prev);
+                }
+                finally {
+                    workers.release(w);
+                }
+            }
+            else {
+                int half = (len / 2) & ~15;
+                byte[] mid = new byte[16];
+                in.get(inOff + half - 16, mid);
+                invokeAll(new Task(workers, in, inOff, out, outOff, half, prev),
+                          new Task(workers, in, inOff + half, out, outOff + half, len - half, mid));
+            }
+        }
+    }
+}
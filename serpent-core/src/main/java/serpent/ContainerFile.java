@@ -0,0 +1,332 @@
+package serpent;
+
+import serpent.util.Packing;
+import java.io.File;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Supplier;
+import javax.crypto.AEADBadTagException;
+
+/**
+ * A versioned, authenticated file format made of independently encrypted
+ * chunks, so that files are encrypted and decrypted by all threads of a
+ * <TT>ForkJoinPool</TT> at once.
+ * <P>
+ * The file starts with a 28-byte header, all numbers big-endian:
+ * <PRE>
+ *     0   magic "SRPC"
+ *     4   format version, 1
+ *     5   algorithm, 1 = Serpent
+ *     6   mode, 1 = GCM
+ *     7   reserved, 0
+ *     8   chunk size in bytes, 4 bytes
+ *     12  nonce, 8 random bytes
+ *     20  plaintext length in bytes, 8 bytes
+ * </PRE>
+ * followed by the chunks. Chunk <TT>i</TT> holds plaintext bytes
+ * <TT>i*chunkSize</TT> up to the next chunk or the end of the file,
+ * encrypted with <TT>GcmMode</TT>, and is stored as
+ * <PRE>
+ *     IV (12 bytes) || ciphertext || tag (16 bytes)
+ * </PRE>
+ * The IV is the nonce followed by <TT>i</TT> as a 4-byte number, and the
+ * whole header is the AAD of every chunk. A chunk therefore only decrypts at
+ * its own index, in a file with this exact header, and truncating or
+ * extending the file is detected through the recorded length. An empty
+ * file has one empty chunk.
+ * <P>
+ * Every chunk sits at an offset computed from its index, so each worker
+ * reads, encrypts and writes whole chunks with positional I/O and no
+ * ordering between workers is needed. The key is expanded and the GHASH
+ * tables are built once per file; memory use is one chunk buffer and one
+ * GCM state per worker thread.
+ */
+public class ContainerFile {
+
+    /** Default chunk size, 1 MB. */
+    public static final int DEFAULT_CHUNK = 1024*1024;
+
+    private static final int HEADER = 28;
+    private static final int IV = 12;
+    private static final int TAG = 16;
+    private static final int VERSION = 1;
+    private static final int SERPENT = 1;
+    private static final int GCM = 1;
+    private static final int MIN_CHUNK = 1024;
+    private static final int MAX_CHUNK = 256*1024*1024;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private ContainerFile() {
+    }
+
+    /**
+     * Encrypt <TT>inFile</TT> into a container <TT>outFile</TT>, with a fresh
+     * random nonce.
+     *
+     * @param inFile Plaintext file.
+     * @param outFile Container file, created or truncated.
+     * @param factory Creates the cipher instances.
+     * @param key Key.
+     * @param chunkSize Plaintext bytes per chunk, 1 KB to 256 MB.
+     * @param pool Pool to process on.
+     *
+     * @exception IOException Thrown if an I/O error occurred.
+     */
+    public static void encrypt(File inFile, File outFile, Supplier<BlockCipher> factory, byte[] key, int chunkSize, ForkJoinPool pool) throws IOException {
+        if (chunkSize < MIN_CHUNK || chunkSize > MAX_CHUNK) {
+            throw new IllegalArgumentException("Chunk size must be 1 KB to 256 MB");
+        }
+        try (FileChannel in = FileChannel.open(inFile.toPath(), StandardOpenOption.READ);
+             FileChannel out = openOutput(outFile)) {
+            long length = in.size();
+            if (chunks(length, chunkSize) > 0xFFFFFFFFL) {
+                throw new IOException("File too large for chunk size " + chunkSize);
+            }
+            byte[] nonce = new byte[8];
+            RANDOM.nextBytes(nonce);
+            byte[] header = new byte[HEADER];
+            header[0] = 'S';
+            header[1] = 'R';
+            header[2] = 'P';
+            header[3] = 'C';
+            header[4] = VERSION;
+            header[5] = SERPENT;
+            header[6] = GCM;
+            Packing.unpackIntBigEndian(chunkSize, header, 8);
+            System.arraycopy(nonce, 0, header, 12, 8);
+            Packing.unpackLongBigEndian(length, header, 20);
+            writeFully(out, header, 0, HEADER, 0);
+            Job job = new Job(true, in, out, factory, key, header, chunkSize, length);
+            run(pool, job, chunks(length, chunkSize));
+        }
+        catch (AEADBadTagException e) {
+            //Only decryption checks tags.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Decrypt the container <TT>inFile</TT> into <TT>outFile</TT>. Each
+     * chunk is written only after its tag has been checked, and
+     * <TT>outFile</TT> is deleted if any check fails.
+     *
+     * @param inFile Container file.
+     * @param outFile Plaintext file, created or truncated.
+     * @param factory Creates the cipher instances.
+     * @param key Key.
+     * @param pool Pool to process on.
+     *
+     * @exception IOException Thrown if an I/O error occurred, or
+     *            <TT>inFile</TT> is not a container this version reads.
+     * @exception AEADBadTagException Thrown if the file has been altered or
+     *            the key is wrong.
+     */
+    public static void decrypt(File inFile, File outFile, Supplier<BlockCipher> factory, byte[] key, ForkJoinPool pool) throws IOException, AEADBadTagException {
+        boolean ok = false;
+        try (FileChannel in = FileChannel.open(inFile.toPath(), StandardOpenOption.READ);
+             FileChannel out = openOutput(outFile)) {
+            byte[] header = new byte[HEADER];
+            readFully(in, header, 0, HEADER, 0);
+            if (header[0] != 'S' || header[1] != 'R' || header[2] != 'P' || header[3] != 'C') {
+                throw new IOException("Not a Serpent container: " + inFile);
+            }
+            if (header[4] != VERSION || header[5] != SERPENT || header[6] != GCM) {
+                throw new IOException("Unsupported container version, algorithm or mode");
+            }
+            int chunkSize = Packing.packIntBigEndian(header, 8);
+            long length = Packing.packLongBigEndian(header, 20);
+            if (chunkSize < MIN_CHUNK || chunkSize > MAX_CHUNK || length < 0) {
+                throw new IOException("Corrupt container header");
+            }
+            long chunks = chunks(length, chunkSize);
+            if (in.size() != HEADER + chunks*(IV + TAG) + length) {
+                throw new IOException("Container size does not match its header");
+            }
+            Job job = new Job(false, in, out, factory, key, header, chunkSize, length);
+            run(pool, job, chunks);
+            ok = true;
+        }
+        finally {
+            if (!ok) {
+                outFile.delete();
+            }
+        }
+    }
+
+    private static long chunks(long length, int chunkSize) {
+        return Math.max(1, (length + chunkSize - 1) / chunkSize);
+    }
+
+    /**
+     * Run <TT>job</TT> over chunks <TT>0</TT> to <TT>chunks-1</TT>, turning
+     * the unchecked wrappers used inside the pool back into checked
+     * exceptions.
+     */
+    private static void run(ForkJoinPool pool, Job job, long chunks) throws IOException, AEADBadTagException {
+        try {
+            pool.invoke(new Task(job, 0, chunks));
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        catch (BadChunk e) {
+            throw e.tagException;
+        }
+    }
+
+    private static FileChannel openOutput(File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private static void readFully(FileChannel in, byte[] dst, int off, int len, long pos) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(dst, off, len);
+        while (buffer.hasRemaining()) {
+            int n = in.read(buffer, pos + buffer.position() - off);
+            if (n < 0) {
+                throw new EOFException("Unexpected end of file");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel out, byte[] src, int off, int len, long pos) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(src, off, len);
+        while (buffer.hasRemaining()) {
+            out.write(buffer, pos + buffer.position() - off);
+        }
+    }
+
+    /**
+     * One file being encrypted or decrypted, its key, and the chunk buffers
+     * and GCM states of the threads that have run a chunk so far.
+     */
+    private static class Job {
+        private final boolean encrypt;
+        private final FileChannel in;
+        private final FileChannel out;
+        private final byte[] header;
+        private final int chunkSize;
+        private final long length;
+        //Expanded key and GHASH tables, shared by the workers' states
+        private final GcmMode keyed;
+        //At most one worker per thread that has run a chunk so far
+        private final ConcurrentLinkedQueue<Worker> workers = new ConcurrentLinkedQueue<>();
+
+        Job(boolean encrypt, FileChannel in, FileChannel out, Supplier<BlockCipher> factory, byte[] key, byte[] header, int chunkSize, long length) {
+            this.encrypt = encrypt;
+            this.in = in;
+            this.out = out;
+            this.header = header;
+            this.chunkSize = chunkSize;
+            this.length = length;
+            keyed = new GcmMode(factory, key, new byte[IV], encrypt);
+        }
+
+        void chunk(long i) throws IOException, AEADBadTagException {
+            int len = (int)Math.min(chunkSize, length - i*chunkSize);
+            long plainPos = i*chunkSize;
+            long chunkPos = HEADER + i*(IV + chunkSize + TAG);
+            byte[] iv = Arrays.copyOfRange(header, 12, 12 + IV);
+            Packing.unpackIntBigEndian((int)i, iv, 8);
+            Worker w = workers.poll();
+            if (w == null) {
+                w = new Worker(new byte[IV + chunkSize + TAG], new GcmMode(keyed, iv));
+            }
+            else {
+                w.gcm.restart(iv);
+            }
+            byte[] buffer = w.buffer;
+            GcmMode gcm = w.gcm;
+            gcm.updateAad(header, 0, HEADER);
+            if (encrypt) {
+                readFully(in, buffer, IV, len, plainPos);
+                gcm.update(buffer, IV, buffer, IV, len);
+                System.arraycopy(iv, 0, buffer, 0, IV);
+                System.arraycopy(gcm.doFinal(), 0, buffer, IV + len, TAG);
+                writeFully(out, buffer, 0, IV + len + TAG, chunkPos);
+            }
+            else {
+                readFully(in, buffer, 0, IV + len + TAG, chunkPos);
+                if (!Arrays.equals(buffer, 0, IV, iv, 0, IV)) {
+                    throw new AEADBadTagException("Chunk " + i + " is out of place");
+                }
+                gcm.update(buffer, IV, buffer, IV, len);
+                gcm.doFinal(Arrays.copyOfRange(buffer, IV + len, IV + len + TAG));
+                writeFully(out, buffer, IV, len, plainPos);
+            }
+            workers.offer(w);
+        }
+    }
+
+    /**
+     * A chunk buffer and the GCM state that works on it.
+     */
+    private static class Worker {
+        private final byte[] buffer;
+        private final GcmMode gcm;
+
+        Worker(byte[] buffer, GcmMode gcm) {
+            this.buffer = buffer;
+            this.gcm = gcm;
+        }
+    }
+
+    /**
+     * Carries an <TT>AEADBadTagException</TT> out of the pool.
+     */
+    private static class BadChunk extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final AEADBadTagException tagException;
+
+        BadChunk(AEADBadTagException tagException) {
+            super(tagException);
+            this.tagException = tagException;
+        }
+    }
+
+    /**
+     * Splits a range of chunk indexes in halves down to single chunks.
+     */
+    private static class Task extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Job job;
+        private final long lo;
+        private final long hi;
+
+        Task(Job job, long lo, long hi) {
+            this.job = job;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected void compute() {
+            if (hi - lo == 1) {
+                try {
+                    job.chunk(lo);
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                catch (AEADBadTagException e) {
+                    throw new BadChunk(e);
+                }
+            }
+            else {
+                long mid = (lo + hi) >>> 1;
+                invokeAll(new Task(job, lo, mid), new Task(job, mid, hi));
+            }
+        }
+    }
+}
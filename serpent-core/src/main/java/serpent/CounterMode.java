@@ -0,0 +1,335 @@
+package serpent;
+
+import serpent.metrics.CipherMetrics;
+import java.lang.ref.Reference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Supplier;
+
+/**
+ * Counter (CTR) mode over a 16-byte <TT>BlockCipher</TT>. Block <TT>i</TT>
+ * of the stream is XORed with the encryption of <TT>iv + i</TT>, where the
+ * counter block is treated as a 128-bit big-endian integer. Encryption and
+ * decryption are the same operation.
+ * <P>
+ * Since every keystream block depends only on its own counter, the input can
+ * be split into chunks that are processed independently on a
+ * <TT>ForkJoinPool</TT>. Each chunk borrows a cipher instance, keyed once
+ * when it was created, from a small pool kept by this instance, and derives
+ * its counter from the chunk's offset in the stream.
+ * <TT>processParallel()</TT> therefore produces exactly the same output as
+ * <TT>process()</TT>. The key material is overwritten once the instance has
+ * been garbage collected.
+ */
+public class CounterMode {
+
+    //Bytes handled by one fork-join leaf, a multiple of the block size.
+    private static final int CHUNK = 64*1024;
+
+    private final byte[] iv;
+    private final WorkerPool<Worker> workers;
+
+    /**
+     * Construct a CTR mode instance.
+     *
+     * @param factory Creates a new, unkeyed cipher for each pooled worker.
+     * @param key Key, expanded once and shared by every cipher instance.
+     * @param iv Initial 16-byte counter block.
+     */
+    public CounterMode(Supplier<BlockCipher> factory, byte[] key, byte[] iv) {
+        byte[] keyCopy = key.clone();
+        SerpentKey schedule = new SerpentKey(key);
+        this.iv = iv.clone();
+        this.workers = new WorkerPool<>(this,
+            () -> new Worker(WorkerPool.keyed(factory, schedule, keyCopy)),
+            w -> WorkerPool.wipe(w.cipher),
+            () -> {
+                Arrays.fill(keyCopy, (byte)0);
+                schedule.wipe();
+            });
+    }
+
+    /**
+     * Encrypt or decrypt <TT>len</TT> bytes on the calling thread. This is
+     * the single-threaded reference for <TT>processParallel()</TT>.
+     *
+     * @param in Input bytes.
+     * @param inOff Offset of the first input byte.
+     * @param out Output bytes, may be the same range as the input.
+     * @param outOff Offset of the first output byte.
+     * @param len Number of bytes, need not be a multiple of the block size.
+     */
+    public void process(byte[] in, int inOff, byte[] out, int outOff, int len) {
+        process(in, inOff, out, outOff, len, 0);
+    }
+
+    /**
+     * Encrypt or decrypt <TT>len</TT> bytes on the calling thread, starting
+     * <TT>pos</TT> bytes into the stream. Used to process a stream one
+     * buffer at a time.
+     *
+     * @param in Input bytes.
+     * @param inOff Offset of the first input byte.
+     * @param out Output bytes, may be the same range as the input.
+     * @param outOff Offset of the first output byte.
+     * @param len Number of bytes, need not be a multiple of the block size.
+     * @param pos Stream position of the first byte.
+     */
+    public void process(byte[] in, int inOff, byte[] out, int outOff, int len, long pos) {
+        process(ByteBuffer.wrap(in), inOff, ByteBuffer.wrap(out), outOff, len, pos);
+    }
+
+    /**
+     * Encrypt or decrypt <TT>len</TT> bytes of a buffer on the calling
+     * thread, starting <TT>pos</TT> bytes into the stream. Offsets are
+     * absolute indexes; the positions and limits of the buffers are not used
+     * or changed, so direct and memory-mapped buffers are processed in place
+     * without copying them to an array.
+     *
+     * @param in Input bytes.
+     * @param inOff Index of the first input byte.
+     * @param out Output bytes, may be the same range as the input.
+     * @param outOff Index of the first output byte.
+     * @param len Number of bytes, need not be a multiple of the block size.
+     * @param pos Stream position of the first byte.
+     */
+    public void process(ByteBuffer in, int inOff, ByteBuffer out, int outOff, int len, long pos) {
+        process(iv, in, inOff, out, outOff, len, pos);
+    }
+
+    /**
+     * As <TT>process(ByteBuffer, ...)</TT>, for the stream that starts at
+     * counter block <TT>iv</TT> instead of this instance's IV, so that one
+     * instance can serve any number of IVs under its key.
+     *
+     * @param iv Initial 16-byte counter block.
+     */
+    void process(byte[] iv, ByteBuffer in, int inOff, ByteBuffer out, int outOff, int len, long pos) {
+        long start = CipherMetrics.ENABLED ? System.nanoTime() : 0;
+        Worker w = workers.acquire();
+        try {
+            w.crypt(iv, in, inOff, out, outOff, len, pos);
+        }
+        finally {
+            workers.release(w);
+            Reference.reachabilityFence(this);
+        }
+        if (CipherMetrics.ENABLED) {
+            CipherMetrics.record(CipherMetrics.Operation.CTR, len, start);
+        }
+    }
+
+    /**
+     * Encrypt or decrypt <TT>len</TT> bytes, splitting the work across the
+     * threads of <TT>pool</TT>.
+     *
+     * @param in Input bytes.
+     * @param inOff Offset of the first input byte.
+     * @param out Output bytes, may be the same range as the input.
+     * @param outOff Offset of the first output byte.
+     * @param len Number of bytes, need not be a multiple of the block size.
+     * @param pool Pool to run on.
+     */
+    public void processParallel(byte[] in, int inOff, byte[] out, int outOff, int len, ForkJoinPool pool) {
+        processParallel(in, inOff, out, outOff, len, 0, pool);
+    }
+
+    /**
+     * Encrypt or decrypt <TT>len</TT> bytes starting <TT>pos</TT> bytes into
+     * the stream, splitting the work across the threads of <TT>pool</TT>.
+     *
+     * @param in Input bytes.
+     * @param inOff Offset of the first input byte.
+     * @param out Output bytes, may be the same range as the input.
+     * @param outOff Offset of the first output byte.
+     * @param len Number of bytes, need not be a multiple of the block size.
+     * @param pos Stream position of the first byte.
+     * @param pool Pool to run on.
+     */
+    public void processParallel(byte[] in, int inOff, byte[] out, int outOff, int len, long pos, ForkJoinPool pool) {
+        processParallel(ByteBuffer.wrap(in), inOff, ByteBuffer.wrap(out), outOff, len, pos, pool);
+    }
+
+    /**
+     * Encrypt or decrypt <TT>len</TT> bytes of a buffer starting
+     * <TT>pos</TT> bytes into the stream, splitting the work across the
+     * threads of <TT>pool</TT>. Offsets are absolute indexes, as in
+     * <TT>process(ByteBuffer, ...)</TT>.
+     *
+     * @param in Input bytes.
+     * @param inOff Index of the first input byte.
+     * @param out Output bytes, may be the same range as the input.
+     * @param outOff Index of the first output byte.
+     * @param len Number of bytes, need not be a multiple of the block size.
+     * @param pos Stream position of the first byte.
+     * @param pool Pool to run on.
+     */
+    public void processParallel(ByteBuffer in, int inOff, ByteBuffer out, int outOff, int len, long pos, ForkJoinPool pool) {
+        processParallel(iv, in, inOff, out, outOff, len, pos, pool);
+    }
+
+    /**
+     * As <TT>processParallel(ByteBuffer, ...)</TT>, for the stream that
+     * starts at counter block <TT>iv</TT> instead of this instance's IV.
+     *
+     * @param iv Initial 16-byte counter block.
+     */
+    void processParallel(byte[] iv, ByteBuffer in, int inOff, ByteBuffer out, int outOff, int len, long pos, ForkJoinPool pool) {
+        long start = CipherMetrics.ENABLED ? System.nanoTime() : 0;
+        try {
+            pool.invoke(new Task(workers, iv, in, inOff, out, outOff, len, pos));
+        }
+        finally {
+            Reference.reachabilityFence(this);
+        }
+        if (CipherMetrics.ENABLED) {
+            CipherMetrics.record(CipherMetrics.Operation.CTR, len, start);
+        }
+    }
+
+    /**
+     * Writes counter block <TT>index</TT>, i.e. <TT>iv + index</TT>, to
+     * <TT>dst</TT> at <TT>off</TT>. Shared by every CTR class in the package.
+     *
+     * @param iv Array holding the initial counter block.
+     * @param ivOff Offset of the initial counter block in <TT>iv</TT>.
+     * @param index Block number in the stream.
+     * @param dst Destination array.
+     * @param off Offset in <TT>dst</TT>.
+     */
+    static void counterBlock(byte[] iv, int ivOff, long index, byte[] dst, int off) {
+        int carry = 0;
+        for (int i = 15; i >= 0; i--) {
+            int sum = (iv[ivOff+i] & 0xFF) + (int)(index & 0xFF) + carry;
+            dst[off+i] = (byte)sum;
+            carry = sum >>> 8;
+            index >>>= 8;
+        }
+    }
+
+    /**
+     * XORs <TT>len</TT> bytes of <TT>in</TT> with keystream starting at
+     * <TT>ksOff</TT> into <TT>out</TT>. Longs are XORed when in and out share
+     * a byte order, through the keystream view in that order; otherwise it
+     * goes byte by byte. Shared by every CTR class in the package.
+     *
+     * @param in Input buffer.
+     * @param inOff Index of the first input byte.
+     * @param out Output buffer, may be <TT>in</TT>.
+     * @param outOff Index of the first output byte.
+     * @param len Number of bytes.
+     * @param ksBig Big-endian view of the keystream.
+     * @param ksLittle Little-endian view of the same keystream.
+     * @param ksOff Index of the first keystream byte.
+     */
+    static void xor(ByteBuffer in, int inOff, ByteBuffer out, int outOff, int len,
+                    ByteBuffer ksBig, ByteBuffer ksLittle, int ksOff) {
+        ByteBuffer ks = in.order() == ByteOrder.BIG_ENDIAN ? ksBig : ksLittle;
+        boolean longs = in.order() == out.order();
+        int i = 0;
+        for (; longs && i + 8 <= len; i += 8) {
+            out.putLong(outOff+i, in.getLong(inOff+i) ^ ks.getLong(ksOff+i));
+        }
+        for (; i < len; i++) {
+            out.put(outOff+i, (byte)(in.get(inOff+i) ^ ksBig.get(ksOff+i)));
+        }
+    }
+
+    /**
+     * Pooled cipher and keystream buffer.
+     */
+    private static class Worker {
+        private final BlockCipher cipher;
+        private final byte[] keystream;
+        //Big- and little-endian views of keystream, to match the buffers.
+        private final ByteBuffer keystreamBuffer;
+        private final ByteBuffer keystreamLittle;
+
+        Worker(BlockCipher cipher) {
+            this.cipher = cipher;
+            keystream = new byte[CHUNK];
+            keystreamBuffer = ByteBuffer.wrap(keystream);
+            keystreamLittle = ByteBuffer.wrap(keystream).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        /**
+         * Process <TT>len</TT> bytes that start <TT>pos</TT> bytes into the
+         * stream that starts at counter block <TT>iv</TT>.
+         */
+        void crypt(byte[] iv, ByteBuffer in, int inOff, ByteBuffer out, int outOff, int len, long pos) {
+            long block = pos / 16;
+            //Finish a block entered part way, as when seeking in a file.
+            int skip = (int)(pos % 16);
+            if (skip > 0 && len > 0) {
+                int n = Math.min(len, 16 - skip);
+                counterBlock(iv, 0, block, keystream, 0);
+                cipher.encrypt(keystream, 0, keystream, 0);
+                xor(in, inOff, out, outOff, n, keystreamBuffer, keystreamLittle, skip);
+                inOff += n;
+                outOff += n;
+                len -= n;
+                block++;
+            }
+            while (len > 0) {
+                int n = Math.min(len, CHUNK);
+                int blocks = (n + 15) / 16;
+                for (int b = 0; b < blocks; b++) {
+                    counterBlock(iv, 0, block + b, keystream, 16*b);
+                }
+                cipher.encryptBlocks(keystream, 0, keystream, 0, blocks);
+                xor(in, inOff, out, outOff, n, keystreamBuffer, keystreamLittle, 0);
+                inOff += n;
+                outOff += n;
+                len -= n;
+                block += blocks;
+            }
+        }
+    }
+
+    /**
+     * Splits a range in halves on block boundaries until it fits in a chunk.
+     */
+    private static class Task extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final WorkerPool<Worker> workers;
+        private final byte[] iv;
+        private final ByteBuffer in;
+        private final int inOff;
+        private final ByteBuffer out;
+        private final int outOff;
+        private final int len;
+        private final long pos;
+
+        Task(WorkerPool<Worker> workers, byte[] iv, ByteBuffer in, int inOff, ByteBuffer out, int outOff, int len, long pos) {
+            this.workers = workers;
+            this.iv = iv;
+            this.in = in;
+            this.inOff = inOff;
+            this.out = out;
+            this.outOff = outOff;
+            this.len = len;
+            this.pos = pos;
+        }
+
+        protected void compute() {
+            if (len <= CHUNK) {
+                Worker w = workers.acquire();
+                try {
+                    w.crypt(iv, in, inOff, out, outOff, len, pos);
+                }
+                finally {
+                    workers.release(w);
+                }
+            }
+            else {
+                int half = (len / 2) & ~15;
+                invokeAll(new Task(workers, iv, in, inOff, out, outOff, half, pos),
+                          new Task(workers, iv, in, inOff + half, out, outOff + half, len - half, pos + half));
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package serpent;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Supplier;
+
+/**
+ * A read-only <TT>SeekableByteChannel</TT> that decrypts a CTR-encrypted
+ * file, as written by <TT>FileCipher.ctr()</TT>, on the fly. Every read is a
+ * positional read of just the requested range, decrypted with the keystream
+ * for that offset, so reading a few kilobytes anywhere in a file costs the
+ * same as reading them at the start.
+ * <P>
+ * <TT>read(ByteBuffer, long)</TT> does not use the channel's position and
+ * may be called by several threads at once, as with <TT>FileChannel</TT>.
+ * Destination buffers may be heap or direct, in either byte order.
+ */
+public class CtrFileChannel implements SeekableByteChannel {
+
+    private final FileChannel file;
+    private final CounterMode ctr;
+    private long position;
+
+    /**
+     * Decrypt the file open in <TT>file</TT>. Closing this channel closes
+     * <TT>file</TT>.
+     *
+     * @param file Encrypted file, open for reading.
+     * @param factory Creates the cipher instances.
+     * @param key Key.
+     * @param iv Initial counter block.
+     */
+    public CtrFileChannel(FileChannel file, Supplier<BlockCipher> factory, byte[] key, byte[] iv) {
+        this.file = file;
+        this.ctr = new CounterMode(factory, key, iv);
+    }
+
+    /**
+     * Open <TT>file</TT> for decrypting reads.
+     *
+     * @param file Encrypted file.
+     * @param factory Creates the cipher instances.
+     * @param key Key.
+     * @param iv Initial counter block.
+     *
+     * @return Channel positioned at the start of the file.
+     *
+     * @exception IOException Thrown if the file could not be opened.
+     */
+    public static CtrFileChannel open(File file, Supplier<BlockCipher> factory, byte[] key, byte[] iv) throws IOException {
+        return new CtrFileChannel(FileChannel.open(file.toPath(), StandardOpenOption.READ), factory, key, iv);
+    }
+
+    /**
+     * Read and decrypt bytes at the channel's position, and advance it by the
+     * number of bytes read.
+     *
+     * @param dst Buffer to fill from its position.
+     *
+     * @return Number of bytes read, or -1 at end of file.
+     *
+     * @exception IOException Thrown if an I/O error occurred.
+     */
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        int n = read(dst, position);
+        if (n > 0) {
+            position += n;
+        }
+        return n;
+    }
+
+    /**
+     * Read and decrypt bytes starting at <TT>pos</TT> in the file, without
+     * using or changing the channel's position.
+     *
+     * @param dst Buffer to fill from its position.
+     * @param pos File offset of the first byte.
+     *
+     * @return Number of bytes read, or -1 if <TT>pos</TT> is at or past the
+     *         end of the file.
+     *
+     * @exception IOException Thrown if an I/O error occurred.
+     */
+    public int read(ByteBuffer dst, long pos) throws IOException {
+        if (pos < 0) {
+            throw new IllegalArgumentException("Negative position");
+        }
+        int start = dst.position();
+        int n = file.read(dst, pos);
+        if (n > 0) {
+            ctr.process(dst, start, dst, start, n, pos);
+        }
+        return n;
+    }
+
+    /**
+     * Not supported; the channel is read-only.
+     *
+     * @exception NonWritableChannelException Always.
+     */
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    /**
+     * Returns the channel's position, the offset of the next byte read.
+     *
+     * @return Position.
+     *
+     * @exception IOException Thrown if the channel is closed.
+     */
+    public synchronized long position() throws IOException {
+        checkOpen();
+        return position;
+    }
+
+    /**
+     * Set the channel's position. Nothing is read or decrypted until the next
+     * <TT>read()</TT>.
+     *
+     * @param newPosition New position, may be past the end of the file.
+     *
+     * @return This channel.
+     *
+     * @exception IOException Thrown if the channel is closed.
+     */
+    public synchronized CtrFileChannel position(long newPosition) throws IOException {
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position");
+        }
+        checkOpen();
+        position = newPosition;
+        return this;
+    }
+
+    /**
+     * Returns the size of the file, which is also the size of the plaintext.
+     *
+     * @return Size in bytes.
+     *
+     * @exception IOException Thrown if an I/O error occurred.
+     */
+    public long size() throws IOException {
+        return file.size();
+    }
+
+    /**
+     * Not supported; the channel is read-only.
+     *
+     * @exception NonWritableChannelException Always.
+     */
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    public boolean isOpen() {
+        return file.isOpen();
+    }
+
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private void checkOpen() throws IOException {
+        if (!file.isOpen()) {
+            throw new ClosedChannelException();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package serpent;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import serpent.metrics.FileJobTrace;
+
+/**
+ * Streams a file through a cipher mode one fixed-size buffer at a time, so
+ * memory use does not depend on the size of the file. The file format is the
+ * one of the <TT>serpent.cli.SerpentCli</TT> command line tool, formerly the
+ * <TT>main()</TT> methods of the ciphers: raw ciphertext with no header, the
+ * last partial block padded in CBC mode.
+ * <P>
+ * Every job is traced with JFR events (see <TT>FileJobTrace</TT>): its start
+ * and end, and its reads, buffer encryptions and writes in batches.
+ */
+public class FileCipher {
+
+    //Bytes read, processed and written per step, a multiple of the block size.
+    private static final int BUFFER = 1024*1024;
+
+    private FileCipher() {
+    }
+
+    /**
+     * Encrypt <TT>inFile</TT> into <TT>outFile</TT> in CBC mode. A trailing
+     * partial block is completed with zero bytes after it has been XORed
+     * with the chaining value, as the ciphers' <TT>main()</TT> always did and
+     * <TT>SerpentCli</TT> still does.
+     *
+     * @param inFile Plaintext file.
+     * @param outFile Ciphertext file, created or truncated.
+     * @param factory Creates the cipher instances.
+     * @param key Key.
+     * @param iv Initialization vector.
+     *
+     * @exception IOException Thrown if an I/O error occurred.
+     */
+    public static void encryptCbc(File inFile, File outFile, Supplier<BlockCipher> factory, byte[] key, byte[] iv) throws IOException {
+        CbcMode cbc = new CbcMode(factory, key, iv);
+        FileJobTrace trace = FileJobTrace.start("CBC encrypt", inFile, outFile);
+        boolean ok = false;
+        try (FileChannel in = FileChannel.open(inFile.toPath(), StandardOpenOption.READ);
+             FileChannel out = openOutput(outFile)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER);
+            byte[] data = buffer.array();
+            byte[] chain = iv.clone();
+            int n;
+            while ((n = fill(in, buffer, trace)) > 0) {
+                long start = System.nanoTime();
+                int full = n & ~15;
+                if (full > 0) {
+                    cbc.encrypt(data, 0, data, 0, full, chain);
+                    System.arraycopy(data, full-16, chain, 0, 16);
+                }
+                if (n > full) {
+                    //The missing bytes are zero after chaining, not before,
+                    //so fill them with the chaining value they cancel out.
+                    System.arraycopy(chain, n-full, data, n, full+16-n);
+                    cbc.encrypt(data, full, data, full, 16, chain);
+                    full += 16;
+                }
+                trace.record(FileJobTrace.Stage.CIPHER, full, start);
+                drain(out, buffer, full, trace);
+            }
+            ok = true;
+        }
+        finally {
+            trace.finish(!ok);
+        }
+    }
+
+    /**
+     * Decrypt <TT>inFile</TT> into <TT>outFile</TT> in CBC mode. Each buffer
+     * is decrypted in parallel on <TT>pool</TT>. A trailing partial block is
+     * ignored.
+     *
+     * @param inFile Ciphertext file.
+     * @param outFile Plaintext file, created or truncated.
+     * @param factory Creates the cipher instances.
+     * @param key Key.
+     * @param iv Initialization vector.
+     * @param pool Pool to decrypt on.
+     *
+     * @exception IOException Thrown if an I/O error occurred.
+     */
+    public static void decryptCbc(File inFile, File outFile, Supplier<BlockCipher> factory, byte[] key, byte[] iv, ForkJoinPool pool) throws IOException {
+        CbcMode cbc = new CbcMode(factory, key, iv);
+        FileJobTrace trace = FileJobTrace.start("CBC decrypt", inFile, outFile);
+        boolean ok = false;
+        try (FileChannel in = FileChannel.open(inFile.toPath(), StandardOpenOption.READ);
+             FileChannel out = openOutput(outFile)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER);
+            byte[] data = buffer.array();
+            byte[] chain = iv.clone();
+            byte[] next = new byte[16];
+            int n;
+            while ((n = fill(in, buffer, trace)) >= 16) {
+                long start = System.nanoTime();
+                int len = n & ~15;
+                //Keep the last ciphertext block, it is decrypted in place.
+                System.arraycopy(data, len-16, next, 0, 16);
+                cbc.decryptParallel(data, 0, data, 0, len, chain, pool);
+                System.arraycopy(next, 0, chain, 0, 16);
+                trace.record(FileJobTrace.Stage.CIPHER, len, start);
+                drain(out, buffer, len, trace);
+            }
+            ok = true;
+        }
+        finally {
+            trace.finish(!ok);
+        }
+    }
+
+    /**
+     * Encrypt or decrypt <TT>inFile</TT> into <TT>outFile</TT> in CTR mode.
+     * Each buffer is processed in parallel on <TT>pool</TT>. The output has
+     * the same length as the input.
+     *
+     * @param inFile Input file.
+     * @param outFile Output file, created or truncated.
+     * @param factory Creates the cipher instances.
+     * @param key Key.
+     * @param iv Initial counter block.
+     * @param pool Pool to process on.
+     *
+     * @exception IOException Thrown if an I/O error occurred.
+     */
+    public static void ctr(File inFile, File outFile, Supplier<BlockCipher> factory, byte[] key, byte[] iv, ForkJoinPool pool) throws IOException {
+        CounterMode ctr = new CounterMode(factory, key, iv);
+        FileJobTrace trace = FileJobTrace.start("CTR", inFile, outFile);
+        boolean ok = false;
+        try (FileChannel in = FileChannel.open(inFile.toPath(), StandardOpenOption.READ);
+             FileChannel out = openOutput(outFile)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER);
+            byte[] data = buffer.array();
+            long pos = 0;
+            int n;
+            while ((n = fill(in, buffer, trace)) > 0) {
+                long start = System.nanoTime();
+                ctr.processParallel(data, 0, data, 0, n, pos, pool);
+                trace.record(FileJobTrace.Stage.CIPHER, n, start);
+                drain(out, buffer, n, trace);
+                pos += n;
+            }
+            ok = true;
+        }
+        finally {
+            trace.finish(!ok);
+        }
+    }
+
+    private static FileChannel openOutput(File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Reads until <TT>buffer</TT> is full or the channel is at end of file,
+     * so that only the last buffer of a file can be short.
+     *
+     * @return Number of bytes read into the start of the buffer.
+     */
+    private static int fill(FileChannel in, ByteBuffer buffer, FileJobTrace trace) throws IOException {
+        long start = System.nanoTime();
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) < 0) {
+                break;
+            }
+        }
+        trace.record(FileJobTrace.Stage.READ, buffer.position(), start);
+        return buffer.position();
+    }
+
+    /**
+     * Writes the first <TT>len</TT> bytes of <TT>buffer</TT>.
+     */
+    private static void drain(FileChannel out, ByteBuffer buffer, int len, FileJobTrace trace) throws IOException {
+        long start = System.nanoTime();
+        buffer.clear().limit(len);
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        trace.record(FileJobTrace.Stage.WRITE, len, start);
+    }
+}
@@ -0,0 +1,524 @@
+package serpent;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import serpent.metrics.FileJobTrace;
+
+/**
+ * Streams a file through a cipher mode in three overlapping stages: a reader
+ * thread fills buffers from the input file, the calling thread encrypts or
+ * decrypts them, and a writer thread drains them to the output file. The
+ * stages hand buffers to each other through bounded queues, and the buffers
+ * go back to the reader once written, so a run uses a fixed set of direct
+ * <TT>ByteBuffer</TT>s however large the file is. While one buffer is being
+ * processed, the next is being read and the previous written.
+ * <P>
+ * The files are the same as those of <TT>FileCipher</TT>, and any
+ * <TT>BlockCipher</TT> from the factory can be used. Each run returns
+ * <TT>Stats</TT> telling how long each stage worked and waited, which shows
+ * whether the run was limited by the disk or by the cipher. The same steps
+ * are traced with JFR events, as with <TT>FileCipher</TT>.
+ * <P>
+ * The buffers are allocated once and reused by every run, so one instance
+ * runs one file at a time.
+ */
+public class FilePipeline {
+
+    /** Default bytes per buffer, 1 MB. */
+    public static final int DEFAULT_BUFFER = 1024*1024;
+
+    /** Default number of buffers. */
+    public static final int DEFAULT_DEPTH = 4;
+
+    private final int bufferSize;
+    private final Slot[] slots;
+
+    /**
+     * Construct a pipeline with the default buffer size and depth.
+     */
+    public FilePipeline() {
+        this(DEFAULT_BUFFER, DEFAULT_DEPTH);
+    }
+
+    /**
+     * Construct a pipeline.
+     *
+     * @param bufferSize Bytes read, processed and written per step, a
+     *                   positive multiple of the block size.
+     * @param depth Number of buffers, at least 3 so that every stage can
+     *              hold one.
+     */
+    public FilePipeline(int bufferSize, int depth) {
+        if (bufferSize <= 0 || bufferSize % 16 != 0) {
+            throw new IllegalArgumentException("Buffer size must be a positive multiple of 16");
+        }
+        if (depth < 3) {
+            throw new IllegalArgumentException("Depth must be at least 3");
+        }
+        this.bufferSize = bufferSize;
+        slots = new Slot[depth];
+        for (int i = 0; i < depth; i++) {
+            //One spare block for the padding of the last CBC block
+            slots[i] = new Slot(ByteBuffer.allocateDirect(bufferSize + 16));
+        }
+    }
+
+    /**
+     * Encrypt <TT>inFile</TT> into <TT>outFile</TT> in CBC mode, as
+     * <TT>FileCipher.encryptCbc()</TT> does.
+     *
+     * @param inFile Plaintext file.
+     * @param outFile Ciphertext file, created or truncated.
+     * @param factory Creates the cipher instances.
+     * @param key Key.
+     * @param iv Initialization vector.
+     *
+     * @return Statistics of the run.
+     *
+     * @exception IOException Thrown if an I/O error occurred.
+     */
+    public synchronized Stats encryptCbc(File inFile, File outFile, Supplier<BlockCipher> factory, byte[] key, byte[] iv) throws IOException {
+        CbcMode cbc = new CbcMode(factory, key, iv);
+        byte[] chain = iv.clone();
+        return run("CBC encrypt", inFile, outFile, (buffer, n) -> {
+            int full = n & ~15;
+            if (full > 0) {
+                cbc.encrypt(buffer, 0, buffer, 0, full, chain);
+                buffer.get(full-16, chain);
+            }
+            if (n > full) {
+                //The missing bytes are zero after chaining, not before.
+                buffer.put(n, chain, n-full, full+16-n);
+                cbc.encrypt(buffer, full, buffer, full, 16, chain);
+                full += 16;
+            }
+            return full;
+        });
+    }
+
+    /**
+     * Decrypt <TT>inFile</TT> into <TT>outFile</TT> in CBC mode, each buffer
+     * in parallel on <TT>pool</TT>, as <TT>FileCipher.decryptCbc()</TT>
+     * does. A trailing partial block is ignored.
+     *
+     * @param inFile Ciphertext file.
+     * @param outFile Plaintext file, created or truncated.
+     * @param factory Creates the cipher instances.
+     * @param key Key.
+     * @param iv Initialization vector.
+     * @param pool Pool to decrypt on.
+     *
+     * @return Statistics of the run.
+     *
+     * @exception IOException Thrown if an I/O error occurred.
+     */
+    public synchronized Stats decryptCbc(File inFile, File outFile, Supplier<BlockCipher> factory, byte[] key, byte[] iv, ForkJoinPool pool) throws IOException {
+        CbcMode cbc = new CbcMode(factory, key, iv);
+        byte[] chain = iv.clone();
+        byte[] next = new byte[16];
+        return run("CBC decrypt", inFile, outFile, (buffer, n) -> {
+            int len = n & ~15;
+            if (len > 0) {
+                //Keep the last ciphertext block, it is decrypted in place.
+                buffer.get(len-16, next);
+                cbc.decryptParallel(buffer, 0, buffer, 0, len, chain, pool);
+                System.arraycopy(next, 0, chain, 0, 16);
+            }
+            return len;
+        });
+    }
+
+    /**
+     * Encrypt or decrypt <TT>inFile</TT> into <TT>outFile</TT> in CTR mode,
+     * each buffer in parallel on <TT>pool</TT>, as <TT>FileCipher.ctr()</TT>
+     * does.
+     *
+     * @param inFile Input file.
+     * @param outFile Output file, created or truncated.
+     * @param factory Creates the cipher instances.
+     * @param key Key.
+     * @param iv Initial counter block.
+     * @param pool Pool to process on.
+     *
+     * @return Statistics of the run.
+     *
+     * @exception IOException Thrown if an I/O error occurred.
+     */
+    public synchronized Stats ctr(File inFile, File outFile, Supplier<BlockCipher> factory, byte[] key, byte[] iv, ForkJoinPool pool) throws IOException {
+        CounterMode ctr = new CounterMode(factory, key, iv);
+        long[] pos = new long[1];
+        return run("CTR", inFile, outFile, (buffer, n) -> {
+            ctr.processParallel(buffer, 0, buffer, 0, n, pos[0], pool);
+            pos[0] += n;
+            return n;
+        });
+    }
+
+    /**
+     * Processes the first <TT>n</TT> bytes of a buffer in place and returns
+     * the number of bytes to write.
+     */
+    private interface Step {
+        int apply(ByteBuffer buffer, int n);
+    }
+
+    /**
+     * A buffer and the number of bytes in it. The slot with <TT>last</TT>
+     * set ends the run, and may be empty.
+     */
+    private static class Slot {
+        final ByteBuffer buffer;
+        int len;
+        boolean last;
+
+        Slot(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    private Stats run(String operation, File inFile, File outFile, Step step) throws IOException {
+        try (FileChannel in = FileChannel.open(inFile.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(outFile.toPath(), StandardOpenOption.WRITE,
+                 StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            return new Run(in, out, step, FileJobTrace.start(operation, inFile, outFile)).call();
+        }
+    }
+
+    /**
+     * One file going through the pipeline. A failing stage records the
+     * error and keeps passing buffers on without using them, until the
+     * reader has sent the last slot, so no stage is left waiting.
+     */
+    private class Run {
+        private final FileChannel in;
+        private final FileChannel out;
+        private final Step step;
+        private final FileJobTrace trace;
+        private final BlockingQueue<Slot> free = new ArrayBlockingQueue<>(slots.length);
+        private final BlockingQueue<Slot> read = new ArrayBlockingQueue<>(slots.length);
+        private final BlockingQueue<Slot> processed = new ArrayBlockingQueue<>(slots.length);
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private long bytes;
+        private long buffers;
+        private long readNanos;
+        private long cipherNanos;
+        private long writeNanos;
+        private long readStallNanos;
+        private long cipherStallNanos;
+        private long writeStallNanos;
+        private long readQueued;
+        private long processedQueued;
+
+        Run(FileChannel in, FileChannel out, Step step, FileJobTrace trace) {
+            this.in = in;
+            this.out = out;
+            this.step = step;
+            this.trace = trace;
+            for (Slot slot : slots) {
+                free.add(slot);
+            }
+        }
+
+        Stats call() throws IOException {
+            long start = System.nanoTime();
+            boolean ok = false;
+            try {
+                Thread reader = new Thread(this::reader, "serpent-pipeline-reader");
+                Thread writer = new Thread(this::writer, "serpent-pipeline-writer");
+                reader.setDaemon(true);
+                writer.setDaemon(true);
+                reader.start();
+                writer.start();
+                try {
+                    cipher();
+                    reader.join();
+                    writer.join();
+                }
+                catch (InterruptedException e) {
+                    //The stages stop at their next step; wait for them so the
+                    //trace is finished after every stage.
+                    reader.interrupt();
+                    writer.interrupt();
+                    joinUninterruptibly(reader);
+                    joinUninterruptibly(writer);
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("File pipeline interrupted");
+                }
+                Throwable t = failure.get();
+                if (t instanceof IOException) {
+                    throw (IOException)t;
+                }
+                if (t instanceof RuntimeException) {
+                    throw (RuntimeException)t;
+                }
+                if (t != null) {
+                    throw (Error)t;
+                }
+                ok = true;
+                return new Stats(bytes, buffers, System.nanoTime() - start,
+                    readNanos, cipherNanos, writeNanos,
+                    readStallNanos, cipherStallNanos, writeStallNanos,
+                    buffers == 0 ? 0 : (double)readQueued / buffers,
+                    buffers == 0 ? 0 : (double)processedQueued / buffers);
+            }
+            finally {
+                trace.finish(!ok);
+            }
+        }
+
+        private void joinUninterruptibly(Thread thread) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    thread.join();
+                    break;
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void fail(Throwable t) {
+            failure.compareAndSet(null, t);
+        }
+
+        private void reader() {
+            try {
+                boolean last = false;
+                while (!last) {
+                    long t0 = System.nanoTime();
+                    Slot slot = free.take();
+                    long t1 = System.nanoTime();
+                    slot.len = 0;
+                    if (failure.get() == null) {
+                        try {
+                            slot.len = fill(slot.buffer);
+                            trace.record(FileJobTrace.Stage.READ, slot.len, t1);
+                        }
+                        catch (IOException | RuntimeException e) {
+                            fail(e);
+                        }
+                    }
+                    last = slot.len < bufferSize;
+                    slot.last = last;
+                    readStallNanos += t1 - t0;
+                    readNanos += System.nanoTime() - t1;
+                    read.put(slot);
+                }
+            }
+            catch (InterruptedException e) {
+                fail(new InterruptedIOException("File pipeline interrupted"));
+            }
+        }
+
+        private void cipher() throws InterruptedException {
+            boolean last = false;
+            while (!last) {
+                readQueued += read.size();
+                long t0 = System.nanoTime();
+                Slot slot = read.take();
+                long t1 = System.nanoTime();
+                last = slot.last;
+                if (failure.get() == null) {
+                    try {
+                        slot.len = step.apply(slot.buffer, slot.len);
+                        trace.record(FileJobTrace.Stage.CIPHER, slot.len, t1);
+                    }
+                    catch (RuntimeException | Error e) {
+                        fail(e);
+                    }
+                }
+                cipherStallNanos += t1 - t0;
+                cipherNanos += System.nanoTime() - t1;
+                buffers++;
+                processed.put(slot);
+            }
+        }
+
+        private void writer() {
+            try {
+                boolean last = false;
+                while (!last) {
+                    processedQueued += processed.size();
+                    long t0 = System.nanoTime();
+                    Slot slot = processed.take();
+                    long t1 = System.nanoTime();
+                    last = slot.last;
+                    if (failure.get() == null) {
+                        try {
+                            drain(slot.buffer, slot.len);
+                            bytes += slot.len;
+                            trace.record(FileJobTrace.Stage.WRITE, slot.len, t1);
+                        }
+                        catch (IOException | RuntimeException e) {
+                            fail(e);
+                        }
+                    }
+                    writeStallNanos += t1 - t0;
+                    writeNanos += System.nanoTime() - t1;
+                    free.put(slot);
+                }
+            }
+            catch (InterruptedException e) {
+                fail(new InterruptedIOException("File pipeline interrupted"));
+            }
+        }
+
+        /**
+         * Reads until <TT>bufferSize</TT> bytes are in the buffer or the
+         * channel is at end of file, so that only the last buffer of a file
+         * can be short.
+         */
+        private int fill(ByteBuffer buffer) throws IOException {
+            buffer.clear().limit(bufferSize);
+            while (buffer.hasRemaining()) {
+                if (in.read(buffer) < 0) {
+                    break;
+                }
+            }
+            return buffer.position();
+        }
+
+        /**
+         * Writes the first <TT>len</TT> bytes of <TT>buffer</TT>.
+         */
+        private void drain(ByteBuffer buffer, int len) throws IOException {
+            buffer.clear().limit(len);
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Where the time of one run went. Each stage's time is split into
+     * working (reading, processing or writing) and stalled, waiting for
+     * the stage before it, or, for the reader, for a buffer to come back
+     * from the writer. The stage that worked longest limited the run; a
+     * full read queue also means the cipher is the bottleneck, and an empty
+     * one that the reader is.
+     */
+    public static final class Stats {
+        private final long bytes;
+        private final long buffers;
+        private final long elapsedNanos;
+        private final long readNanos;
+        private final long cipherNanos;
+        private final long writeNanos;
+        private final long readStallNanos;
+        private final long cipherStallNanos;
+        private final long writeStallNanos;
+        private final double readQueueDepth;
+        private final double writeQueueDepth;
+
+        Stats(long bytes, long buffers, long elapsedNanos,
+              long readNanos, long cipherNanos, long writeNanos,
+              long readStallNanos, long cipherStallNanos, long writeStallNanos,
+              double readQueueDepth, double writeQueueDepth) {
+            this.bytes = bytes;
+            this.buffers = buffers;
+            this.elapsedNanos = elapsedNanos;
+            this.readNanos = readNanos;
+            this.cipherNanos = cipherNanos;
+            this.writeNanos = writeNanos;
+            this.readStallNanos = readStallNanos;
+            this.cipherStallNanos = cipherStallNanos;
+            this.writeStallNanos = writeStallNanos;
+            this.readQueueDepth = readQueueDepth;
+            this.writeQueueDepth = writeQueueDepth;
+        }
+
+        /** Returns the number of bytes written. */
+        public long bytes() {
+            return bytes;
+        }
+
+        /** Returns the number of buffers that went through the pipeline. */
+        public long buffers() {
+            return buffers;
+        }
+
+        /** Returns the wall-clock time of the run in nanoseconds. */
+        public long elapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /** Returns the time spent reading the input file. */
+        public long readNanos() {
+            return readNanos;
+        }
+
+        /** Returns the time spent encrypting or decrypting. */
+        public long cipherNanos() {
+            return cipherNanos;
+        }
+
+        /** Returns the time spent writing the output file. */
+        public long writeNanos() {
+            return writeNanos;
+        }
+
+        /** Returns the time the reader waited for a free buffer. */
+        public long readStallNanos() {
+            return readStallNanos;
+        }
+
+        /** Returns the time the cipher stage waited for the reader. */
+        public long cipherStallNanos() {
+            return cipherStallNanos;
+        }
+
+        /** Returns the time the writer waited for the cipher stage. */
+        public long writeStallNanos() {
+            return writeStallNanos;
+        }
+
+        /** Returns the mean number of read buffers waiting for the cipher. */
+        public double readQueueDepth() {
+            return readQueueDepth;
+        }
+
+        /** Returns the mean number of processed buffers waiting for the writer. */
+        public double writeQueueDepth() {
+            return writeQueueDepth;
+        }
+
+        /**
+         * Returns the stage that worked longest: <TT>"read"</TT>,
+         * <TT>"cipher"</TT> or <TT>"write"</TT>.
+         *
+         * @return Name of the limiting stage.
+         */
+        public String bottleneck() {
+            if (cipherNanos >= readNanos && cipherNanos >= writeNanos) {
+                return "cipher";
+            }
+            return readNanos >= writeNanos ? "read" : "write";
+        }
+
+        public String toString() {
+            return String.format("%d bytes in %d buffers, %.1f ms, %.0f MB/s, bound by %s%n" +
+                "  read   %8.1f ms busy %8.1f ms stalled, queue %.2f%n" +
+                "  cipher %8.1f ms busy %8.1f ms stalled%n" +
+                "  write  %8.1f ms busy %8.1f ms stalled, queue %.2f",
+                bytes, buffers, elapsedNanos / 1e6,
+                elapsedNanos == 0 ? 0.0 : bytes * 1e3 / elapsedNanos, bottleneck(),
+                readNanos / 1e6, readStallNanos / 1e6, readQueueDepth,
+                cipherNanos / 1e6, cipherStallNanos / 1e6,
+                writeNanos / 1e6, writeStallNanos / 1e6, writeQueueDepth);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package serpent;
+
+import serpent.util.Packing;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The GHASH function of GCM (NIST SP 800-38D): multiplication by the hash
+ * key <TT>H</TT> in GF(2^128), accumulated over 16-byte blocks.
+ * <P>
+ * Multiplication is table-driven, eight bits at a time (Shoup's method).
+ * For each of <TT>H</TT>, <TT>H^2</TT>, <TT>H^3</TT> and <TT>H^4</TT> a table
+ * holds the product with every byte value, 4 KB per power. Four blocks are
+ * folded into the state per iteration with
+ * <PRE>
+ *     X = (X ^ C1)*H^4 ^ C2*H^3 ^ C3*H^2 ^ C4*H
+ * </PRE>
+ * Since the four products are summed, they share a single pass over the
+ * sixteen byte positions and a single reduction per byte, so four blocks cost
+ * little more than one.
+ * <P>
+ * An element is held in two <TT>long</TT>s, bytes 0-7 and bytes 8-15 of the
+ * block, each read big-endian. The most significant bit of the first
+ * <TT>long</TT> is the coefficient of <TT>x^0</TT>, so multiplying by
+ * <TT>x</TT> is a right shift.
+ * <P>
+ * The tables never change once built, so instances for the same key can
+ * share them and only keep their own state.
+ */
+final class GHash {
+
+    //x^128 = x^7 + x^2 + x + 1, reflected
+    private static final long R = 0xE100000000000000L;
+
+    //Reduction of the eight bits shifted out by a multiplication by x^8
+    private static final long[] R8 = new long[256];
+
+    static {
+        for (int rem = 0; rem < 256; rem++) {
+            long hi = 0, lo = rem;
+            for (int i = 0; i < 8; i++) {
+                long carry = lo & 1;
+                lo = (lo >>> 1) | (hi << 63);
+                hi = (hi >>> 1) ^ (-carry & R);
+            }
+            R8[rem] = hi;
+        }
+    }
+
+    //Products with H^(p+1) at 256*p + byte value, for p = 0..3
+    private final long[] tHi;
+    private final long[] tLo;
+    private long xHi;
+    private long xLo;
+
+    /**
+     * Construct a GHASH instance for hash key <TT>h</TT>, with a zero state.
+     *
+     * @param  h  Hash key, the encryption of the all-zero block.
+     */
+    GHash(byte[] h) {
+        tHi = new long[4*256];
+        tLo = new long[4*256];
+        long hHi = Packing.packLongBigEndian(h, 0);
+        long hLo = Packing.packLongBigEndian(h, 8);
+        table(0, hHi, hLo);
+        //Each zero block multiplies the state by H once more.
+        xHi = hHi;
+        xLo = hLo;
+        for (int p = 1; p < 4; p++) {
+            block(0, 0);
+            table(p, xHi, xLo);
+        }
+        xHi = 0;
+        xLo = 0;
+    }
+
+    /**
+     * Construct a GHASH instance with a zero state for the same hash key as
+     * <TT>keyed</TT>, sharing its tables.
+     *
+     * @param  keyed  Instance whose tables are used.
+     */
+    GHash(GHash keyed) {
+        tHi = keyed.tHi;
+        tLo = keyed.tLo;
+    }
+
+    /**
+     * Set the state back to zero, to hash another message.
+     */
+    void reset() {
+        xHi = 0;
+        xLo = 0;
+    }
+
+    /**
+     * Fill the table for power <TT>p+1</TT> of <TT>H</TT>, whose value is
+     * <TT>(vHi, vLo)</TT>.
+     */
+    private void table(int p, long vHi, long vLo) {
+        int base = 256*p;
+        //The top bit of a byte is x^0, the next x^1, and so on.
+        for (int bit = 0x80; bit > 0; bit >>>= 1) {
+            tHi[base+bit] = vHi;
+            tLo[base+bit] = vLo;
+            long carry = vLo & 1;
+            vLo = (vLo >>> 1) | (vHi << 63);
+            vHi = (vHi >>> 1) ^ (-carry & R);
+        }
+        for (int i = 2; i < 256; i <<= 1) {
+            for (int j = 1; j < i; j++) {
+                tHi[base+i+j] = tHi[base+i] ^ tHi[base+j];
+                tLo[base+i+j] = tLo[base+i] ^ tLo[base+j];
+            }
+        }
+    }
+
+    /**
+     * Absorb one block given as two <TT>long</TT>s.
+     *
+     * @param  hi  Bytes 0-7, big-endian.
+     * @param  lo  Bytes 8-15, big-endian.
+     */
+    void block(long hi, long lo) {
+        long aHi = xHi ^ hi;
+        long aLo = xLo ^ lo;
+        long zHi = 0, zLo = 0;
+        //Horner's rule from the last byte to the first
+        for (int s = 0; s < 64; s += 8) {
+            int rem = (int)zLo & 0xFF;
+            zLo = (zLo >>> 8) | (zHi << 56);
+            zHi = (zHi >>> 8) ^ R8[rem];
+            int b = (int)(aLo >>> s) & 0xFF;
+            zHi ^= tHi[b];
+            zLo ^= tLo[b];
+        }
+        for (int s = 0; s < 64; s += 8) {
+            int rem = (int)zLo & 0xFF;
+            zLo = (zLo >>> 8) | (zHi << 56);
+            zHi = (zHi >>> 8) ^ R8[rem];
+            int b = (int)(aHi >>> s) & 0xFF;
+            zHi ^= tHi[b];
+            zLo ^= tLo[b];
+        }
+        xHi = zHi;
+        xLo = zLo;
+    }
+
+    /**
+     * Absorb four consecutive blocks.
+     */
+    private void blocks4(long c0Hi, long c0Lo, long c1Hi, long c1Lo,
+                         long c2Hi, long c2Lo, long c3Hi, long c3Lo) {
+        long a0Hi = xHi ^ c0Hi;
+        long a0Lo = xLo ^ c0Lo;
+        long zHi = 0, zLo = 0;
+        for (int s = 0; s < 64; s += 8) {
+            int rem = (int)zLo & 0xFF;
+            zLo = (zLo >>> 8) | (zHi << 56);
+            zHi = (zHi >>> 8) ^ R8[rem];
+            int b0 = 768 + ((int)(a0Lo >>> s) & 0xFF);
+            int b1 = 512 + ((int)(c1Lo >>> s) & 0xFF);
+            int b2 = 256 + ((int)(c2Lo >>> s) & 0xFF);
+            int b3 = (int)(c3Lo >>> s) & 0xFF;
+            zHi ^= tHi[b0] ^ tHi[b1] ^ tHi[b2] ^ tHi[b3];
+            zLo ^= tLo[b0] ^ tLo[b1] ^ tLo[b2] ^ tLo[b3];
+        }
+        for (int s = 0; s < 64; s += 8) {
+            int rem = (int)zLo & 0xFF;
+            zLo = (zLo >>> 8) | (zHi << 56);
+            zHi = (zHi >>> 8) ^ R8[rem];
+            int b0 = 768 + ((int)(a0Hi >>> s) & 0xFF);
+            int b1 = 512 + ((int)(c1Hi >>> s) & 0xFF);
+            int b2 = 256 + ((int)(c2Hi >>> s) & 0xFF);
+            int b3 = (int)(c3Hi >>> s) & 0xFF;
+            zHi ^= tHi[b0] ^ tHi[b1] ^ tHi[b2] ^ tHi[b3];
+            zLo ^= tLo[b0] ^ tLo[b1] ^ tLo[b2] ^ tLo[b3];
+        }
+        xHi = zHi;
+        xLo = zLo;
+    }
+
+    /**
+     * Absorb <TT>nBlocks</TT> blocks of <TT>src</TT> starting at index
+     * <TT>off</TT>. The position and limit of <TT>src</TT> are not used.
+     *
+     * @param  src      Data.
+     * @param  off      Index of the first block.
+     * @param  nBlocks  Number of blocks.
+     */
+    void update(ByteBuffer src, int off, int nBlocks) {
+        boolean big = src.order() == ByteOrder.BIG_ENDIAN;
+        int i = 0;
+        for (; i + 4 <= nBlocks; i += 4) {
+            int o = off + 16*i;
+            blocks4(read(src, o, big), read(src, o+8, big),
+                    read(src, o+16, big), read(src, o+24, big),
+                    read(src, o+32, big), read(src, o+40, big),
+                    read(src, o+48, big), read(src, o+56, big));
+        }
+        for (; i < nBlocks; i++) {
+            int o = off + 16*i;
+            block(read(src, o, big), read(src, o+8, big));
+        }
+    }
+
+    /**
+     * Absorb <TT>nBlocks</TT> blocks of <TT>src</TT> starting at
+     * <TT>off</TT>.
+     *
+     * @param  src      Data.
+     * @param  off      Offset of the first block.
+     * @param  nBlocks  Number of blocks.
+     */
+    void update(byte[] src, int off, int nBlocks) {
+        update(ByteBuffer.wrap(src), off, nBlocks);
+    }
+
+    /**
+     * Store the current state in 16 bytes of <TT>dst</TT>.
+     *
+     * @param  dst  Destination.
+     * @param  off  Offset in <TT>dst</TT>.
+     */
+    void digest(byte[] dst, int off) {
+        Packing.unpackLongBigEndian(xHi, dst, off);
+        Packing.unpackLongBigEndian(xLo, dst, off+8);
+    }
+
+    private static long read(ByteBuffer src, int index, boolean big) {
+        long v = src.getLong(index);
+        return big ? v : Long.reverseBytes(v);
+    }
+}//GHash.java
@@ -0,0 +1,382 @@
+package serpent;
+
+import serpent.metrics.CipherMetrics;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
+import javax.crypto.AEADBadTagException;
+
+/**
+ * Galois/Counter Mode (NIST SP 800-38D) authenticated encryption over a
+ * 16-byte <TT>BlockCipher</TT>. One instance encrypts or decrypts a single
+ * message: additional authenticated data with <TT>updateAad()</TT>, then the
+ * text with any number of <TT>update()</TT> calls, then <TT>doFinal()</TT>
+ * for the tag. Output is produced as the input arrives, so a message of any
+ * size is processed without holding it in memory.
+ * <P>
+ * The text is encrypted with <TT>CounterMode</TT> and authenticated with
+ * <TT>GHash</TT>. Given a <TT>ForkJoinPool</TT>, large updates are cut into
+ * segments and the two run side by side: the pool computes the keystream for
+ * one segment while the calling thread hashes the ciphertext of another.
+ * <P>
+ * When decrypting, plaintext is released before the tag has been checked.
+ * The caller must not use any of it unless <TT>doFinal(tag)</TT> returns
+ * normally.
+ * <P>
+ * Only 96-bit IVs are supported, as recommended by SP 800-38D. An IV must
+ * never be used twice with the same key.
+ * <P>
+ * Code in this package that encrypts many messages under one key, such as
+ * <TT>ContainerFile</TT>, expands the key and builds the GHASH tables once:
+ * further instances share them with the first, and an instance that is done
+ * can <TT>restart()</TT> with the next IV.
+ */
+public class GcmMode {
+
+    //Bytes handed to the pool at a time when keystream and GHASH overlap.
+    private static final int SEGMENT = 256*1024;
+
+    //2^39 - 256 bits, the longest text SP 800-38D allows
+    private static final long MAX_TEXT = (1L << 36) - 32;
+
+    private final boolean encrypt;
+    //Keyed with any IV; every call passes j0, the counter block of the tag.
+    private final CounterMode ctr;
+    private final GHash ghash;
+    private final byte[] j0 = new byte[16];
+    private final byte[] tagMask = new byte[16];
+    //Open block of AAD or ciphertext waiting for GHASH, and its keystream
+    private final byte[] block = new byte[16];
+    private final byte[] keystream = new byte[16];
+    private final ByteBuffer keystreamBuffer = ByteBuffer.wrap(keystream);
+    private int blockLen;
+    private long aadLen;
+    private long textLen;
+    private boolean text;
+    private boolean done;
+
+    /**
+     * Start encrypting or decrypting a message.
+     *
+     * @param factory Creates the cipher instances.
+     * @param key Key.
+     * @param iv 12-byte initialization vector.
+     * @param encrypt True to encrypt, false to decrypt.
+     */
+    public GcmMode(Supplier<BlockCipher> factory, byte[] key, byte[] iv, boolean encrypt) {
+        this.encrypt = encrypt;
+        byte[] zero = new byte[16];
+        ctr = new CounterMode(factory, key, zero);
+        //H is the encryption of the zero block: keystream block 0 for IV 0.
+        byte[] h = new byte[16];
+        ctr.process(h, 0, h, 0, 16);
+        ghash = new GHash(h);
+        restart(iv);
+    }
+
+    /**
+     * Start a message under the same key as <TT>keyed</TT>, sharing its
+     * expanded key and GHASH tables. <TT>keyed</TT> may be in use by another
+     * thread.
+     *
+     * @param keyed Instance for the same key and direction.
+     * @param iv 12-byte initialization vector.
+     */
+    GcmMode(GcmMode keyed, byte[] iv) {
+        this.encrypt = keyed.encrypt;
+        this.ctr = keyed.ctr;
+        this.ghash = new GHash(keyed.ghash);
+        restart(iv);
+    }
+
+    /**
+     * Drop the current message and start another one under the same key.
+     *
+     * @param iv 12-byte initialization vector.
+     */
+    void restart(byte[] iv) {
+        if (iv.length != 12) {
+            throw new IllegalArgumentException("GCM needs a 12-byte IV");
+        }
+        //J0 = IV || 0^31 || 1 encrypts the tag, the text starts at J0 + 1.
+        System.arraycopy(iv, 0, j0, 0, 12);
+        j0[12] = 0;
+        j0[13] = 0;
+        j0[14] = 0;
+        j0[15] = 1;
+        ByteBuffer mask = ByteBuffer.wrap(tagMask);
+        Arrays.fill(tagMask, (byte)0);
+        ctr.process(j0, mask, 0, mask, 0, 16, 0);
+        ghash.reset();
+        blockLen = 0;
+        aadLen = 0;
+        textLen = 0;
+        text = false;
+        done = false;
+    }
+
+    /**
+     * Add <TT>len</TT> bytes of additional authenticated data. All of it
+     * must be added before the first <TT>update()</TT>.
+     *
+     * @param aad Data.
+     * @param off Offset of the first byte.
+     * @param len Number of bytes.
+     */
+    public void updateAad(byte[] aad, int off, int len) {
+        if (done || text) {
+            throw new IllegalStateException("AAD must come before the text");
+        }
+        aadLen += len;
+        if (blockLen > 0) {
+            int n = Math.min(len, 16 - blockLen);
+            System.arraycopy(aad, off, block, blockLen, n);
+            blockLen += n;
+            off += n;
+            len -= n;
+            if (blockLen < 16) {
+                return;
+            }
+            ghash.update(block, 0, 1);
+            blockLen = 0;
+        }
+        ghash.update(aad, off, len / 16);
+        blockLen = len % 16;
+        System.arraycopy(aad, off + len - blockLen, block, 0, blockLen);
+    }
+
+    /**
+     * Encrypt or decrypt <TT>len</TT> bytes on the calling thread.
+     *
+     * @param in Input bytes.
+     * @param inOff Offset of the first input byte.
+     * @param out Output bytes, may be the same range as the input.
+     * @param outOff Offset of the first output byte.
+     * @param len Number of bytes, need not be a multiple of the block size.
+     */
+    public void update(byte[] in, int inOff, byte[] out, int outOff, int len) {
+        update(ByteBuffer.wrap(in), inOff, ByteBuffer.wrap(out), outOff, len, null);
+    }
+
+    /**
+     * Encrypt or decrypt <TT>len</TT> bytes, computing the keystream on
+     * <TT>pool</TT> while the calling thread runs GHASH.
+     *
+     * @param in Input bytes.
+     * @param inOff Offset of the first input byte.
+     * @param out Output bytes, may be the same range as the input.
+     * @param outOff Offset of the first output byte.
+     * @param len Number of bytes, need not be a multiple of the block size.
+     * @param pool Pool to run on.
+     */
+    public void update(byte[] in, int inOff, byte[] out, int outOff, int len, ForkJoinPool pool) {
+        update(ByteBuffer.wrap(in), inOff, ByteBuffer.wrap(out), outOff, len, pool);
+    }
+
+    /**
+     * Encrypt or decrypt <TT>len</TT> bytes of a buffer. Offsets are absolute
+     * indexes; the positions and limits of the buffers are not used or
+     * changed.
+     *
+     * @param in Input bytes.
+     * @param inOff Index of the first input byte.
+     * @param out Output bytes, may be the same range as the input.
+     * @param outOff Index of the first output byte.
+     * @param len Number of bytes, need not be a multiple of the block size.
+     * @param pool Pool for the keystream, or null to run on the calling
+     *             thread only.
+     */
+    public void update(ByteBuffer in, int inOff, ByteBuffer out, int outOff, int len, ForkJoinPool pool) {
+        if (done) {
+            throw new IllegalStateException("doFinal() has been called");
+        }
+        if (len > MAX_TEXT - textLen) {
+            throw new IllegalStateException("GCM message too long");
+        }
+        long start = CipherMetrics.ENABLED ? System.nanoTime() : 0;
+        int total = len;
+        startText();
+        //Finish the block the previous update left open.
+        if (blockLen > 0) {
+            int n = Math.min(len, 16 - blockLen);
+            partial(in, inOff, out, outOff, n);
+            inOff += n;
+            outOff += n;
+            len -= n;
+        }
+        int n = len & ~15;
+        if (n > 0) {
+            if (pool == null || n < 2*SEGMENT) {
+                serial(in, inOff, out, outOff, n);
+            }
+            else {
+                overlapped(in, inOff, out, outOff, n, pool);
+            }
+            textLen += n;
+            inOff += n;
+            outOff += n;
+            len -= n;
+        }
+        if (len > 0) {
+            Arrays.fill(keystream, (byte)0);
+            ctr.process(j0, keystreamBuffer, 0, keystreamBuffer, 0, 16, 16 + textLen);
+            partial(in, inOff, out, outOff, len);
+        }
+        if (CipherMetrics.ENABLED) {
+            CipherMetrics.record(CipherMetrics.Operation.GCM, total, start);
+        }
+    }
+
+    /**
+     * Finish encrypting and return the 16-byte authentication tag.
+     *
+     * @return Tag.
+     */
+    public byte[] doFinal() {
+        if (!encrypt) {
+            throw new IllegalStateException("Decryption checks a tag, use doFinal(tag)");
+        }
+        return tag();
+    }
+
+    /**
+     * Finish decrypting and check the authentication tag. A tag of 12 to 16
+     * bytes is compared with as many leading bytes of the computed tag.
+     *
+     * @param tag Tag received with the message.
+     * @exception AEADBadTagException The tag does not match; the message, or
+     *            the AAD, has been altered and the plaintext must be
+     *            discarded.
+     */
+    public void doFinal(byte[] tag) throws AEADBadTagException {
+        if (encrypt) {
+            throw new IllegalStateException("Encryption computes the tag, use doFinal()");
+        }
+        if (tag.length < 12 || tag.length > 16) {
+            throw new IllegalArgumentException("GCM tags are 12 to 16 bytes");
+        }
+        byte[] expected = Arrays.copyOf(tag(), tag.length);
+        if (!MessageDigest.isEqual(expected, tag)) {
+            throw new AEADBadTagException("Tag mismatch");
+        }
+    }
+
+    /**
+     * Pad and hash the last block of AAD, once, before the first text byte.
+     */
+    private void startText() {
+        if (!text) {
+            if (blockLen > 0) {
+                Arrays.fill(block, blockLen, 16, (byte)0);
+                ghash.update(block, 0, 1);
+                blockLen = 0;
+            }
+            text = true;
+        }
+    }
+
+    /**
+     * Process <TT>n</TT> bytes that fit in the open block, whose keystream
+     * is in <TT>keystream</TT>.
+     */
+    private void partial(ByteBuffer in, int inOff, ByteBuffer out, int outOff, int n) {
+        for (int i = 0; i < n; i++) {
+            byte b = in.get(inOff+i);
+            byte c = (byte)(b ^ keystream[blockLen]);
+            out.put(outOff+i, c);
+            block[blockLen++] = encrypt ? c : b;
+        }
+        textLen += n;
+        if (blockLen == 16) {
+            ghash.update(block, 0, 1);
+            blockLen = 0;
+        }
+    }
+
+    /**
+     * Process <TT>n</TT> bytes, a multiple of the block size, on the calling
+     * thread. GHASH always reads the ciphertext: after encrypting, before
+     * decrypting, so processing in place works either way.
+     */
+    private void serial(ByteBuffer in, int inOff, ByteBuffer out, int outOff, int n) {
+        long pos = 16 + textLen;
+        for (int off = 0; off < n; off += SEGMENT) {
+            int m = Math.min(SEGMENT, n - off);
+            if (encrypt) {
+                ctr.process(j0, in, inOff+off, out, outOff+off, m, pos+off);
+                ghash.update(out, outOff+off, m/16);
+            }
+            else {
+                ghash.update(in, inOff+off, m/16);
+                ctr.process(j0, in, inOff+off, out, outOff+off, m, pos+off);
+            }
+        }
+    }
+
+    /**
+     * Process <TT>n</TT> bytes, a multiple of the block size, with keystream
+     * segments running on <TT>pool</TT> while GHASH runs here. Encrypting,
+     * segment k is hashed while segment k+1 is encrypted; decrypting,
+     * segment k+1 is hashed while segment k is decrypted. The segments a
+     * task writes and the segment being hashed never overlap.
+     */
+    private void overlapped(ByteBuffer in, int inOff, ByteBuffer out, int outOff, int n, ForkJoinPool pool) {
+        long pos = 16 + textLen;
+        int segments = (n + SEGMENT - 1) / SEGMENT;
+        if (encrypt) {
+            ctr.processParallel(j0, in, inOff, out, outOff, Math.min(SEGMENT, n), pos, pool);
+            for (int k = 0; k < segments; k++) {
+                ForkJoinTask<?> next = null;
+                if (k + 1 < segments) {
+                    int off = (k + 1) * SEGMENT;
+                    int m = Math.min(SEGMENT, n - off);
+                    next = pool.submit(() -> ctr.processParallel(j0, in, inOff+off, out, outOff+off, m, pos+off, pool));
+                }
+                int off = k * SEGMENT;
+                ghash.update(out, outOff+off, Math.min(SEGMENT, n - off) / 16);
+                if (next != null) {
+                    next.join();
+                }
+            }
+        }
+        else {
+            ghash.update(in, inOff, Math.min(SEGMENT, n) / 16);
+            for (int k = 0; k < segments; k++) {
+                int off = k * SEGMENT;
+                int m = Math.min(SEGMENT, n - off);
+                ForkJoinTask<?> current = pool.submit(() -> ctr.processParallel(j0, in, inOff+off, out, outOff+off, m, pos+off, pool));
+                if (k + 1 < segments) {
+                    int nextOff = (k + 1) * SEGMENT;
+                    ghash.update(in, inOff+nextOff, Math.min(SEGMENT, n - nextOff) / 16);
+                }
+                current.join();
+            }
+        }
+    }
+
+    /**
+     * Hash the last block and the lengths and mask the result.
+     */
+    private byte[] tag() {
+        if (done) {
+            throw new IllegalStateException("doFinal() has been called");
+        }
+        startText();
+        if (blockLen > 0) {
+            Arrays.fill(block, blockLen, 16, (byte)0);
+            ghash.update(block, 0, 1);
+            blockLen = 0;
+        }
+        ghash.block(aadLen*8, textLen*8);
+        done = true;
+        byte[] tag = new byte[16];
+        ghash.digest(tag, 0);
+        for (int i = 0; i < 16; i++) {
+            tag[i] ^= tagMask[i];
+        }
+        return tag;
+    }
+}//GcmMode.java
@@ -0,0 +1,128 @@
+package serpent;
+
+import serpent.metrics.CipherMetrics;
+/**
+ * The Serpent key schedule in bitslice form: 33 round keys of four
+ * <TT>int</TT> words, 132 words in all, as used by <TT>SerpentOptimized</TT>,
+ * <TT>SerpentBitsliced</TT> and <TT>SerpentVector</TT>.
+ * <P>
+ * The prekeys are built directly in the round key array and then run through
+ * the S-boxes in place, so expanding a key allocates nothing.
+ */
+final class KeySchedule {
+
+    /** Number of <TT>int</TT> words in an expanded key. */
+    static final int WORDS = 132;
+
+    //Phi is the fractional part of the golden ratio
+    private static final int PHI = 0x9e3779b9;
+
+    private KeySchedule() {
+    }
+
+    /**
+     * Expand <TT>key</TT> into <TT>roundKeys</TT>. The key is read as
+     * little-endian 32-bit words, as in the NESSIE test vectors; a key
+     * shorter than 32 bytes is padded with a single 1 bit followed by zeros,
+     * that is a <TT>0x01</TT> byte and then zero bytes.
+     *
+     * @param  key        Key, at most 32 bytes.
+     * @param  roundKeys  Destination, <TT>WORDS</TT> words.
+     */
+    static void expand(byte[] key, int[] roundKeys) {
+        long start = CipherMetrics.ENABLED ? System.nanoTime() : 0;
+        if (key.length > 32) {
+            throw new IllegalArgumentException("Serpent keys are at most 32 bytes");
+        }
+        //Prekey w[i] is stored at roundKeys[i]; w[-8..-1] are the padded key
+        //words, which are only needed for the first eight prekeys.
+        for( int i = 0; i < 8; i++ ) {
+            int tmp = word(key, roundKeys, i-8) ^ word(key, roundKeys, i-5) ^
+                word(key, roundKeys, i-3) ^ word(key, roundKeys, i-1) ^ i ^ PHI;
+            roundKeys[i] = (tmp << 11) | (tmp >>> 21);
+        }
+        for( int i = 8; i < WORDS; i++ ) {
+            int tmp = roundKeys[i-8] ^ roundKeys[i-5] ^ roundKeys[i-3] ^
+                roundKeys[i-1] ^ i ^ PHI;
+            roundKeys[i] = (tmp << 11) | (tmp >>> 21);
+        }
+
+        //Round keys are already bitsliced: bit j of the four prekeys forms
+        //the S-box input for column j.
+        for( int round = 0; round < 33; round++ ) {
+            byte[] toUse = sBoxes[(((3-round)%8)+8)%8];
+            int k0 = roundKeys[4*round];
+            int k1 = roundKeys[4*round+1];
+            int k2 = roundKeys[4*round+2];
+            int k3 = roundKeys[4*round+3];
+            int r0 = 0, r1 = 0, r2 = 0, r3 = 0;
+            for (int j = 0; j < 32; j++) {
+                int in = ((k0 >>> j) & 0x01)      |
+                         ((k1 >>> j) & 0x01) << 1 |
+                         ((k2 >>> j) & 0x01) << 2 |
+                         ((k3 >>> j) & 0x01) << 3;
+                int out = toUse[in];
+                r0 |= (out & 0x01) << j;
+                r1 |= ((out >>> 1) & 0x01) << j;
+                r2 |= ((out >>> 2) & 0x01) << j;
+                r3 |= ((out >>> 3) & 0x01) << j;
+            }
+            roundKeys[4*round] = r0;
+            roundKeys[4*round+1] = r1;
+            roundKeys[4*round+2] = r2;
+            roundKeys[4*round+3] = r3;
+        }
+        if (CipherMetrics.ENABLED) {
+            CipherMetrics.keyExpanded(start);
+        }
+    }
+
+    /**
+     * Prekey <TT>w[i]</TT>, reading the padded key for <TT>i &lt; 0</TT>.
+     */
+    private static int word(byte[] key, int[] w, int i) {
+        if (i >= 0) {
+            return w[i];
+        }
+        //Little-endian word i+8 of the key padded to 256 bits
+        int v = 0;
+        for( int b = 4*(i+9) - 1; b >= 4*(i+8); b-- ) {
+            int x;
+            if (b < key.length) {
+                x = key[b] & 0xFF;
+            }else if (b == key.length) {
+                //Start of padding!
+                x = 0x01;
+            }else {
+                x = 0x00;
+            }
+            v = (v << 8) | x;
+        }
+        return v;
+    }
+
+    private static byte[][] sBoxes = new byte[][] {
+        {3,8,15,1,10,6,5,11,14,13,4,2,7,0,9,12},
+        {15,12,2,7,9,0,5,10,1,11,14,8,6,13,3,4},
+        {8,6,7,9,3,12,10,15,13,1,14,4,0,11,5,2},
+        {0,15,11,8,12,9,6,3,13,1,2,4,10,7,5,14},
+        {1,15,8,3,12,0,11,6,2,5,4,10,9,14,7,13},
+        {15,5,2,11,4,10,9,12,0,3,14,8,13,6,7,1},
+        {7,2,12,5,8,4,6,11,14,9,1,15,13,3,10,0},
+        {1,13,15,0,14,8,2,11,7,4,12,10,9,3,5,6}
+    };
+
+    /**
+     * Implemented by engines that run on a bitslice key schedule, so a
+     * <TT>KeyScheduleCache</TT> can key them without expanding again.
+     */
+    interface Keyed {
+
+        /**
+         * Key this engine with an expanded schedule. The words are copied.
+         *
+         * @param  roundKeys  Expanded key, <TT>WORDS</TT> words.
+         */
+        void setRoundKeys(int[] roundKeys);
+    }
+}//KeySchedule.java
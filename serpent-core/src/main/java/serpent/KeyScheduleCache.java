@@ -0,0 +1,259 @@
+package serpent;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * A bounded cache of expanded Serpent key schedules, for code that switches
+ * between many keys. On a hit the cached schedule is copied into the cipher,
+ * which costs far less than <TT>setKey()</TT>; on a miss the key is expanded
+ * once and kept for next time.
+ * <P>
+ * Entries are looked up by the key bytes themselves or by a caller-supplied
+ * key id. When the cache is full the least recently used entry is evicted,
+ * and evicted schedules, together with any key bytes held for lookup, are
+ * overwritten with zeros. Ciphers only ever receive copies, so eviction never
+ * affects a cipher that is in use.
+ * <P>
+ * <TT>SerpentOptimized</TT>, <TT>SerpentBitsliced</TT> and
+ * <TT>SerpentVector</TT> are keyed from the cache. Other ciphers, such as the
+ * reference <TT>Serpent</TT>, are keyed with <TT>setKey()</TT> on every call,
+ * which counts as a miss.
+ * <P>
+ * Instances are safe for use by multiple threads.
+ */
+public final class KeyScheduleCache {
+
+    private final int maxEntries;
+    private final LinkedHashMap<Object, Entry> schedules;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Create a cache holding up to <TT>maxEntries</TT> schedules. Each entry
+     * takes a little over 500 bytes.
+     *
+     * @param  maxEntries  Maximum number of schedules kept.
+     */
+    public KeyScheduleCache(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        this.maxEntries = maxEntries;
+        //Access order makes the eldest entry the least recently used one.
+        this.schedules = new LinkedHashMap<Object, Entry>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Object, Entry> eldest) {
+                if (size() > KeyScheduleCache.this.maxEntries) {
+                    evictions++;
+                    eldest.getValue().wipe();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Set the key of <TT>cipher</TT>, looking the schedule up by the key
+     * bytes. A key shorter than 32 bytes is padded as by <TT>setKey()</TT>.
+     *
+     * @param  cipher  Cipher to key.
+     * @param  key     Key.
+     */
+    public void setKey(BlockCipher cipher, byte[] key) {
+        if (!(cipher instanceof KeySchedule.Keyed)) {
+            count(false);
+            cipher.setKey(key);
+            return;
+        }
+        KeyBytes id = new KeyBytes(key);
+        if (!copyCached(id, (KeySchedule.Keyed)cipher)) {
+            int[] roundKeys = new int[KeySchedule.WORDS];
+            KeySchedule.expand(key, roundKeys);
+            ((KeySchedule.Keyed)cipher).setRoundKeys(roundKeys);
+            put(new Entry(new KeyBytes(key.clone()), roundKeys));
+        }
+    }
+
+    /**
+     * Set the key of <TT>cipher</TT>, looking the schedule up by
+     * <TT>keyId</TT>. <TT>key</TT> is only asked for the key bytes on a miss,
+     * so the caller need not fetch or keep them for keys already cached.
+     * <P>
+     * The cache trusts that an id always stands for the same key bytes. When a
+     * key is rotated under the same id, call <TT>invalidate()</TT> first.
+     *
+     * @param  cipher  Cipher to key.
+     * @param  keyId   Key id, with value-based <TT>equals()</TT> and
+     *                 <TT>hashCode()</TT>.
+     * @param  key     Source of the key bytes.
+     */
+    public void setKey(BlockCipher cipher, Object keyId, Supplier<byte[]> key) {
+        if (!(cipher instanceof KeySchedule.Keyed)) {
+            count(false);
+            cipher.setKey(key.get());
+            return;
+        }
+        if (!copyCached(keyId, (KeySchedule.Keyed)cipher)) {
+            int[] roundKeys = new int[KeySchedule.WORDS];
+            KeySchedule.expand(key.get(), roundKeys);
+            ((KeySchedule.Keyed)cipher).setRoundKeys(roundKeys);
+            put(new Entry(keyId, roundKeys));
+        }
+    }
+
+    /**
+     * Remove and zeroize the schedule cached for <TT>keyId</TT>, if any.
+     *
+     * @param  keyId  Key id.
+     */
+    public synchronized void invalidate(Object keyId) {
+        Entry e = schedules.remove(keyId);
+        if (e != null) {
+            e.wipe();
+        }
+    }
+
+    /**
+     * Remove and zeroize the schedule cached for the key bytes <TT>key</TT>,
+     * if any.
+     *
+     * @param  key  Key.
+     */
+    public void invalidate(byte[] key) {
+        invalidate(new KeyBytes(key));
+    }
+
+    /**
+     * Remove and zeroize every cached schedule. The counters are kept.
+     */
+    public synchronized void clear() {
+        Iterator<Entry> it = schedules.values().iterator();
+        while (it.hasNext()) {
+            it.next().wipe();
+            it.remove();
+        }
+    }
+
+    /**
+     * Returns the number of schedules currently cached.
+     *
+     * @return  Number of entries.
+     */
+    public synchronized int size() {
+        return schedules.size();
+    }
+
+    /**
+     * Returns the number of lookups answered from the cache.
+     *
+     * @return  Hits.
+     */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups that had to expand the key.
+     *
+     * @return  Misses.
+     */
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of schedules evicted to stay within the size bound.
+     * Entries removed by <TT>invalidate()</TT> or <TT>clear()</TT> are not
+     * counted.
+     *
+     * @return  Evictions.
+     */
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    /**
+     * Copy the schedule cached for <TT>id</TT> into <TT>cipher</TT>. The copy
+     * happens under the lock, so the entry cannot be wiped half way.
+     */
+    private synchronized boolean copyCached(Object id, KeySchedule.Keyed cipher) {
+        Entry e = schedules.get(id);
+        count(e != null);
+        if (e == null) {
+            return false;
+        }
+        cipher.setRoundKeys(e.roundKeys);
+        return true;
+    }
+
+    /**
+     * Cache a freshly expanded schedule. The expansion ran outside the lock,
+     * so another thread may have cached the same key meanwhile; that entry
+     * is kept and this one wiped.
+     */
+    private synchronized void put(Entry e) {
+        if (schedules.containsKey(e.id)) {
+            e.wipe();
+        }else {
+            schedules.put(e.id, e);
+        }
+    }
+
+    private synchronized void count(boolean hit) {
+        if (hit) {
+            hits++;
+        }else {
+            misses++;
+        }
+    }
+
+    /**
+     * A cached schedule and the id it was stored under, which for key bytes
+     * is the cache's own copy.
+     */
+    private static final class Entry {
+
+        private final Object id;
+        private final int[] roundKeys;
+
+        Entry(Object id, int[] roundKeys) {
+            this.id = id;
+            this.roundKeys = roundKeys;
+        }
+
+        void wipe() {
+            Arrays.fill(roundKeys, 0);
+            if (id instanceof KeyBytes) {
+                Arrays.fill(((KeyBytes)id).key, (byte)0);
+            }
+        }
+    }
+
+    /**
+     * Key bytes as a map key. Compared in constant time.
+     */
+    private static final class KeyBytes {
+
+        private final byte[] key;
+        private final int hash;
+
+        KeyBytes(byte[] key) {
+            this.key = key;
+            this.hash = Arrays.hashCode(key);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof KeyBytes && MessageDigest.isEqual(key, ((KeyBytes)o).key);
+        }
+    }
+}//KeyScheduleCache.java
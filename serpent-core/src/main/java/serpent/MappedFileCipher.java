@@ -0,0 +1,129 @@
+package serpent;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+/**
+ * Encrypts and decrypts files by mapping them into memory with
+ * <TT>FileChannel.map()</TT> and running the cipher mode directly over the
+ * mapped regions, without reading into or writing from intermediate arrays.
+ * A single mapping is limited to 2 GB, so files are processed through a
+ * window that slides along the input and output. The file format is the
+ * same as for <TT>FileCipher</TT>.
+ */
+public class MappedFileCipher {
+
+    //Bytes mapped at a time, a multiple of the block size.
+    private static final int WINDOW = 256*1024*1024;
+
+    private MappedFileCipher() {
+    }
+
+    /**
+     * Encrypt <TT>inFile</TT> into <TT>outFile</TT> in CBC mode. A trailing
+     * partial block is completed as by <TT>FileCipher.encryptCbc()</TT>.
+     *
+     * @param inFile Plaintext file.
+     * @param outFile Ciphertext file, created or truncated.
+     * @param factory Creates the cipher instances.
+     * @param key Key.
+     * @param iv Initialization vector.
+     *
+     * @exception IOException Thrown if an I/O error occurred.
+     */
+    public static void encryptCbc(File inFile, File outFile, Supplier<BlockCipher> factory, byte[] key, byte[] iv) throws IOException {
+        CbcMode cbc = new CbcMode(factory, key, iv);
+        try (FileChannel in = FileChannel.open(inFile.toPath(), StandardOpenOption.READ);
+             FileChannel out = openOutput(outFile)) {
+            long size = in.size();
+            long full = size & ~15L;
+            byte[] chain = iv.clone();
+            for (long pos = 0; pos < full; pos += WINDOW) {
+                int len = (int)Math.min(WINDOW, full - pos);
+                MappedByteBuffer src = in.map(FileChannel.MapMode.READ_ONLY, pos, len);
+                MappedByteBuffer dst = out.map(FileChannel.MapMode.READ_WRITE, pos, len);
+                cbc.encrypt(src, 0, dst, 0, len, chain);
+                dst.get(len-16, chain);
+            }
+            if (size > full) {
+                int n = (int)(size - full);
+                MappedByteBuffer src = in.map(FileChannel.MapMode.READ_ONLY, full, n);
+                MappedByteBuffer dst = out.map(FileChannel.MapMode.READ_WRITE, full, 16);
+                //The missing bytes are zero after chaining, not before.
+                byte[] last = chain.clone();
+                src.get(0, last, 0, n);
+                cbc.encrypt(last, 0, last, 0, 16, chain);
+                dst.put(0, last);
+            }
+        }
+    }
+
+    /**
+     * Decrypt <TT>inFile</TT> into <TT>outFile</TT> in CBC mode. Each window
+     * is decrypted in parallel on <TT>pool</TT>. A trailing partial block is
+     * ignored.
+     *
+     * @param inFile Ciphertext file.
+     * @param outFile Plaintext file, created or truncated.
+     * @param factory Creates the cipher instances.
+     * @param key Key.
+     * @param iv Initialization vector.
+     * @param pool Pool to decrypt on.
+     *
+     * @exception IOException Thrown if an I/O error occurred.
+     */
+    public static void decryptCbc(File inFile, File outFile, Supplier<BlockCipher> factory, byte[] key, byte[] iv, ForkJoinPool pool) throws IOException {
+        CbcMode cbc = new CbcMode(factory, key, iv);
+        try (FileChannel in = FileChannel.open(inFile.toPath(), StandardOpenOption.READ);
+             FileChannel out = openOutput(outFile)) {
+            long full = in.size() & ~15L;
+            byte[] chain = iv.clone();
+            for (long pos = 0; pos < full; pos += WINDOW) {
+                int len = (int)Math.min(WINDOW, full - pos);
+                MappedByteBuffer src = in.map(FileChannel.MapMode.READ_ONLY, pos, len);
+                MappedByteBuffer dst = out.map(FileChannel.MapMode.READ_WRITE, pos, len);
+                cbc.decryptParallel(src, 0, dst, 0, len, chain, pool);
+                src.get(len-16, chain);
+            }
+        }
+    }
+
+    /**
+     * Encrypt or decrypt <TT>inFile</TT> into <TT>outFile</TT> in CTR mode.
+     * Each window is processed in parallel on <TT>pool</TT>. The output has
+     * the same length as the input.
+     *
+     * @param inFile Input file.
+     * @param outFile Output file, created or truncated.
+     * @param factory Creates the cipher instances.
+     * @param key Key.
+     * @param iv Initial counter block.
+     * @param pool Pool to process on.
+     *
+     * @exception IOException Thrown if an I/O error occurred.
+     */
+    public static void ctr(File inFile, File outFile, Supplier<BlockCipher> factory, byte[] key, byte[] iv, ForkJoinPool pool) throws IOException {
+        CounterMode ctr = new CounterMode(factory, key, iv);
+        try (FileChannel in = FileChannel.open(inFile.toPath(), StandardOpenOption.READ);
+             FileChannel out = openOutput(outFile)) {
+            long size = in.size();
+            for (long pos = 0; pos < size; pos += WINDOW) {
+                int len = (int)Math.min(WINDOW, size - pos);
+                MappedByteBuffer src = in.map(FileChannel.MapMode.READ_ONLY, pos, len);
+                MappedByteBuffer dst = out.map(FileChannel.MapMode.READ_WRITE, pos, len);
+                ctr.processParallel(src, 0, dst, 0, len, pos, pool);
+            }
+        }
+    }
+
+    //Mapping a region READ_WRITE needs a channel opened for reading too.
+    private static FileChannel openOutput(File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+}
@@ -0,0 +1,358 @@
+package serpent;
+
+import serpent.metrics.CipherMetrics;
+import serpent.metrics.LatencyHistogram;
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * CTR mode with the keystream computed ahead of time. A background thread
+ * encrypts counter blocks for one key and IV into a ring buffer, and a
+ * request only XORs its data with keystream that is already there, so its
+ * latency no longer includes the cipher.
+ * <P>
+ * The stream is consumed in order: each call to <TT>process()</TT> takes the
+ * next <TT>len</TT> bytes of keystream, so the output is the same as
+ * <TT>CounterMode</TT> with the same key and IV processing the concatenated
+ * requests from position 0. Decrypting takes another instance with the same
+ * key and IV, fed the same lengths in the same order.
+ * <P>
+ * Refill runs between two watermarks: when the precomputed keystream drops
+ * below the low watermark the thread wakes up and fills the ring until the
+ * high watermark is reached, then sleeps again. The difference is the burst
+ * it absorbs without stalling a request. A request that finds too little
+ * keystream waits for the refill thread and counts as a miss; <TT>hits()</TT>,
+ * <TT>misses()</TT> and <TT>hitRatio()</TT> show how often that happens,
+ * <TT>missWait()</TT> how long it took, and <TT>refillLag()</TT> how long
+ * each refill took from crossing the low watermark to reaching the high one.
+ * <P>
+ * Requests from several threads are served one at a time. <TT>close()</TT>
+ * stops the refill thread and overwrites the ring with zeros.
+ */
+public class PrecomputedCounterMode implements Closeable {
+
+    /** Default ring size, 1 MB. */
+    public static final int DEFAULT_CAPACITY = 1024*1024;
+
+    //Blocks encrypted per encryptBlocks() call by the refill thread.
+    private static final int REFILL_BLOCKS = 256;
+
+    private final byte[] iv;
+    private final byte[] ring;
+    //Big- and little-endian views of ring, to match the buffers.
+    private final ByteBuffer ringBuffer;
+    private final ByteBuffer ringLittle;
+    private final int low;
+    private final int high;
+    private final Thread refiller;
+    private final LatencyHistogram missWait = new LatencyHistogram();
+    private final LatencyHistogram refillLag = new LatencyHistogram();
+
+    //Guards everything below; waited on by requests and the refill thread.
+    private final Object lock = new Object();
+    //Stream positions in bytes: keystream is ready from consumed to produced.
+    private long consumed;
+    private long produced;
+    //When the ring last dropped below the low watermark, and whether the
+    //refill thread is filling up since then.
+    private long lowSince;
+    private boolean refilling;
+    private long hits;
+    private long misses;
+    private boolean closed;
+
+    /**
+     * Construct a CTR instance with a 1 MB ring, refilled from below 256 KB
+     * up to full, and start its refill thread.
+     *
+     * @param factory Creates the cipher used by the refill thread.
+     * @param key Key, up to 32 bytes.
+     * @param iv Initial counter block, 16 bytes.
+     */
+    public PrecomputedCounterMode(Supplier<BlockCipher> factory, byte[] key, byte[] iv) {
+        this(factory, key, iv, DEFAULT_CAPACITY, DEFAULT_CAPACITY/4, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Construct a CTR instance and start its refill thread. Sizes are in
+     * bytes and must be multiples of 16.
+     *
+     * @param factory Creates the cipher used by the refill thread.
+     * @param key Key, up to 32 bytes.
+     * @param iv Initial counter block, 16 bytes.
+     * @param capacity Ring size.
+     * @param lowWatermark Refill starts when less keystream than this is left.
+     * @param highWatermark Refill stops when this much keystream is ready; at
+     *                      most <TT>capacity</TT>.
+     */
+    public PrecomputedCounterMode(Supplier<BlockCipher> factory, byte[] key, byte[] iv,
+                                  int capacity, int lowWatermark, int highWatermark) {
+        if (iv.length != 16) {
+            throw new IllegalArgumentException("IV must be 16 bytes");
+        }
+        if (capacity <= 0 || capacity % 16 != 0 || lowWatermark % 16 != 0 || highWatermark % 16 != 0) {
+            throw new IllegalArgumentException("Sizes must be positive multiples of 16");
+        }
+        if (lowWatermark <= 0 || lowWatermark >= highWatermark || highWatermark > capacity) {
+            throw new IllegalArgumentException("Need 0 < low watermark < high watermark <= capacity");
+        }
+        this.iv = iv.clone();
+        this.ring = new byte[capacity];
+        this.ringBuffer = ByteBuffer.wrap(ring);
+        this.ringLittle = ByteBuffer.wrap(ring).order(ByteOrder.LITTLE_ENDIAN);
+        this.low = lowWatermark;
+        this.high = highWatermark;
+        BlockCipher cipher = factory.get();
+        if (!new SerpentKey(key).keyInto(cipher)) {
+            cipher.setKey(key.clone());
+        }
+        lowSince = System.nanoTime();
+        refilling = true;
+        refiller = new Thread(() -> refill(cipher), "serpent-keystream");
+        refiller.setDaemon(true);
+        refiller.start();
+    }
+
+    /**
+     * Encrypt or decrypt the next <TT>len</TT> bytes of the stream.
+     *
+     * @param in Input array.
+     * @param inOff Offset in <TT>in</TT>.
+     * @param out Output array, may be <TT>in</TT>.
+     * @param outOff Offset in <TT>out</TT>.
+     * @param len Number of bytes.
+     */
+    public void process(byte[] in, int inOff, byte[] out, int outOff, int len) {
+        process(ByteBuffer.wrap(in), inOff, ByteBuffer.wrap(out), outOff, len);
+    }
+
+    /**
+     * Encrypt or decrypt the next <TT>len</TT> bytes of the stream. Only
+     * absolute indexes are used; positions and limits are not changed.
+     *
+     * @param in Input buffer.
+     * @param inOff Index in <TT>in</TT>.
+     * @param out Output buffer, may be <TT>in</TT>.
+     * @param outOff Index in <TT>out</TT>.
+     * @param len Number of bytes.
+     *
+     * @exception IllegalStateException Thrown if the instance is closed.
+     */
+    public synchronized void process(ByteBuffer in, int inOff, ByteBuffer out, int outOff, int len) {
+        long start = CipherMetrics.ENABLED ? System.nanoTime() : 0;
+        int total = len;
+        boolean hit;
+        synchronized (lock) {
+            hit = produced - consumed >= len;
+            if (hit) {
+                hits++;
+            }
+            else {
+                misses++;
+            }
+        }
+        long waitStart = hit ? 0 : System.nanoTime();
+        while (len > 0) {
+            int n;
+            long pos;
+            synchronized (lock) {
+                while (produced == consumed && !closed) {
+                    try {
+                        lock.wait();
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("Interrupted waiting for keystream");
+                    }
+                }
+                if (closed) {
+                    throw new IllegalStateException("Closed");
+                }
+                pos = consumed;
+                //Stop at the end of the ring; the next pass starts at 0.
+                n = (int)Math.min(Math.min(len, produced - consumed), ring.length - pos % ring.length);
+            }
+            //The refill thread never writes between consumed and produced.
+            CounterMode.xor(in, inOff, out, outOff, n, ringBuffer, ringLittle, (int)(pos % ring.length));
+            synchronized (lock) {
+                consumed += n;
+                if (produced - consumed < low && !refilling) {
+                    lowSince = System.nanoTime();
+                    refilling = true;
+                    lock.notifyAll();
+                }
+            }
+            inOff += n;
+            outOff += n;
+            len -= n;
+        }
+        if (!hit) {
+            missWait.record(System.nanoTime() - waitStart);
+        }
+        if (CipherMetrics.ENABLED) {
+            CipherMetrics.record(CipherMetrics.Operation.CTR, total, start);
+        }
+    }
+
+    /**
+     * Refill thread: sleep while at least the low watermark is ready, then
+     * fill up to the high watermark.
+     */
+    private void refill(BlockCipher cipher) {
+        while (true) {
+            long pos;
+            int n;
+            synchronized (lock) {
+                while (!closed && produced - consumed >= low) {
+                    try {
+                        lock.wait();
+                    }
+                    catch (InterruptedException e) {
+                        //The thread is stopped by close(), not by interrupts.
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                refilling = true;
+                pos = produced;
+            }
+            //Fill without holding the lock; requests only read up to produced.
+            while (true) {
+                long room;
+                synchronized (lock) {
+                    if (closed) {
+                        return;
+                    }
+                    //Whole blocks only; requests may leave consumed anywhere.
+                    room = (high - (produced - consumed)) & ~15L;
+                    if (room <= 0) {
+                        refillLag.record(System.nanoTime() - lowSince);
+                        refilling = false;
+                        break;
+                    }
+                }
+                n = (int)Math.min(Math.min(room, 16L*REFILL_BLOCKS), ring.length - pos % ring.length);
+                int off = (int)(pos % ring.length);
+                int blocks = n / 16;
+                for (int b = 0; b < blocks; b++) {
+                    CounterMode.counterBlock(iv, 0, pos/16 + b, ring, off + 16*b);
+                }
+                cipher.encryptBlocks(ring, off, ring, off, blocks);
+                synchronized (lock) {
+                    produced += n;
+                    lock.notifyAll();
+                }
+                pos += n;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes of the stream processed so far.
+     *
+     * @return Stream position.
+     */
+    public long position() {
+        synchronized (lock) {
+            return consumed;
+        }
+    }
+
+    /**
+     * Returns the number of keystream bytes ready for requests.
+     *
+     * @return Precomputed bytes.
+     */
+    public int available() {
+        synchronized (lock) {
+            return (int)(produced - consumed);
+        }
+    }
+
+    /**
+     * Returns the number of requests served entirely from precomputed
+     * keystream.
+     *
+     * @return Hits.
+     */
+    public long hits() {
+        synchronized (lock) {
+            return hits;
+        }
+    }
+
+    /**
+     * Returns the number of requests that had to wait for the refill thread.
+     *
+     * @return Misses.
+     */
+    public long misses() {
+        synchronized (lock) {
+            return misses;
+        }
+    }
+
+    /**
+     * Returns the fraction of requests that were hits, 1 before the first
+     * request.
+     *
+     * @return Hit ratio between 0 and 1.
+     */
+    public double hitRatio() {
+        synchronized (lock) {
+            long n = hits + misses;
+            return n == 0 ? 1 : (double)hits / n;
+        }
+    }
+
+    /**
+     * Returns how long missed requests took, in nanoseconds, from finding
+     * too little keystream to finishing.
+     *
+     * @return Live histogram.
+     */
+    public LatencyHistogram missWait() {
+        return missWait;
+    }
+
+    /**
+     * Returns how long refills took, in nanoseconds, from the ring dropping
+     * below the low watermark to reaching the high watermark. The first
+     * entry is the initial fill.
+     *
+     * @return Live histogram.
+     */
+    public LatencyHistogram refillLag() {
+        return refillLag;
+    }
+
+    /**
+     * Stop the refill thread and overwrite the keystream with zeros. Further
+     * requests throw <TT>IllegalStateException</TT>.
+     */
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        boolean interrupted = false;
+        while (refiller.isAlive()) {
+            try {
+                refiller.join();
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        synchronized (this) {
+            Arrays.fill(ring, (byte)0);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,10 +1,8 @@
-import edu.rit.util.Hex;
-import edu.rit.util.Packing;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.util.Arrays;
+package serpent;
+
+import serpent.metrics.CipherMetrics;
+import serpent.util.Packing;
 import java.lang.Integer;
-import java.io.*;
 
 public class Serpent implements BlockCipher {
 
@@ -12,9 +10,14 @@ public class Serpent implements BlockCipher {
     private int keySize;
     private byte[] key;
     private int[] prekeys;
+    private byte[] roundKeys;
+    private byte[] state;
+    private byte[] scratch;
 
     public Serpent() {
         prekeys = new int[140];
+        state = new byte[16];
+        scratch = new byte[16];
     }
 
     /**
@@ -43,6 +46,7 @@ public class Serpent implements BlockCipher {
      * @param  key  Key.
      */
     public void setKey(byte[] key) {
+        long start = CipherMetrics.ENABLED ? System.nanoTime() : 0;
         if (key.length != keySize()) {
             this.key = new byte[keySize()];
             for( int i = 0; i < key.length; i++ ) {
@@ -52,7 +56,7 @@ public class Serpent implements BlockCipher {
             for( int i = key.length; i < keySize(); i++ ) {
                 if( i == key.length ) {
                     //Start of padding!
-                    this.key[i] = (byte)0x80;
+                    this.key[i] = (byte)0x01;
                 }else {
                     this.key[i] = (byte)0x00;
                 }
@@ -61,24 +65,32 @@ public class Serpent implements BlockCipher {
             this.key = key;
         }
 
-        //prekey initialization from K
+        //prekey initialization from K, little-endian words as in the
+        //published test vectors
         for(int i = 0; i < 8; i++) {
-            prekeys[i] = Packing.packIntBigEndian(new byte[]{this.key[4*i],this.key[4*i+1],this.key[4*i+2],this.key[4*i+3]}, 0);
+            prekeys[i] = Packing.packIntLittleEndian(this.key, 4*i);
         }
         //Build out prekey array
 		//There's a shift of 8 positions here because I build the intermediate keys in the same
 		//array as the other prekeys.
         for( int i = 8; i < prekeys.length; i++ ) {
-            byte[] prnt = new byte[4];
 			//Phi is the fractional part of the golden ratio
             int phi = 0x9e3779b9;
             int tmp;
             tmp = prekeys[i-8] ^ prekeys[i-5] ^ prekeys[i-3] ^ prekeys[i-1] ^ 
                 i-8 ^ phi;
             prekeys[i] = (tmp << 11) | (tmp >>> (21));
-            prnt = new byte[4];
-            Packing.unpackIntBigEndian(prekeys[i], prnt, 0);
          }
+
+        //Expand all 33 round keys once, encrypt and decrypt only read them.
+        byte[] schedule = new byte[33*16];
+        for( int round = 0; round < 33; round++ ) {
+            System.arraycopy(getRoundKey(round), 0, schedule, 16*round, 16);
+        }
+        roundKeys = schedule;
+        if (CipherMetrics.ENABLED) {
+            CipherMetrics.keyExpanded(start);
+        }
     }
 
 
@@ -93,53 +105,48 @@ public class Serpent implements BlockCipher {
      * @param  text  Plaintext (on input), ciphertext (on output).
      */
     public void encrypt(byte[] text) {
-        byte[] data = initPermutation(text);
-        byte[] temp = new byte[] {
-                data[12], data[13], data[14], data[15],
-                data[8], data[9], data[10], data[11],
-                data[4], data[5], data[6], data[7],
-                data[0], data[1], data[2], data[3],
-                };
-        data = temp;
-        byte[] roundKey = new byte[16];
+        encrypt(text, 0, text, 0);
+    }
+
+    /**
+     * Encrypt one block read from <TT>in</TT> at <TT>inOff</TT> and store the
+     * ciphertext block in <TT>out</TT> at <TT>outOff</TT>. The two blocks may
+     * overlap exactly, as in <TT>encrypt(text)</TT>. No memory is allocated
+     * per block; the state lives in scratch buffers owned by this instance.
+     *
+     * @param  in      Plaintext.
+     * @param  inOff   Offset of the plaintext block in <TT>in</TT>.
+     * @param  out     Ciphertext.
+     * @param  outOff  Offset of the ciphertext block in <TT>out</TT>.
+     */
+    public void encrypt(byte[] in, int inOff, byte[] out, int outOff) {
+        byte[] data = state;
+        System.arraycopy(in, inOff, data, 0, 16);
+        initPermutation(data, scratch);
+        for(int w = 0; w < 4; w++){
+            System.arraycopy(scratch, 12-4*w, data, 4*w, 4);
+        }
         //32 rounds
         for(int i = 0; i < 32; i++){
-            roundKey = getRoundKey(i);
             for(int n = 0; n < 16; n++){
-                data[n] = (byte) (data[n] ^ roundKey[n]);
+                data[n] = (byte) (data[n] ^ roundKeys[16*i+n]);
             }
-            data = sBox(data, i);
+            sBox(data, i);
             
             if(i == 31){
 				//For round 32, instead of a linear transform
 				// we get the last produced round key and xor 
 				// it with the current state.
-                roundKey = getRoundKey(32);
                 for(int n = 0; n < 16; n++){
-                    data[n] = (byte) (data[n] ^ roundKey[n]);
+                    data[n] = (byte) (data[n] ^ roundKeys[16*32+n]);
                 } 
             }
             else{
-                data = linearTransform(data);
+                linearTransform(data);
             }
         }
-        data = finalPermutation(data);   
-        text[0] = data[3];
-        text[1] = data[2];
-        text[2] = data[1];
-        text[3] = data[0];
-        text[4] = data[7];
-        text[5] = data[6];
-        text[6] = data[5];
-        text[7] = data[4];
-        text[8] = data[11];
-        text[9] = data[10];
-        text[10] = data[9];
-        text[11] = data[8];
-        text[12] = data[15];
-        text[13] = data[14];
-        text[14] = data[13];
-        text[15] = data[12];
+        finalPermutation(data, scratch);
+        storeBlock(scratch, out, outOff);
     }
 
     /**
@@ -149,45 +156,104 @@ public class Serpent implements BlockCipher {
      * @param  text  ciphertext (on input), original plaintext (on output).
      */
     public void decrypt(byte[] text) {
-        byte[] temp = new byte[] {
-                text[3], text[2], text[1], text[0],
-                text[7], text[6], text[5], text[4],
-                text[11], text[10], text[9], text[8],
-                text[15], text[14], text[13], text[12],
-            };
-        byte[] data = initPermutation(temp);
-        byte[] roundKey = getRoundKey(32);
+        decrypt(text, 0, text, 0);
+    }
+
+    /**
+     * Decrypt one block read from <TT>in</TT> at <TT>inOff</TT> and store the
+     * plaintext block in <TT>out</TT> at <TT>outOff</TT>. The two blocks may
+     * overlap exactly. No memory is allocated per block.
+     *
+     * @param  in      Ciphertext.
+     * @param  inOff   Offset of the ciphertext block in <TT>in</TT>.
+     * @param  out     Plaintext.
+     * @param  outOff  Offset of the plaintext block in <TT>out</TT>.
+     */
+    public void decrypt(byte[] in, int inOff, byte[] out, int outOff) {
+        byte[] data = state;
+        for(int w = 0; w < 16; w += 4){
+            scratch[w] = in[inOff+w+3];
+            scratch[w+1] = in[inOff+w+2];
+            scratch[w+2] = in[inOff+w+1];
+            scratch[w+3] = in[inOff+w];
+        }
+        initPermutation(scratch, data);
         for(int n = 0; n < 16; n++){
-            data[n] = (byte) (data[n] ^ roundKey[n]);
+            data[n] = (byte) (data[n] ^ roundKeys[16*32+n]);
         }
         //32 rounds in reverse
         for(int i = 31; i >= 0; i--){
             if(i!=31){
-                data = invLinearTransform(data);
+                invLinearTransform(data);
             }
-            data = sBoxInv(data, i);
-            roundKey = getRoundKey(i);
+            sBoxInv(data, i);
             for(int n = 0; n < 16; n++){
-                data[n] = (byte) (data[n] ^ roundKey[n]);
+                data[n] = (byte) (data[n] ^ roundKeys[16*i+n]);
             }
         }
-        data = finalPermutation(data);   
-        text[0] = data[3];
-        text[1] = data[2];
-        text[2] = data[1];
-        text[3] = data[0];
-        text[4] = data[7];
-        text[5] = data[6];
-        text[6] = data[5];
-        text[7] = data[4];
-        text[8] = data[11];
-        text[9] = data[10];
-        text[10] = data[9];
-        text[11] = data[8];
-        text[12] = data[15];
-        text[13] = data[14];
-        text[14] = data[13];
-        text[15] = data[12];
+        finalPermutation(data, scratch);
+        storeBlock(scratch, out, outOff);
+    }
+
+    /**
+     * Encrypt <TT>nBlocks</TT> consecutive blocks in ECB fashion, reading
+     * from <TT>src</TT> at <TT>srcOff</TT> and writing to <TT>dst</TT> at
+     * <TT>dstOff</TT>. The source and destination ranges may be the same.
+     *
+     * @param  src      Plaintext blocks.
+     * @param  srcOff   Offset of the first plaintext block in <TT>src</TT>.
+     * @param  dst      Ciphertext blocks.
+     * @param  dstOff   Offset of the first ciphertext block in <TT>dst</TT>.
+     * @param  nBlocks  Number of blocks.
+     */
+    public void encryptBlocks(byte[] src, int srcOff, byte[] dst, int dstOff, int nBlocks) {
+        for(int i = 0; i < nBlocks; i++){
+            encrypt(src, srcOff+16*i, dst, dstOff+16*i);
+        }
+    }
+
+    /**
+     * Decrypt <TT>nBlocks</TT> consecutive blocks in ECB fashion, reading
+     * from <TT>src</TT> at <TT>srcOff</TT> and writing to <TT>dst</TT> at
+     * <TT>dstOff</TT>. The source and destination ranges may be the same.
+     *
+     * @param  src      Ciphertext blocks.
+     * @param  srcOff   Offset of the first ciphertext block in <TT>src</TT>.
+     * @param  dst      Plaintext blocks.
+     * @param  dstOff   Offset of the first plaintext block in <TT>dst</TT>.
+     * @param  nBlocks  Number of blocks.
+     */
+    public void decryptBlocks(byte[] src, int srcOff, byte[] dst, int dstOff, int nBlocks) {
+        for(int i = 0; i < nBlocks; i++){
+            decrypt(src, srcOff+16*i, dst, dstOff+16*i);
+        }
+    }
+
+    /**
+     * Writes the output of the final permutation to <TT>out</TT>, reversing
+     * the byte order of each 32-bit word.
+     *
+     * @param data Output of the final permutation
+     * @param out Destination array
+     * @param outOff Offset of the block in <TT>out</TT>
+     */
+    private static void storeBlock(byte[] data, byte[] out, int outOff) {
+        out[outOff] = data[3];
+        out[outOff+1] = data[2];
+        out[outOff+2] = data[1];
+        out[outOff+3] = data[0];
+        out[outOff+4] = data[7];
+        out[outOff+5] = data[6];
+        out[outOff+6] = data[5];
+        out[outOff+7] = data[4];
+        out[outOff+8] = data[11];
+        out[outOff+9] = data[10];
+        out[outOff+10] = data[9];
+        out[outOff+11] = data[8];
+        out[outOff+12] = data[15];
+        out[outOff+13] = data[14];
+        out[outOff+14] = data[13];
+        out[outOff+15] = data[12];
     }
 
     /**
@@ -195,8 +261,7 @@ public class Serpent implements BlockCipher {
      *
      * @param data Input bit sequence
      */
-    private byte[] initPermutation(byte[] data) {
-        byte[] output = new byte[16];
+    private void initPermutation(byte[] data, byte[] output) {
         for (int i = 0;  i < 128; i++) {
 			//Bit permutation based on ip lookup table
             int bit = (data[(ipTable[i]) / 8] >>> ((ipTable[i]) % 8)) & 0x01;
@@ -205,7 +270,6 @@ public class Serpent implements BlockCipher {
             else
                 output[15 - (i/8)] &= ~(1 << (i % 8));
         }
-        return output; 
     }
 
     /**
@@ -213,8 +277,7 @@ public class Serpent implements BlockCipher {
      *
      * @param data Input bit sequence
      */
-    private byte[] finalPermutation(byte[] data) {
-        byte[] output = new byte[16];
+    private void finalPermutation(byte[] data, byte[] output) {
         for (int i = 0;  i < 128; i++) {
 			//Bit permutation based on fp lookup table
             int bit = (data[15-fpTable[i] / 8] >>> (fpTable[i] % 8)) & 0x01;
@@ -223,7 +286,6 @@ public class Serpent implements BlockCipher {
             else
                 output[(i/8)] &= ~(1 << (i % 8));
         }
-        return output; 
     }
 
     private static byte[] s0 = new byte[]
@@ -251,17 +313,15 @@ public class Serpent implements BlockCipher {
      * @param data Input bit sequence
      * @param round Number of the current round, used to determine which S-Box to use.
      */
-    private byte[] sBox(byte[] data, int round) {
+    private void sBox(byte[] data, int round) {
         byte[] toUse = sBoxes[round%8];
-        byte[] output = new byte[blockSize()];
         for( int i = 0; i < blockSize(); i++ ) {
             //Break signed-ness
             int curr = data[i]&0xFF;
             byte low4 = (byte)(curr>>>4);
             byte high4 = (byte)(curr&0x0F);
-            output[i] = (byte) ((toUse[low4]<<4) ^ (toUse[high4]));
+            data[i] = (byte) ((toUse[low4]<<4) ^ (toUse[high4]));
         }
-        return output;
     }
 
     private static byte[] is0 = new byte[]
@@ -289,17 +349,15 @@ public class Serpent implements BlockCipher {
      * @param data Input bit sequence
      * @param round Number of the current round, used to determine which inverted S-Box to use.
      */
-    private byte[] sBoxInv(byte[] data, int round) {
+    private void sBoxInv(byte[] data, int round) {
         byte[] toUse = isBoxes[round%8];
-        byte[] output = new byte[blockSize()];
         for( int i = 0; i < blockSize(); i++ ) {
             //Break signed-ness
             int curr = data[i]&0xFF;
             byte low4 = (byte)(curr>>>4);
             byte high4 = (byte)(curr&0x0F);
-            output[i] = (byte) ((toUse[low4]<<4) ^ (toUse[high4]));
+            data[i] = (byte) ((toUse[low4]<<4) ^ (toUse[high4]));
         }
-        return output;
     }
 
     private static byte[] ipTable = new byte[] {
@@ -328,17 +386,14 @@ public class Serpent implements BlockCipher {
      * Performs linear transformation on the input bit sequence
      * 
      * @param data Input bit sequence
-     * @return output bit sequence
      */
-    private byte[] linearTransform(byte[] data){
-        data = finalPermutation(data);
-        byte[] output = new byte[blockSize()];
-        ByteBuffer buffer = ByteBuffer.wrap(data);
-        int x0 =  buffer.getInt();
-        int x1 =  buffer.getInt();
-        int x2 =  buffer.getInt();
-        int x3 =  buffer.getInt();
-        x0 = ((x0 << 13) | (x0 >>> (32 - 13))); 
+    private void linearTransform(byte[] data){
+        finalPermutation(data, scratch);
+        int x0 = Packing.packIntBigEndian(scratch, 0);
+        int x1 = Packing.packIntBigEndian(scratch, 4);
+        int x2 = Packing.packIntBigEndian(scratch, 8);
+        int x3 = Packing.packIntBigEndian(scratch, 12);
+        x0 = ((x0 << 13) | (x0 >>> (32 - 13)));
         x2 = ((x2 << 3) | (x2 >>> (32 - 3)));
         x1 = x1 ^ x0 ^ x2;
         x3 = x3 ^ x2 ^ (x0 << 3);
@@ -348,16 +403,11 @@ public class Serpent implements BlockCipher {
         x2 = x2 ^ x3 ^ (x1 << 7);
         x0 = (x0 << 5) | (x0 >>> (32-5));
         x2 = (x2 << 22) | (x2 >>> (32-22));
-        buffer.clear();
-        buffer.putInt(x0);
-        buffer.putInt(x1);
-        buffer.putInt(x2);
-        buffer.putInt(x3);
-        
-        output = buffer.array();
-        output = initPermutation(output);
-        
-        return output;
+        Packing.unpackIntBigEndian(x0, scratch, 0);
+        Packing.unpackIntBigEndian(x1, scratch, 4);
+        Packing.unpackIntBigEndian(x2, scratch, 8);
+        Packing.unpackIntBigEndian(x3, scratch, 12);
+        initPermutation(scratch, data);
     }
 
     /**
@@ -365,16 +415,13 @@ public class Serpent implements BlockCipher {
 	 * This is the linear transform in reverse with inverted operations.
      * 
      * @param data Input bit sequence
-     * @return output bit sequence
      */
-    private byte[] invLinearTransform(byte[] data){
-        data = finalPermutation(data);
-        byte[] output = new byte[blockSize()];
-        ByteBuffer buffer = ByteBuffer.wrap(data);
-        int x0 =  buffer.getInt();
-        int x1 =  buffer.getInt();
-        int x2 =  buffer.getInt();
-        int x3 =  buffer.getInt();
+    private void invLinearTransform(byte[] data){
+        finalPermutation(data, scratch);
+        int x0 = Packing.packIntBigEndian(scratch, 0);
+        int x1 = Packing.packIntBigEndian(scratch, 4);
+        int x2 = Packing.packIntBigEndian(scratch, 8);
+        int x3 = Packing.packIntBigEndian(scratch, 12);
 
         x2 = (x2 >>> 22) | (x2 << (32-22));
         x0 = (x0 >>> 5) | (x0 << (32-5));
@@ -386,22 +433,16 @@ public class Serpent implements BlockCipher {
         x1 = x1 ^ x0 ^ x2;
         x2 = (x2 >>> 3) | (x2 << (32-3));
         x0 = (x0 >>> 13) | (x0 << (32-13));
-        
-        buffer.clear();
-        buffer.putInt(x0);
-        buffer.putInt(x1);
-        buffer.putInt(x2);
-        buffer.putInt(x3);
-
-        output = buffer.array();
-        output = initPermutation(output);
-
-        return output;
+        Packing.unpackIntBigEndian(x0, scratch, 0);
+        Packing.unpackIntBigEndian(x1, scratch, 4);
+        Packing.unpackIntBigEndian(x2, scratch, 8);
+        Packing.unpackIntBigEndian(x3, scratch, 12);
+        initPermutation(scratch, data);
     }
 
 	/**
-	 * Fetches round key.  Round keys are built on request from the
-	 * prekeys that were created when the key was set.
+	 * Builds a round key from the prekeys.  Only called from
+	 * <TT>setKey()</TT>, which caches all 33 round keys.
 	 *
 	 * @param round Number of the round for which a key is needed.
 	 * @return byte[] The round key for the requested round.
@@ -423,7 +464,8 @@ public class Serpent implements BlockCipher {
             ((k2 >>> j+1) & 0x01) << 6 |
             ((k3 >>> j+1) & 0x01) << 7 );
         }
-        byte[] out = sBox(in, box);
+        sBox(in, box);
+        byte[] out = in;
         byte[] key = new byte[16];
         for (int i = 3; i >= 0; i--) {
             for(int j = 0; j < 4; j++) {
@@ -433,100 +475,9 @@ public class Serpent implements BlockCipher {
                 key[15-i] |= ((out[i*4+j] >>> 3) & 0x01) << (j*2) | ((out[i*4+j] >>> 7) & 0x01) << (j*2+1) ;
             }
         }
-        return initPermutation(key);
-    }
-
-    /**
-     * Main function, does one of two things:
-     * sets an all-zero-byte key, performs N encryptions of an all-zero-byte plaintext block
-     * or 
-     * encrypts the contents of the input file, storing the result in an output file
-     * args either specifies N or 
-	 * input filename, output filename, key (up to 32 bytes in hex), nonce (integer), and [e]ncrypt or [d]ecrypt
-     */
-    public static void main( String[] args ) {
-        Serpent serpent = new Serpent();
-        if(args.length == 1)
-        {
-            byte[] test_in = new byte[] {
-                0x00,0x00,0x00,0x00,0x00,0x00,0x00,0x00,
-                0x00,0x00,0x00,0x00,0x00,0x00,0x00,0x00,
-            };
-            byte[] test_key = new byte[] {
-                0x00,0x00,0x00,0x00,0x00,0x00,0x00,0x00,
-                0x00,0x00,0x00,0x00,0x00,0x00,0x00,0x00,
-                0x00,0x00,0x00,0x00,0x00,0x00,0x00,0x00,
-                0x00,0x00,0x00,0x00,0x00,0x00,0x00,0x00
-            };
-            int iters = Integer.parseInt(args[0]);
-            for(int n = 0; n < iters; n++){
-                serpent.setKey(test_key);
-                serpent.encrypt(test_in);
-            }
-            System.out.println(Hex.toString(test_in));
-            
-        }
-        else if (args.length == 5) {
-            //read file
-            try{
-            File file_in = new File(args[0]);
-            byte [] fileData = new byte[(int)file_in.length()];
-            DataInputStream in_stream = new DataInputStream((new FileInputStream(file_in)));
-            in_stream.readFully(fileData);
-            in_stream.close();
-            byte[] key = Hex.toByteArray(args[2]);
-            //set key
-            serpent.setKey(key);
-            //setup file writing
-            File file_out = new File(args[1]);
-            DataOutputStream out_stream = new DataOutputStream((new FileOutputStream(file_out)));
-            byte[] iv = new byte[16];
-			//Create Nonce from 4th argument.
-            Packing.unpackIntLittleEndian(Integer.parseInt(args[3]),iv,0);
-            serpent.encrypt(iv);
-            //File encryption in CBC mode
-            if(args[4].equals("e")) {
-                for(int i = 0; i < fileData.length; i+=16){
-                    byte[] block = new byte[] {
-                        0x00,0x00,0x00,0x00,0x00,0x00,0x00,0x00,
-                        0x00,0x00,0x00,0x00,0x00,0x00,0x00,0x00
-                    };
-                    for(int n = 0; n < 16 && i+n < fileData.length; n++){
-                        block[n] = (byte) (fileData[i+n] ^ iv[n]);
-                    }
-                    serpent.encrypt(block);
-                    iv = block;
-                    out_stream.write(block, 0, block.length);
-                }
-            }
-			//File decryption in CBC mode
-            else if(args[4].equals("d")) {
-                for(int i = 0; i < fileData.length; i+=16){
-                    byte[] block = new byte[] {
-                        0x00,0x00,0x00,0x00,0x00,0x00,0x00,0x00,
-                        0x00,0x00,0x00,0x00,0x00,0x00,0x00,0x00
-                    };
-                    for(int n = 0; n < 16 && n < fileData.length; n++){
-                        block[n] = (byte) (fileData[i+n]);
-                    }
-                    byte[] savedForIV = Arrays.copyOf(block,16);
-                    serpent.decrypt(block);
-                    for(int n = 0; n < 16; n++){
-                        block[n] = (byte) (block[n] ^ iv[n]);
-                    }
-                    iv = savedForIV;
-                    out_stream.write(block, 0, block.length);
-                }
-            }
-            else {
-                System.out.println("Encrypt/Decrypt option invalid, input e or d as 5th argument.");
-            }
-            out_stream.close();
-            }
-            catch(IOException e){
-              System.err.println(e.getMessage());
-            }
-        }
+        byte[] roundKey = new byte[16];
+        initPermutation(key, roundKey);
+        return roundKey;
     }
 }//Serpent.java
 
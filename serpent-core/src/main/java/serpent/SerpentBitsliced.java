@@ -0,0 +1,719 @@
+package serpent;
+
+import serpent.util.Packing;
+import java.lang.Integer;
+
+/**
+ * Bitsliced Serpent. The 128-bit state is held in four <TT>int</TT> words for
+ * all 32 rounds and each S-box is evaluated as a sequence of Boolean gates
+ * over those words, as described in the Serpent paper. In this representation
+ * the initial and final permutations amount to loading and storing the block
+ * as four little-endian words, so they are applied once per block.
+ * <P>
+ * Produces the same output as <TT>Serpent</TT> for the same key.
+ */
+public class SerpentBitsliced implements BlockCipher, KeySchedule.Keyed {
+
+    private int[] roundKeys;
+
+    public SerpentBitsliced() {
+        roundKeys = new int[132];
+    }
+
+    /**
+     * Returns this block cipher's block size in bytes.
+     *
+     * @return  Block size.
+     */
+    public int blockSize() {
+        return 16;
+    }
+
+    /**
+     * Returns this block cipher's key size in bytes.
+     *
+     * @return  Key size.
+     */
+    public int keySize() {
+        return 32;
+    }
+
+    /**
+     * Set the key for this block cipher. If <TT>key</TT> is an array of bytes
+     * whose length is less than <TT>keySize()</TT>, it will be padded to 
+     * <TT>keySize()</TT>
+     *
+     * @param  key  Key.
+     */
+    public void setKey(byte[] key) {
+        KeySchedule.expand(key, roundKeys);
+    }
+
+    /**
+     * Key this engine with a schedule expanded by <TT>KeySchedule</TT>.
+     *
+     * @param  roundKeys  Expanded key, copied.
+     */
+    public void setRoundKeys(int[] roundKeys) {
+        System.arraycopy(roundKeys, 0, this.roundKeys, 0, KeySchedule.WORDS);
+    }
+
+    /**
+     * Returns the round keys computed by the last <TT>setKey()</TT>, for
+     * <TT>SerpentVector</TT>, which shares the key schedule. Not a copy.
+     */
+    int[] roundKeys() {
+        return roundKeys;
+    }
+
+    /**
+     * Encrypt the given plaintext. <TT>text</TT> must be an array of bytes
+     * whose length is equal to <TT>blockSize()</TT>. On input, <TT>text</TT>
+     * contains the plaintext block. The plaintext block is encrypted using the
+     * key specified in the most recent call to <TT>setKey()</TT>. On output,
+     * <TT>text</TT> contains the ciphertext block.
+     *
+     * @param  text  Plaintext (on input), ciphertext (on output).
+     */
+    public void encrypt(byte[] text) {
+        encrypt(text, 0, text, 0);
+    }
+
+    /**
+     * Encrypt one block read from <TT>in</TT> at <TT>inOff</TT> and store the
+     * ciphertext block in <TT>out</TT> at <TT>outOff</TT>. The two blocks may
+     * overlap exactly, as in <TT>encrypt(text)</TT>. No memory is allocated
+     * per block.
+     *
+     * @param  in      Plaintext.
+     * @param  inOff   Offset of the plaintext block in <TT>in</TT>.
+     * @param  out     Ciphertext.
+     * @param  outOff  Offset of the ciphertext block in <TT>out</TT>.
+     */
+    public void encrypt(byte[] in, int inOff, byte[] out, int outOff) {
+        encrypt(roundKeys, in, inOff, out, outOff);
+    }
+
+    /**
+     * Encrypt one block under an expanded key. <TT>SerpentKey</TT> shares a
+     * single schedule between threads through this method.
+     */
+    static void encrypt(int[] roundKeys, byte[] in, int inOff, byte[] out, int outOff) {
+        int x0 = Packing.packIntLittleEndian(in, inOff);
+        int x1 = Packing.packIntLittleEndian(in, inOff+4);
+        int x2 = Packing.packIntLittleEndian(in, inOff+8);
+        int x3 = Packing.packIntLittleEndian(in, inOff+12);
+        int y0, y1, y2, y3;
+        int t1, t2, t3, t4, t5, t6, t7, t8, t9, t10, t11, t12;
+        //32 rounds, eight S-boxes per pass
+        for (int k = 0; k < 128; k += 32) {
+            //S0
+            x0 ^= roundKeys[k];
+            x1 ^= roundKeys[k+1];
+            x2 ^= roundKeys[k+2];
+            x3 ^= roundKeys[k+3];
+            t1 = x0 ^ x3;
+            t3 = x2 ^ t1;
+            t4 = x1 ^ t3;
+            y3 = (x0 & x3) ^ t4;
+            t7 = x0 ^ (x1 & t1);
+            y2 = t4 ^ (x2 | t7);
+            t12 = y3 & (t3 ^ t7);
+            y1 = (~t3) ^ t12;
+            y0 = t12 ^ (~t7);
+            x0 = (y0 << 13) | (y0 >>> (32 - 13));
+            x2 = (y2 << 3) | (y2 >>> (32 - 3));
+            x1 = y1 ^ x0 ^ x2;
+            x3 = y3 ^ x2 ^ (x0 << 3);
+            x1 = (x1 << 1) | (x1 >>> (32 - 1));
+            x3 = (x3 << 7) | (x3 >>> (32 - 7));
+            x0 = x0 ^ x1 ^ x3;
+            x2 = x2 ^ x3 ^ (x1 << 7);
+            x0 = (x0 << 5) | (x0 >>> (32 - 5));
+            x2 = (x2 << 22) | (x2 >>> (32 - 22));
+
+            //S1
+            x0 ^= roundKeys[k+4];
+            x1 ^= roundKeys[k+5];
+            x2 ^= roundKeys[k+6];
+            x3 ^= roundKeys[k+7];
+            t2 = x1 ^ (~x0);
+            t5 = x2 ^ (x0 | t2);
+            y2 = x3 ^ t5;
+            t7 = x1 ^ (x3 | t2);
+            t8 = t2 ^ y2;
+            y3 = t8 ^ (t5 & t7);
+            t11 = t5 ^ t7;
+            y1 = y3 ^ t11;
+            y0 = t5 ^ (t8 & t11);
+            x0 = (y0 << 13) | (y0 >>> (32 - 13));
+            x2 = (y2 << 3) | (y2 >>> (32 - 3));
+            x1 = y1 ^ x0 ^ x2;
+            x3 = y3 ^ x2 ^ (x0 << 3);
+            x1 = (x1 << 1) | (x1 >>> (32 - 1));
+            x3 = (x3 << 7) | (x3 >>> (32 - 7));
+            x0 = x0 ^ x1 ^ x3;
+            x2 = x2 ^ x3 ^ (x1 << 7);
+            x0 = (x0 << 5) | (x0 >>> (32 - 5));
+            x2 = (x2 << 22) | (x2 >>> (32 - 22));
+
+            //S2
+            x0 ^= roundKeys[k+8];
+            x1 ^= roundKeys[k+9];
+            x2 ^= roundKeys[k+10];
+            x3 ^= roundKeys[k+11];
+            t1 = ~x0;
+            t2 = x1 ^ x3;
+            t3 = x2 & t1;
+            y0 = t2 ^ t3;
+            t5 = x2 ^ t1;
+            t6 = x2 ^ y0;
+            t7 = x1 & t6;
+            y3 = t5 ^ t7;
+            y2 = x0 ^ ((x3 | t7) & (y0 | t5));
+            y1 = (t2 ^ y3) ^ (y2 ^ (x3 | t1));
+            x0 = (y0 << 13) | (y0 >>> (32 - 13));
+            x2 = (y2 << 3) | (y2 >>> (32 - 3));
+            x1 = y1 ^ x0 ^ x2;
+            x3 = y3 ^ x2 ^ (x0 << 3);
+            x1 = (x1 << 1) | (x1 >>> (32 - 1));
+            x3 = (x3 << 7) | (x3 >>> (32 - 7));
+            x0 = x0 ^ x1 ^ x3;
+            x2 = x2 ^ x3 ^ (x1 << 7);
+            x0 = (x0 << 5) | (x0 >>> (32 - 5));
+            x2 = (x2 << 22) | (x2 >>> (32 - 22));
+
+            //S3
+            x0 ^= roundKeys[k+12];
+            x1 ^= roundKeys[k+13];
+            x2 ^= roundKeys[k+14];
+            x3 ^= roundKeys[k+15];
+            t1 = x0 ^ x1;
+            t2 = x0 & x2;
+            t3 = x0 | x3;
+            t4 = x2 ^ x3;
+            t5 = t1 & t3;
+            t6 = t2 | t5;
+            y2 = t4 ^ t6;
+            t8 = x1 ^ t3;
+            t9 = t6 ^ t8;
+            t10 = t4 & t9;
+            y0 = t1 ^ t10;
+            t12 = y2 & y0;
+            y1 = t9 ^ t12;
+            y3 = (x1 | x3) ^ (t4 ^ t12);
+            x0 = (y0 << 13) | (y0 >>> (32 - 13));
+            x2 = (y2 << 3) | (y2 >>> (32 - 3));
+            x1 = y1 ^ x0 ^ x2;
+            x3 = y3 ^ x2 ^ (x0 << 3);
+            x1 = (x1 << 1) | (x1 >>> (32 - 1));
+            x3 = (x3 << 7) | (x3 >>> (32 - 7));
+            x0 = x0 ^ x1 ^ x3;
+            x2 = x2 ^ x3 ^ (x1 << 7);
+            x0 = (x0 << 5) | (x0 >>> (32 - 5));
+            x2 = (x2 << 22) | (x2 >>> (32 - 22));
+
+            //S4
+            x0 ^= roundKeys[k+16];
+            x1 ^= roundKeys[k+17];
+            x2 ^= roundKeys[k+18];
+            x3 ^= roundKeys[k+19];
+            t1 = x0 ^ x3;
+            t2 = x3 & t1;
+            t3 = x2 ^ t2;
+            t4 = x1 | t3;
+            y3 = t1 ^ t4;
+            t6 = ~x1;
+            t7 = t1 | t6;
+            y0 = t3 ^ t7;
+            t9 = x0 & y0;
+            t10 = t1 ^ t6;
+            t11 = t4 & t10;
+            y2 = t9 ^ t11;
+            y1 = (x0 ^ t3) ^ (t10 & y2);
+            x0 = (y0 << 13) | (y0 >>> (32 - 13));
+            x2 = (y2 << 3) | (y2 >>> (32 - 3));
+            x1 = y1 ^ x0 ^ x2;
+            x3 = y3 ^ x2 ^ (x0 << 3);
+            x1 = (x1 << 1) | (x1 >>> (32 - 1));
+            x3 = (x3 << 7) | (x3 >>> (32 - 7));
+            x0 = x0 ^ x1 ^ x3;
+            x2 = x2 ^ x3 ^ (x1 << 7);
+            x0 = (x0 << 5) | (x0 >>> (32 - 5));
+            x2 = (x2 << 22) | (x2 >>> (32 - 22));
+
+            //S5
+            x0 ^= roundKeys[k+20];
+            x1 ^= roundKeys[k+21];
+            x2 ^= roundKeys[k+22];
+            x3 ^= roundKeys[k+23];
+            t1 = ~x0;
+            t2 = x0 ^ x1;
+            t3 = x0 ^ x3;
+            t4 = x2 ^ t1;
+            t5 = t2 | t3;
+            y0 = t4 ^ t5;
+            t7 = x3 & y0;
+            t8 = t2 ^ y0;
+            y1 = t7 ^ t8;
+            t10 = t1 | y0;
+            t11 = t2 | t7;
+            t12 = t3 ^ t10;
+            y2 = t11 ^ t12;
+            y3 = (x1 ^ t7) ^ (y1 & t12);
+            x0 = (y0 << 13) | (y0 >>> (32 - 13));
+            x2 = (y2 << 3) | (y2 >>> (32 - 3));
+            x1 = y1 ^ x0 ^ x2;
+            x3 = y3 ^ x2 ^ (x0 << 3);
+            x1 = (x1 << 1) | (x1 >>> (32 - 1));
+            x3 = (x3 << 7) | (x3 >>> (32 - 7));
+            x0 = x0 ^ x1 ^ x3;
+            x2 = x2 ^ x3 ^ (x1 << 7);
+            x0 = (x0 << 5) | (x0 >>> (32 - 5));
+            x2 = (x2 << 22) | (x2 >>> (32 - 22));
+
+            //S6
+            x0 ^= roundKeys[k+24];
+            x1 ^= roundKeys[k+25];
+            x2 ^= roundKeys[k+26];
+            x3 ^= roundKeys[k+27];
+            t1 = ~x0;
+            t2 = x0 ^ x3;
+            t3 = x1 ^ t2;
+            t4 = t1 | t2;
+            t5 = x2 ^ t4;
+            y1 = x1 ^ t5;
+            t7 = t2 | y1;
+            t8 = x3 ^ t7;
+            t9 = t5 & t8;
+            y2 = t3 ^ t9;
+            t11 = t5 ^ t8;
+            y0 = y2 ^ t11;
+            y3 = (~t5) ^ (t3 & t11);
+            x0 = (y0 << 13) | (y0 >>> (32 - 13));
+            x2 = (y2 << 3) | (y2 >>> (32 - 3));
+            x1 = y1 ^ x0 ^ x2;
+            x3 = y3 ^ x2 ^ (x0 << 3);
+            x1 = (x1 << 1) | (x1 >>> (32 - 1));
+            x3 = (x3 << 7) | (x3 >>> (32 - 7));
+            x0 = x0 ^ x1 ^ x3;
+            x2 = x2 ^ x3 ^ (x1 << 7);
+            x0 = (x0 << 5) | (x0 >>> (32 - 5));
+            x2 = (x2 << 22) | (x2 >>> (32 - 22));
+
+            //S7
+            x0 ^= roundKeys[k+28];
+            x1 ^= roundKeys[k+29];
+            x2 ^= roundKeys[k+30];
+            x3 ^= roundKeys[k+31];
+            t1 = x1 ^ x2;
+            t2 = x2 & t1;
+            t3 = x3 ^ t2;
+            t4 = x0 ^ t3;
+            t5 = x3 | t1;
+            t6 = t4 & t5;
+            y1 = x1 ^ t6;
+            t8 = t3 | y1;
+            t9 = x0 & t4;
+            y3 = t1 ^ t9;
+            t11 = t4 ^ t8;
+            t12 = y3 & t11;
+            y2 = t3 ^ t12;
+            y0 = (~t11) ^ (y3 & y2);
+            if (k == 96) {
+                //Round 32 replaces the linear transform with a final key xor.
+                x0 = y0 ^ roundKeys[128];
+                x1 = y1 ^ roundKeys[129];
+                x2 = y2 ^ roundKeys[130];
+                x3 = y3 ^ roundKeys[131];
+            }
+            else {
+                x0 = (y0 << 13) | (y0 >>> (32 - 13));
+                x2 = (y2 << 3) | (y2 >>> (32 - 3));
+                x1 = y1 ^ x0 ^ x2;
+                x3 = y3 ^ x2 ^ (x0 << 3);
+                x1 = (x1 << 1) | (x1 >>> (32 - 1));
+                x3 = (x3 << 7) | (x3 >>> (32 - 7));
+                x0 = x0 ^ x1 ^ x3;
+                x2 = x2 ^ x3 ^ (x1 << 7);
+                x0 = (x0 << 5) | (x0 >>> (32 - 5));
+                x2 = (x2 << 22) | (x2 >>> (32 - 22));
+            }
+        }
+        Packing.unpackIntLittleEndian(x0, out, outOff);
+        Packing.unpackIntLittleEndian(x1, out, outOff+4);
+        Packing.unpackIntLittleEndian(x2, out, outOff+8);
+        Packing.unpackIntLittleEndian(x3, out, outOff+12);
+    }
+
+    /**
+     * Decrypt the given ciphertext.  We decrypt by performing the inverse
+     * operations performed to encrypt in reverse order.
+     *
+     * @param  text  ciphertext (on input), original plaintext (on output).
+     */
+    public void decrypt(byte[] text) {
+        decrypt(text, 0, text, 0);
+    }
+
+    /**
+     * Decrypt one block read from <TT>in</TT> at <TT>inOff</TT> and store the
+     * plaintext block in <TT>out</TT> at <TT>outOff</TT>. The two blocks may
+     * overlap exactly. No memory is allocated per block.
+     *
+     * @param  in      Ciphertext.
+     * @param  inOff   Offset of the ciphertext block in <TT>in</TT>.
+     * @param  out     Plaintext.
+     * @param  outOff  Offset of the plaintext block in <TT>out</TT>.
+     */
+    public void decrypt(byte[] in, int inOff, byte[] out, int outOff) {
+        decrypt(roundKeys, in, inOff, out, outOff);
+    }
+
+    /**
+     * Decrypt one block under an expanded key.
+     */
+    static void decrypt(int[] roundKeys, byte[] in, int inOff, byte[] out, int outOff) {
+        int x0 = Packing.packIntLittleEndian(in, inOff) ^ roundKeys[128];
+        int x1 = Packing.packIntLittleEndian(in, inOff+4) ^ roundKeys[129];
+        int x2 = Packing.packIntLittleEndian(in, inOff+8) ^ roundKeys[130];
+        int x3 = Packing.packIntLittleEndian(in, inOff+12) ^ roundKeys[131];
+        int y0, y1, y2, y3;
+        int t1, t2, t3, t4, t5, t6, t7, t8, t9, t10, t11, t12;
+        //32 rounds in reverse, eight inverse S-boxes per pass
+        for (int k = 96; k >= 0; k -= 32) {
+            //InvS7
+            if (k != 96) {
+                x2 = (x2 >>> 22) | (x2 << (32 - 22));
+                x0 = (x0 >>> 5) | (x0 << (32 - 5));
+                x2 = x2 ^ x3 ^ (x1 << 7);
+                x0 = x0 ^ x1 ^ x3;
+                x3 = (x3 >>> 7) | (x3 << (32 - 7));
+                x1 = (x1 >>> 1) | (x1 << (32 - 1));
+                x3 = x3 ^ x2 ^ (x0 << 3);
+                x1 = x1 ^ x0 ^ x2;
+                x2 = (x2 >>> 3) | (x2 << (32 - 3));
+                x0 = (x0 >>> 13) | (x0 << (32 - 13));
+            }
+            t3 = x2 | (x0 & x1);
+            t4 = x3 & (x0 | x1);
+            y3 = t3 ^ t4;
+            t6 = ~x3;
+            t7 = x1 ^ t4;
+            t9 = t7 | (y3 ^ t6);
+            y1 = x0 ^ t9;
+            y0 = (x2 ^ t7) ^ (x3 | y1);
+            y2 = (t3 ^ y1) ^ (y0 ^ (x0 & y3));
+            x0 = y0 ^ roundKeys[k+28];
+            x1 = y1 ^ roundKeys[k+29];
+            x2 = y2 ^ roundKeys[k+30];
+            x3 = y3 ^ roundKeys[k+31];
+
+            //InvS6
+            x2 = (x2 >>> 22) | (x2 << (32 - 22));
+            x0 = (x0 >>> 5) | (x0 << (32 - 5));
+            x2 = x2 ^ x3 ^ (x1 << 7);
+            x0 = x0 ^ x1 ^ x3;
+            x3 = (x3 >>> 7) | (x3 << (32 - 7));
+            x1 = (x1 >>> 1) | (x1 << (32 - 1));
+            x3 = x3 ^ x2 ^ (x0 << 3);
+            x1 = x1 ^ x0 ^ x2;
+            x2 = (x2 >>> 3) | (x2 << (32 - 3));
+            x0 = (x0 >>> 13) | (x0 << (32 - 13));
+            t1 = ~x0;
+            t2 = x0 ^ x1;
+            t3 = x2 ^ t2;
+            t4 = x2 | t1;
+            t5 = x3 ^ t4;
+            y1 = t3 ^ t5;
+            t7 = t3 & t5;
+            t8 = t2 ^ t7;
+            t9 = x1 | t8;
+            y3 = t5 ^ t9;
+            t11 = x1 | y3;
+            y0 = t8 ^ t11;
+            y2 = (x3 & t1) ^ (t3 ^ t11);
+            x0 = y0 ^ roundKeys[k+24];
+            x1 = y1 ^ roundKeys[k+25];
+            x2 = y2 ^ roundKeys[k+26];
+            x3 = y3 ^ roundKeys[k+27];
+
+            //InvS5
+            x2 = (x2 >>> 22) | (x2 << (32 - 22));
+            x0 = (x0 >>> 5) | (x0 << (32 - 5));
+            x2 = x2 ^ x3 ^ (x1 << 7);
+            x0 = x0 ^ x1 ^ x3;
+            x3 = (x3 >>> 7) | (x3 << (32 - 7));
+            x1 = (x1 >>> 1) | (x1 << (32 - 1));
+            x3 = x3 ^ x2 ^ (x0 << 3);
+            x1 = x1 ^ x0 ^ x2;
+            x2 = (x2 >>> 3) | (x2 << (32 - 3));
+            x0 = (x0 >>> 13) | (x0 << (32 - 13));
+            t1 = ~x2;
+            t2 = x1 & t1;
+            t3 = x3 ^ t2;
+            t4 = x0 & t3;
+            t5 = x1 ^ t1;
+            y3 = t4 ^ t5;
+            t7 = x1 | y3;
+            t8 = x0 & t7;
+            y1 = t3 ^ t8;
+            t10 = x0 | x3;
+            t11 = t1 ^ t7;
+            y0 = t10 ^ t11;
+            y2 = (x1 & t10) ^ (t4 | (x0 ^ x2));
+            x0 = y0 ^ roundKeys[k+20];
+            x1 = y1 ^ roundKeys[k+21];
+            x2 = y2 ^ roundKeys[k+22];
+            x3 = y3 ^ roundKeys[k+23];
+
+            //InvS4
+            x2 = (x2 >>> 22) | (x2 << (32 - 22));
+            x0 = (x0 >>> 5) | (x0 << (32 - 5));
+            x2 = x2 ^ x3 ^ (x1 << 7);
+            x0 = x0 ^ x1 ^ x3;
+            x3 = (x3 >>> 7) | (x3 << (32 - 7));
+            x1 = (x1 >>> 1) | (x1 << (32 - 1));
+            x3 = x3 ^ x2 ^ (x0 << 3);
+            x1 = x1 ^ x0 ^ x2;
+            x2 = (x2 >>> 3) | (x2 << (32 - 3));
+            x0 = (x0 >>> 13) | (x0 << (32 - 13));
+            t1 = x2 | x3;
+            t2 = x0 & t1;
+            t3 = x1 ^ t2;
+            t4 = x0 & t3;
+            t5 = x2 ^ t4;
+            y1 = x3 ^ t5;
+            t7 = ~x0;
+            t8 = t5 & y1;
+            y3 = t3 ^ t8;
+            t10 = y1 | t7;
+            t11 = x3 ^ t10;
+            y0 = y3 ^ t11;
+            y2 = (t3 & t11) ^ (y1 ^ t7);
+            x0 = y0 ^ roundKeys[k+16];
+            x1 = y1 ^ roundKeys[k+17];
+            x2 = y2 ^ roundKeys[k+18];
+            x3 = y3 ^ roundKeys[k+19];
+
+            //InvS3
+            x2 = (x2 >>> 22) | (x2 << (32 - 22));
+            x0 = (x0 >>> 5) | (x0 << (32 - 5));
+            x2 = x2 ^ x3 ^ (x1 << 7);
+            x0 = x0 ^ x1 ^ x3;
+            x3 = (x3 >>> 7) | (x3 << (32 - 7));
+            x1 = (x1 >>> 1) | (x1 << (32 - 1));
+            x3 = x3 ^ x2 ^ (x0 << 3);
+            x1 = x1 ^ x0 ^ x2;
+            x2 = (x2 >>> 3) | (x2 << (32 - 3));
+            x0 = (x0 >>> 13) | (x0 << (32 - 13));
+            t1 = x0 | x1;
+            t2 = x1 ^ x2;
+            t3 = x1 & t2;
+            t4 = x0 ^ t3;
+            t5 = x2 ^ t4;
+            t6 = x3 | t4;
+            y0 = t2 ^ t6;
+            t8 = t2 | t6;
+            t9 = x3 ^ t8;
+            y2 = t5 ^ t9;
+            t11 = t1 ^ t9;
+            t12 = y0 & t11;
+            y3 = t4 ^ t12;
+            y1 = y3 ^ (y0 ^ t11);
+            x0 = y0 ^ roundKeys[k+12];
+            x1 = y1 ^ roundKeys[k+13];
+            x2 = y2 ^ roundKeys[k+14];
+            x3 = y3 ^ roundKeys[k+15];
+
+            //InvS2
+            x2 = (x2 >>> 22) | (x2 << (32 - 22));
+            x0 = (x0 >>> 5) | (x0 << (32 - 5));
+            x2 = x2 ^ x3 ^ (x1 << 7);
+            x0 = x0 ^ x1 ^ x3;
+            x3 = (x3 >>> 7) | (x3 << (32 - 7));
+            x1 = (x1 >>> 1) | (x1 << (32 - 1));
+            x3 = x3 ^ x2 ^ (x0 << 3);
+            x1 = x1 ^ x0 ^ x2;
+            x2 = (x2 >>> 3) | (x2 << (32 - 3));
+            x0 = (x0 >>> 13) | (x0 << (32 - 13));
+            t1 = x1 ^ x3;
+            t2 = ~t1;
+            t3 = x0 ^ x2;
+            t4 = x2 ^ t1;
+            t5 = x1 & t4;
+            y0 = t3 ^ t5;
+            t7 = x0 | t2;
+            t8 = x3 ^ t7;
+            t9 = t3 | t8;
+            y3 = t1 ^ t9;
+            t11 = ~t4;
+            t12 = y0 | y3;
+            y1 = t11 ^ t12;
+            y2 = (x3 & t11) ^ (t3 ^ t12);
+            x0 = y0 ^ roundKeys[k+8];
+            x1 = y1 ^ roundKeys[k+9];
+            x2 = y2 ^ roundKeys[k+10];
+            x3 = y3 ^ roundKeys[k+11];
+
+            //InvS1
+            x2 = (x2 >>> 22) | (x2 << (32 - 22));
+            x0 = (x0 >>> 5) | (x0 << (32 - 5));
+            x2 = x2 ^ x3 ^ (x1 << 7);
+            x0 = x0 ^ x1 ^ x3;
+            x3 = (x3 >>> 7) | (x3 << (32 - 7));
+            x1 = (x1 >>> 1) | (x1 << (32 - 1));
+            x3 = x3 ^ x2 ^ (x0 << 3);
+            x1 = x1 ^ x0 ^ x2;
+            x2 = (x2 >>> 3) | (x2 << (32 - 3));
+            x0 = (x0 >>> 13) | (x0 << (32 - 13));
+            t1 = x1 ^ x3;
+            t3 = x0 ^ (x1 & t1);
+            t4 = t1 ^ t3;
+            y3 = x2 ^ t4;
+            t7 = x1 ^ (t1 & t3);
+            t8 = y3 | t7;
+            y1 = t3 ^ t8;
+            t10 = ~y1;
+            t11 = y3 ^ t7;
+            y0 = t10 ^ t11;
+            y2 = t4 ^ (t10 | t11);
+            x0 = y0 ^ roundKeys[k+4];
+            x1 = y1 ^ roundKeys[k+5];
+            x2 = y2 ^ roundKeys[k+6];
+            x3 = y3 ^ roundKeys[k+7];
+
+            //InvS0
+            x2 = (x2 >>> 22) | (x2 << (32 - 22));
+            x0 = (x0 >>> 5) | (x0 << (32 - 5));
+            x2 = x2 ^ x3 ^ (x1 << 7);
+            x0 = x0 ^ x1 ^ x3;
+            x3 = (x3 >>> 7) | (x3 << (32 - 7));
+            x1 = (x1 >>> 1) | (x1 << (32 - 1));
+            x3 = x3 ^ x2 ^ (x0 << 3);
+            x1 = x1 ^ x0 ^ x2;
+            x2 = (x2 >>> 3) | (x2 << (32 - 3));
+            x0 = (x0 >>> 13) | (x0 << (32 - 13));
+            t1 = ~x0;
+            t2 = x0 ^ x1;
+            t4 = x3 ^ (t1 | t2);
+            t5 = x2 ^ t4;
+            y2 = t2 ^ t5;
+            t8 = t1 ^ (x3 & t2);
+            y1 = t4 ^ (y2 & t8);
+            y3 = (x0 & t4) ^ (t5 | y1);
+            y0 = y3 ^ (t5 ^ t8);
+            x0 = y0 ^ roundKeys[k];
+            x1 = y1 ^ roundKeys[k+1];
+            x2 = y2 ^ roundKeys[k+2];
+            x3 = y3 ^ roundKeys[k+3];
+        }
+        Packing.unpackIntLittleEndian(x0, out, outOff);
+        Packing.unpackIntLittleEndian(x1, out, outOff+4);
+        Packing.unpackIntLittleEndian(x2, out, outOff+8);
+        Packing.unpackIntLittleEndian(x3, out, outOff+12);
+    }
+
+    /**
+     * Encrypt <TT>nBlocks</TT> consecutive blocks in ECB fashion, reading
+     * from <TT>src</TT> at <TT>srcOff</TT> and writing to <TT>dst</TT> at
+     * <TT>dstOff</TT>. The source and destination ranges may be the same.
+     *
+     * @param  src      Plaintext blocks.
+     * @param  srcOff   Offset of the first plaintext block in <TT>src</TT>.
+     * @param  dst      Ciphertext blocks.
+     * @param  dstOff   Offset of the first ciphertext block in <TT>dst</TT>.
+     * @param  nBlocks  Number of blocks.
+     */
+    public void encryptBlocks(byte[] src, int srcOff, byte[] dst, int dstOff, int nBlocks) {
+        for(int i = 0; i < nBlocks; i++){
+            encrypt(src, srcOff+16*i, dst, dstOff+16*i);
+        }
+    }
+
+    /**
+     * Decrypt <TT>nBlocks</TT> consecutive blocks in ECB fashion, reading
+     * from <TT>src</TT> at <TT>srcOff</TT> and writing to <TT>dst</TT> at
+     * <TT>dstOff</TT>. The source and destination ranges may be the same.
+     *
+     * @param  src      Ciphertext blocks.
+     * @param  srcOff   Offset of the first ciphertext block in <TT>src</TT>.
+     * @param  dst      Plaintext blocks.
+     * @param  dstOff   Offset of the first plaintext block in <TT>dst</TT>.
+     * @param  nBlocks  Number of blocks.
+     */
+    public void decryptBlocks(byte[] src, int srcOff, byte[] dst, int dstOff, int nBlocks) {
+        for(int i = 0; i < nBlocks; i++){
+            decrypt(src, srcOff+16*i, dst, dstOff+16*i);
+        }
+    }
+
+    /**
+     * Encrypt one block read from <TT>in</TT> at <TT>inOff</TT> under
+     * <TT>key</TT> and store the ciphertext block in <TT>out</TT> at
+     * <TT>outOff</TT>. Keeps no state, so any number of threads may call it
+     * with the same key at once.
+     *
+     * @param  key     Expanded key.
+     * @param  in      Plaintext.
+     * @param  inOff   Offset of the plaintext block in <TT>in</TT>.
+     * @param  out     Ciphertext.
+     * @param  outOff  Offset of the ciphertext block in <TT>out</TT>.
+     */
+    public static void encrypt(SerpentKey key, byte[] in, int inOff, byte[] out, int outOff) {
+        encrypt(key.roundKeys(), in, inOff, out, outOff);
+    }
+
+    /**
+     * Decrypt one block read from <TT>in</TT> at <TT>inOff</TT> under
+     * <TT>key</TT> and store the plaintext block in <TT>out</TT> at
+     * <TT>outOff</TT>. Keeps no state.
+     *
+     * @param  key     Expanded key.
+     * @param  in      Ciphertext.
+     * @param  inOff   Offset of the ciphertext block in <TT>in</TT>.
+     * @param  out     Plaintext.
+     * @param  outOff  Offset of the plaintext block in <TT>out</TT>.
+     */
+    public static void decrypt(SerpentKey key, byte[] in, int inOff, byte[] out, int outOff) {
+        decrypt(key.roundKeys(), in, inOff, out, outOff);
+    }
+
+    /**
+     * Encrypt <TT>nBlocks</TT> consecutive blocks under <TT>key</TT> in ECB
+     * fashion. Keeps no state.
+     *
+     * @param  key      Expanded key.
+     * @param  src      Plaintext blocks.
+     * @param  srcOff   Offset of the first plaintext block in <TT>src</TT>.
+     * @param  dst      Ciphertext blocks.
+     * @param  dstOff   Offset of the first ciphertext block in <TT>dst</TT>.
+     * @param  nBlocks  Number of blocks.
+     */
+    public static void encryptBlocks(SerpentKey key, byte[] src, int srcOff, byte[] dst, int dstOff, int nBlocks) {
+        int[] roundKeys = key.roundKeys();
+        for(int i = 0; i < nBlocks; i++){
+            encrypt(roundKeys, src, srcOff+16*i, dst, dstOff+16*i);
+        }
+    }
+
+    /**
+     * Decrypt <TT>nBlocks</TT> consecutive blocks under <TT>key</TT> in ECB
+     * fashion. Keeps no state.
+     *
+     * @param  key      Expanded key.
+     * @param  src      Ciphertext blocks.
+     * @param  srcOff   Offset of the first ciphertext block in <TT>src</TT>.
+     * @param  dst      Plaintext blocks.
+     * @param  dstOff   Offset of the first plaintext block in <TT>dst</TT>.
+     * @param  nBlocks  Number of blocks.
+     */
+    public static void decryptBlocks(SerpentKey key, byte[] src, int srcOff, byte[] dst, int dstOff, int nBlocks) {
+        int[] roundKeys = key.roundKeys();
+        for(int i = 0; i < nBlocks; i++){
+            decrypt(roundKeys, src, srcOff+16*i, dst, dstOff+16*i);
+        }
+    }
+}//SerpentBitsliced.java
+
+
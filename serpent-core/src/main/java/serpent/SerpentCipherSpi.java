@@ -0,0 +1,512 @@
+package serpent;
+
+import serpent.metrics.CipherMetrics;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.security.AlgorithmParameters;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.ProviderException;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.InvalidParameterSpecException;
+import java.util.Arrays;
+import java.util.Locale;
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.CipherSpi;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+
+/**
+ * <TT>CipherSpi</TT> for Serpent, registered by <TT>SerpentProvider</TT>.
+ * ECB runs the engine from <TT>SerpentEngines.fastest()</TT> directly, CBC
+ * and CTR run on <TT>CbcMode</TT> and <TT>CounterMode</TT> over the same
+ * engine, on the calling thread. The engine or mode is kept across
+ * <TT>init()</TT> calls with the same key, so changing only the IV does not
+ * expand the key again.
+ * <P>
+ * All data is processed through <TT>ByteBuffer</TT>s with absolute indexes,
+ * so the <TT>ByteBuffer</TT> overloads of <TT>update()</TT> and
+ * <TT>doFinal()</TT> work on direct buffers without copying them to an
+ * array. Only a partial block left over between calls is buffered. The input
+ * is copied aside only when it shares an array with the output and would be
+ * overwritten before it is read.
+ * <P>
+ * When encrypting in CBC or CTR mode without an IV, a random one is
+ * generated; it is available from <TT>getIV()</TT>. <TT>getParameters()</TT>
+ * returns null, since no <TT>AlgorithmParameters</TT> are registered for
+ * Serpent.
+ */
+public class SerpentCipherSpi extends CipherSpi {
+
+    private static final int ECB = 0;
+    private static final int CBC = 1;
+    private static final int CTR = 2;
+
+    private static final ByteBuffer ZERO = ByteBuffer.wrap(new byte[16]);
+
+    private int mode = ECB;
+    private boolean padding;
+    private boolean encrypting;
+    //Key of the engine and modes below, which are created on first use.
+    private byte[] keyBytes;
+    private BlockCipher cipher;
+    private CbcMode cbc;
+    private CounterMode ctr;
+    private byte[] iv;
+
+    //Chaining value in CBC mode.
+    private final byte[] chain = new byte[16];
+    private final byte[] next = new byte[16];
+
+    //Input bytes not yet processed in ECB and CBC mode.
+    private final byte[] buffered = new byte[16];
+    private final ByteBuffer bufferedBuffer = ByteBuffer.wrap(buffered);
+    private int bufferedLength;
+
+    //Current keystream block and stream position of the next one in CTR mode.
+    private final byte[] keystream = new byte[16];
+    private final ByteBuffer keystreamBuffer = ByteBuffer.wrap(keystream);
+    private int keystreamUsed;
+    private long pos;
+
+    private final byte[] block = new byte[16];
+    private final ByteBuffer blockBuffer = ByteBuffer.wrap(block);
+
+    public SerpentCipherSpi() {
+    }
+
+    protected void engineSetMode(String mode) throws NoSuchAlgorithmException {
+        switch (mode.toUpperCase(Locale.ROOT)) {
+            case "ECB":
+                this.mode = ECB;
+                break;
+            case "CBC":
+                this.mode = CBC;
+                break;
+            case "CTR":
+                this.mode = CTR;
+                break;
+            default:
+                throw new NoSuchAlgorithmException("Unsupported mode " + mode);
+        }
+    }
+
+    protected void engineSetPadding(String padding) throws NoSuchPaddingException {
+        switch (padding.toUpperCase(Locale.ROOT)) {
+            case "NOPADDING":
+                this.padding = false;
+                break;
+            case "PKCS5PADDING":
+                if (mode == CTR) {
+                    throw new NoSuchPaddingException("CTR mode must be used with NoPadding");
+                }
+                this.padding = true;
+                break;
+            default:
+                throw new NoSuchPaddingException("Unsupported padding " + padding);
+        }
+    }
+
+    protected int engineGetBlockSize() {
+        return 16;
+    }
+
+    protected int engineGetOutputSize(int inputLen) {
+        if (mode == CTR) {
+            return inputLen;
+        }
+        int total = bufferedLength + inputLen;
+        if (encrypting && padding) {
+            return (total & ~15) + 16;
+        }
+        return total & ~15;
+    }
+
+    protected byte[] engineGetIV() {
+        return iv == null ? null : iv.clone();
+    }
+
+    protected AlgorithmParameters engineGetParameters() {
+        return null;
+    }
+
+    protected int engineGetKeySize(Key key) throws InvalidKeyException {
+        return 8 * rawKey(key).length;
+    }
+
+    protected void engineInit(int opmode, Key key, SecureRandom random) throws InvalidKeyException {
+        try {
+            engineInit(opmode, key, (AlgorithmParameterSpec)null, random);
+        }
+        catch (InvalidAlgorithmParameterException e) {
+            throw new InvalidKeyException(e.getMessage(), e);
+        }
+    }
+
+    protected void engineInit(int opmode, Key key, AlgorithmParameters params, SecureRandom random)
+            throws InvalidKeyException, InvalidAlgorithmParameterException {
+        IvParameterSpec spec = null;
+        if (params != null) {
+            try {
+                spec = params.getParameterSpec(IvParameterSpec.class);
+            }
+            catch (InvalidParameterSpecException e) {
+                throw new InvalidAlgorithmParameterException("Parameters do not contain an IV", e);
+            }
+        }
+        engineInit(opmode, key, spec, random);
+    }
+
+    protected void engineInit(int opmode, Key key, AlgorithmParameterSpec params, SecureRandom random)
+            throws InvalidKeyException, InvalidAlgorithmParameterException {
+        encrypting = opmode == Cipher.ENCRYPT_MODE || opmode == Cipher.WRAP_MODE;
+        byte[] raw = rawKey(key);
+        if (mode == ECB) {
+            if (params != null) {
+                throw new InvalidAlgorithmParameterException("ECB mode takes no parameters");
+            }
+            iv = null;
+        }
+        else if (params == null) {
+            if (!encrypting) {
+                throw new InvalidAlgorithmParameterException("Decryption needs an IV");
+            }
+            iv = new byte[16];
+            (random != null ? random : new SecureRandom()).nextBytes(iv);
+        }
+        else if (params instanceof IvParameterSpec) {
+            iv = ((IvParameterSpec)params).getIV();
+            if (iv.length != 16) {
+                throw new InvalidAlgorithmParameterException("IV must be 16 bytes");
+            }
+        }
+        else {
+            throw new InvalidAlgorithmParameterException("Only IvParameterSpec is supported");
+        }
+
+        if (keyBytes != null && MessageDigest.isEqual(keyBytes, raw)) {
+            Arrays.fill(raw, (byte)0);
+        }
+        else {
+            if (keyBytes != null) {
+                Arrays.fill(keyBytes, (byte)0);
+            }
+            keyBytes = raw;
+            cipher = null;
+            cbc = null;
+            ctr = null;
+        }
+        //CbcMode is always given the chaining value and CounterMode the IV,
+        //so the IV they are constructed with does not matter.
+        if (mode == ECB && cipher == null) {
+            cipher = SerpentEngines.fastest().get();
+            cipher.setKey(keyBytes.clone());
+        }
+        else if (mode == CBC && cbc == null) {
+            cbc = new CbcMode(SerpentEngines.fastest(), keyBytes, iv);
+        }
+        else if (mode == CTR && ctr == null) {
+            ctr = new CounterMode(SerpentEngines.fastest(), keyBytes, iv);
+        }
+        reset();
+    }
+
+    protected byte[] engineUpdate(byte[] input, int inputOffset, int inputLen) {
+        byte[] output = new byte[engineGetOutputSize(inputLen)];
+        try {
+            int n = engineUpdate(input, inputOffset, inputLen, output, 0);
+            return n == output.length ? output : Arrays.copyOf(output, n);
+        }
+        catch (ShortBufferException e) {
+            throw new ProviderException(e);
+        }
+    }
+
+    protected int engineUpdate(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset)
+            throws ShortBufferException {
+        if (input == output && overlaps(inputOffset, outputOffset, inputLen)) {
+            input = Arrays.copyOfRange(input, inputOffset, inputOffset + inputLen);
+            inputOffset = 0;
+        }
+        return update(ByteBuffer.wrap(input), inputOffset, inputLen,
+            ByteBuffer.wrap(output), outputOffset, output.length - outputOffset);
+    }
+
+    protected int engineUpdate(ByteBuffer input, ByteBuffer output) throws ShortBufferException {
+        if (output.isReadOnly()) {
+            throw new ReadOnlyBufferException();
+        }
+        int len = input.remaining();
+        int inPos = input.position();
+        int outPos = output.position();
+        ByteBuffer in = detach(input, output);
+        int n = update(in, in == input ? inPos : 0, len, output, outPos, output.remaining());
+        input.position(inPos + len);
+        output.position(outPos + n);
+        return n;
+    }
+
+    protected byte[] engineDoFinal(byte[] input, int inputOffset, int inputLen)
+            throws IllegalBlockSizeException, BadPaddingException {
+        byte[] output = new byte[engineGetOutputSize(inputLen)];
+        try {
+            int n = engineDoFinal(input, inputOffset, inputLen, output, 0);
+            return n == output.length ? output : Arrays.copyOf(output, n);
+        }
+        catch (ShortBufferException e) {
+            throw new ProviderException(e);
+        }
+    }
+
+    protected int engineDoFinal(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset)
+            throws ShortBufferException, IllegalBlockSizeException, BadPaddingException {
+        if (input == null) {
+            input = new byte[0];
+            inputOffset = 0;
+        }
+        else if (input == output && overlaps(inputOffset, outputOffset, inputLen)) {
+            input = Arrays.copyOfRange(input, inputOffset, inputOffset + inputLen);
+            inputOffset = 0;
+        }
+        return doFinal(ByteBuffer.wrap(input), inputOffset, inputLen,
+            ByteBuffer.wrap(output), outputOffset, output.length - outputOffset);
+    }
+
+    protected int engineDoFinal(ByteBuffer input, ByteBuffer output)
+            throws ShortBufferException, IllegalBlockSizeException, BadPaddingException {
+        if (output.isReadOnly()) {
+            throw new ReadOnlyBufferException();
+        }
+        int len = input.remaining();
+        int inPos = input.position();
+        int outPos = output.position();
+        ByteBuffer in = detach(input, output);
+        int n = doFinal(in, in == input ? inPos : 0, len, output, outPos, output.remaining());
+        input.position(inPos + len);
+        output.position(outPos + n);
+        return n;
+    }
+
+    /**
+     * Process <TT>len</TT> bytes of input and as much buffered input as
+     * makes up whole blocks, writing at most <TT>room</TT> bytes.
+     *
+     * @return Number of bytes written.
+     */
+    private int update(ByteBuffer in, int inOff, int len, ByteBuffer out, int outOff, int room)
+            throws ShortBufferException {
+        if (mode == CTR) {
+            if (len > room) {
+                throw new ShortBufferException("Need " + len + " bytes of output space");
+            }
+            int done = 0;
+            for (; keystreamUsed < 16 && done < len; done++) {
+                out.put(outOff+done, (byte)(in.get(inOff+done) ^ keystream[keystreamUsed++]));
+            }
+            int whole = (len - done) & ~15;
+            if (whole > 0) {
+                ctr.process(iv, in, inOff+done, out, outOff+done, whole, pos);
+                pos += whole;
+                done += whole;
+            }
+            if (done < len) {
+                //Keep the rest of this keystream block for the next call.
+                ctr.process(iv, ZERO, 0, keystreamBuffer, 0, 16, pos);
+                pos += 16;
+                keystreamUsed = 0;
+                for (; done < len; done++) {
+                    out.put(outOff+done, (byte)(in.get(inOff+done) ^ keystream[keystreamUsed++]));
+                }
+            }
+            return len;
+        }
+
+        int total = bufferedLength + len;
+        int n = total & ~15;
+        if (!encrypting && padding && n == total) {
+            //Hold back the last block, it holds the padding.
+            n -= 16;
+        }
+        if (n <= 0) {
+            in.get(inOff, buffered, bufferedLength, len);
+            bufferedLength += len;
+            return 0;
+        }
+        if (n > room) {
+            throw new ShortBufferException("Need " + n + " bytes of output space");
+        }
+        int done = 0;
+        int used = 0;
+        if (bufferedLength > 0) {
+            used = 16 - bufferedLength;
+            in.get(inOff, buffered, bufferedLength, used);
+            crypt(bufferedBuffer, 0, out, outOff, 16);
+            bufferedLength = 0;
+            done = 16;
+        }
+        if (n > done) {
+            crypt(in, inOff+used, out, outOff+done, n-done);
+            used += n-done;
+        }
+        bufferedLength = len - used;
+        in.get(inOff+used, buffered, 0, bufferedLength);
+        return n;
+    }
+
+    /**
+     * Finish the operation with <TT>len</TT> more bytes of input and reset
+     * to the IV.
+     *
+     * @return Number of bytes written.
+     */
+    private int doFinal(ByteBuffer in, int inOff, int len, ByteBuffer out, int outOff, int room)
+            throws ShortBufferException, IllegalBlockSizeException, BadPaddingException {
+        if (mode == CTR) {
+            int n = update(in, inOff, len, out, outOff, room);
+            reset();
+            return n;
+        }
+
+        int total = bufferedLength + len;
+        if (encrypting && padding) {
+            int size = (total & ~15) + 16;
+            if (size > room) {
+                throw new ShortBufferException("Need " + size + " bytes of output space");
+            }
+            int n = update(in, inOff, len, out, outOff, room);
+            Arrays.fill(buffered, bufferedLength, 16, (byte)(16 - bufferedLength));
+            crypt(bufferedBuffer, 0, out, outOff+n, 16);
+            reset();
+            return n + 16;
+        }
+        if ((total & 15) != 0) {
+            throw new IllegalBlockSizeException("Input length not multiple of 16 bytes");
+        }
+        if (!padding || total == 0) {
+            int n = update(in, inOff, len, out, outOff, room);
+            reset();
+            return n;
+        }
+
+        //The padded length is only known once the last block is decrypted,
+        //so keep the state to retry with a larger buffer if it is short.
+        if (total - 16 > room) {
+            throw new ShortBufferException("Need at least " + (total - 16) + " bytes of output space");
+        }
+        byte[] savedChain = chain.clone();
+        byte[] savedBuffered = buffered.clone();
+        int savedLength = bufferedLength;
+        int n = update(in, inOff, len, out, outOff, room);
+        crypt(bufferedBuffer, 0, blockBuffer, 0, 16);
+        int pad = block[15] & 0xFF;
+        boolean ok = pad >= 1 && pad <= 16;
+        for (int i = 16 - pad; ok && i < 16; i++) {
+            ok = block[i] == (byte)pad;
+        }
+        if (!ok) {
+            reset();
+            throw new BadPaddingException("Given final block not properly padded");
+        }
+        if (n + 16 - pad > room) {
+            System.arraycopy(savedChain, 0, chain, 0, 16);
+            System.arraycopy(savedBuffered, 0, buffered, 0, 16);
+            bufferedLength = savedLength;
+            throw new ShortBufferException("Need " + (n + 16 - pad) + " bytes of output space");
+        }
+        out.put(outOff+n, block, 0, 16 - pad);
+        reset();
+        return n + 16 - pad;
+    }
+
+    /**
+     * Encrypt or decrypt <TT>len</TT> bytes, a multiple of the block size, in
+     * ECB or CBC mode.
+     */
+    private void crypt(ByteBuffer in, int inOff, ByteBuffer out, int outOff, int len) {
+        long start = CipherMetrics.ENABLED ? System.nanoTime() : 0;
+        if (mode == ECB && in.hasArray() && out.hasArray()) {
+            //Whole range at once, so a vector engine can work on groups.
+            if (encrypting) {
+                cipher.encryptBlocks(in.array(), in.arrayOffset()+inOff, out.array(), out.arrayOffset()+outOff, len/16);
+            }
+            else {
+                cipher.decryptBlocks(in.array(), in.arrayOffset()+inOff, out.array(), out.arrayOffset()+outOff, len/16);
+            }
+        }
+        else if (mode == ECB) {
+            for (int i = 0; i < len; i += 16) {
+                in.get(inOff+i, block);
+                if (encrypting) {
+                    cipher.encrypt(block, 0, block, 0);
+                }
+                else {
+                    cipher.decrypt(block, 0, block, 0);
+                }
+                out.put(outOff+i, block);
+            }
+        }
+        else if (encrypting) {
+            cbc.encrypt(in, inOff, out, outOff, len, chain);
+            out.get(outOff+len-16, chain);
+        }
+        else {
+            //Keep the last ciphertext block, it may be decrypted in place.
+            in.get(inOff+len-16, next);
+            cbc.decrypt(in, inOff, out, outOff, len, chain);
+            System.arraycopy(next, 0, chain, 0, 16);
+        }
+        //CBC is counted by CbcMode
+        if (CipherMetrics.ENABLED && mode == ECB) {
+            CipherMetrics.record(CipherMetrics.Operation.ECB, len, start);
+        }
+    }
+
+    private void reset() {
+        if (iv != null) {
+            System.arraycopy(iv, 0, chain, 0, 16);
+        }
+        bufferedLength = 0;
+        keystreamUsed = 16;
+        pos = 0;
+    }
+
+    /**
+     * True if writing output at <TT>outOff</TT> of the array the input is
+     * read from at <TT>inOff</TT> could overwrite input not yet read.
+     * Processing in place is safe unless input is buffered.
+     */
+    private boolean overlaps(int inOff, int outOff, int len) {
+        return inOff < outOff + len && outOff < inOff + len
+            && (inOff != outOff || bufferedLength != 0);
+    }
+
+    /**
+     * Returns <TT>input</TT>, or a copy of its remaining bytes if it shares
+     * an array with <TT>output</TT> and overlaps it.
+     */
+    private ByteBuffer detach(ByteBuffer input, ByteBuffer output) {
+        if (input.hasArray() && output.hasArray() && input.array() == output.array()
+                && overlaps(input.arrayOffset() + input.position(),
+                            output.arrayOffset() + output.position(), input.remaining())) {
+            byte[] copy = new byte[input.remaining()];
+            input.get(input.position(), copy);
+            return ByteBuffer.wrap(copy);
+        }
+        return input;
+    }
+
+    private static byte[] rawKey(Key key) throws InvalidKeyException {
+        byte[] raw = key == null ? null : key.getEncoded();
+        if (raw == null || raw.length == 0 || raw.length > 32) {
+            throw new InvalidKeyException("Serpent keys are 1 to 32 bytes");
+        }
+        return raw;
+    }
+}
@@ -0,0 +1,40 @@
+package serpent;
+
+import java.util.function.Supplier;
+
+/**
+ * Picks the fastest <TT>BlockCipher</TT> engine this JVM can run. All engines
+ * produce the same output, so the choice only affects speed.
+ */
+public final class SerpentEngines {
+
+    private static final boolean VECTOR =
+        ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    private SerpentEngines() {
+    }
+
+    /**
+     * Returns true if <TT>jdk.incubator.vector</TT> was added to this JVM, so
+     * that <TT>SerpentVector</TT> can be loaded.
+     *
+     * @return  True if the Vector API is available.
+     */
+    public static boolean vectorAvailable() {
+        return VECTOR;
+    }
+
+    /**
+     * Returns a factory for the fastest engine: <TT>SerpentVector</TT> if the
+     * Vector API is available and its preferred species holds at least four
+     * blocks, otherwise <TT>SerpentBitsliced</TT>.
+     *
+     * @return  Engine factory.
+     */
+    public static Supplier<BlockCipher> fastest() {
+        if (VECTOR && SerpentVector.lanes() >= 4) {
+            return () -> new SerpentVector();
+        }
+        return SerpentBitsliced::new;
+    }
+}
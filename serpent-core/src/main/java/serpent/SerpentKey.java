@@ -0,0 +1,66 @@
+package serpent;
+
+import java.util.Arrays;
+
+/**
+ * An expanded Serpent key. The key schedule is computed once, when the
+ * object is created, and never changes afterwards, so one instance can be
+ * used by any number of threads at the same time without synchronization.
+ * <P>
+ * Blocks are encrypted and decrypted under a <TT>SerpentKey</TT> with the
+ * static methods of <TT>SerpentBitsliced</TT>, which keep all their state on
+ * the stack:
+ * <PRE>
+ *     SerpentKey key = new SerpentKey(keyBytes);
+ *     SerpentBitsliced.encrypt(key, in, 0, out, 0);
+ * </PRE>
+ * The modes of operation key their per-thread ciphers from a
+ * <TT>SerpentKey</TT> too, instead of expanding the key once per thread.
+ * <P>
+ * The key bytes are not kept.
+ */
+public final class SerpentKey {
+
+    private final int[] roundKeys;
+
+    /**
+     * Expand <TT>key</TT>. A key shorter than 32 bytes is padded as by
+     * <TT>BlockCipher.setKey()</TT>.
+     *
+     * @param  key  Key, at most 32 bytes.
+     */
+    public SerpentKey(byte[] key) {
+        roundKeys = new int[KeySchedule.WORDS];
+        KeySchedule.expand(key, roundKeys);
+    }
+
+    /**
+     * Returns the round keys. Not a copy; callers must not modify them.
+     */
+    int[] roundKeys() {
+        return roundKeys;
+    }
+
+    /**
+     * Key <TT>cipher</TT> with this schedule, if it runs on bitslice round
+     * keys.
+     *
+     * @return  False if <TT>cipher</TT> has to be keyed with
+     *          <TT>setKey()</TT> instead.
+     */
+    boolean keyInto(BlockCipher cipher) {
+        if (cipher instanceof KeySchedule.Keyed) {
+            ((KeySchedule.Keyed)cipher).setRoundKeys(roundKeys);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Overwrite the round keys with zeros, for an owner that is done with
+     * this key. Only for instances that are not shared.
+     */
+    void wipe() {
+        Arrays.fill(roundKeys, 0);
+    }
+}//SerpentKey.java
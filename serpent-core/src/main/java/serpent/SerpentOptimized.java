@@ -0,0 +1,308 @@
+package serpent;
+
+import serpent.util.Packing;
+import java.lang.Integer;
+
+public class SerpentOptimized implements BlockCipher, KeySchedule.Keyed {
+
+    private static final byte xFF = (byte)0xFF;
+	private int keySize;
+    private int[] roundKeys;
+
+    public SerpentOptimized() {
+        roundKeys = new int[132];
+    }
+
+    /**
+     * Returns this block cipher's block size in bytes.
+     *
+     * @return  Block size.
+     */
+    public int blockSize() {
+        return 16;
+    }
+
+    /**
+     * Returns this block cipher's key size in bytes.
+     *
+     * @return  Key size.
+     */
+    public int keySize() {
+        return 32;
+    }
+
+    /**
+     * Set the key for this block cipher. If <TT>key</TT> is an array of bytes
+     * whose length is less than <TT>keySize()</TT>, it will be padded to 
+     * <TT>keySize()</TT>
+     *
+     * @param  key  Key.
+     */
+    public void setKey(byte[] key) {
+        KeySchedule.expand(key, roundKeys);
+    }
+
+    /**
+     * Key this engine with a schedule expanded by <TT>KeySchedule</TT>.
+     *
+     * @param  roundKeys  Expanded key, copied.
+     */
+    public void setRoundKeys(int[] roundKeys) {
+        System.arraycopy(roundKeys, 0, this.roundKeys, 0, KeySchedule.WORDS);
+    }
+
+
+    
+    /**
+     * Encrypt the given plaintext. <TT>text</TT> must be an array of bytes
+     * whose length is equal to <TT>blockSize()</TT>. On input, <TT>text</TT>
+     * contains the plaintext block. The plaintext block is encrypted using the
+     * key specified in the most recent call to <TT>setKey()</TT>. On output,
+     * <TT>text</TT> contains the ciphertext block.
+     *
+     * @param  text  Plaintext (on input), ciphertext (on output).
+     */
+    public void encrypt(byte[] text) {
+        encrypt(text, 0, text, 0);
+    }
+
+    /**
+     * Encrypt one block read from <TT>in</TT> at <TT>inOff</TT> and store the
+     * ciphertext block in <TT>out</TT> at <TT>outOff</TT>. The two blocks may
+     * overlap exactly, as in <TT>encrypt(text)</TT>. No memory is allocated
+     * per block; the state is held in four <TT>int</TT> words, loaded once as
+     * little-endian words and stored once at the end.
+     *
+     * @param  in      Plaintext.
+     * @param  inOff   Offset of the plaintext block in <TT>in</TT>.
+     * @param  out     Ciphertext.
+     * @param  outOff  Offset of the ciphertext block in <TT>out</TT>.
+     */
+    public void encrypt(byte[] in, int inOff, byte[] out, int outOff) {
+        int x0 = Packing.packIntLittleEndian(in, inOff);
+        int x1 = Packing.packIntLittleEndian(in, inOff+4);
+        int x2 = Packing.packIntLittleEndian(in, inOff+8);
+        int x3 = Packing.packIntLittleEndian(in, inOff+12);
+        //32 rounds
+        for(int i = 0; i < 32; i++){
+            x0 ^= roundKeys[4*i];
+            x1 ^= roundKeys[4*i+1];
+            x2 ^= roundKeys[4*i+2];
+            x3 ^= roundKeys[4*i+3];
+            //S-box, a byte of each word at a time: spread the 8 columns
+            //into nibbles, substitute two nibbles per table lookup, gather
+            //the output bits back into the words.
+            byte[] toUse = sBoxPairs[i%8];
+            int y0 = 0, y1 = 0, y2 = 0, y3 = 0;
+            for(int k = 0; k < 32; k += 8){
+                int w = SPREAD[(x0 >>> k) & 0xFF] | SPREAD[(x1 >>> k) & 0xFF] << 1 |
+                        SPREAD[(x2 >>> k) & 0xFF] << 2 | SPREAD[(x3 >>> k) & 0xFF] << 3;
+                w = (toUse[w & 0xFF] & 0xFF) | (toUse[(w >>> 8) & 0xFF] & 0xFF) << 8 |
+                    (toUse[(w >>> 16) & 0xFF] & 0xFF) << 16 | (toUse[w >>> 24] & 0xFF) << 24;
+                y0 |= gather(w) << k;
+                y1 |= gather(w >>> 1) << k;
+                y2 |= gather(w >>> 2) << k;
+                y3 |= gather(w >>> 3) << k;
+            }
+            if(i == 31){
+                x0 = y0 ^ roundKeys[128];
+                x1 = y1 ^ roundKeys[129];
+                x2 = y2 ^ roundKeys[130];
+                x3 = y3 ^ roundKeys[131];
+            }
+            else{
+                //Linear transformation
+                x0 = (y0 << 13) | (y0 >>> (32 - 13));
+                x2 = (y2 << 3) | (y2 >>> (32 - 3));
+                x1 = y1 ^ x0 ^ x2;
+                x3 = y3 ^ x2 ^ (x0 << 3);
+                x1 = (x1 << 1) | (x1 >>> (32 - 1));
+                x3 = (x3 << 7) | (x3 >>> (32 - 7));
+                x0 = x0 ^ x1 ^ x3;
+                x2 = x2 ^ x3 ^ (x1 << 7);
+                x0 = (x0 << 5) | (x0 >>> (32 - 5));
+                x2 = (x2 << 22) | (x2 >>> (32 - 22));
+            }
+        }
+        Packing.unpackIntLittleEndian(x0, out, outOff);
+        Packing.unpackIntLittleEndian(x1, out, outOff+4);
+        Packing.unpackIntLittleEndian(x2, out, outOff+8);
+        Packing.unpackIntLittleEndian(x3, out, outOff+12);
+    }
+
+    /**
+     * Decrypt the given ciphertext.  We decrypt by performing the inverse
+     * operations performed to encrypt in reverse order.
+     *
+     * @param  text  ciphertext (on input), original plaintext (on output).
+     */
+    public void decrypt(byte[] text) {
+        decrypt(text, 0, text, 0);
+    }
+
+    /**
+     * Decrypt one block read from <TT>in</TT> at <TT>inOff</TT> and store the
+     * plaintext block in <TT>out</TT> at <TT>outOff</TT>. The two blocks may
+     * overlap exactly. No memory is allocated per block.
+     *
+     * @param  in      Ciphertext.
+     * @param  inOff   Offset of the ciphertext block in <TT>in</TT>.
+     * @param  out     Plaintext.
+     * @param  outOff  Offset of the plaintext block in <TT>out</TT>.
+     */
+    public void decrypt(byte[] in, int inOff, byte[] out, int outOff) {
+        int x0 = Packing.packIntLittleEndian(in, inOff) ^ roundKeys[128];
+        int x1 = Packing.packIntLittleEndian(in, inOff+4) ^ roundKeys[129];
+        int x2 = Packing.packIntLittleEndian(in, inOff+8) ^ roundKeys[130];
+        int x3 = Packing.packIntLittleEndian(in, inOff+12) ^ roundKeys[131];
+        //32 rounds in reverse
+        for(int i = 31; i >= 0; i--){
+            if(i != 31){
+                //Inverse linear transformation
+                x2 = (x2 >>> 22) | (x2 << (32 - 22));
+                x0 = (x0 >>> 5) | (x0 << (32 - 5));
+                x2 = x2 ^ x3 ^ (x1 << 7);
+                x0 = x0 ^ x1 ^ x3;
+                x3 = (x3 >>> 7) | (x3 << (32 - 7));
+                x1 = (x1 >>> 1) | (x1 << (32 - 1));
+                x3 = x3 ^ x2 ^ (x0 << 3);
+                x1 = x1 ^ x0 ^ x2;
+                x2 = (x2 >>> 3) | (x2 << (32 - 3));
+                x0 = (x0 >>> 13) | (x0 << (32 - 13));
+            }
+            //Inverse S-box, as in encrypt()
+            byte[] toUse = isBoxPairs[i%8];
+            int y0 = 0, y1 = 0, y2 = 0, y3 = 0;
+            for(int k = 0; k < 32; k += 8){
+                int w = SPREAD[(x0 >>> k) & 0xFF] | SPREAD[(x1 >>> k) & 0xFF] << 1 |
+                        SPREAD[(x2 >>> k) & 0xFF] << 2 | SPREAD[(x3 >>> k) & 0xFF] << 3;
+                w = (toUse[w & 0xFF] & 0xFF) | (toUse[(w >>> 8) & 0xFF] & 0xFF) << 8 |
+                    (toUse[(w >>> 16) & 0xFF] & 0xFF) << 16 | (toUse[w >>> 24] & 0xFF) << 24;
+                y0 |= gather(w) << k;
+                y1 |= gather(w >>> 1) << k;
+                y2 |= gather(w >>> 2) << k;
+                y3 |= gather(w >>> 3) << k;
+            }
+            x0 = y0 ^ roundKeys[4*i];
+            x1 = y1 ^ roundKeys[4*i+1];
+            x2 = y2 ^ roundKeys[4*i+2];
+            x3 = y3 ^ roundKeys[4*i+3];
+        }
+        Packing.unpackIntLittleEndian(x0, out, outOff);
+        Packing.unpackIntLittleEndian(x1, out, outOff+4);
+        Packing.unpackIntLittleEndian(x2, out, outOff+8);
+        Packing.unpackIntLittleEndian(x3, out, outOff+12);
+    }
+
+    /**
+     * Encrypt <TT>nBlocks</TT> consecutive blocks in ECB fashion, reading
+     * from <TT>src</TT> at <TT>srcOff</TT> and writing to <TT>dst</TT> at
+     * <TT>dstOff</TT>. The source and destination ranges may be the same.
+     *
+     * @param  src      Plaintext blocks.
+     * @param  srcOff   Offset of the first plaintext block in <TT>src</TT>.
+     * @param  dst      Ciphertext blocks.
+     * @param  dstOff   Offset of the first ciphertext block in <TT>dst</TT>.
+     * @param  nBlocks  Number of blocks.
+     */
+    public void encryptBlocks(byte[] src, int srcOff, byte[] dst, int dstOff, int nBlocks) {
+        for(int i = 0; i < nBlocks; i++){
+            encrypt(src, srcOff+16*i, dst, dstOff+16*i);
+        }
+    }
+
+    /**
+     * Decrypt <TT>nBlocks</TT> consecutive blocks in ECB fashion, reading
+     * from <TT>src</TT> at <TT>srcOff</TT> and writing to <TT>dst</TT> at
+     * <TT>dstOff</TT>. The source and destination ranges may be the same.
+     *
+     * @param  src      Ciphertext blocks.
+     * @param  srcOff   Offset of the first ciphertext block in <TT>src</TT>.
+     * @param  dst      Plaintext blocks.
+     * @param  dstOff   Offset of the first plaintext block in <TT>dst</TT>.
+     * @param  nBlocks  Number of blocks.
+     */
+    public void decryptBlocks(byte[] src, int srcOff, byte[] dst, int dstOff, int nBlocks) {
+        for(int i = 0; i < nBlocks; i++){
+            decrypt(src, srcOff+16*i, dst, dstOff+16*i);
+        }
+    }
+
+    private static byte[] s0 = new byte[]
+        {3,8,15,1,10,6,5,11,14,13,4,2,7,0,9,12};
+    private static byte[] s1 = new byte[]
+        {15,12,2,7,9,0,5,10,1,11,14,8,6,13,3,4};
+    private static byte[] s2 = new byte[]
+        {8,6,7,9,3,12,10,15,13,1,14,4,0,11,5,2};
+    private static byte[] s3 = new byte[]
+        {0,15,11,8,12,9,6,3,13,1,2,4,10,7,5,14};
+    private static byte[] s4 = new byte[]
+        {1,15,8,3,12,0,11,6,2,5,4,10,9,14,7,13};
+    private static byte[] s5 = new byte[]
+        {15,5,2,11,4,10,9,12,0,3,14,8,13,6,7,1};
+    private static byte[] s6 = new byte[]
+        {7,2,12,5,8,4,6,11,14,9,1,15,13,3,10,0};
+    private static byte[] s7 = new byte[]
+        {1,13,15,0,14,8,2,11,7,4,12,10,9,3,5,6};
+    private static byte[][] sBoxes = new byte[][]
+        {s0,s1,s2,s3,s4,s5,s6,s7};
+
+    private static byte[] is0 = new byte[]
+        {13,3,11,0,10,6,5,12,1,14,4,7,15,9,8,2};
+    private static byte[] is1 = new byte[]
+        {5,8,2,14,15,6,12,3,11,4,7,9,1,13,10,0};
+    private static byte[] is2 = new byte[]
+        {12,9,15,4,11,14,1,2,0,3,6,13,5,8,10,7};
+    private static byte[] is3 = new byte[]
+        {0,9,10,7,11,14,6,13,3,5,12,2,4,8,15,1};
+    private static byte[] is4 = new byte[]
+        {5,0,8,3,10,9,7,14,2,12,11,6,4,15,13,1};
+    private static byte[] is5 = new byte[]
+        {8,15,2,9,4,1,13,14,11,6,5,3,7,12,10,0};
+    private static byte[] is6 = new byte[]
+        {15,10,1,13,5,3,6,0,4,9,14,7,2,12,8,11};
+    private static byte[] is7 = new byte[]
+        {3,0,6,13,9,14,15,8,5,12,11,7,10,1,4,2};
+    private static byte[][] isBoxes = new byte[][]
+        {is0,is1,is2,is3,is4,is5,is6,is7};    
+
+    //S-boxes applied to both nibbles of a byte, indexed by the byte.
+    private static final byte[][] sBoxPairs = pairs(sBoxes);
+    private static final byte[][] isBoxPairs = pairs(isBoxes);
+
+    //Bit m of the index moved to bit 4m, for m = 0..7.
+    private static final int[] SPREAD = new int[256];
+    static {
+        for (int b = 0; b < 256; b++) {
+            for (int m = 0; m < 8; m++) {
+                SPREAD[b] |= ((b >>> m) & 0x01) << (4*m);
+            }
+        }
+    }
+
+    private static byte[][] pairs(byte[][] boxes) {
+        byte[][] pairs = new byte[boxes.length][256];
+        for (int n = 0; n < boxes.length; n++) {
+            for (int b = 0; b < 256; b++) {
+                pairs[n][b] = (byte) ((boxes[n][b>>>4]<<4) | boxes[n][b&0x0F]);
+            }
+        }
+        return pairs;
+    }
+
+    /**
+     * Inverse of <TT>SPREAD</TT>: collects bits 0, 4, ..., 28 of <TT>w</TT>
+     * into the low byte.
+     *
+     * @param w Word with one bit of interest per nibble
+     * @return The eight bits, bit 4m of <TT>w</TT> as bit m
+     */
+    private static int gather(int w) {
+        w &= 0x11111111;
+        w = (w | (w >>> 3)) & 0x03030303;
+        w = (w | (w >>> 6)) & 0x000F000F;
+        return (w | (w >>> 12)) & 0xFF;
+    }
+}//Serpent.java
+
+
@@ -0,0 +1,36 @@
+package serpent;
+
+import java.security.Provider;
+
+/**
+ * JCA provider for Serpent. Registers <TT>SerpentCipherSpi</TT>, backed by
+ * the fastest engine available, as cipher algorithm <TT>"Serpent"</TT> in ECB,
+ * CBC and CTR mode with <TT>NoPadding</TT> or <TT>PKCS5Padding</TT>. Keys are
+ * raw keys of up to 32 bytes, for example a <TT>SecretKeySpec</TT> with
+ * algorithm <TT>"Serpent"</TT>.
+ * <P>
+ * Usage:
+ * <PRE>
+ *     Security.addProvider(new SerpentProvider());
+ *     Cipher cipher = Cipher.getInstance("Serpent/CTR/NoPadding");
+ * </PRE>
+ * The provider is not signed, so it can only be used on JDKs that do not
+ * require signed JCE providers, such as OpenJDK.
+ */
+public class SerpentProvider extends Provider {
+
+    /**
+     * Name this provider is registered under.
+     */
+    public static final String NAME = "Serpent";
+
+    private static final long serialVersionUID = 1L;
+
+    public SerpentProvider() {
+        super(NAME, "1.0", "Serpent block cipher in ECB, CBC and CTR mode");
+        put("Cipher.Serpent", SerpentCipherSpi.class.getName());
+        put("Cipher.Serpent SupportedModes", "ECB|CBC|CTR");
+        put("Cipher.Serpent SupportedPaddings", "NOPADDING|PKCS5PADDING");
+        put("Cipher.Serpent SupportedKeyFormats", "RAW");
+    }
+}
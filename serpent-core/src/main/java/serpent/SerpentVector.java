@@ -0,0 +1,717 @@
+package serpent;
+
+import static jdk.incubator.vector.VectorOperators.AND;
+import static jdk.incubator.vector.VectorOperators.LSHL;
+import static jdk.incubator.vector.VectorOperators.OR;
+import static jdk.incubator.vector.VectorOperators.ROL;
+import static jdk.incubator.vector.VectorOperators.ROR;
+import static jdk.incubator.vector.VectorOperators.XOR;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorSpecies;
+import serpent.util.Packing;
+
+/**
+ * Bitsliced Serpent on the JDK Vector API. The rounds of
+ * <TT>SerpentBitsliced</TT> are evaluated on <TT>IntVector</TT>s, one
+ * independent block per lane, so <TT>encryptBlocks()</TT> and
+ * <TT>decryptBlocks()</TT> process as many blocks at once as the preferred
+ * species has <TT>int</TT> lanes: 4 with SSE or NEON, 8 with AVX2, 16 with
+ * AVX-512. Single blocks and the blocks left over after the last full group
+ * go through a <TT>SerpentBitsliced</TT> sharing the key schedule.
+ * <P>
+ * Needs the incubating <TT>jdk.incubator.vector</TT> module
+ * (<TT>--add-modules jdk.incubator.vector</TT>); without it this class cannot
+ * be loaded. <TT>SerpentEngines.fastest()</TT> falls back to
+ * <TT>SerpentBitsliced</TT> in that case.
+ * <P>
+ * Produces the same output as <TT>Serpent</TT> for the same key.
+ */
+public class SerpentVector implements BlockCipher, KeySchedule.Keyed {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    private final SerpentBitsliced scalar;
+    private int[] roundKeys;
+    //Word i of every block in a group, one block per lane.
+    private final int[] w0;
+    private final int[] w1;
+    private final int[] w2;
+    private final int[] w3;
+
+    public SerpentVector() {
+        scalar = new SerpentBitsliced();
+        w0 = new int[SPECIES.length()];
+        w1 = new int[SPECIES.length()];
+        w2 = new int[SPECIES.length()];
+        w3 = new int[SPECIES.length()];
+    }
+
+    /**
+     * Returns the number of blocks processed at once, the lane count of the
+     * preferred <TT>int</TT> species on this machine.
+     *
+     * @return  Blocks per group.
+     */
+    public static int lanes() {
+        return SPECIES.length();
+    }
+
+    /**
+     * Returns this block cipher's block size in bytes.
+     *
+     * @return  Block size.
+     */
+    public int blockSize() {
+        return 16;
+    }
+
+    /**
+     * Returns this block cipher's key size in bytes.
+     *
+     * @return  Key size.
+     */
+    public int keySize() {
+        return 32;
+    }
+
+    /**
+     * Set the key for this block cipher. If <TT>key</TT> is an array of bytes
+     * whose length is less than <TT>keySize()</TT>, it will be padded to 
+     * <TT>keySize()</TT>
+     *
+     * @param  key  Key.
+     */
+    public void setKey(byte[] key) {
+        scalar.setKey(key);
+        roundKeys = scalar.roundKeys();
+    }
+
+    /**
+     * Key this engine with a schedule expanded by <TT>KeySchedule</TT>.
+     *
+     * @param  roundKeys  Expanded key, copied.
+     */
+    public void setRoundKeys(int[] roundKeys) {
+        scalar.setRoundKeys(roundKeys);
+        this.roundKeys = scalar.roundKeys();
+    }
+
+    /**
+     * Encrypt the given plaintext. <TT>text</TT> must be an array of bytes
+     * whose length is equal to <TT>blockSize()</TT>. On input, <TT>text</TT>
+     * contains the plaintext block. The plaintext block is encrypted using the
+     * key specified in the most recent call to <TT>setKey()</TT>. On output,
+     * <TT>text</TT> contains the ciphertext block.
+     *
+     * @param  text  Plaintext (on input), ciphertext (on output).
+     */
+    public void encrypt(byte[] text) {
+        scalar.encrypt(text, 0, text, 0);
+    }
+
+    /**
+     * Encrypt one block read from <TT>in</TT> at <TT>inOff</TT> and store the
+     * ciphertext block in <TT>out</TT> at <TT>outOff</TT>, on the scalar
+     * engine.
+     *
+     * @param  in      Plaintext.
+     * @param  inOff   Offset of the plaintext block in <TT>in</TT>.
+     * @param  out     Ciphertext.
+     * @param  outOff  Offset of the ciphertext block in <TT>out</TT>.
+     */
+    public void encrypt(byte[] in, int inOff, byte[] out, int outOff) {
+        scalar.encrypt(in, inOff, out, outOff);
+    }
+
+    /**
+     * Decrypt the given ciphertext.
+     *
+     * @param  text  ciphertext (on input), original plaintext (on output).
+     */
+    public void decrypt(byte[] text) {
+        scalar.decrypt(text, 0, text, 0);
+    }
+
+    /**
+     * Decrypt one block read from <TT>in</TT> at <TT>inOff</TT> and store the
+     * plaintext block in <TT>out</TT> at <TT>outOff</TT>, on the scalar
+     * engine.
+     *
+     * @param  in      Ciphertext.
+     * @param  inOff   Offset of the ciphertext block in <TT>in</TT>.
+     * @param  out     Plaintext.
+     * @param  outOff  Offset of the plaintext block in <TT>out</TT>.
+     */
+    public void decrypt(byte[] in, int inOff, byte[] out, int outOff) {
+        scalar.decrypt(in, inOff, out, outOff);
+    }
+
+    /**
+     * Encrypt <TT>nBlocks</TT> consecutive blocks in ECB fashion, reading
+     * from <TT>src</TT> at <TT>srcOff</TT> and writing to <TT>dst</TT> at
+     * <TT>dstOff</TT>, <TT>lanes()</TT> blocks at a time. The source and
+     * destination ranges may be the same.
+     *
+     * @param  src      Plaintext blocks.
+     * @param  srcOff   Offset of the first plaintext block in <TT>src</TT>.
+     * @param  dst      Ciphertext blocks.
+     * @param  dstOff   Offset of the first ciphertext block in <TT>dst</TT>.
+     * @param  nBlocks  Number of blocks.
+     */
+    public void encryptBlocks(byte[] src, int srcOff, byte[] dst, int dstOff, int nBlocks) {
+        int lanes = SPECIES.length();
+        int b = 0;
+        for (; b + lanes <= nBlocks; b += lanes) {
+            encryptGroup(src, srcOff+16*b, dst, dstOff+16*b);
+        }
+        scalar.encryptBlocks(src, srcOff+16*b, dst, dstOff+16*b, nBlocks-b);
+    }
+
+    /**
+     * Decrypt <TT>nBlocks</TT> consecutive blocks in ECB fashion, reading
+     * from <TT>src</TT> at <TT>srcOff</TT> and writing to <TT>dst</TT> at
+     * <TT>dstOff</TT>, <TT>lanes()</TT> blocks at a time. The source and
+     * destination ranges may be the same.
+     *
+     * @param  src      Ciphertext blocks.
+     * @param  srcOff   Offset of the first ciphertext block in <TT>src</TT>.
+     * @param  dst      Plaintext blocks.
+     * @param  dstOff   Offset of the first plaintext block in <TT>dst</TT>.
+     * @param  nBlocks  Number of blocks.
+     */
+    public void decryptBlocks(byte[] src, int srcOff, byte[] dst, int dstOff, int nBlocks) {
+        int lanes = SPECIES.length();
+        int b = 0;
+        for (; b + lanes <= nBlocks; b += lanes) {
+            decryptGroup(src, srcOff+16*b, dst, dstOff+16*b);
+        }
+        scalar.decryptBlocks(src, srcOff+16*b, dst, dstOff+16*b, nBlocks-b);
+    }
+
+    /**
+     * Encrypt <TT>lanes()</TT> blocks. Same rounds as
+     * <TT>SerpentBitsliced.encrypt()</TT>, on vectors.
+     */
+    private void encryptGroup(byte[] in, int inOff, byte[] out, int outOff) {
+        load(in, inOff);
+        IntVector x0 = IntVector.fromArray(SPECIES, w0, 0);
+        IntVector x1 = IntVector.fromArray(SPECIES, w1, 0);
+        IntVector x2 = IntVector.fromArray(SPECIES, w2, 0);
+        IntVector x3 = IntVector.fromArray(SPECIES, w3, 0);
+        IntVector y0, y1, y2, y3;
+        IntVector t1, t2, t3, t4, t5, t6, t7, t8, t9, t10, t11, t12;
+        //32 rounds, eight S-boxes per pass
+        for (int k = 0; k < 128; k += 32) {
+            //S0
+            x0 = x0.lanewise(XOR, roundKeys[k]);
+            x1 = x1.lanewise(XOR, roundKeys[k+1]);
+            x2 = x2.lanewise(XOR, roundKeys[k+2]);
+            x3 = x3.lanewise(XOR, roundKeys[k+3]);
+            t1 = x0.lanewise(XOR, x3);
+            t3 = x2.lanewise(XOR, t1);
+            t4 = x1.lanewise(XOR, t3);
+            y3 = x0.lanewise(AND, x3).lanewise(XOR, t4);
+            t7 = x0.lanewise(XOR, x1.lanewise(AND, t1));
+            y2 = t4.lanewise(XOR, x2.lanewise(OR, t7));
+            t12 = y3.lanewise(AND, t3.lanewise(XOR, t7));
+            y1 = t3.not().lanewise(XOR, t12);
+            y0 = t12.lanewise(XOR, t7.not());
+            x0 = y0.lanewise(ROL, 13);
+            x2 = y2.lanewise(ROL, 3);
+            x1 = y1.lanewise(XOR, x0).lanewise(XOR, x2);
+            x3 = y3.lanewise(XOR, x2).lanewise(XOR, x0.lanewise(LSHL, 3));
+            x1 = x1.lanewise(ROL, 1);
+            x3 = x3.lanewise(ROL, 7);
+            x0 = x0.lanewise(XOR, x1).lanewise(XOR, x3);
+            x2 = x2.lanewise(XOR, x3).lanewise(XOR, x1.lanewise(LSHL, 7));
+            x0 = x0.lanewise(ROL, 5);
+            x2 = x2.lanewise(ROL, 22);
+
+            //S1
+            x0 = x0.lanewise(XOR, roundKeys[k+4]);
+            x1 = x1.lanewise(XOR, roundKeys[k+5]);
+            x2 = x2.lanewise(XOR, roundKeys[k+6]);
+            x3 = x3.lanewise(XOR, roundKeys[k+7]);
+            t2 = x1.lanewise(XOR, x0.not());
+            t5 = x2.lanewise(XOR, x0.lanewise(OR, t2));
+            y2 = x3.lanewise(XOR, t5);
+            t7 = x1.lanewise(XOR, x3.lanewise(OR, t2));
+            t8 = t2.lanewise(XOR, y2);
+            y3 = t8.lanewise(XOR, t5.lanewise(AND, t7));
+            t11 = t5.lanewise(XOR, t7);
+            y1 = y3.lanewise(XOR, t11);
+            y0 = t5.lanewise(XOR, t8.lanewise(AND, t11));
+            x0 = y0.lanewise(ROL, 13);
+            x2 = y2.lanewise(ROL, 3);
+            x1 = y1.lanewise(XOR, x0).lanewise(XOR, x2);
+            x3 = y3.lanewise(XOR, x2).lanewise(XOR, x0.lanewise(LSHL, 3));
+            x1 = x1.lanewise(ROL, 1);
+            x3 = x3.lanewise(ROL, 7);
+            x0 = x0.lanewise(XOR, x1).lanewise(XOR, x3);
+            x2 = x2.lanewise(XOR, x3).lanewise(XOR, x1.lanewise(LSHL, 7));
+            x0 = x0.lanewise(ROL, 5);
+            x2 = x2.lanewise(ROL, 22);
+
+            //S2
+            x0 = x0.lanewise(XOR, roundKeys[k+8]);
+            x1 = x1.lanewise(XOR, roundKeys[k+9]);
+            x2 = x2.lanewise(XOR, roundKeys[k+10]);
+            x3 = x3.lanewise(XOR, roundKeys[k+11]);
+            t1 = x0.not();
+            t2 = x1.lanewise(XOR, x3);
+            t3 = x2.lanewise(AND, t1);
+            y0 = t2.lanewise(XOR, t3);
+            t5 = x2.lanewise(XOR, t1);
+            t6 = x2.lanewise(XOR, y0);
+            t7 = x1.lanewise(AND, t6);
+            y3 = t5.lanewise(XOR, t7);
+            y2 = x0.lanewise(XOR, x3.lanewise(OR, t7).lanewise(AND, y0.lanewise(OR, t5)));
+            y1 = t2.lanewise(XOR, y3).lanewise(XOR, y2.lanewise(XOR, x3.lanewise(OR, t1)));
+            x0 = y0.lanewise(ROL, 13);
+            x2 = y2.lanewise(ROL, 3);
+            x1 = y1.lanewise(XOR, x0).lanewise(XOR, x2);
+            x3 = y3.lanewise(XOR, x2).lanewise(XOR, x0.lanewise(LSHL, 3));
+            x1 = x1.lanewise(ROL, 1);
+            x3 = x3.lanewise(ROL, 7);
+            x0 = x0.lanewise(XOR, x1).lanewise(XOR, x3);
+            x2 = x2.lanewise(XOR, x3).lanewise(XOR, x1.lanewise(LSHL, 7));
+            x0 = x0.lanewise(ROL, 5);
+            x2 = x2.lanewise(ROL, 22);
+
+            //S3
+            x0 = x0.lanewise(XOR, roundKeys[k+12]);
+            x1 = x1.lanewise(XOR, roundKeys[k+13]);
+            x2 = x2.lanewise(XOR, roundKeys[k+14]);
+            x3 = x3.lanewise(XOR, roundKeys[k+15]);
+            t1 = x0.lanewise(XOR, x1);
+            t2 = x0.lanewise(AND, x2);
+            t3 = x0.lanewise(OR, x3);
+            t4 = x2.lanewise(XOR, x3);
+            t5 = t1.lanewise(AND, t3);
+            t6 = t2.lanewise(OR, t5);
+            y2 = t4.lanewise(XOR, t6);
+            t8 = x1.lanewise(XOR, t3);
+            t9 = t6.lanewise(XOR, t8);
+            t10 = t4.lanewise(AND, t9);
+            y0 = t1.lanewise(XOR, t10);
+            t12 = y2.lanewise(AND, y0);
+            y1 = t9.lanewise(XOR, t12);
+            y3 = x1.lanewise(OR, x3).lanewise(XOR, t4.lanewise(XOR, t12));
+            x0 = y0.lanewise(ROL, 13);
+            x2 = y2.lanewise(ROL, 3);
+            x1 = y1.lanewise(XOR, x0).lanewise(XOR, x2);
+            x3 = y3.lanewise(XOR, x2).lanewise(XOR, x0.lanewise(LSHL, 3));
+            x1 = x1.lanewise(ROL, 1);
+            x3 = x3.lanewise(ROL, 7);
+            x0 = x0.lanewise(XOR, x1).lanewise(XOR, x3);
+            x2 = x2.lanewise(XOR, x3).lanewise(XOR, x1.lanewise(LSHL, 7));
+            x0 = x0.lanewise(ROL, 5);
+            x2 = x2.lanewise(ROL, 22);
+
+            //S4
+            x0 = x0.lanewise(XOR, roundKeys[k+16]);
+            x1 = x1.lanewise(XOR, roundKeys[k+17]);
+            x2 = x2.lanewise(XOR, roundKeys[k+18]);
+            x3 = x3.lanewise(XOR, roundKeys[k+19]);
+            t1 = x0.lanewise(XOR, x3);
+            t2 = x3.lanewise(AND, t1);
+            t3 = x2.lanewise(XOR, t2);
+            t4 = x1.lanewise(OR, t3);
+            y3 = t1.lanewise(XOR, t4);
+            t6 = x1.not();
+            t7 = t1.lanewise(OR, t6);
+            y0 = t3.lanewise(XOR, t7);
+            t9 = x0.lanewise(AND, y0);
+            t10 = t1.lanewise(XOR, t6);
+            t11 = t4.lanewise(AND, t10);
+            y2 = t9.lanewise(XOR, t11);
+            y1 = x0.lanewise(XOR, t3).lanewise(XOR, t10.lanewise(AND, y2));
+            x0 = y0.lanewise(ROL, 13);
+            x2 = y2.lanewise(ROL, 3);
+            x1 = y1.lanewise(XOR, x0).lanewise(XOR, x2);
+            x3 = y3.lanewise(XOR, x2).lanewise(XOR, x0.lanewise(LSHL, 3));
+            x1 = x1.lanewise(ROL, 1);
+            x3 = x3.lanewise(ROL, 7);
+            x0 = x0.lanewise(XOR, x1).lanewise(XOR, x3);
+            x2 = x2.lanewise(XOR, x3).lanewise(XOR, x1.lanewise(LSHL, 7));
+            x0 = x0.lanewise(ROL, 5);
+            x2 = x2.lanewise(ROL, 22);
+
+            //S5
+            x0 = x0.lanewise(XOR, roundKeys[k+20]);
+            x1 = x1.lanewise(XOR, roundKeys[k+21]);
+            x2 = x2.lanewise(XOR, roundKeys[k+22]);
+            x3 = x3.lanewise(XOR, roundKeys[k+23]);
+            t1 = x0.not();
+            t2 = x0.lanewise(XOR, x1);
+            t3 = x0.lanewise(XOR, x3);
+            t4 = x2.lanewise(XOR, t1);
+            t5 = t2.lanewise(OR, t3);
+            y0 = t4.lanewise(XOR, t5);
+            t7 = x3.lanewise(AND, y0);
+            t8 = t2.lanewise(XOR, y0);
+            y1 = t7.lanewise(XOR, t8);
+            t10 = t1.lanewise(OR, y0);
+            t11 = t2.lanewise(OR, t7);
+            t12 = t3.lanewise(XOR, t10);
+            y2 = t11.lanewise(XOR, t12);
+            y3 = x1.lanewise(XOR, t7).lanewise(XOR, y1.lanewise(AND, t12));
+            x0 = y0.lanewise(ROL, 13);
+            x2 = y2.lanewise(ROL, 3);
+            x1 = y1.lanewise(XOR, x0).lanewise(XOR, x2);
+            x3 = y3.lanewise(XOR, x2).lanewise(XOR, x0.lanewise(LSHL, 3));
+            x1 = x1.lanewise(ROL, 1);
+            x3 = x3.lanewise(ROL, 7);
+            x0 = x0.lanewise(XOR, x1).lanewise(XOR, x3);
+            x2 = x2.lanewise(XOR, x3).lanewise(XOR, x1.lanewise(LSHL, 7));
+            x0 = x0.lanewise(ROL, 5);
+            x2 = x2.lanewise(ROL, 22);
+
+            //S6
+            x0 = x0.lanewise(XOR, roundKeys[k+24]);
+            x1 = x1.lanewise(XOR, roundKeys[k+25]);
+            x2 = x2.lanewise(XOR, roundKeys[k+26]);
+            x3 = x3.lanewise(XOR, roundKeys[k+27]);
+            t1 = x0.not();
+            t2 = x0.lanewise(XOR, x3);
+            t3 = x1.lanewise(XOR, t2);
+            t4 = t1.lanewise(OR, t2);
+            t5 = x2.lanewise(XOR, t4);
+            y1 = x1.lanewise(XOR, t5);
+            t7 = t2.lanewise(OR, y1);
+            t8 = x3.lanewise(XOR, t7);
+            t9 = t5.lanewise(AND, t8);
+            y2 = t3.lanewise(XOR, t9);
+            t11 = t5.lanewise(XOR, t8);
+            y0 = y2.lanewise(XOR, t11);
+            y3 = t5.not().lanewise(XOR, t3.lanewise(AND, t11));
+            x0 = y0.lanewise(ROL, 13);
+            x2 = y2.lanewise(ROL, 3);
+            x1 = y1.lanewise(XOR, x0).lanewise(XOR, x2);
+            x3 = y3.lanewise(XOR, x2).lanewise(XOR, x0.lanewise(LSHL, 3));
+            x1 = x1.lanewise(ROL, 1);
+            x3 = x3.lanewise(ROL, 7);
+            x0 = x0.lanewise(XOR, x1).lanewise(XOR, x3);
+            x2 = x2.lanewise(XOR, x3).lanewise(XOR, x1.lanewise(LSHL, 7));
+            x0 = x0.lanewise(ROL, 5);
+            x2 = x2.lanewise(ROL, 22);
+
+            //S7
+            x0 = x0.lanewise(XOR, roundKeys[k+28]);
+            x1 = x1.lanewise(XOR, roundKeys[k+29]);
+            x2 = x2.lanewise(XOR, roundKeys[k+30]);
+            x3 = x3.lanewise(XOR, roundKeys[k+31]);
+            t1 = x1.lanewise(XOR, x2);
+            t2 = x2.lanewise(AND, t1);
+            t3 = x3.lanewise(XOR, t2);
+            t4 = x0.lanewise(XOR, t3);
+            t5 = x3.lanewise(OR, t1);
+            t6 = t4.lanewise(AND, t5);
+            y1 = x1.lanewise(XOR, t6);
+            t8 = t3.lanewise(OR, y1);
+            t9 = x0.lanewise(AND, t4);
+            y3 = t1.lanewise(XOR, t9);
+            t11 = t4.lanewise(XOR, t8);
+            t12 = y3.lanewise(AND, t11);
+            y2 = t3.lanewise(XOR, t12);
+            y0 = t11.not().lanewise(XOR, y3.lanewise(AND, y2));
+            if (k == 96) {
+                //Round 32 replaces the linear transform with a final key xor.
+                x0 = y0.lanewise(XOR, roundKeys[128]);
+                x1 = y1.lanewise(XOR, roundKeys[129]);
+                x2 = y2.lanewise(XOR, roundKeys[130]);
+                x3 = y3.lanewise(XOR, roundKeys[131]);
+            }
+            else {
+                x0 = y0.lanewise(ROL, 13);
+                x2 = y2.lanewise(ROL, 3);
+                x1 = y1.lanewise(XOR, x0).lanewise(XOR, x2);
+                x3 = y3.lanewise(XOR, x2).lanewise(XOR, x0.lanewise(LSHL, 3));
+                x1 = x1.lanewise(ROL, 1);
+                x3 = x3.lanewise(ROL, 7);
+                x0 = x0.lanewise(XOR, x1).lanewise(XOR, x3);
+                x2 = x2.lanewise(XOR, x3).lanewise(XOR, x1.lanewise(LSHL, 7));
+                x0 = x0.lanewise(ROL, 5);
+                x2 = x2.lanewise(ROL, 22);
+            }
+        }
+        x0.intoArray(w0, 0);
+        x1.intoArray(w1, 0);
+        x2.intoArray(w2, 0);
+        x3.intoArray(w3, 0);
+        store(out, outOff);
+    }
+
+    /**
+     * Decrypt <TT>lanes()</TT> blocks. Same rounds as
+     * <TT>SerpentBitsliced.decrypt()</TT>, on vectors.
+     */
+    private void decryptGroup(byte[] in, int inOff, byte[] out, int outOff) {
+        load(in, inOff);
+        IntVector x0 = IntVector.fromArray(SPECIES, w0, 0).lanewise(XOR, roundKeys[128]);
+        IntVector x1 = IntVector.fromArray(SPECIES, w1, 0).lanewise(XOR, roundKeys[129]);
+        IntVector x2 = IntVector.fromArray(SPECIES, w2, 0).lanewise(XOR, roundKeys[130]);
+        IntVector x3 = IntVector.fromArray(SPECIES, w3, 0).lanewise(XOR, roundKeys[131]);
+        IntVector y0, y1, y2, y3;
+        IntVector t1, t2, t3, t4, t5, t6, t7, t8, t9, t10, t11, t12;
+        //32 rounds in reverse, eight inverse S-boxes per pass
+        for (int k = 96; k >= 0; k -= 32) {
+            //InvS7
+            if (k != 96) {
+                x2 = x2.lanewise(ROR, 22);
+                x0 = x0.lanewise(ROR, 5);
+                x2 = x2.lanewise(XOR, x3).lanewise(XOR, x1.lanewise(LSHL, 7));
+                x0 = x0.lanewise(XOR, x1).lanewise(XOR, x3);
+                x3 = x3.lanewise(ROR, 7);
+                x1 = x1.lanewise(ROR, 1);
+                x3 = x3.lanewise(XOR, x2).lanewise(XOR, x0.lanewise(LSHL, 3));
+                x1 = x1.lanewise(XOR, x0).lanewise(XOR, x2);
+                x2 = x2.lanewise(ROR, 3);
+                x0 = x0.lanewise(ROR, 13);
+            }
+            t3 = x2.lanewise(OR, x0.lanewise(AND, x1));
+            t4 = x3.lanewise(AND, x0.lanewise(OR, x1));
+            y3 = t3.lanewise(XOR, t4);
+            t6 = x3.not();
+            t7 = x1.lanewise(XOR, t4);
+            t9 = t7.lanewise(OR, y3.lanewise(XOR, t6));
+            y1 = x0.lanewise(XOR, t9);
+            y0 = x2.lanewise(XOR, t7).lanewise(XOR, x3.lanewise(OR, y1));
+            y2 = t3.lanewise(XOR, y1).lanewise(XOR, y0.lanewise(XOR, x0.lanewise(AND, y3)));
+            x0 = y0.lanewise(XOR, roundKeys[k+28]);
+            x1 = y1.lanewise(XOR, roundKeys[k+29]);
+            x2 = y2.lanewise(XOR, roundKeys[k+30]);
+            x3 = y3.lanewise(XOR, roundKeys[k+31]);
+
+            //InvS6
+            x2 = x2.lanewise(ROR, 22);
+            x0 = x0.lanewise(ROR, 5);
+            x2 = x2.lanewise(XOR, x3).lanewise(XOR, x1.lanewise(LSHL, 7));
+            x0 = x0.lanewise(XOR, x1).lanewise(XOR, x3);
+            x3 = x3.lanewise(ROR, 7);
+            x1 = x1.lanewise(ROR, 1);
+            x3 = x3.lanewise(XOR, x2).lanewise(XOR, x0.lanewise(LSHL, 3));
+            x1 = x1.lanewise(XOR, x0).lanewise(XOR, x2);
+            x2 = x2.lanewise(ROR, 3);
+            x0 = x0.lanewise(ROR, 13);
+            t1 = x0.not();
+            t2 = x0.lanewise(XOR, x1);
+            t3 = x2.lanewise(XOR, t2);
+            t4 = x2.lanewise(OR, t1);
+            t5 = x3.lanewise(XOR, t4);
+            y1 = t3.lanewise(XOR, t5);
+            t7 = t3.lanewise(AND, t5);
+            t8 = t2.lanewise(XOR, t7);
+            t9 = x1.lanewise(OR, t8);
+            y3 = t5.lanewise(XOR, t9);
+            t11 = x1.lanewise(OR, y3);
+            y0 = t8.lanewise(XOR, t11);
+            y2 = x3.lanewise(AND, t1).lanewise(XOR, t3.lanewise(XOR, t11));
+            x0 = y0.lanewise(XOR, roundKeys[k+24]);
+            x1 = y1.lanewise(XOR, roundKeys[k+25]);
+            x2 = y2.lanewise(XOR, roundKeys[k+26]);
+            x3 = y3.lanewise(XOR, roundKeys[k+27]);
+
+            //InvS5
+            x2 = x2.lanewise(ROR, 22);
+            x0 = x0.lanewise(ROR, 5);
+            x2 = x2.lanewise(XOR, x3).lanewise(XOR, x1.lanewise(LSHL, 7));
+            x0 = x0.lanewise(XOR, x1).lanewise(XOR, x3);
+            x3 = x3.lanewise(ROR, 7);
+            x1 = x1.lanewise(ROR, 1);
+            x3 = x3.lanewise(XOR, x2).lanewise(XOR, x0.lanewise(LSHL, 3));
+            x1 = x1.lanewise(XOR, x0).lanewise(XOR, x2);
+            x2 = x2.lanewise(ROR, 3);
+            x0 = x0.lanewise(ROR, 13);
+            t1 = x2.not();
+            t2 = x1.lanewise(AND, t1);
+            t3 = x3.lanewise(XOR, t2);
+            t4 = x0.lanewise(AND, t3);
+            t5 = x1.lanewise(XOR, t1);
+            y3 = t4.lanewise(XOR, t5);
+            t7 = x1.lanewise(OR, y3);
+            t8 = x0.lanewise(AND, t7);
+            y1 = t3.lanewise(XOR, t8);
+            t10 = x0.lanewise(OR, x3);
+            t11 = t1.lanewise(XOR, t7);
+            y0 = t10.lanewise(XOR, t11);
+            y2 = x1.lanewise(AND, t10).lanewise(XOR, t4.lanewise(OR, x0.lanewise(XOR, x2)));
+            x0 = y0.lanewise(XOR, roundKeys[k+20]);
+            x1 = y1.lanewise(XOR, roundKeys[k+21]);
+            x2 = y2.lanewise(XOR, roundKeys[k+22]);
+            x3 = y3.lanewise(XOR, roundKeys[k+23]);
+
+            //InvS4
+            x2 = x2.lanewise(ROR, 22);
+            x0 = x0.lanewise(ROR, 5);
+            x2 = x2.lanewise(XOR, x3).lanewise(XOR, x1.lanewise(LSHL, 7));
+            x0 = x0.lanewise(XOR, x1).lanewise(XOR, x3);
+            x3 = x3.lanewise(ROR, 7);
+            x1 = x1.lanewise(ROR, 1);
+            x3 = x3.lanewise(XOR, x2).lanewise(XOR, x0.lanewise(LSHL, 3));
+            x1 = x1.lanewise(XOR, x0).lanewise(XOR, x2);
+            x2 = x2.lanewise(ROR, 3);
+            x0 = x0.lanewise(ROR, 13);
+            t1 = x2.lanewise(OR, x3);
+            t2 = x0.lanewise(AND, t1);
+            t3 = x1.lanewise(XOR, t2);
+            t4 = x0.lanewise(AND, t3);
+            t5 = x2.lanewise(XOR, t4);
+            y1 = x3.lanewise(XOR, t5);
+            t7 = x0.not();
+            t8 = t5.lanewise(AND, y1);
+            y3 = t3.lanewise(XOR, t8);
+            t10 = y1.lanewise(OR, t7);
+            t11 = x3.lanewise(XOR, t10);
+            y0 = y3.lanewise(XOR, t11);
+            y2 = t3.lanewise(AND, t11).lanewise(XOR, y1.lanewise(XOR, t7));
+            x0 = y0.lanewise(XOR, roundKeys[k+16]);
+            x1 = y1.lanewise(XOR, roundKeys[k+17]);
+            x2 = y2.lanewise(XOR, roundKeys[k+18]);
+            x3 = y3.lanewise(XOR, roundKeys[k+19]);
+
+            //InvS3
+            x2 = x2.lanewise(ROR, 22);
+            x0 = x0.lanewise(ROR, 5);
+            x2 = x2.lanewise(XOR, x3).lanewise(XOR, x1.lanewise(LSHL, 7));
+            x0 = x0.lanewise(XOR, x1).lanewise(XOR, x3);
+            x3 = x3.lanewise(ROR, 7);
+            x1 = x1.lanewise(ROR, 1);
+            x3 = x3.lanewise(XOR, x2).lanewise(XOR, x0.lanewise(LSHL, 3));
+            x1 = x1.lanewise(XOR, x0).lanewise(XOR, x2);
+            x2 = x2.lanewise(ROR, 3);
+            x0 = x0.lanewise(ROR, 13);
+            t1 = x0.lanewise(OR, x1);
+            t2 = x1.lanewise(XOR, x2);
+            t3 = x1.lanewise(AND, t2);
+            t4 = x0.lanewise(XOR, t3);
+            t5 = x2.lanewise(XOR, t4);
+            t6 = x3.lanewise(OR, t4);
+            y0 = t2.lanewise(XOR, t6);
+            t8 = t2.lanewise(OR, t6);
+            t9 = x3.lanewise(XOR, t8);
+            y2 = t5.lanewise(XOR, t9);
+            t11 = t1.lanewise(XOR, t9);
+            t12 = y0.lanewise(AND, t11);
+            y3 = t4.lanewise(XOR, t12);
+            y1 = y3.lanewise(XOR, y0.lanewise(XOR, t11));
+            x0 = y0.lanewise(XOR, roundKeys[k+12]);
+            x1 = y1.lanewise(XOR, roundKeys[k+13]);
+            x2 = y2.lanewise(XOR, roundKeys[k+14]);
+            x3 = y3.lanewise(XOR, roundKeys[k+15]);
+
+            //InvS2
+            x2 = x2.lanewise(ROR, 22);
+            x0 = x0.lanewise(ROR, 5);
+            x2 = x2.lanewise(XOR, x3).lanewise(XOR, x1.lanewise(LSHL, 7));
+            x0 = x0.lanewise(XOR, x1).lanewise(XOR, x3);
+            x3 = x3.lanewise(ROR, 7);
+            x1 = x1.lanewise(ROR, 1);
+            x3 = x3.lanewise(XOR, x2).lanewise(XOR, x0.lanewise(LSHL, 3));
+            x1 = x1.lanewise(XOR, x0).lanewise(XOR, x2);
+            x2 = x2.lanewise(ROR, 3);
+            x0 = x0.lanewise(ROR, 13);
+            t1 = x1.lanewise(XOR, x3);
+            t2 = t1.not();
+            t3 = x0.lanewise(XOR, x2);
+            t4 = x2.lanewise(XOR, t1);
+            t5 = x1.lanewise(AND, t4);
+            y0 = t3.lanewise(XOR, t5);
+            t7 = x0.lanewise(OR, t2);
+            t8 = x3.lanewise(XOR, t7);
+            t9 = t3.lanewise(OR, t8);
+            y3 = t1.lanewise(XOR, t9);
+            t11 = t4.not();
+            t12 = y0.lanewise(OR, y3);
+            y1 = t11.lanewise(XOR, t12);
+            y2 = x3.lanewise(AND, t11).lanewise(XOR, t3.lanewise(XOR, t12));
+            x0 = y0.lanewise(XOR, roundKeys[k+8]);
+            x1 = y1.lanewise(XOR, roundKeys[k+9]);
+            x2 = y2.lanewise(XOR, roundKeys[k+10]);
+            x3 = y3.lanewise(XOR, roundKeys[k+11]);
+
+            //InvS1
+            x2 = x2.lanewise(ROR, 22);
+            x0 = x0.lanewise(ROR, 5);
+            x2 = x2.lanewise(XOR, x3).lanewise(XOR, x1.lanewise(LSHL, 7));
+            x0 = x0.lanewise(XOR, x1).lanewise(XOR, x3);
+            x3 = x3.lanewise(ROR, 7);
+            x1 = x1.lanewise(ROR, 1);
+            x3 = x3.lanewise(XOR, x2).lanewise(XOR, x0.lanewise(LSHL, 3));
+            x1 = x1.lanewise(XOR, x0).lanewise(XOR, x2);
+            x2 = x2.lanewise(ROR, 3);
+            x0 = x0.lanewise(ROR, 13);
+            t1 = x1.lanewise(XOR, x3);
+            t3 = x0.lanewise(XOR, x1.lanewise(AND, t1));
+            t4 = t1.lanewise(XOR, t3);
+            y3 = x2.lanewise(XOR, t4);
+            t7 = x1.lanewise(XOR, t1.lanewise(AND, t3));
+            t8 = y3.lanewise(OR, t7);
+            y1 = t3.lanewise(XOR, t8);
+            t10 = y1.not();
+            t11 = y3.lanewise(XOR, t7);
+            y0 = t10.lanewise(XOR, t11);
+            y2 = t4.lanewise(XOR, t10.lanewise(OR, t11));
+            x0 = y0.lanewise(XOR, roundKeys[k+4]);
+            x1 = y1.lanewise(XOR, roundKeys[k+5]);
+            x2 = y2.lanewise(XOR, roundKeys[k+6]);
+            x3 = y3.lanewise(XOR, roundKeys[k+7]);
+
+            //InvS0
+            x2 = x2.lanewise(ROR, 22);
+            x0 = x0.lanewise(ROR, 5);
+            x2 = x2.lanewise(XOR, x3).lanewise(XOR, x1.lanewise(LSHL, 7));
+            x0 = x0.lanewise(XOR, x1).lanewise(XOR, x3);
+            x3 = x3.lanewise(ROR, 7);
+            x1 = x1.lanewise(ROR, 1);
+            x3 = x3.lanewise(XOR, x2).lanewise(XOR, x0.lanewise(LSHL, 3));
+            x1 = x1.lanewise(XOR, x0).lanewise(XOR, x2);
+            x2 = x2.lanewise(ROR, 3);
+            x0 = x0.lanewise(ROR, 13);
+            t1 = x0.not();
+            t2 = x0.lanewise(XOR, x1);
+            t4 = x3.lanewise(XOR, t1.lanewise(OR, t2));
+            t5 = x2.lanewise(XOR, t4);
+            y2 = t2.lanewise(XOR, t5);
+            t8 = t1.lanewise(XOR, x3.lanewise(AND, t2));
+            y1 = t4.lanewise(XOR, y2.lanewise(AND, t8));
+            y3 = x0.lanewise(AND, t4).lanewise(XOR, t5.lanewise(OR, y1));
+            y0 = y3.lanewise(XOR, t5.lanewise(XOR, t8));
+            x0 = y0.lanewise(XOR, roundKeys[k]);
+            x1 = y1.lanewise(XOR, roundKeys[k+1]);
+            x2 = y2.lanewise(XOR, roundKeys[k+2]);
+            x3 = y3.lanewise(XOR, roundKeys[k+3]);
+        }
+        x0.intoArray(w0, 0);
+        x1.intoArray(w1, 0);
+        x2.intoArray(w2, 0);
+        x3.intoArray(w3, 0);
+        store(out, outOff);
+    }
+
+    /**
+     * Transposes a group of blocks into the word arrays: word <TT>i</TT> of
+     * block <TT>j</TT> goes to lane <TT>j</TT> of <TT>wi</TT>.
+     */
+    private void load(byte[] in, int inOff) {
+        for (int j = 0; j < w0.length; j++) {
+            w0[j] = Packing.packIntLittleEndian(in, inOff+16*j);
+            w1[j] = Packing.packIntLittleEndian(in, inOff+16*j+4);
+            w2[j] = Packing.packIntLittleEndian(in, inOff+16*j+8);
+            w3[j] = Packing.packIntLittleEndian(in, inOff+16*j+12);
+        }
+    }
+
+    /**
+     * Inverse of <TT>load()</TT>.
+     */
+    private void store(byte[] out, int outOff) {
+        for (int j = 0; j < w0.length; j++) {
+            Packing.unpackIntLittleEndian(w0[j], out, outOff+16*j);
+            Packing.unpackIntLittleEndian(w1[j], out, outOff+16*j+4);
+            Packing.unpackIntLittleEndian(w2[j], out, outOff+16*j+8);
+            Packing.unpackIntLittleEndian(w3[j], out, outOff+16*j+12);
+        }
+    }
+}//SerpentVector.java
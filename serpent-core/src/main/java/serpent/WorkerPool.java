@@ -0,0 +1,96 @@
+package serpent;
+
+import java.lang.ref.Cleaner;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A bounded pool of the keyed ciphers and scratch buffers a mode of operation
+ * needs for one call or one fork-join leaf. A caller takes a worker with
+ * <TT>acquire()</TT> and hands it back with <TT>release()</TT>; at most one
+ * worker per processor is kept idle, and workers beyond that are wiped and
+ * dropped. Nothing is tied to the calling threads, so a mode that is no
+ * longer used can be collected together with its workers.
+ * <P>
+ * The pool is registered with a <TT>Cleaner</TT> on behalf of its owner.
+ * When the owner becomes unreachable the idle workers are wiped and
+ * <TT>wipeKey</TT> overwrites the owner's key material. The supplier, the
+ * wipe actions and the workers must therefore not refer to the owner, and the
+ * owner must stay reachable while it has workers out, which its public
+ * methods ensure with <TT>Reference.reachabilityFence()</TT>.
+ */
+final class WorkerPool<W> {
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final Supplier<W> create;
+    private final Consumer<W> wipe;
+    private final ArrayBlockingQueue<W> idle =
+        new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Create an empty pool.
+     *
+     * @param  owner    Mode whose collection wipes the pool.
+     * @param  create   Creates a new keyed worker.
+     * @param  wipe     Overwrites the key material of a worker.
+     * @param  wipeKey  Overwrites the owner's key material.
+     */
+    WorkerPool(Object owner, Supplier<W> create, Consumer<W> wipe, Runnable wipeKey) {
+        this.create = create;
+        this.wipe = wipe;
+        CLEANER.register(owner, () -> {
+            for (W w; (w = idle.poll()) != null;) {
+                wipe.accept(w);
+            }
+            wipeKey.run();
+        });
+    }
+
+    /**
+     * Take an idle worker, or create one if there is none.
+     */
+    W acquire() {
+        W w = idle.poll();
+        return w != null ? w : create.get();
+    }
+
+    /**
+     * Return a worker taken with <TT>acquire()</TT>.
+     */
+    void release(W w) {
+        if (!idle.offer(w)) {
+            wipe.accept(w);
+        }
+    }
+
+    /**
+     * Create a cipher keyed from <TT>schedule</TT>, or with <TT>setKey()</TT>
+     * if it does not run on bitslice round keys.
+     *
+     * @param  factory   Creates an unkeyed cipher.
+     * @param  schedule  Expanded key.
+     * @param  key       Key bytes, copied for <TT>setKey()</TT>.
+     */
+    static BlockCipher keyed(Supplier<BlockCipher> factory, SerpentKey schedule, byte[] key) {
+        BlockCipher cipher = factory.get();
+        if (!schedule.keyInto(cipher)) {
+            cipher.setKey(key.clone());
+        }
+        return cipher;
+    }
+
+    /**
+     * Overwrite the key of <TT>cipher</TT>: bitslice round keys with zeros,
+     * any other cipher by keying it with an all-zero key.
+     */
+    static void wipe(BlockCipher cipher) {
+        if (cipher instanceof KeySchedule.Keyed) {
+            ((KeySchedule.Keyed)cipher).setRoundKeys(new int[KeySchedule.WORDS]);
+        }
+        else {
+            cipher.setKey(new byte[cipher.keySize()]);
+        }
+    }
+}//WorkerPool.java
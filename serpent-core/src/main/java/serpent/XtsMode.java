@@ -0,0 +1,315 @@
+package serpent;
+
+import serpent.metrics.CipherMetrics;
+import serpent.util.Packing;
+import java.lang.ref.Reference;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Supplier;
+
+/**
+ * XTS mode (IEEE 1619, NIST SP 800-38E) over a 16-byte <TT>BlockCipher</TT>,
+ * for encrypting storage one sector at a time. Block <TT>j</TT> of sector
+ * <TT>n</TT> is encrypted as
+ * <PRE>
+ *     C = E(K1, P ^ T) ^ T,   T = E(K2, n) * alpha^j
+ * </PRE>
+ * with <TT>n</TT> as a 128-bit little-endian number and <TT>alpha</TT> the
+ * primitive element of GF(2^128). Every sector depends only on its own
+ * number, so any sector can be read or written without touching the others,
+ * and a range of sectors can be spread across the threads of a
+ * <TT>ForkJoinPool</TT>.
+ * <P>
+ * Sectors are processed in place, from the buffer's position; the position
+ * and limit are not changed. The sector size must be a multiple of the block
+ * size, so ciphertext stealing is never needed.
+ * <P>
+ * Ciphers and sector buffers are borrowed from a small pool kept by this
+ * instance, and the key material is overwritten once the instance has been
+ * garbage collected.
+ */
+public class XtsMode {
+
+    //Bytes handled by one fork-join leaf, at least one sector.
+    private static final int CHUNK = 64*1024;
+
+    private final int sectorSize;
+    private final WorkerPool<Worker> workers;
+
+    /**
+     * Construct an XTS mode instance.
+     *
+     * @param factory Creates new, unkeyed ciphers for each pooled worker.
+     * @param dataKey Key K1, which encrypts the data.
+     * @param tweakKey Key K2, which encrypts the sector numbers. Must differ
+     *                 from <TT>dataKey</TT> after both are padded to 32
+     *                 bytes.
+     * @param sectorSize Bytes per sector, a positive multiple of the block
+     *                   size.
+     */
+    public XtsMode(Supplier<BlockCipher> factory, byte[] dataKey, byte[] tweakKey, int sectorSize) {
+        if (sectorSize <= 0 || sectorSize % 16 != 0) {
+            throw new IllegalArgumentException("Sector size must be a positive multiple of 16");
+        }
+        SerpentKey dataSchedule = new SerpentKey(dataKey);
+        SerpentKey tweakSchedule = new SerpentKey(tweakKey);
+        //Compare the schedules, so that keys equal after padding, such as k
+        //and k || 0x01, are rejected too.
+        if (Arrays.equals(dataSchedule.roundKeys(), tweakSchedule.roundKeys())) {
+            dataSchedule.wipe();
+            tweakSchedule.wipe();
+            throw new IllegalArgumentException("XTS data and tweak keys must differ");
+        }
+        byte[] dataCopy = dataKey.clone();
+        byte[] tweakCopy = tweakKey.clone();
+        this.sectorSize = sectorSize;
+        this.workers = new WorkerPool<>(this,
+            () -> new Worker(WorkerPool.keyed(factory, dataSchedule, dataCopy),
+                             WorkerPool.keyed(factory, tweakSchedule, tweakCopy), sectorSize),
+            w -> {
+                WorkerPool.wipe(w.data);
+                WorkerPool.wipe(w.tweak);
+            },
+            () -> {
+                Arrays.fill(dataCopy, (byte)0);
+                Arrays.fill(tweakCopy, (byte)0);
+                dataSchedule.wipe();
+                tweakSchedule.wipe();
+            });
+    }
+
+    /**
+     * Returns the sector size in bytes.
+     *
+     * @return Sector size.
+     */
+    public int sectorSize() {
+        return sectorSize;
+    }
+
+    /**
+     * Encrypt one sector in place.
+     *
+     * @param sectorNo Sector number.
+     * @param sector Buffer holding the sector at its position.
+     */
+    public void encryptSector(long sectorNo, ByteBuffer sector) {
+        checkSector(sector);
+        crypt(true, sectorNo, sector, 1, null);
+    }
+
+    /**
+     * Decrypt one sector in place.
+     *
+     * @param sectorNo Sector number.
+     * @param sector Buffer holding the sector at its position.
+     */
+    public void decryptSector(long sectorNo, ByteBuffer sector) {
+        checkSector(sector);
+        crypt(false, sectorNo, sector, 1, null);
+    }
+
+    /**
+     * Encrypt consecutive sectors in place on the calling thread, numbered
+     * from <TT>firstSector</TT>.
+     *
+     * @param firstSector Number of the first sector.
+     * @param sectors Sectors from the buffer's position to its limit, a
+     *                multiple of the sector size.
+     */
+    public void encryptSectors(long firstSector, ByteBuffer sectors) {
+        crypt(true, firstSector, sectors, sectorCount(sectors), null);
+    }
+
+    /**
+     * Decrypt consecutive sectors in place on the calling thread, numbered
+     * from <TT>firstSector</TT>.
+     *
+     * @param firstSector Number of the first sector.
+     * @param sectors Sectors from the buffer's position to its limit, a
+     *                multiple of the sector size.
+     */
+    public void decryptSectors(long firstSector, ByteBuffer sectors) {
+        crypt(false, firstSector, sectors, sectorCount(sectors), null);
+    }
+
+    /**
+     * Encrypt consecutive sectors in place, numbered from
+     * <TT>firstSector</TT>, splitting them across the threads of
+     * <TT>pool</TT>.
+     *
+     * @param firstSector Number of the first sector.
+     * @param sectors Sectors from the buffer's position to its limit, a
+     *                multiple of the sector size.
+     * @param pool Pool to run on.
+     */
+    public void encryptSectors(long firstSector, ByteBuffer sectors, ForkJoinPool pool) {
+        crypt(true, firstSector, sectors, sectorCount(sectors), pool);
+    }
+
+    /**
+     * Decrypt consecutive sectors in place, numbered from
+     * <TT>firstSector</TT>, splitting them across the threads of
+     * <TT>pool</TT>.
+     *
+     * @param firstSector Number of the first sector.
+     * @param sectors Sectors from the buffer's position to its limit, a
+     *                multiple of the sector size.
+     * @param pool Pool to run on.
+     */
+    public void decryptSectors(long firstSector, ByteBuffer sectors, ForkJoinPool pool) {
+        crypt(false, firstSector, sectors, sectorCount(sectors), pool);
+    }
+
+    /**
+     * Process <TT>count</TT> sectors from the buffer's position, on
+     * <TT>pool</TT> or, if it is null, on the calling thread.
+     */
+    private void crypt(boolean encrypt, long firstSector, ByteBuffer sectors, int count, ForkJoinPool pool) {
+        long start = CipherMetrics.ENABLED ? System.nanoTime() : 0;
+        try {
+            if (pool == null) {
+                Worker w = workers.acquire();
+                try {
+                    w.crypt(encrypt, firstSector, sectors, sectors.position(), count);
+                }
+                finally {
+                    workers.release(w);
+                }
+            }
+            else {
+                pool.invoke(new Task(workers, sectorSize, encrypt, firstSector, sectors, sectors.position(), count));
+            }
+        }
+        finally {
+            Reference.reachabilityFence(this);
+        }
+        if (CipherMetrics.ENABLED) {
+            CipherMetrics.record(CipherMetrics.Operation.XTS, (long)count * sectorSize, start);
+        }
+    }
+
+    private void checkSector(ByteBuffer buf) {
+        if (buf.remaining() < sectorSize) {
+            throw new IllegalArgumentException("Buffer holds less than a sector");
+        }
+    }
+
+    private int sectorCount(ByteBuffer buf) {
+        if (buf.remaining() % sectorSize != 0) {
+            throw new IllegalArgumentException("Buffer does not hold whole sectors");
+        }
+        return buf.remaining() / sectorSize;
+    }
+
+    /**
+     * Pooled ciphers and sector buffers.
+     */
+    private static class Worker {
+        private final BlockCipher data;
+        private final BlockCipher tweak;
+        private final int sectorSize;
+        private final byte[] work;
+        private final byte[] tweaks;
+        private final byte[] t;
+
+        Worker(BlockCipher data, BlockCipher tweak, int sectorSize) {
+            this.data = data;
+            this.tweak = tweak;
+            this.sectorSize = sectorSize;
+            work = new byte[sectorSize];
+            tweaks = new byte[sectorSize];
+            t = new byte[16];
+        }
+
+        void crypt(boolean encrypt, long sectorNo, ByteBuffer buf, int index, int count) {
+            for (int s = 0; s < count; s++) {
+                crypt(encrypt, sectorNo + s, buf, index + s*sectorSize);
+            }
+        }
+
+        /**
+         * Process the sector at <TT>index</TT>. The tweaks for all its blocks
+         * are computed first, so the data blocks go through
+         * <TT>encryptBlocks()</TT> or <TT>decryptBlocks()</TT> in one call.
+         */
+        void crypt(boolean encrypt, long sectorNo, ByteBuffer buf, int index) {
+            buf.get(index, work);
+            Packing.unpackLongLittleEndian(sectorNo, t, 0);
+            Packing.unpackLongLittleEndian(0L, t, 8);
+            tweak.encrypt(t, 0, t, 0);
+            //The tweak as a 128-bit little-endian number; alpha is x, so
+            //each step is a left shift reduced by x^128 = x^7 + x^2 + x + 1.
+            long lo = Packing.packLongLittleEndian(t, 0);
+            long hi = Packing.packLongLittleEndian(t, 8);
+            for (int i = 0; i < sectorSize; i += 16) {
+                Packing.unpackLongLittleEndian(lo, tweaks, i);
+                Packing.unpackLongLittleEndian(hi, tweaks, i+8);
+                long carry = hi >> 63;
+                hi = (hi << 1) | (lo >>> 63);
+                lo = (lo << 1) ^ (carry & 0x87);
+            }
+            xorTweaks();
+            if (encrypt) {
+                data.encryptBlocks(work, 0, work, 0, sectorSize/16);
+            }
+            else {
+                data.decryptBlocks(work, 0, work, 0, sectorSize/16);
+            }
+            xorTweaks();
+            buf.put(index, work);
+        }
+
+        private void xorTweaks() {
+            for (int i = 0; i < sectorSize; i += 8) {
+                Packing.unpackLongLittleEndian(Packing.packLongLittleEndian(work, i) ^
+                    Packing.packLongLittleEndian(tweaks, i), work, i);
+            }
+        }
+    }
+
+    /**
+     * Splits a run of sectors in halves until it fits in a chunk or is a
+     * single sector.
+     */
+    private static class Task extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final WorkerPool<Worker> workers;
+        private final int sectorSize;
+        private final boolean encrypt;
+        private final long firstSector;
+        private final ByteBuffer buf;
+        private final int index;
+        private final int count;
+
+        Task(WorkerPool<Worker> workers, int sectorSize, boolean encrypt, long firstSector, ByteBuffer buf, int index, int count) {
+            this.workers = workers;
+            this.sectorSize = sectorSize;
+            this.encrypt = encrypt;
+            this.firstSector = firstSector;
+            this.buf = buf;
+            this.index = index;
+            this.count = count;
+        }
+
+        protected void compute() {
+            if (count <= 1 || (long)count * sectorSize <= CHUNK) {
+                Worker w = workers.acquire();
+                try {
+                    w.crypt(encrypt, firstSector, buf, index, count);
+                }
+                finally {
+                    workers.release(w);
+                }
+            }
+            else {
+                int half = count / 2;
+                invokeAll(new Task(workers, sectorSize, encrypt, firstSector, buf, index, half),
+                          new Task(workers, sectorSize, encrypt, firstSector + half, buf, index + half*sectorSize, count - half));
+            }
+        }
+    }
+}
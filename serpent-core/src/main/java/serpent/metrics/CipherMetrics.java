@@ -0,0 +1,222 @@
+package serpent.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import jdk.jfr.FlightRecorder;
+
+/**
+ * Optional counters for the ciphers and modes: blocks and bytes processed,
+ * key schedules computed and how long they took, and calls, bytes and call
+ * latency per mode operation.
+ * <P>
+ * Metrics are off unless the JVM is started with
+ * <TT>-Dserpent.metrics=true</TT>. The instrumented code tests
+ * <TT>ENABLED</TT> before calling in here; it is a <TT>static final</TT>, so
+ * when it is false the JIT compiler removes the tests and the timing along
+ * with them. When enabled, the counters are published as MXBeans under the
+ * <TT>serpent</TT> JMX domain and as JFR events in the <TT>Serpent</TT>
+ * category: <TT>serpent.CipherStatistics</TT> every second, and, if enabled
+ * in the recording settings, <TT>serpent.CipherOperation</TT> and
+ * <TT>serpent.KeyExpansion</TT> for every call.
+ */
+public final class CipherMetrics {
+
+    /** True if metrics are collected, from the <TT>serpent.metrics</TT> system property. */
+    public static final boolean ENABLED = Boolean.getBoolean("serpent.metrics");
+
+    /**
+     * Kinds of instrumented calls.
+     */
+    public enum Operation {
+        /** Provider ECB, blocks through <TT>encryptBlocks()</TT>/<TT>decryptBlocks()</TT>. */
+        ECB(true),
+        /** <TT>CbcMode</TT> encryption. */
+        CBC_ENCRYPT(true),
+        /** <TT>CbcMode</TT> decryption. */
+        CBC_DECRYPT(true),
+        /** <TT>CounterMode</TT>. */
+        CTR(true),
+        /** <TT>XtsMode</TT>. */
+        XTS(true),
+        /** <TT>GcmMode</TT> text; its blocks are counted by <TT>CTR</TT>. */
+        GCM(false);
+
+        private final boolean countsBlocks;
+
+        Operation(boolean countsBlocks) {
+            this.countsBlocks = countsBlocks;
+        }
+    }
+
+    private static final LongAdder BLOCKS = new LongAdder();
+    private static final LongAdder BYTES = new LongAdder();
+    private static final LatencyHistogram KEY_EXPANSION = new LatencyHistogram();
+    private static final OperationMetrics[] OPERATIONS = new OperationMetrics[Operation.values().length];
+
+    static {
+        for (Operation op : Operation.values()) {
+            OPERATIONS[op.ordinal()] = new OperationMetrics(op);
+        }
+        if (ENABLED) {
+            register();
+            FlightRecorder.addPeriodicEvent(CipherStatisticsEvent.class, CipherMetrics::emitStatistics);
+        }
+    }
+
+    private CipherMetrics() {
+    }
+
+    /**
+     * Record a key schedule computation that started at
+     * <TT>startNanos</TT>, a <TT>System.nanoTime()</TT> value.
+     *
+     * @param startNanos Start time.
+     */
+    public static void keyExpanded(long startNanos) {
+        long elapsed = System.nanoTime() - startNanos;
+        KEY_EXPANSION.record(elapsed);
+        KeyExpansionEvent event = new KeyExpansionEvent();
+        if (event.isEnabled()) {
+            event.elapsed = elapsed;
+            event.commit();
+        }
+    }
+
+    /**
+     * Record a call of <TT>op</TT> over <TT>bytes</TT> bytes that started at
+     * <TT>startNanos</TT>, a <TT>System.nanoTime()</TT> value.
+     *
+     * @param op Operation.
+     * @param bytes Bytes processed.
+     * @param startNanos Start time.
+     */
+    public static void record(Operation op, long bytes, long startNanos) {
+        long elapsed = System.nanoTime() - startNanos;
+        OPERATIONS[op.ordinal()].record(bytes, elapsed);
+        if (op.countsBlocks) {
+            BLOCKS.add((bytes + 15) >>> 4);
+            BYTES.add(bytes);
+        }
+        CipherOperationEvent event = new CipherOperationEvent();
+        if (event.isEnabled()) {
+            event.operation = op.name();
+            event.bytes = bytes;
+            event.elapsed = elapsed;
+            event.commit();
+        }
+    }
+
+    /**
+     * Returns the number of blocks encrypted or decrypted.
+     *
+     * @return Blocks.
+     */
+    public static long blocks() {
+        return BLOCKS.sum();
+    }
+
+    /**
+     * Returns the number of bytes encrypted or decrypted.
+     *
+     * @return Bytes.
+     */
+    public static long bytes() {
+        return BYTES.sum();
+    }
+
+    /**
+     * Returns the histogram of key schedule times, in nanoseconds. Its count
+     * is the number of key schedules computed.
+     *
+     * @return Histogram.
+     */
+    public static LatencyHistogram keyExpansions() {
+        return KEY_EXPANSION;
+    }
+
+    /**
+     * Returns the counters of one operation.
+     *
+     * @param op Operation.
+     *
+     * @return Counters.
+     */
+    public static OperationMetrics operation(Operation op) {
+        return OPERATIONS[op.ordinal()];
+    }
+
+    /**
+     * Clear all counters.
+     */
+    public static void reset() {
+        BLOCKS.reset();
+        BYTES.reset();
+        KEY_EXPANSION.reset();
+        for (OperationMetrics metrics : OPERATIONS) {
+            metrics.reset();
+        }
+    }
+
+    private static void emitStatistics() {
+        CipherStatisticsEvent event = new CipherStatisticsEvent();
+        event.blocks = BLOCKS.sum();
+        event.bytes = BYTES.sum();
+        event.keyExpansions = KEY_EXPANSION.count();
+        event.keyExpansionP99 = KEY_EXPANSION.valueAtPercentile(99);
+        event.commit();
+    }
+
+    /**
+     * Publish the MXBeans. Failing to do so, e.g. because another class
+     * loader already has, leaves the counters working without JMX.
+     */
+    private static void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(new Totals(), new ObjectName("serpent:type=CipherMetrics"));
+            for (OperationMetrics metrics : OPERATIONS) {
+                server.registerMBean(metrics, new ObjectName("serpent:type=OperationMetrics,name=" + metrics.getOperation()));
+            }
+        }
+        catch (JMException e) {
+            System.err.println("Serpent metrics not published over JMX: " + e);
+        }
+    }
+
+    /**
+     * The totals as an MXBean.
+     */
+    private static class Totals implements CipherMetricsMXBean {
+
+        public long getBlocks() {
+            return blocks();
+        }
+
+        public long getBytes() {
+            return bytes();
+        }
+
+        public long getKeyExpansions() {
+            return KEY_EXPANSION.count();
+        }
+
+        public double getKeyExpansionMeanNanos() {
+            return KEY_EXPANSION.mean();
+        }
+
+        public long getKeyExpansionP99Nanos() {
+            return KEY_EXPANSION.valueAtPercentile(99);
+        }
+
+        public long getKeyExpansionMaxNanos() {
+            return KEY_EXPANSION.max();
+        }
+
+        public void reset() {
+            CipherMetrics.reset();
+        }
+    }
+}
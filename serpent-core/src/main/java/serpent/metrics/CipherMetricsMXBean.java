@@ -0,0 +1,29 @@
+package serpent.metrics;
+
+/**
+ * Totals over all cipher operations, registered as
+ * <TT>serpent:type=CipherMetrics</TT> when metrics are enabled.
+ */
+public interface CipherMetricsMXBean {
+
+    /** Returns the number of blocks encrypted or decrypted. */
+    long getBlocks();
+
+    /** Returns the number of bytes encrypted or decrypted. */
+    long getBytes();
+
+    /** Returns the number of key schedules computed. */
+    long getKeyExpansions();
+
+    /** Returns the mean time to compute a key schedule, in nanoseconds. */
+    double getKeyExpansionMeanNanos();
+
+    /** Returns the 99th percentile key schedule time, in nanoseconds. */
+    long getKeyExpansionP99Nanos();
+
+    /** Returns the longest key schedule time, in nanoseconds. */
+    long getKeyExpansionMaxNanos();
+
+    /** Clears the totals, the key schedule latencies and every operation. */
+    void reset();
+}
@@ -0,0 +1,35 @@
+package serpent.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * One mode call. Off by default, since there can be millions per second;
+ * enable <TT>serpent.CipherOperation</TT> in the recording settings.
+ */
+@Name("serpent.CipherOperation")
+@Label("Cipher Operation")
+@Category("Serpent")
+@Description("One encryption or decryption call of a cipher mode")
+@Enabled(false)
+@StackTrace(false)
+class CipherOperationEvent extends Event {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Call Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long elapsed;
+}
@@ -0,0 +1,37 @@
+package serpent.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Running totals, emitted once a second while a recording is on.
+ */
+@Name("serpent.CipherStatistics")
+@Label("Cipher Statistics")
+@Category("Serpent")
+@Description("Blocks, bytes and key schedules since start or the last reset")
+@Period("1 s")
+@StackTrace(false)
+class CipherStatisticsEvent extends Event {
+
+    @Label("Blocks")
+    long blocks;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Key Expansions")
+    long keyExpansions;
+
+    @Label("Key Expansion p99")
+    @Timespan(Timespan.NANOSECONDS)
+    long keyExpansionP99;
+}
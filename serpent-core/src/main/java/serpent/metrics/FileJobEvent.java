@@ -0,0 +1,39 @@
+package serpent.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A whole file job, from start to finish.
+ */
+@Name("serpent.FileJob")
+@Label("File Job")
+@Category({"Serpent", "File"})
+@Description("Encryption or decryption of one file")
+@StackTrace(false)
+class FileJobEvent extends Event {
+
+    @Label("Job Id")
+    long jobId;
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Input")
+    String input;
+
+    @Label("Output")
+    String output;
+
+    @Label("Bytes Written")
+    @DataAmount
+    long bytes;
+
+    @Label("Failed")
+    boolean failed;
+}
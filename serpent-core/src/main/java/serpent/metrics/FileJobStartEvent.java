@@ -0,0 +1,37 @@
+package serpent.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The start of a file job, so that a job still running shows up in a
+ * recording.
+ */
+@Name("serpent.FileJobStart")
+@Label("File Job Start")
+@Category({"Serpent", "File"})
+@Description("Start of the encryption or decryption of one file")
+@StackTrace(false)
+class FileJobStartEvent extends Event {
+
+    @Label("Job Id")
+    long jobId;
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Input")
+    String input;
+
+    @Label("Output")
+    String output;
+
+    @Label("Input Size")
+    @DataAmount
+    long size;
+}
@@ -0,0 +1,165 @@
+package serpent.metrics;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JFR events for one file job: <TT>serpent.FileJobStart</TT> when it
+ * starts, <TT>serpent.FileJob</TT> over the whole job, and
+ * <TT>serpent.FileStage</TT> for its reads, chunk encryptions and writes.
+ * Steps are not committed one by one but summed into one event per stage
+ * every 16 steps, so a job of 1 MB buffers adds a few events per second
+ * per stage and a couple of <TT>nanoTime()</TT> calls per megabyte.
+ * <P>
+ * All events of a job carry the same job id. Each stage must be recorded by
+ * one thread at a time; different stages may be recorded by different
+ * threads.
+ */
+public final class FileJobTrace {
+
+    /**
+     * Steps of a file job.
+     */
+    public enum Stage {
+        /** Reading the input file. */
+        READ,
+        /** Encrypting or decrypting a buffer. */
+        CIPHER,
+        /** Writing the output file. */
+        WRITE
+    }
+
+    //Steps summed into one stage event
+    private static final int BATCH = 16;
+
+    private static final AtomicLong JOBS = new AtomicLong();
+
+    private final long jobId;
+    private final FileJobEvent job;
+    private final Batch[] batches = new Batch[Stage.values().length];
+    private long written;
+
+    private FileJobTrace(String operation, File input, File output) {
+        jobId = JOBS.incrementAndGet();
+        FileJobStartEvent start = new FileJobStartEvent();
+        if (start.isEnabled()) {
+            start.jobId = jobId;
+            start.operation = operation;
+            start.input = input.getPath();
+            start.output = output.getPath();
+            start.size = input.length();
+            start.commit();
+        }
+        job = new FileJobEvent();
+        job.jobId = jobId;
+        job.operation = operation;
+        job.input = input.getPath();
+        job.output = output.getPath();
+        job.begin();
+        for (Stage stage : Stage.values()) {
+            batches[stage.ordinal()] = new Batch(stage);
+        }
+    }
+
+    /**
+     * Start tracing a job.
+     *
+     * @param operation What the job does, e.g. <TT>"CBC encrypt"</TT>.
+     * @param input Input file.
+     * @param output Output file.
+     *
+     * @return Trace of the job.
+     */
+    public static FileJobTrace start(String operation, File input, File output) {
+        return new FileJobTrace(operation, input, output);
+    }
+
+    /**
+     * Record a step of <TT>stage</TT> over <TT>bytes</TT> bytes that started
+     * at <TT>startNanos</TT>, a <TT>System.nanoTime()</TT> value.
+     *
+     * @param stage Stage.
+     * @param bytes Bytes read, processed or written.
+     * @param startNanos Start time.
+     */
+    public void record(Stage stage, long bytes, long startNanos) {
+        if (stage == Stage.WRITE) {
+            written += bytes;
+        }
+        batches[stage.ordinal()].add(bytes, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Commit the steps not yet committed and the job event. Called once,
+     * after every stage has finished.
+     *
+     * @param failed True if the job ended with an exception.
+     */
+    public void finish(boolean failed) {
+        for (Batch batch : batches) {
+            batch.flush();
+        }
+        job.end();
+        if (job.shouldCommit()) {
+            job.bytes = written;
+            job.failed = failed;
+            job.commit();
+        }
+    }
+
+    /**
+     * Steps of one stage since its last event.
+     */
+    private class Batch {
+        private final Stage stage;
+        private FileStageEvent event;
+        private int steps;
+        private long bytes;
+        private long busy;
+        private long longest;
+        private Thread thread;
+
+        Batch(Stage stage) {
+            this.stage = stage;
+            open();
+        }
+
+        private void open() {
+            event = new FileStageEvent();
+            event.begin();
+            steps = 0;
+            bytes = 0;
+            busy = 0;
+            longest = 0;
+        }
+
+        void add(long n, long nanos) {
+            steps++;
+            bytes += n;
+            busy += nanos;
+            longest = Math.max(longest, nanos);
+            thread = Thread.currentThread();
+            if (steps == BATCH) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (steps == 0) {
+                return;
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.jobId = jobId;
+                event.stage = stage.name();
+                event.thread = thread.getName();
+                event.steps = steps;
+                event.bytes = bytes;
+                event.busy = busy;
+                event.longest = longest;
+                event.commit();
+            }
+            open();
+        }
+    }
+}
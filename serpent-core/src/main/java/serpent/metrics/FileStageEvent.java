@@ -0,0 +1,50 @@
+package serpent.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A batch of consecutive reads, chunk encryptions or writes of one file
+ * job. The event runs from the end of the stage's previous batch, or the
+ * start of the job, to the end of the batch's last step, so the batches of
+ * a stage cover the job without gaps and busy time shows how much of that
+ * the stage worked.
+ */
+@Name("serpent.FileStage")
+@Label("File Stage Batch")
+@Category({"Serpent", "File"})
+@Description("Consecutive reads, chunk encryptions or writes of a file job")
+@StackTrace(false)
+class FileStageEvent extends Event {
+
+    @Label("Job Id")
+    long jobId;
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Stage Thread")
+    @Description("Thread that ran the steps, which may not be the thread that committed the event")
+    String thread;
+
+    @Label("Steps")
+    int steps;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Busy Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long busy;
+
+    @Label("Longest Step")
+    @Timespan(Timespan.NANOSECONDS)
+    long longest;
+}
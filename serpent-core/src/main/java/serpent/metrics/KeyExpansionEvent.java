@@ -0,0 +1,27 @@
+package serpent.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * One key schedule computation. Off by default; enable
+ * <TT>serpent.KeyExpansion</TT> in the recording settings.
+ */
+@Name("serpent.KeyExpansion")
+@Label("Key Expansion")
+@Category("Serpent")
+@Description("Computation of the round keys for one key")
+@Enabled(false)
+@StackTrace(false)
+class KeyExpansionEvent extends Event {
+
+    @Label("Expansion Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long elapsed;
+}
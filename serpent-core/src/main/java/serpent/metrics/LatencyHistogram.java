@@ -0,0 +1,131 @@
+package serpent.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size, lock-free histogram of non-negative values such as latencies
+ * in nanoseconds, in the style of HdrHistogram. Values below 64 have a bucket
+ * each; above that, every power of two is split into 32 buckets, so a
+ * reported value is never more than about 3% above the recorded one. The
+ * whole range of <TT>long</TT> fits in 1888 buckets, and recording is a few
+ * atomic updates with no locking or allocation.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = SUB * (63 - SUB_BITS) + SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Record one value. Negative values are recorded as zero.
+     *
+     * @param value Value, e.g. nanoseconds.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(index(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Returns the number of values recorded.
+     *
+     * @return Count.
+     */
+    public long count() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the mean of the values recorded, or 0 if there are none.
+     *
+     * @return Mean.
+     */
+    public double mean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double)sum.sum() / n;
+    }
+
+    /**
+     * Returns the largest value recorded, or 0 if there are none.
+     *
+     * @return Maximum.
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * Returns the value below or at which <TT>percentile</TT> percent of the
+     * recorded values fall, rounded up to the top of its bucket.
+     *
+     * @param percentile Percentile, 0 to 100.
+     *
+     * @return Value, or 0 if nothing has been recorded.
+     */
+    public long valueAtPercentile(double percentile) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long)Math.ceil(Math.min(percentile, 100) / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highest(i), max());
+            }
+        }
+        return max();
+    }
+
+    /**
+     * Forget all values. Values recorded while resetting may be partly
+     * kept.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    private static int index(long value) {
+        if (value < 2*SUB) {
+            return (int)value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift << SUB_BITS) + (int)(value >>> shift);
+    }
+
+    /**
+     * Returns the largest value that falls in bucket <TT>index</TT>.
+     */
+    private static long highest(int index) {
+        if (index < 2*SUB) {
+            return index;
+        }
+        int shift = (index >>> SUB_BITS) - 1;
+        long sub = (index & (SUB - 1)) + SUB;
+        long top = ((sub + 1) << shift) - 1;
+        return top < 0 ? Long.MAX_VALUE : top;
+    }
+}
@@ -0,0 +1,76 @@
+package serpent.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and call latencies of one kind of mode operation.
+ */
+public final class OperationMetrics implements OperationMetricsMXBean {
+
+    private final CipherMetrics.Operation operation;
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    OperationMetrics(CipherMetrics.Operation operation) {
+        this.operation = operation;
+    }
+
+    void record(long bytes, long nanos) {
+        this.bytes.add(bytes);
+        this.nanos.add(nanos);
+        latency.record(nanos);
+    }
+
+    /**
+     * Returns the histogram of call times, in nanoseconds.
+     *
+     * @return Histogram.
+     */
+    public LatencyHistogram latency() {
+        return latency;
+    }
+
+    public String getOperation() {
+        return operation.name();
+    }
+
+    public long getCount() {
+        return latency.count();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    public long getNanos() {
+        return nanos.sum();
+    }
+
+    public double getThroughputMBps() {
+        long t = nanos.sum();
+        return t == 0 ? 0 : bytes.sum() * 1e3 / t;
+    }
+
+    public double getMeanNanos() {
+        return latency.mean();
+    }
+
+    public long getP50Nanos() {
+        return latency.valueAtPercentile(50);
+    }
+
+    public long getP99Nanos() {
+        return latency.valueAtPercentile(99);
+    }
+
+    public long getMaxNanos() {
+        return latency.max();
+    }
+
+    public void reset() {
+        bytes.reset();
+        nanos.reset();
+        latency.reset();
+    }
+}
@@ -0,0 +1,42 @@
+package serpent.metrics;
+
+/**
+ * Counters of one kind of mode operation, registered as
+ * <TT>serpent:type=OperationMetrics,name=</TT><I>operation</I> when metrics
+ * are enabled.
+ */
+public interface OperationMetricsMXBean {
+
+    /** Returns the operation, e.g. <TT>CTR</TT>. */
+    String getOperation();
+
+    /** Returns the number of calls. */
+    long getCount();
+
+    /** Returns the number of bytes processed. */
+    long getBytes();
+
+    /** Returns the total time spent in calls, in nanoseconds. */
+    long getNanos();
+
+    /**
+     * Returns bytes processed per second of call time, in MB/s. Calls made
+     * at the same time from several threads each count their own time.
+     */
+    double getThroughputMBps();
+
+    /** Returns the mean call time, in nanoseconds. */
+    double getMeanNanos();
+
+    /** Returns the median call time, in nanoseconds. */
+    long getP50Nanos();
+
+    /** Returns the 99th percentile call time, in nanoseconds. */
+    long getP99Nanos();
+
+    /** Returns the longest call time, in nanoseconds. */
+    long getMaxNanos();
+
+    /** Clears the counters. */
+    void reset();
+}
@@ -0,0 +1,67 @@
+package serpent.util;
+
+/**
+ * Converts between byte arrays and hexadecimal strings. Replaces
+ * <TT>edu.rit.util.Hex</TT> from the Parallel Java library with the same
+ * method names.
+ */
+public final class Hex {
+
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    private Hex() {
+    }
+
+    /**
+     * Returns the lowercase hexadecimal string for <TT>bytes</TT>, two
+     * digits per byte.
+     *
+     * @param  bytes  Byte array.
+     *
+     * @return  Hexadecimal string.
+     */
+    public static String toString(byte[] bytes) {
+        char[] chars = new char[2*bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2*i] = DIGITS[(bytes[i] >>> 4) & 0x0F];
+            chars[2*i+1] = DIGITS[bytes[i] & 0x0F];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Returns the bytes of a hexadecimal string, two digits per byte. If the
+     * string has an odd number of digits, it is read as if it had a leading
+     * zero.
+     *
+     * @param  s  Hexadecimal string, upper or lower case.
+     *
+     * @return  Byte array.
+     *
+     * @exception  IllegalArgumentException
+     *     Thrown if <TT>s</TT> contains a character that is not a
+     *     hexadecimal digit.
+     */
+    public static byte[] toByteArray(String s) {
+        int n = s.length();
+        byte[] bytes = new byte[(n+1)/2];
+        int i = 0;
+        int j = 0;
+        if ((n & 1) == 1) {
+            bytes[j++] = (byte)digit(s, i++);
+        }
+        while (i < n) {
+            bytes[j++] = (byte)((digit(s, i) << 4) | digit(s, i+1));
+            i += 2;
+        }
+        return bytes;
+    }
+
+    private static int digit(String s, int i) {
+        int d = Character.digit(s.charAt(i), 16);
+        if (d < 0) {
+            throw new IllegalArgumentException("Not a hexadecimal digit: '" + s.charAt(i) + "'");
+        }
+        return d;
+    }
+}
@@ -0,0 +1,154 @@
+package serpent.util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Packs bytes into <TT>int</TT>s and <TT>long</TT>s and unpacks them into
+ * bytes. Replaces <TT>edu.rit.util.Packing</TT> from the Parallel Java
+ * library with the same method names.
+ * <P>
+ * Each access goes through a <TT>VarHandle</TT> view of the byte array,
+ * which the JIT compiles to a single, possibly unaligned, load or store
+ * with a byte swap where the order differs from the platform's,
+ * instead of one byte access and shift per byte.
+ */
+public final class Packing {
+
+    private static final VarHandle INT_BIG_ENDIAN =
+        MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle INT_LITTLE_ENDIAN =
+        MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle LONG_BIG_ENDIAN =
+        MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle LONG_LITTLE_ENDIAN =
+        MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private Packing() {
+    }
+
+    /**
+     * Pack four bytes of <TT>src</TT> starting at <TT>srcPos</TT> into an
+     * <TT>int</TT>, most significant byte first.
+     *
+     * @param  src     Source array.
+     * @param  srcPos  Index of the first byte.
+     *
+     * @return  Packed value.
+     *
+     * @exception  IndexOutOfBoundsException
+     *     Thrown if fewer than four bytes are available at <TT>srcPos</TT>.
+     */
+    public static int packIntBigEndian(byte[] src, int srcPos) {
+        return (int)INT_BIG_ENDIAN.get(src, srcPos);
+    }
+
+    /**
+     * Pack four bytes of <TT>src</TT> starting at <TT>srcPos</TT> into an
+     * <TT>int</TT>, least significant byte first.
+     *
+     * @param  src     Source array.
+     * @param  srcPos  Index of the first byte.
+     *
+     * @return  Packed value.
+     *
+     * @exception  IndexOutOfBoundsException
+     *     Thrown if fewer than four bytes are available at <TT>srcPos</TT>.
+     */
+    public static int packIntLittleEndian(byte[] src, int srcPos) {
+        return (int)INT_LITTLE_ENDIAN.get(src, srcPos);
+    }
+
+    /**
+     * Unpack <TT>value</TT> into four bytes of <TT>dst</TT> starting at
+     * <TT>dstPos</TT>, most significant byte first.
+     *
+     * @param  value   Value to unpack.
+     * @param  dst     Destination array.
+     * @param  dstPos  Index of the first byte.
+     *
+     * @exception  IndexOutOfBoundsException
+     *     Thrown if fewer than four bytes are available at <TT>dstPos</TT>.
+     */
+    public static void unpackIntBigEndian(int value, byte[] dst, int dstPos) {
+        INT_BIG_ENDIAN.set(dst, dstPos, value);
+    }
+
+    /**
+     * Unpack <TT>value</TT> into four bytes of <TT>dst</TT> starting at
+     * <TT>dstPos</TT>, least significant byte first.
+     *
+     * @param  value   Value to unpack.
+     * @param  dst     Destination array.
+     * @param  dstPos  Index of the first byte.
+     *
+     * @exception  IndexOutOfBoundsException
+     *     Thrown if fewer than four bytes are available at <TT>dstPos</TT>.
+     */
+    public static void unpackIntLittleEndian(int value, byte[] dst, int dstPos) {
+        INT_LITTLE_ENDIAN.set(dst, dstPos, value);
+    }
+
+    /**
+     * Pack eight bytes of <TT>src</TT> starting at <TT>srcPos</TT> into a
+     * <TT>long</TT>, most significant byte first.
+     *
+     * @param  src     Source array.
+     * @param  srcPos  Index of the first byte.
+     *
+     * @return  Packed value.
+     *
+     * @exception  IndexOutOfBoundsException
+     *     Thrown if fewer than eight bytes are available at <TT>srcPos</TT>.
+     */
+    public static long packLongBigEndian(byte[] src, int srcPos) {
+        return (long)LONG_BIG_ENDIAN.get(src, srcPos);
+    }
+
+    /**
+     * Unpack <TT>value</TT> into eight bytes of <TT>dst</TT> starting at
+     * <TT>dstPos</TT>, most significant byte first.
+     *
+     * @param  value   Value to unpack.
+     * @param  dst     Destination array.
+     * @param  dstPos  Index of the first byte.
+     *
+     * @exception  IndexOutOfBoundsException
+     *     Thrown if fewer than eight bytes are available at <TT>dstPos</TT>.
+     */
+    public static void unpackLongBigEndian(long value, byte[] dst, int dstPos) {
+        LONG_BIG_ENDIAN.set(dst, dstPos, value);
+    }
+
+    /**
+     * Pack eight bytes of <TT>src</TT> starting at <TT>srcPos</TT> into a
+     * <TT>long</TT>, least significant byte first.
+     *
+     * @param  src     Source array.
+     * @param  srcPos  Index of the first byte.
+     *
+     * @return  Packed value.
+     *
+     * @exception  IndexOutOfBoundsException
+     *     Thrown if fewer than eight bytes are available at <TT>srcPos</TT>.
+     */
+    public static long packLongLittleEndian(byte[] src, int srcPos) {
+        return (long)LONG_LITTLE_ENDIAN.get(src, srcPos);
+    }
+
+    /**
+     * Unpack <TT>value</TT> into eight bytes of <TT>dst</TT> starting at
+     * <TT>dstPos</TT>, least significant byte first.
+     *
+     * @param  value   Value to unpack.
+     * @param  dst     Destination array.
+     * @param  dstPos  Index of the first byte.
+     *
+     * @exception  IndexOutOfBoundsException
+     *     Thrown if fewer than eight bytes are available at <TT>dstPos</TT>.
+     */
+    public static void unpackLongLittleEndian(long value, byte[] dst, int dstPos) {
+        LONG_LITTLE_ENDIAN.set(dst, dstPos, value);
+    }
+}
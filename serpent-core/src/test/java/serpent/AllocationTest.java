@@ -0,0 +1,69 @@
+package serpent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The offset-based <TT>encrypt</TT> and <TT>decrypt</TT> of every engine
+ * allocate nothing per block, as counted by the JVM for the calling thread.
+ */
+class AllocationTest {
+
+    private static final int BLOCKS = 20000;
+
+    private static com.sun.management.ThreadMXBean threads;
+
+    @BeforeAll
+    static void allocationCounter() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean, "No per-thread allocation counter");
+        threads = (com.sun.management.ThreadMXBean)bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported(), "No per-thread allocation counter");
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test
+    void serpent() {
+        check(Serpent::new);
+    }
+
+    @Test
+    void serpentOptimized() {
+        check(SerpentOptimized::new);
+    }
+
+    @Test
+    void serpentBitsliced() {
+        check(SerpentBitsliced::new);
+    }
+
+    @Test
+    void serpentVector() {
+        check(SerpentVector::new);
+    }
+
+    private static void check(Supplier<BlockCipher> factory) {
+        BlockCipher cipher = factory.get();
+        cipher.setKey(new byte[32]);
+        byte[] in = new byte[64];
+        byte[] out = new byte[64];
+        //Warm up first, so the measured loop runs compiled code.
+        run(cipher, in, out);
+        long before = threads.getCurrentThreadAllocatedBytes();
+        run(cipher, in, out);
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        assertEquals(0, allocated, cipher.getClass().getSimpleName() + " allocated bytes over " + BLOCKS + " blocks");
+    }
+
+    private static void run(BlockCipher cipher, byte[] in, byte[] out) {
+        for (int i = 0; i < BLOCKS; i++) {
+            cipher.encrypt(in, 16, out, 32);
+            cipher.decrypt(out, 32, in, 16);
+        }
+    }
+}
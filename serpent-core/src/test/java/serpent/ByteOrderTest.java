@@ -0,0 +1,263 @@
+package serpent;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The buffer methods give the same bytes whatever the byte order of the
+ * buffers, heap or direct.
+ */
+class ByteOrderTest {
+
+    private static final byte[] KEY = bytes(32, 1);
+    private static final byte[] IV = bytes(16, 2);
+
+    private static final ByteOrder[] ORDERS = {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN};
+
+    @Test
+    void counterMode() {
+        int len = 70000;
+        byte[] plain = bytes(len, 4);
+        byte[] expected = new byte[len];
+        CounterMode ctr = new CounterMode(SerpentBitsliced::new, KEY, IV);
+        ctr.process(plain, 0, expected, 0, len, 5);
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            for (ByteOrder inOrder : ORDERS) {
+                for (ByteOrder outOrder : ORDERS) {
+                    for (boolean direct : new boolean[] {false, true}) {
+                        String what = inOrder + " in, " + outOrder + " out" + (direct ? ", direct" : "");
+                        ByteBuffer in = allocate(len + 3, direct).order(inOrder);
+                        in.position(3);
+                        in.put(plain);
+                        ByteBuffer out = allocate(len + 1, direct).order(outOrder);
+                        ctr.process(in, 3, out, 1, len, 5);
+                        assertArrayEquals(expected, contents(out.position(1)), what);
+                        out = allocate(len + 1, direct).order(outOrder);
+                        ctr.processParallel(in, 3, out, 1, len, 5, pool);
+                        assertArrayEquals(expected, contents(out.position(1)), what + ", parallel");
+                    }
+                }
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void batchCounterMode() {
+        int[] lengths = {0, 5, 16, 29, 64, 100, 4100};
+        byte[] ivs = bytes(16*lengths.length, 3);
+        for (ByteOrder order : ORDERS) {
+            for (boolean direct : new boolean[] {false, true}) {
+                List<ByteBuffer> messages = new ArrayList<>();
+                List<byte[]> expected = new ArrayList<>();
+                for (int i = 0; i < lengths.length; i++) {
+                    byte[] plain = bytes(lengths[i], 10 + i);
+                    byte[] iv = new byte[16];
+                    System.arraycopy(ivs, 16*i, iv, 0, 16);
+                    byte[] cipherText = new byte[plain.length];
+                    new CounterMode(SerpentBitsliced::new, KEY, iv).process(plain, 0, cipherText, 0, plain.length);
+                    expected.add(cipherText);
+                    //Start one byte in, so the longs are not aligned either.
+                    ByteBuffer buf = allocate(plain.length + 1, direct).order(order);
+                    buf.position(1);
+                    buf.put(plain);
+                    buf.position(1);
+                    messages.add(buf);
+                }
+                new BatchCounterMode(SerpentBitsliced::new).process(new SerpentKey(KEY), messages, ivs);
+                for (int i = 0; i < lengths.length; i++) {
+                    assertArrayEquals(expected.get(i), contents(messages.get(i)), order + (direct ? ", direct" : "") + ", message " + i);
+                }
+            }
+        }
+    }
+
+    @Test
+    void batchCounterModePerMessageKeys() {
+        //Keys change mid-batch, come back, and differ in length.
+        byte[][] rawKeys = {KEY, bytes(16, 8), bytes(24, 9)};
+        int[] keyOf = {0, 0, 1, 1, 1, 0, 2, 2, 1};
+        int[] lengths = {5, 16, 29, 0, 4100, 64, 100, 17, 33};
+        SerpentKey[] schedules = new SerpentKey[rawKeys.length];
+        for (int k = 0; k < rawKeys.length; k++) {
+            schedules[k] = new SerpentKey(rawKeys[k]);
+        }
+        SerpentKey[] keys = new SerpentKey[keyOf.length];
+        byte[] ivs = bytes(16*lengths.length, 11);
+        List<byte[]> plain = new ArrayList<>();
+        List<byte[]> expected = new ArrayList<>();
+        for (int i = 0; i < lengths.length; i++) {
+            keys[i] = schedules[keyOf[i]];
+            plain.add(bytes(lengths[i], 20 + i));
+            byte[] cipherText = new byte[lengths[i]];
+            new CounterMode(SerpentBitsliced::new, rawKeys[keyOf[i]], Arrays.copyOfRange(ivs, 16*i, 16*i + 16))
+                .process(plain.get(i), 0, cipherText, 0, lengths[i]);
+            expected.add(cipherText);
+        }
+        //Serpent takes no round keys, so it falls back to SerpentBitsliced.encryptBlocks().
+        for (String engine : new String[] {"SerpentBitsliced", "Serpent"}) {
+            BatchCounterMode batch = new BatchCounterMode(engine.equals("Serpent") ? Serpent::new : SerpentBitsliced::new);
+            for (ByteOrder order : ORDERS) {
+                for (boolean direct : new boolean[] {false, true}) {
+                    List<ByteBuffer> messages = new ArrayList<>();
+                    for (byte[] p : plain) {
+                        ByteBuffer buf = allocate(p.length + 1, direct).order(order);
+                        buf.position(1);
+                        buf.put(p);
+                        buf.position(1);
+                        messages.add(buf);
+                    }
+                    batch.process(keys, messages, ivs);
+                    for (int i = 0; i < lengths.length; i++) {
+                        assertArrayEquals(expected.get(i), contents(messages.get(i)),
+                                          engine + ", " + order + (direct ? ", direct" : "") + ", message " + i);
+                    }
+                }
+            }
+            //All messages in one array
+            int[] offsets = new int[lengths.length];
+            byte[] buf = new byte[Arrays.stream(lengths).sum() + 3];
+            for (int i = 0, off = 3; i < lengths.length; off += lengths[i++]) {
+                offsets[i] = off;
+                System.arraycopy(plain.get(i), 0, buf, off, lengths[i]);
+            }
+            batch.process(keys, buf, offsets, lengths, ivs);
+            for (int i = 0; i < lengths.length; i++) {
+                assertArrayEquals(expected.get(i), Arrays.copyOfRange(buf, offsets[i], offsets[i] + lengths[i]),
+                                  engine + ", array, message " + i);
+            }
+        }
+    }
+
+    @Test
+    void cipherSpi() throws Exception {
+        SecretKeySpec key = new SecretKeySpec(KEY, "Serpent");
+        for (String transformation : new String[] {"Serpent/ECB/NoPadding", "Serpent/CBC/PKCS5Padding", "Serpent/CTR/NoPadding"}) {
+            Cipher cipher = Cipher.getInstance(transformation, new SerpentProvider());
+            IvParameterSpec iv = transformation.contains("ECB") ? null : new IvParameterSpec(IV);
+            int len = transformation.contains("ECB") ? 4096 : 4100;
+            byte[] plain = bytes(len, 5);
+            cipher.init(Cipher.ENCRYPT_MODE, key, iv);
+            byte[] expected = cipher.doFinal(plain);
+            for (ByteOrder inOrder : ORDERS) {
+                for (ByteOrder outOrder : ORDERS) {
+                    for (boolean direct : new boolean[] {false, true}) {
+                        String what = transformation + ", " + inOrder + " in, " + outOrder + " out" + (direct ? ", direct" : "");
+                        ByteBuffer in = allocate(len, direct).order(inOrder);
+                        in.put(plain).flip();
+                        ByteBuffer out = allocate(expected.length, direct).order(outOrder);
+                        cipher.init(Cipher.ENCRYPT_MODE, key, iv);
+                        //Split the input so that a partial block is carried over.
+                        in.limit(1000);
+                        cipher.update(in, out);
+                        in.limit(len);
+                        cipher.doFinal(in, out);
+                        assertArrayEquals(expected, contents(out.flip()), what);
+
+                        ByteBuffer back = allocate(len, direct).order(inOrder);
+                        cipher.init(Cipher.DECRYPT_MODE, key, iv);
+                        cipher.doFinal(out, back);
+                        assertArrayEquals(plain, contents(back.flip()), what + ", back");
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void ctrFileChannel(@TempDir Path dir) throws IOException {
+        int len = 200000;
+        byte[] plain = bytes(len, 6);
+        byte[] encrypted = new byte[len];
+        new CounterMode(SerpentBitsliced::new, KEY, IV).process(plain, 0, encrypted, 0, len);
+        Path file = dir.resolve("data.ctr");
+        Files.write(file, encrypted);
+        try (CtrFileChannel channel = CtrFileChannel.open(file.toFile(), SerpentBitsliced::new, KEY, IV)) {
+            for (ByteOrder order : ORDERS) {
+                for (boolean direct : new boolean[] {false, true}) {
+                    String what = order + (direct ? ", direct" : "");
+                    ByteBuffer dst = allocate(70001, direct).order(order);
+                    dst.position(3);
+                    long pos = 12345;
+                    int n = channel.read(dst, pos);
+                    dst.limit(3 + n).position(3);
+                    assertArrayEquals(Arrays.copyOfRange(plain, (int)pos, (int)pos + n), contents(dst), what + ", read at a position");
+
+                    dst = allocate(len, direct).order(order);
+                    channel.position(0);
+                    int r;
+                    do {
+                        r = channel.read(dst);
+                    } while (r > 0 && dst.hasRemaining());
+                    assertArrayEquals(plain, contents(dst.flip()), what + ", sequential reads");
+                }
+            }
+        }
+    }
+
+    @Test
+    void precomputedCounterMode() {
+        int len = 5000;
+        byte[] plain = bytes(len, 7);
+        byte[] expected = new byte[len];
+        new CounterMode(SerpentBitsliced::new, KEY, IV).process(plain, 0, expected, 0, len);
+        for (ByteOrder inOrder : ORDERS) {
+            for (ByteOrder outOrder : ORDERS) {
+                for (boolean direct : new boolean[] {false, true}) {
+                    String what = inOrder + " in, " + outOrder + " out" + (direct ? ", direct" : "");
+                    ByteBuffer in = allocate(len, direct).order(inOrder);
+                    in.put(plain);
+                    ByteBuffer out = allocate(len + 1, direct).order(outOrder);
+                    PrecomputedCounterMode ctr = new PrecomputedCounterMode(SerpentBitsliced::new, KEY, IV, 4096, 1024, 4096);
+                    try {
+                        //Odd request sizes, across the end of the ring.
+                        for (int off = 0; off < len; off += 777) {
+                            ctr.process(in, off, out, 1 + off, Math.min(777, len - off));
+                        }
+                    }
+                    finally {
+                        ctr.close();
+                    }
+                    assertArrayEquals(expected, contents(out.position(1)), what);
+                }
+            }
+        }
+    }
+
+    static ByteBuffer allocate(int n, boolean direct) {
+        return direct ? ByteBuffer.allocateDirect(n) : ByteBuffer.allocate(n);
+    }
+
+    /**
+     * The bytes from the buffer's position to its limit.
+     */
+    static byte[] contents(ByteBuffer buf) {
+        byte[] b = new byte[buf.remaining()];
+        buf.duplicate().get(b);
+        return b;
+    }
+
+    static byte[] bytes(int n, long seed) {
+        byte[] b = new byte[n];
+        new Random(seed).nextBytes(b);
+        return b;
+    }
+}
@@ -0,0 +1,59 @@
+package serpent;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Every entry point of <TT>CbcMode</TT> rejects a length that is not a
+ * multiple of the block size, instead of leaving the tail unprocessed.
+ */
+class CbcModeTest {
+
+    private static final byte[] KEY = ByteOrderTest.bytes(32, 1);
+    private static final byte[] IV = ByteOrderTest.bytes(16, 2);
+
+    @Test
+    void rejectsPartialBlocks() {
+        CbcMode cbc = new CbcMode(SerpentBitsliced::new, KEY, IV);
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            for (int len : new int[] {1, 15, 17, 20, 4100}) {
+                byte[] in = ByteOrderTest.bytes(len, len);
+                byte[] out = new byte[len];
+                ByteBuffer inBuf = ByteBuffer.wrap(in);
+                ByteBuffer outBuf = ByteBuffer.wrap(out);
+                String what = len + " bytes";
+                assertThrows(IllegalArgumentException.class, () -> cbc.encrypt(in, 0, out, 0, len), what);
+                assertThrows(IllegalArgumentException.class, () -> cbc.encrypt(in, 0, out, 0, len, IV), what);
+                assertThrows(IllegalArgumentException.class, () -> cbc.encrypt(inBuf, 0, outBuf, 0, len, IV), what);
+                assertThrows(IllegalArgumentException.class, () -> cbc.decrypt(in, 0, out, 0, len), what);
+                assertThrows(IllegalArgumentException.class, () -> cbc.decrypt(in, 0, out, 0, len, IV), what);
+                assertThrows(IllegalArgumentException.class, () -> cbc.decrypt(inBuf, 0, outBuf, 0, len, IV), what);
+                assertThrows(IllegalArgumentException.class, () -> cbc.decryptParallel(in, 0, out, 0, len, pool), what);
+                assertThrows(IllegalArgumentException.class, () -> cbc.decryptParallel(in, 0, out, 0, len, IV, pool), what);
+                assertThrows(IllegalArgumentException.class, () -> cbc.decryptParallel(inBuf, 0, outBuf, 0, len, IV, pool), what);
+                assertArrayEquals(new byte[len], out, what + ", output untouched");
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void acceptsWholeBlocks() {
+        CbcMode cbc = new CbcMode(SerpentBitsliced::new, KEY, IV);
+        for (int len : new int[] {0, 16, 4096}) {
+            byte[] plain = ByteOrderTest.bytes(len, len);
+            byte[] cipherText = new byte[len];
+            byte[] back = new byte[len];
+            cbc.encrypt(plain, 0, cipherText, 0, len);
+            cbc.decrypt(cipherText, 0, back, 0, len);
+            assertArrayEquals(plain, back, len + " bytes");
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package serpent;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import javax.crypto.AEADBadTagException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Containers with many chunks, where every worker thread restarts its GCM
+ * state once per chunk, match a fresh <TT>GcmMode</TT> per chunk and still
+ * detect tampering.
+ */
+class ContainerFileTest {
+
+    private static final byte[] KEY = ByteOrderTest.bytes(32, 1);
+    private static final int CHUNK = 1024;
+    private static final int HEADER = 28;
+
+    @Test
+    void roundTrip(@TempDir Path dir) throws Exception {
+        byte[] plain = ByteOrderTest.bytes(300*CHUNK + 77, 8);
+        File plainFile = dir.resolve("plain").toFile();
+        File container = dir.resolve("plain.srpc").toFile();
+        File back = dir.resolve("back").toFile();
+        Files.write(plainFile.toPath(), plain);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ContainerFile.encrypt(plainFile, container, SerpentBitsliced::new, KEY, CHUNK, pool);
+            ContainerFile.decrypt(container, back, SerpentBitsliced::new, KEY, pool);
+        }
+        finally {
+            pool.shutdown();
+        }
+        assertArrayEquals(plain, Files.readAllBytes(back.toPath()));
+
+        byte[] file = Files.readAllBytes(container.toPath());
+        byte[] header = Arrays.copyOf(file, HEADER);
+        for (int i : new int[] {0, 1, 150, 300}) {
+            int len = Math.min(CHUNK, plain.length - i*CHUNK);
+            int at = HEADER + i*(12 + CHUNK + 16);
+            byte[] iv = Arrays.copyOfRange(file, at, at + 12);
+            GcmMode gcm = new GcmMode(SerpentBitsliced::new, KEY, iv, true);
+            gcm.updateAad(header, 0, HEADER);
+            byte[] expected = new byte[len + 16];
+            gcm.update(plain, i*CHUNK, expected, 0, len);
+            System.arraycopy(gcm.doFinal(), 0, expected, len, 16);
+            assertArrayEquals(expected, Arrays.copyOfRange(file, at + 12, at + 12 + len + 16), "Chunk " + i);
+        }
+    }
+
+    @Test
+    void tamperedChunk(@TempDir Path dir) throws Exception {
+        File plainFile = dir.resolve("plain").toFile();
+        File container = dir.resolve("plain.srpc").toFile();
+        File back = dir.resolve("back").toFile();
+        Files.write(plainFile.toPath(), ByteOrderTest.bytes(40*CHUNK, 9));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ContainerFile.encrypt(plainFile, container, SerpentBitsliced::new, KEY, CHUNK, pool);
+            flipByte(container, HEADER + 33*(12 + CHUNK + 16) + 12 + 100);
+            assertThrows(AEADBadTagException.class,
+                () -> ContainerFile.decrypt(container, back, SerpentBitsliced::new, KEY, pool));
+        }
+        finally {
+            pool.shutdown();
+        }
+        assertFalse(back.exists(), "Output of a failed decryption is deleted");
+    }
+
+    private static void flipByte(File file, long pos) throws IOException {
+        try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+            f.seek(pos);
+            int b = f.read();
+            f.seek(pos);
+            f.write(b ^ 1);
+        }
+    }
+}
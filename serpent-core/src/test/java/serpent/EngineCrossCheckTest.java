@@ -0,0 +1,136 @@
+package serpent;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the fast engines against the reference <TT>Serpent</TT>: every key
+ * length, the single-block calls with and without offsets, the bulk calls
+ * over block counts that do and do not fill a vector, and round trips.
+ */
+class EngineCrossCheckTest {
+
+    private static final String[] NAMES = {"SerpentOptimized", "SerpentBitsliced", "SerpentVector"};
+
+    private static final Supplier<BlockCipher>[] ENGINES = engines();
+
+    @SuppressWarnings("unchecked")
+    private static Supplier<BlockCipher>[] engines() {
+        return new Supplier[] {SerpentOptimized::new, SerpentBitsliced::new, SerpentVector::new};
+    }
+
+    @Test
+    void singleBlockMatchesReferenceForEveryKeyLength() {
+        Random random = new Random(1);
+        for (int keyLength = 0; keyLength <= 32; keyLength++) {
+            byte[] key = bytes(random, keyLength);
+            Serpent reference = new Serpent();
+            reference.setKey(key.clone());
+            for (int trial = 0; trial < 8; trial++) {
+                byte[] plain = bytes(random, 16);
+                byte[] expected = plain.clone();
+                reference.encrypt(expected);
+                for (int e = 0; e < ENGINES.length; e++) {
+                    String what = NAMES[e] + ", " + keyLength + "-byte key";
+                    BlockCipher cipher = ENGINES[e].get();
+                    cipher.setKey(key.clone());
+
+                    byte[] text = plain.clone();
+                    cipher.encrypt(text);
+                    assertArrayEquals(expected, text, what + ", encrypt(byte[])");
+                    cipher.decrypt(text);
+                    assertArrayEquals(plain, text, what + ", decrypt(byte[])");
+
+                    byte[] in = new byte[16 + 5];
+                    byte[] out = new byte[16 + 11];
+                    System.arraycopy(plain, 0, in, 5, 16);
+                    cipher.encrypt(in, 5, out, 11);
+                    assertArrayEquals(expected, Arrays.copyOfRange(out, 11, 27), what + ", encrypt with offsets");
+                    cipher.decrypt(out, 11, in, 3);
+                    assertArrayEquals(plain, Arrays.copyOfRange(in, 3, 19), what + ", decrypt with offsets");
+                }
+            }
+        }
+    }
+
+    @Test
+    void bulkMatchesReference() {
+        Random random = new Random(2);
+        for (int keyLength : new int[] {0, 1, 15, 16, 17, 24, 31, 32}) {
+            byte[] key = bytes(random, keyLength);
+            Serpent reference = new Serpent();
+            reference.setKey(key.clone());
+            for (int blocks = 0; blocks <= 40; blocks++) {
+                byte[] plain = bytes(random, 16*blocks);
+                byte[] expected = new byte[16*blocks];
+                for (int b = 0; b < blocks; b++) {
+                    reference.encrypt(plain, 16*b, expected, 16*b);
+                }
+                for (int e = 0; e < ENGINES.length; e++) {
+                    String what = NAMES[e] + ", " + keyLength + "-byte key, " + blocks + " blocks";
+                    BlockCipher cipher = ENGINES[e].get();
+                    cipher.setKey(key.clone());
+
+                    byte[] src = new byte[16*blocks + 7];
+                    byte[] dst = new byte[16*blocks + 3];
+                    System.arraycopy(plain, 0, src, 7, 16*blocks);
+                    cipher.encryptBlocks(src, 7, dst, 3, blocks);
+                    assertArrayEquals(expected, Arrays.copyOfRange(dst, 3, 3 + 16*blocks), what + ", encryptBlocks");
+                    cipher.decryptBlocks(dst, 3, src, 1, blocks);
+                    assertArrayEquals(plain, Arrays.copyOfRange(src, 1, 1 + 16*blocks), what + ", decryptBlocks");
+
+                    byte[] inPlace = plain.clone();
+                    cipher.encryptBlocks(inPlace, 0, inPlace, 0, blocks);
+                    assertArrayEquals(expected, inPlace, what + ", encryptBlocks in place");
+                    cipher.decryptBlocks(inPlace, 0, inPlace, 0, blocks);
+                    assertArrayEquals(plain, inPlace, what + ", decryptBlocks in place");
+                }
+            }
+        }
+    }
+
+    @Test
+    void serpentKeyMatchesReference() {
+        Random random = new Random(3);
+        for (int keyLength = 0; keyLength <= 32; keyLength++) {
+            byte[] key = bytes(random, keyLength);
+            SerpentKey schedule = new SerpentKey(key);
+            Serpent reference = new Serpent();
+            reference.setKey(key.clone());
+            int blocks = 1 + random.nextInt(20);
+            byte[] plain = bytes(random, 16*blocks);
+            byte[] expected = new byte[16*blocks];
+            for (int b = 0; b < blocks; b++) {
+                reference.encrypt(plain, 16*b, expected, 16*b);
+            }
+            String what = keyLength + "-byte key";
+
+            byte[] out = new byte[16*blocks];
+            SerpentBitsliced.encryptBlocks(schedule, plain, 0, out, 0, blocks);
+            assertArrayEquals(expected, out, what + ", static encryptBlocks");
+            SerpentBitsliced.decryptBlocks(schedule, out, 0, out, 0, blocks);
+            assertArrayEquals(plain, out, what + ", static decryptBlocks");
+
+            byte[] block = new byte[16];
+            SerpentBitsliced.encrypt(schedule, plain, 0, block, 0);
+            assertArrayEquals(Arrays.copyOf(expected, 16), block, what + ", static encrypt");
+
+            for (int e = 0; e < ENGINES.length; e++) {
+                BlockCipher cipher = ENGINES[e].get();
+                schedule.keyInto(cipher);
+                cipher.encryptBlocks(plain, 0, out, 0, blocks);
+                assertArrayEquals(expected, out, NAMES[e] + ", " + what + ", keyed from SerpentKey");
+            }
+        }
+    }
+
+    private static byte[] bytes(Random random, int n) {
+        byte[] b = new byte[n];
+        random.nextBytes(b);
+        return b;
+    }
+}
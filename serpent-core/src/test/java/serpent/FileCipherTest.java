@@ -0,0 +1,174 @@
+package serpent;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Streaming a sparse file of more than 2^31 bytes through
+ * <TT>FileCipher</TT> gives the same bytes as the in-memory modes at chosen
+ * windows, including windows past 2 GB, and the calling thread allocates a
+ * bounded amount however large the file is. The files are never loaded
+ * whole.
+ */
+class FileCipherTest {
+
+    //Past 2^31, with a partial block at the end.
+    private static final long SIZE = (1L << 31) + 2*1024*1024 + 13;
+    private static final long FULL = SIZE & ~15;
+    private static final int WINDOW = 64*1024;
+    //Block-aligned window starts: the start, across the first 1 MB buffer
+    //boundary, across 2^31, past 2^31, and ending at the last whole block.
+    private static final long[] WINDOWS = {
+        0, 1024*1024 - WINDOW/2, (1L << 31) - WINDOW/2, (1L << 31) + 1024*1024 + 4096, FULL - WINDOW,
+    };
+    //One-time setup plus a buffer or two, far less than the file.
+    private static final long MAX_ALLOCATED = 16*1024*1024;
+
+    private static final byte[] KEY = ByteOrderTest.bytes(32, 1);
+    private static final byte[] IV = ByteOrderTest.bytes(16, 2);
+
+    @TempDir
+    static Path dir;
+
+    private static File plainFile;
+
+    private ForkJoinPool pool;
+
+    @BeforeAll
+    static void sparseFile() throws IOException {
+        plainFile = dir.resolve("plain").toFile();
+        try (RandomAccessFile f = new RandomAccessFile(plainFile, "rw")) {
+            f.setLength(SIZE);
+            //Data in every window and in the last, partial block
+            for (long pos : WINDOWS) {
+                f.seek(pos + 100);
+                f.write(ByteOrderTest.bytes(4096, pos));
+            }
+            f.seek(SIZE - 20);
+            f.write(ByteOrderTest.bytes(20, SIZE));
+        }
+    }
+
+    @BeforeEach
+    void startPool() {
+        pool = new ForkJoinPool(2);
+    }
+
+    @AfterEach
+    void stopPool() {
+        pool.shutdown();
+    }
+
+    @Test
+    void ctr() throws IOException {
+        File encrypted = dir.resolve("plain.ctr").toFile();
+        try {
+            long allocated = allocatedBy(() -> FileCipher.ctr(plainFile, encrypted, SerpentBitsliced::new, KEY, IV, pool));
+            assertEquals(SIZE, encrypted.length());
+            CounterMode ctr = new CounterMode(SerpentBitsliced::new, KEY, IV);
+            //The block windows, and one ending at the odd end of the file
+            long[] starts = WINDOWS.clone();
+            starts[starts.length - 1] = SIZE - WINDOW;
+            for (long pos : starts) {
+                byte[] expected = new byte[WINDOW];
+                ctr.process(read(plainFile, pos, WINDOW), 0, expected, 0, WINDOW, pos);
+                assertArrayEquals(expected, read(encrypted, pos, WINDOW), "Window at " + pos);
+            }
+            assertBounded(allocated);
+        }
+        finally {
+            encrypted.delete();
+        }
+    }
+
+    @Test
+    void cbc() throws IOException {
+        File encrypted = dir.resolve("plain.cbc").toFile();
+        File back = dir.resolve("back").toFile();
+        try {
+            long allocated = allocatedBy(() -> FileCipher.encryptCbc(plainFile, encrypted, SerpentBitsliced::new, KEY, IV));
+            assertEquals(FULL + 16, encrypted.length());
+            CbcMode cbc = new CbcMode(SerpentBitsliced::new, KEY, IV);
+            for (long pos : WINDOWS) {
+                //Chain from the ciphertext block before the window.
+                byte[] prev = pos == 0 ? IV : read(encrypted, pos - 16, 16);
+                byte[] expected = new byte[WINDOW];
+                cbc.encrypt(read(plainFile, pos, WINDOW), 0, expected, 0, WINDOW, prev);
+                assertArrayEquals(expected, read(encrypted, pos, WINDOW), "Window at " + pos);
+            }
+            //The partial block is XORed with the chaining value, then zero-filled.
+            int tail = (int)(SIZE - FULL);
+            byte[] last = Arrays.copyOf(read(plainFile, FULL, tail), 16);
+            byte[] chain = read(encrypted, FULL - 16, 16);
+            for (int i = 0; i < tail; i++) {
+                last[i] ^= chain[i];
+            }
+            BlockCipher cipher = new SerpentBitsliced();
+            cipher.setKey(KEY.clone());
+            cipher.encrypt(last);
+            assertArrayEquals(last, read(encrypted, FULL, 16), "Last, padded block");
+            assertBounded(allocated);
+
+            FileCipher.decryptCbc(encrypted, back, SerpentBitsliced::new, KEY, IV, pool);
+            encrypted.delete();
+            assertEquals(FULL + 16, back.length());
+            for (long pos : WINDOWS) {
+                assertArrayEquals(read(plainFile, pos, WINDOW), read(back, pos, WINDOW), "Back, window at " + pos);
+            }
+            assertArrayEquals(read(plainFile, FULL, tail), read(back, FULL, tail), "Back, last block");
+        }
+        finally {
+            encrypted.delete();
+            back.delete();
+        }
+    }
+
+    private static byte[] read(File file, long pos, int len) throws IOException {
+        byte[] b = new byte[len];
+        try (RandomAccessFile f = new RandomAccessFile(file, "r")) {
+            f.seek(pos);
+            f.readFully(b);
+        }
+        return b;
+    }
+
+    private interface FileJob {
+        void run() throws IOException;
+    }
+
+    /**
+     * Bytes allocated by the calling thread while <TT>job</TT> runs, or -1 if
+     * the JVM does not count them.
+     */
+    private static long allocatedBy(FileJob job) throws IOException {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)
+            || !((com.sun.management.ThreadMXBean)bean).isThreadAllocatedMemorySupported()) {
+            job.run();
+            return -1;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)bean;
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long before = threads.getCurrentThreadAllocatedBytes();
+        job.run();
+        return threads.getCurrentThreadAllocatedBytes() - before;
+    }
+
+    private static void assertBounded(long allocated) {
+        assertTrue(allocated < MAX_ALLOCATED, "Allocated " + allocated + " bytes for a file of " + SIZE);
+    }
+}
@@ -0,0 +1,200 @@
+package serpent;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.jupiter.api.Test;
+import serpent.util.Hex;
+
+/**
+ * GCM on <TT>JdkAes</TT> against test cases 1 to 4 of McGrew and Viega,
+ * The Galois/Counter Mode of Operation, which SP 800-38D refers to, and
+ * against the JDK's own AES/GCM at text lengths around the block size and
+ * GHASH's four-block steps, with the text and AAD fed in one piece or
+ * split at odd places, and on a pool. Also checks that altered messages
+ * are rejected.
+ */
+class GcmModeTest {
+
+    private static final String K = "feffe9928665731c6d6a8f9467308308";
+    private static final String IV = "cafebabefacedbaddecaf888";
+    private static final String P = "d9313225f88406e5a55909c5aff5269a86a7a9531534f7da2e4c303d8a318a72"
+        + "1c3c0c95956809532fcf0e2449a6b525b16aedf5aa0de657ba637b391aafd255";
+    private static final String C = "42831ec2217774244b7221b784d0d49ce3aa212f2c02a4e035c17e2329aca12e"
+        + "21d514b25466931c7d8f6a5aac84aa051ba30b396a0aac973d58e091473f5985";
+
+    //Key, IV, plaintext, AAD, ciphertext, tag
+    private static final String[][] VECTORS = {
+        {"00000000000000000000000000000000", "000000000000000000000000", "", "", "",
+         "58e2fccefa7e3061367f1d57a4e7455a"},
+        {"00000000000000000000000000000000", "000000000000000000000000", "00000000000000000000000000000000", "",
+         "0388dace60b6a392f328c2b971b2fe78", "ab6e47d42cec13bdf53a67b21257bddf"},
+        {K, IV, P, "", C, "4d5c2af327cd64a62cf35abd2ba6fab4"},
+        {K, IV, P.substring(0, 120), "feedfacedeadbeeffeedfacedeadbeefabaddad2", C.substring(0, 120),
+         "5bc94fbc3221a5db94fae95ae7121a47"},
+    };
+
+    //Bytes fed per update() when splitting, in turn
+    private static final int[] SPLITS = {1, 15, 17, 64, 3, 100};
+
+    @Test
+    void mcGrewViegaVectors() throws AEADBadTagException {
+        for (int v = 0; v < VECTORS.length; v++) {
+            byte[] key = Hex.toByteArray(VECTORS[v][0]);
+            byte[] iv = Hex.toByteArray(VECTORS[v][1]);
+            byte[] plain = Hex.toByteArray(VECTORS[v][2]);
+            byte[] aad = Hex.toByteArray(VECTORS[v][3]);
+            byte[] cipherText = Hex.toByteArray(VECTORS[v][4]);
+            byte[] tag = Hex.toByteArray(VECTORS[v][5]);
+            String what = "Test case " + (v + 1);
+            GcmMode gcm = new GcmMode(JdkAes::new, key, iv, true);
+            gcm.updateAad(aad, 0, aad.length);
+            byte[] out = new byte[plain.length];
+            gcm.update(plain, 0, out, 0, plain.length);
+            assertArrayEquals(cipherText, out, what);
+            assertArrayEquals(tag, gcm.doFinal(), what + ", tag");
+
+            gcm = new GcmMode(JdkAes::new, key, iv, false);
+            gcm.updateAad(aad, 0, aad.length);
+            gcm.update(cipherText, 0, out, 0, cipherText.length);
+            gcm.doFinal(tag);
+            assertArrayEquals(plain, out, what + ", back");
+        }
+    }
+
+    @Test
+    void matchesJdkGcm() throws Exception {
+        for (int len : new int[] {0, 1, 15, 16, 17, 64, 65*1024 + 7}) {
+            for (int aadLen : new int[] {0, 1, 20}) {
+                check(len, aadLen, null);
+            }
+        }
+    }
+
+    @Test
+    void matchesJdkGcmOnPool() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            //Long enough for keystream and GHASH to overlap, with a tail.
+            check(800*1024 + 5, 20, pool);
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void rejectsAlteredMessages() throws Exception {
+        byte[] key = ByteOrderTest.bytes(16, 1);
+        byte[] iv = ByteOrderTest.bytes(12, 2);
+        byte[] aad = ByteOrderTest.bytes(20, 3);
+        byte[] plain = ByteOrderTest.bytes(100, 4);
+        byte[] cipherText = new byte[plain.length];
+        GcmMode gcm = new GcmMode(JdkAes::new, key, iv, true);
+        gcm.updateAad(aad, 0, aad.length);
+        gcm.update(plain, 0, cipherText, 0, plain.length);
+        byte[] tag = gcm.doFinal();
+
+        byte[] badTag = tag.clone();
+        badTag[15] ^= 1;
+        assertThrows(AEADBadTagException.class, () -> decrypt(key, iv, aad, cipherText, badTag), "Tag");
+        byte[] badText = cipherText.clone();
+        badText[50] ^= 1;
+        assertThrows(AEADBadTagException.class, () -> decrypt(key, iv, aad, badText, tag), "Ciphertext");
+        byte[] badAad = aad.clone();
+        badAad[0] ^= 1;
+        assertThrows(AEADBadTagException.class, () -> decrypt(key, iv, badAad, cipherText, tag), "AAD");
+        byte[] badIv = iv.clone();
+        badIv[11] ^= 1;
+        assertThrows(AEADBadTagException.class, () -> decrypt(key, badIv, aad, cipherText, tag), "IV");
+        //Tags of 12 to 16 bytes are compared as prefixes.
+        byte[] shortTag = Arrays.copyOf(tag, 12);
+        decrypt(key, iv, aad, cipherText, shortTag);
+        shortTag[11] ^= 1;
+        assertThrows(AEADBadTagException.class, () -> decrypt(key, iv, aad, cipherText, shortTag), "Short tag");
+        assertThrows(IllegalArgumentException.class, () -> decrypt(key, iv, aad, cipherText, Arrays.copyOf(tag, 11)), "11-byte tag");
+        decrypt(key, iv, aad, cipherText, tag);
+    }
+
+    /**
+     * Encrypt and decrypt <TT>len</TT> bytes with <TT>aadLen</TT> bytes of
+     * AAD, in one piece and split, and compare with the JDK.
+     */
+    private static void check(int len, int aadLen, ForkJoinPool pool) throws Exception {
+        String what = len + " bytes, " + aadLen + " bytes of AAD" + (pool != null ? ", pool" : "");
+        byte[] key = ByteOrderTest.bytes(16, len);
+        byte[] iv = ByteOrderTest.bytes(12, len + 1);
+        byte[] aad = ByteOrderTest.bytes(aadLen, aadLen);
+        byte[] plain = ByteOrderTest.bytes(len, len + 2);
+        Cipher jdk = Cipher.getInstance("AES/GCM/NoPadding");
+        jdk.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(128, iv));
+        jdk.updateAAD(aad);
+        byte[] expected = jdk.doFinal(plain);
+        byte[] cipherText = Arrays.copyOf(expected, len);
+        byte[] tag = Arrays.copyOfRange(expected, len, len + 16);
+
+        GcmMode gcm = new GcmMode(JdkAes::new, key, iv, true);
+        gcm.updateAad(aad, 0, aadLen);
+        byte[] out = new byte[len];
+        gcm.update(plain, 0, out, 0, len, pool);
+        assertArrayEquals(cipherText, out, what);
+        assertArrayEquals(tag, gcm.doFinal(), what + ", tag");
+
+        gcm = new GcmMode(JdkAes::new, key, iv, true);
+        out = new byte[len];
+        feed(gcm, aad, plain, out, pool);
+        assertArrayEquals(cipherText, out, what + ", split");
+        assertArrayEquals(tag, gcm.doFinal(), what + ", split, tag");
+
+        gcm = new GcmMode(JdkAes::new, key, iv, false);
+        out = new byte[len];
+        feed(gcm, aad, cipherText, out, pool);
+        gcm.doFinal(tag);
+        assertArrayEquals(plain, out, what + ", split, back");
+
+        //Direct buffers, in place
+        gcm = new GcmMode(JdkAes::new, key, iv, false);
+        gcm.updateAad(aad, 0, aadLen);
+        ByteBuffer buf = ByteBuffer.allocateDirect(len + 3);
+        buf.position(3);
+        buf.put(cipherText);
+        gcm.update(buf, 3, buf, 3, len, pool);
+        gcm.doFinal(tag);
+        assertArrayEquals(plain, ByteOrderTest.contents(buf.position(3)), what + ", direct, back");
+    }
+
+    /**
+     * Feed <TT>aad</TT> and then <TT>in</TT> in pieces of the sizes in
+     * <TT>SPLITS</TT>, and once the pieces run out, the rest in one call.
+     */
+    private static void feed(GcmMode gcm, byte[] aad, byte[] in, byte[] out, ForkJoinPool pool) {
+        int off = 0;
+        for (int i = 0; off < aad.length; i++) {
+            int n = Math.min(SPLITS[i % SPLITS.length], aad.length - off);
+            gcm.updateAad(aad, off, n);
+            off += n;
+        }
+        off = 0;
+        for (int i = 0; i < SPLITS.length && off < in.length; i++) {
+            int n = Math.min(SPLITS[i], in.length - off);
+            gcm.update(in, off, out, off, n, pool);
+            off += n;
+        }
+        gcm.update(in, off, out, off, in.length - off, pool);
+    }
+
+    private static void decrypt(byte[] key, byte[] iv, byte[] aad, byte[] cipherText, byte[] tag) throws AEADBadTagException {
+        GcmMode gcm = new GcmMode(JdkAes::new, key, iv, false);
+        gcm.updateAad(aad, 0, aad.length);
+        byte[] out = new byte[cipherText.length];
+        gcm.update(cipherText, 0, out, 0, cipherText.length);
+        gcm.doFinal(tag);
+    }
+}
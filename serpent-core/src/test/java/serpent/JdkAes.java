@@ -0,0 +1,68 @@
+package serpent;
+
+import java.security.GeneralSecurityException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * AES-128 from the JDK as a <TT>BlockCipher</TT>, to run the modes of
+ * operation on their published AES test vectors.
+ */
+final class JdkAes implements BlockCipher {
+    private Cipher enc;
+    private Cipher dec;
+
+    public int blockSize() {
+        return 16;
+    }
+
+    public int keySize() {
+        return 16;
+    }
+
+    public void setKey(byte[] key) {
+        try {
+            SecretKeySpec spec = new SecretKeySpec(key, "AES");
+            enc = Cipher.getInstance("AES/ECB/NoPadding");
+            enc.init(Cipher.ENCRYPT_MODE, spec);
+            dec = Cipher.getInstance("AES/ECB/NoPadding");
+            dec.init(Cipher.DECRYPT_MODE, spec);
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    public void encrypt(byte[] text) {
+        encrypt(text, 0, text, 0);
+    }
+
+    public void decrypt(byte[] text) {
+        decrypt(text, 0, text, 0);
+    }
+
+    public void encrypt(byte[] in, int inOff, byte[] out, int outOff) {
+        encryptBlocks(in, inOff, out, outOff, 1);
+    }
+
+    public void decrypt(byte[] in, int inOff, byte[] out, int outOff) {
+        decryptBlocks(in, inOff, out, outOff, 1);
+    }
+
+    public void encryptBlocks(byte[] src, int srcOff, byte[] dst, int dstOff, int nBlocks) {
+        run(enc, src, srcOff, dst, dstOff, nBlocks);
+    }
+
+    public void decryptBlocks(byte[] src, int srcOff, byte[] dst, int dstOff, int nBlocks) {
+        run(dec, src, srcOff, dst, dstOff, nBlocks);
+    }
+
+    private static void run(Cipher c, byte[] src, int srcOff, byte[] dst, int dstOff, int nBlocks) {
+        try {
+            c.doFinal(src, srcOff, 16*nBlocks, dst, dstOff);
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
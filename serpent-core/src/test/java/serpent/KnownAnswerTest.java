@@ -0,0 +1,107 @@
+package serpent;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Test;
+import serpent.util.Hex;
+
+/**
+ * Known-answer tests from the verified Serpent-256-128 test vectors of the
+ * AES submission (NESSIE format), as recorded in <TT>final_paper.tex</TT>:
+ * the all-zero 256-bit key and plaintext, encrypted once and iterated 100
+ * and 1000 times, each iteration encrypting the previous ciphertext. The
+ * 100000-iteration value is the one the paper reports for the original
+ * implementation.
+ * <P>
+ * An all-zero key reads the same in any byte order, so the engines are also
+ * checked on vector 0 of NESSIE Set 1 at each key length: the key with only
+ * its first bit set and the all-zero plaintext. The 128- and 192-bit keys
+ * also check the padding of short keys.
+ */
+class KnownAnswerTest {
+
+    private static final String[][] ZERO_KEY_ITERATED = {
+        {"1", "49672ba898d98df95019180445491089"},
+        {"100", "5a445efd4923ebddea1d5be4511bd4d6"},
+        {"1000", "d72ec2b7b93fbb567cefbab3fab43fb4"},
+        {"100000", "d3f68d0623563be822d68dde8f4ad282"},
+    };
+
+    //Key, ciphertext of the all-zero plaintext
+    private static final String[][] SET_1_VECTOR_0 = {
+        {"80000000000000000000000000000000", "264e5481eff42a4606abda06c0bfda3d"},
+        {"800000000000000000000000000000000000000000000000", "9e274ead9b737bb21efcfca548602689"},
+        {"8000000000000000000000000000000000000000000000000000000000000000", "a223aa1288463c0e2be38ebd825616c0"},
+    };
+
+    @Test
+    void serpent() {
+        check("Serpent", Serpent::new);
+    }
+
+    @Test
+    void serpentOptimized() {
+        check("SerpentOptimized", SerpentOptimized::new);
+    }
+
+    @Test
+    void serpentBitsliced() {
+        check("SerpentBitsliced", SerpentBitsliced::new);
+    }
+
+    @Test
+    void serpentVector() {
+        check("SerpentVector", SerpentVector::new);
+    }
+
+    @Test
+    void serpentKey() {
+        SerpentKey key = new SerpentKey(new byte[32]);
+        for (String[] vector : ZERO_KEY_ITERATED) {
+            int iterations = Integer.parseInt(vector[0]);
+            byte[] block = new byte[16];
+            for (int i = 0; i < iterations; i++) {
+                SerpentBitsliced.encrypt(key, block, 0, block, 0);
+            }
+            assertArrayEquals(Hex.toByteArray(vector[1]), block, "SerpentKey, " + iterations + " iterations");
+            for (int i = 0; i < iterations; i++) {
+                SerpentBitsliced.decrypt(key, block, 0, block, 0);
+            }
+            assertArrayEquals(new byte[16], block, "SerpentKey, " + iterations + " iterations back");
+        }
+        for (String[] vector : SET_1_VECTOR_0) {
+            SerpentKey singleBit = new SerpentKey(Hex.toByteArray(vector[0]));
+            byte[] block = new byte[16];
+            SerpentBitsliced.encrypt(singleBit, block, 0, block, 0);
+            assertArrayEquals(Hex.toByteArray(vector[1]), block, "SerpentKey, key " + vector[0]);
+            SerpentBitsliced.decrypt(singleBit, block, 0, block, 0);
+            assertArrayEquals(new byte[16], block, "SerpentKey, key " + vector[0] + " back");
+        }
+    }
+
+    private static void check(String name, Supplier<BlockCipher> factory) {
+        BlockCipher cipher = factory.get();
+        cipher.setKey(new byte[32]);
+        for (String[] vector : ZERO_KEY_ITERATED) {
+            int iterations = Integer.parseInt(vector[0]);
+            byte[] block = new byte[16];
+            for (int i = 0; i < iterations; i++) {
+                cipher.encrypt(block, 0, block, 0);
+            }
+            assertArrayEquals(Hex.toByteArray(vector[1]), block, name + ", " + iterations + " iterations");
+            for (int i = 0; i < iterations; i++) {
+                cipher.decrypt(block, 0, block, 0);
+            }
+            assertArrayEquals(new byte[16], block, name + ", " + iterations + " iterations back");
+        }
+        for (String[] vector : SET_1_VECTOR_0) {
+            cipher.setKey(Hex.toByteArray(vector[0]));
+            byte[] block = new byte[16];
+            cipher.encrypt(block, 0, block, 0);
+            assertArrayEquals(Hex.toByteArray(vector[1]), block, name + ", key " + vector[0]);
+            cipher.decrypt(block, 0, block, 0);
+            assertArrayEquals(new byte[16], block, name + ", key " + vector[0] + " back");
+        }
+    }
+}
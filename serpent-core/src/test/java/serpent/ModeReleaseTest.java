@@ -0,0 +1,128 @@
+package serpent;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * A mode instance that is no longer referenced can be collected, even after
+ * it has run on the calling thread and on a fork-join pool whose threads
+ * stay alive, and its pooled workers give the same output on every call.
+ */
+class ModeReleaseTest {
+
+    private static final int LEN = 300*1024 + 5;
+
+    private ForkJoinPool pool;
+
+    @BeforeEach
+    void startPool() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterEach
+    void stopPool() {
+        pool.shutdown();
+    }
+
+    @Test
+    void counterMode() {
+        assertCollected(useCounterMode());
+    }
+
+    private WeakReference<?> useCounterMode() {
+        byte[] in = new byte[LEN];
+        byte[] expected = new byte[LEN];
+        byte[] actual = new byte[LEN];
+        CounterMode ctr = new CounterMode(SerpentBitsliced::new, new byte[32], new byte[16]);
+        ctr.process(in, 0, expected, 0, LEN);
+        for (int i = 0; i < 2; i++) {
+            ctr.processParallel(in, 0, actual, 0, LEN, pool);
+            assertArrayEquals(expected, actual);
+        }
+        return new WeakReference<>(ctr);
+    }
+
+    @Test
+    void cbcMode() {
+        assertCollected(useCbcMode());
+    }
+
+    private WeakReference<?> useCbcMode() {
+        int len = LEN & ~15;
+        byte[] plain = new byte[len];
+        new Random(1).nextBytes(plain);
+        byte[] cipherText = new byte[len];
+        byte[] actual = new byte[len];
+        CbcMode cbc = new CbcMode(SerpentBitsliced::new, new byte[32], new byte[16]);
+        cbc.encrypt(plain, 0, cipherText, 0, len);
+        cbc.decrypt(cipherText, 0, actual, 0, len);
+        assertArrayEquals(plain, actual);
+        System.arraycopy(cipherText, 0, actual, 0, len);
+        cbc.decrypt(actual, 0, actual, 0, len);
+        assertArrayEquals(plain, actual, "in place");
+        for (int i = 0; i < 2; i++) {
+            System.arraycopy(cipherText, 0, actual, 0, len);
+            cbc.decryptParallel(actual, 0, actual, 0, len, pool);
+            assertArrayEquals(plain, actual, "parallel");
+        }
+        return new WeakReference<>(cbc);
+    }
+
+    @Test
+    void xtsMode() {
+        assertCollected(useXtsMode());
+    }
+
+    private WeakReference<?> useXtsMode() {
+        byte[] plain = new byte[512*600];
+        new Random(2).nextBytes(plain);
+        XtsMode xts = new XtsMode(SerpentBitsliced::new, new byte[32], new byte[] {1}, 512);
+        ByteBuffer expected = ByteBuffer.wrap(plain.clone());
+        xts.encryptSectors(7, expected);
+        for (int i = 0; i < 2; i++) {
+            ByteBuffer actual = ByteBuffer.wrap(plain.clone());
+            xts.encryptSectors(7, actual, pool);
+            assertArrayEquals(expected.array(), actual.array(), "parallel");
+            xts.decryptSectors(7, actual, pool);
+            assertArrayEquals(plain, actual.array(), "parallel back");
+        }
+        return new WeakReference<>(xts);
+    }
+
+    @Test
+    void batchCounterMode() {
+        assertCollected(useBatchCounterMode());
+    }
+
+    private WeakReference<?> useBatchCounterMode() {
+        BatchCounterMode batch = new BatchCounterMode(SerpentBitsliced::new);
+        SerpentKey key = new SerpentKey(new byte[32]);
+        byte[] buf = new byte[1000];
+        batch.process(key, buf, new int[] {0, 300}, new int[] {300, 700}, new byte[32]);
+        batch.process(key, buf, new int[] {0, 300}, new int[] {300, 700}, new byte[32]);
+        assertArrayEquals(new byte[1000], buf, "twice is the identity");
+        return new WeakReference<>(batch);
+    }
+
+    private static void assertCollected(WeakReference<?> ref) {
+        for (int i = 0; i < 50 && ref.get() != null; i++) {
+            System.gc();
+            try {
+                Thread.sleep(20);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        assertNull(ref.get(), "Mode instance is still reachable");
+    }
+}
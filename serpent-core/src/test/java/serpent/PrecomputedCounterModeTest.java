@@ -0,0 +1,127 @@
+package serpent;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The watermarks and metrics of <TT>PrecomputedCounterMode</TT>: requests
+ * served from a full ring are hits, a request larger than the ring is a miss
+ * and still gives the <TT>CounterMode</TT> stream, every refill is timed,
+ * and <TT>close()</TT> fails a waiting request and every later one.
+ */
+class PrecomputedCounterModeTest {
+
+    private static final byte[] KEY = ByteOrderTest.bytes(32, 1);
+    private static final byte[] IV = ByteOrderTest.bytes(16, 2);
+
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Test
+    void hitsMissesAndRefills() {
+        byte[] plain = ByteOrderTest.bytes(14000, 3);
+        byte[] expected = new byte[plain.length];
+        new CounterMode(SerpentBitsliced::new, KEY, IV).process(plain, 0, expected, 0, plain.length);
+        byte[] out = new byte[plain.length];
+        PrecomputedCounterMode ctr = new PrecomputedCounterMode(SerpentBitsliced::new, KEY, IV, 4096, 1024, 4096);
+        try {
+            //The initial fill is the first refill.
+            await(() -> ctr.refillLag().count() == 1, "initial fill");
+            assertEquals(4096, ctr.available());
+            assertEquals(1.0, ctr.hitRatio());
+
+            //Above the low watermark afterwards: no refill.
+            ctr.process(plain, 0, out, 0, 1000);
+            assertEquals(3096, ctr.available());
+            //Below it afterwards: refilled up to the high watermark.
+            ctr.process(plain, 1000, out, 1000, 3000);
+            await(() -> ctr.refillLag().count() == 2, "refill");
+            assertEquals(4096, ctr.available());
+            assertEquals(2, ctr.hits());
+            assertEquals(0, ctr.misses());
+            assertEquals(0, ctr.missWait().count());
+
+            //More than the ring holds: waits for the refill thread, in turns.
+            ctr.process(plain, 4000, out, 4000, 10000);
+            assertEquals(2, ctr.hits());
+            assertEquals(1, ctr.misses());
+            assertEquals(2.0/3, ctr.hitRatio(), 1e-9);
+            assertEquals(1, ctr.missWait().count());
+            assertTrue(ctr.refillLag().count() > 2, "Refills during the large request");
+            assertEquals(14000, ctr.position());
+            assertArrayEquals(expected, out);
+        }
+        finally {
+            ctr.close();
+        }
+        assertThrows(IllegalStateException.class, () -> ctr.process(plain, 0, out, 0, 1));
+    }
+
+    @Test
+    void closeWhileWaiting() throws InterruptedException {
+        //The refill thread is held in encryptBlocks(), so nothing is ever ready.
+        CountDownLatch gate = new CountDownLatch(1);
+        PrecomputedCounterMode ctr = new PrecomputedCounterMode(() -> new GatedCipher(gate), KEY, IV, 4096, 1024, 4096);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread request = new Thread(() -> {
+            try {
+                ctr.process(new byte[16], 0, new byte[16], 0, 16);
+            }
+            catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        request.start();
+        await(() -> request.getState() == Thread.State.WAITING, "request to wait");
+        assertEquals(1, ctr.misses());
+
+        //close() returns once the refill thread does, so run it apart.
+        Thread closer = new Thread(ctr::close);
+        closer.start();
+        request.join(TIMEOUT_MILLIS);
+        assertInstanceOf(IllegalStateException.class, failure.get());
+        gate.countDown();
+        closer.join(TIMEOUT_MILLIS);
+        assertFalse(closer.isAlive(), "close() returned");
+        assertThrows(IllegalStateException.class, () -> ctr.process(new byte[1], 0, new byte[1], 0, 1));
+    }
+
+    private static void await(BooleanSupplier condition, String what) {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for " + what);
+            LockSupport.parkNanos(1000000);
+        }
+    }
+
+    /**
+     * A cipher whose <TT>encryptBlocks()</TT> does not return until the gate
+     * opens.
+     */
+    private static class GatedCipher extends SerpentBitsliced {
+        private final CountDownLatch gate;
+
+        GatedCipher(CountDownLatch gate) {
+            this.gate = gate;
+        }
+
+        public void encryptBlocks(byte[] src, int srcOff, byte[] dst, int dstOff, int nBlocks) {
+            try {
+                gate.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.encryptBlocks(src, srcOff, dst, dstOff, nBlocks);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package serpent;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.Random;
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.jupiter.api.Test;
+
+/**
+ * <TT>Cipher.getInstance("Serpent/...")</TT> gives the output of the engines
+ * and mode classes it is built on, fails cleanly on bad padding and short
+ * output buffers, and gives the same output when initialized again, with a
+ * new IV or a new key, as a fresh instance.
+ */
+class SerpentCipherSpiTest {
+
+    private static final SecretKeySpec KEY = new SecretKeySpec(ByteOrderTest.bytes(32, 1), "Serpent");
+    private static final byte[] IV = ByteOrderTest.bytes(16, 2);
+
+    @Test
+    void matchesEnginesAndModes() throws Exception {
+        byte[] key = KEY.getEncoded();
+        Serpent reference = new Serpent();
+        reference.setKey(key.clone());
+        CbcMode cbc = new CbcMode(Serpent::new, key, IV);
+        CounterMode ctr = new CounterMode(Serpent::new, key, IV);
+        for (int len : new int[] {0, 16, 48, 4096}) {
+            byte[] plain = ByteOrderTest.bytes(len, len);
+            byte[] expected = new byte[len];
+            reference.encryptBlocks(plain, 0, expected, 0, len/16);
+            assertArrayEquals(expected, crypt("Serpent/ECB/NoPadding", Cipher.ENCRYPT_MODE, null, plain), "ECB, " + len + " bytes");
+            cbc.encrypt(plain, 0, expected, 0, len);
+            assertArrayEquals(expected, crypt("Serpent/CBC/NoPadding", Cipher.ENCRYPT_MODE, IV, plain), "CBC, " + len + " bytes");
+        }
+        for (int len : new int[] {0, 1, 15, 17, 100, 4100}) {
+            byte[] plain = ByteOrderTest.bytes(len, len);
+            //PKCS #5 padding, then plain CBC
+            int pad = 16 - len % 16;
+            byte[] padded = Arrays.copyOf(plain, len + pad);
+            Arrays.fill(padded, len, len + pad, (byte)pad);
+            byte[] expected = new byte[padded.length];
+            cbc.encrypt(padded, 0, expected, 0, padded.length);
+            assertArrayEquals(expected, crypt("Serpent/CBC/PKCS5Padding", Cipher.ENCRYPT_MODE, IV, plain), "CBC, padded, " + len + " bytes");
+            expected = new byte[len];
+            ctr.process(plain, 0, expected, 0, len);
+            assertArrayEquals(expected, crypt("Serpent/CTR/NoPadding", Cipher.ENCRYPT_MODE, IV, plain), "CTR, " + len + " bytes");
+        }
+    }
+
+    @Test
+    void rejectsBadPadding() throws Exception {
+        //Last plaintext byte 4, but byte 12 is not: not PKCS #5 padding.
+        byte[] block = new byte[32];
+        Arrays.fill(block, 13, 16, (byte)4);
+        block[12] = 3;
+        System.arraycopy(block, 0, block, 16, 16);
+        for (String mode : new String[] {"ECB", "CBC"}) {
+            byte[] iv = mode.equals("ECB") ? null : IV;
+            byte[] cipherText = crypt("Serpent/" + mode + "/NoPadding", Cipher.ENCRYPT_MODE, iv, block);
+            Cipher cipher = Cipher.getInstance("Serpent/" + mode + "/PKCS5Padding", new SerpentProvider());
+            cipher.init(Cipher.DECRYPT_MODE, KEY, iv == null ? null : new IvParameterSpec(iv));
+            assertThrows(BadPaddingException.class, () -> cipher.doFinal(cipherText), mode);
+            //Zero padding length
+            byte[] zero = crypt("Serpent/" + mode + "/NoPadding", Cipher.ENCRYPT_MODE, iv, new byte[16]);
+            assertThrows(BadPaddingException.class, () -> cipher.doFinal(zero), mode + ", zero pad");
+            //The cipher is reset and still works.
+            byte[] plain = ByteOrderTest.bytes(20, 3);
+            byte[] good = crypt("Serpent/" + mode + "/PKCS5Padding", Cipher.ENCRYPT_MODE, iv, plain);
+            assertArrayEquals(plain, cipher.doFinal(good), mode + ", after bad padding");
+        }
+    }
+
+    @Test
+    void retriesAfterShortBuffer() throws Exception {
+        byte[] plain = ByteOrderTest.bytes(40, 4);
+        byte[] cipherText = crypt("Serpent/CBC/PKCS5Padding", Cipher.ENCRYPT_MODE, IV, plain);
+        assertEquals(48, cipherText.length);
+        Cipher cipher = Cipher.getInstance("Serpent/CBC/PKCS5Padding", new SerpentProvider());
+        cipher.init(Cipher.DECRYPT_MODE, KEY, new IvParameterSpec(IV));
+        //Feed part of the input first, so a block is buffered across calls.
+        byte[] out = new byte[64];
+        int n = cipher.update(cipherText, 0, 20, out, 0);
+        //Too small for the whole blocks before the padding block
+        byte[] tiny = new byte[8];
+        assertThrows(ShortBufferException.class, () -> cipher.doFinal(cipherText, 20, 28, tiny, 0));
+        //Room for those, but not for the bytes of the padding block: the
+        //padding block has already been decrypted when this is found.
+        byte[] small = new byte[40 - n - 1];
+        assertThrows(ShortBufferException.class, () -> cipher.doFinal(cipherText, 20, 28, small, 0));
+        n += cipher.doFinal(cipherText, 20, 28, out, n);
+        assertArrayEquals(plain, Arrays.copyOf(out, n));
+    }
+
+    @Test
+    void reinitWithNewIvOrKey() throws Exception {
+        Random random = new Random(1);
+        for (String transformation : new String[] {"Serpent/ECB/PKCS5Padding", "Serpent/CBC/PKCS5Padding", "Serpent/CTR/NoPadding"}) {
+            boolean ecb = transformation.contains("ECB");
+            Cipher reused = Cipher.getInstance(transformation, new SerpentProvider());
+            for (int i = 0; i < 6; i++) {
+                //Change the key every other time, the IV every time.
+                byte[] keyBytes = new byte[16 + i/2];
+                new Random(i/2).nextBytes(keyBytes);
+                SecretKeySpec key = new SecretKeySpec(keyBytes, "Serpent");
+                byte[] ivBytes = new byte[16];
+                random.nextBytes(ivBytes);
+                IvParameterSpec iv = ecb ? null : new IvParameterSpec(ivBytes);
+                byte[] plain = new byte[100 + i];
+                random.nextBytes(plain);
+
+                Cipher fresh = Cipher.getInstance(transformation, new SerpentProvider());
+                fresh.init(Cipher.ENCRYPT_MODE, key, iv);
+                byte[] expected = fresh.doFinal(plain);
+                reused.init(Cipher.ENCRYPT_MODE, key, iv);
+                assertArrayEquals(expected, reused.doFinal(plain), transformation + ", init " + i);
+                reused.init(Cipher.DECRYPT_MODE, key, iv);
+                assertArrayEquals(plain, reused.doFinal(expected), transformation + ", init " + i + " back");
+            }
+        }
+    }
+
+    private static byte[] crypt(String transformation, int opmode, byte[] iv, byte[] input) throws Exception {
+        Cipher cipher = Cipher.getInstance(transformation, new SerpentProvider());
+        cipher.init(opmode, KEY, iv == null ? null : new IvParameterSpec(iv));
+        //Two calls, so that a partial block is carried over.
+        byte[] first = cipher.update(input, 0, input.length / 3);
+        byte[] rest = cipher.doFinal(input, input.length / 3, input.length - input.length / 3);
+        byte[] out = Arrays.copyOf(first == null ? new byte[0] : first, (first == null ? 0 : first.length) + rest.length);
+        System.arraycopy(rest, 0, out, out.length - rest.length, rest.length);
+        return out;
+    }
+}
@@ -0,0 +1,56 @@
+package serpent;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+import serpent.util.Hex;
+
+/**
+ * XTS against the IEEE 1619 XTS-AES-128 vectors with distinct keys, run
+ * on <TT>JdkAes</TT>; vector 1 uses two all-zero keys, which
+ * <TT>XtsMode</TT> rejects. Also checks that keys equal after padding are
+ * rejected.
+ */
+class XtsModeTest {
+
+    //Key 1, key 2, data unit sequence number, plaintext, ciphertext.
+    private static final String[][] VECTORS = {
+        {"11111111111111111111111111111111", "22222222222222222222222222222222", "3333333333",
+         "4444444444444444444444444444444444444444444444444444444444444444",
+         "c454185e6a16936e39334038acef838bfb186fff7480adc4289382ecd6d394f0"},
+        {"fffefdfcfbfaf9f8f7f6f5f4f3f2f1f0", "22222222222222222222222222222222", "3333333333",
+         "4444444444444444444444444444444444444444444444444444444444444444",
+         "af85336b597afc1a900b2eb21ec949d292df4c047e0b21532186a5971a227a89"},
+    };
+
+    @Test
+    void ieee1619Vectors() {
+        for (String[] v : VECTORS) {
+            XtsMode xts = new XtsMode(JdkAes::new, Hex.toByteArray(v[0]), Hex.toByteArray(v[1]), 32);
+            long sectorNo = Long.parseLong(v[2], 16);
+            ByteBuffer sector = ByteBuffer.wrap(Hex.toByteArray(v[3]));
+            xts.encryptSector(sectorNo, sector);
+            assertArrayEquals(Hex.toByteArray(v[4]), sector.array(), "Vector with key 1 " + v[0]);
+            xts.decryptSector(sectorNo, sector);
+            assertArrayEquals(Hex.toByteArray(v[3]), sector.array(), "Vector with key 1 " + v[0] + " back");
+        }
+    }
+
+    @Test
+    void rejectsKeysEqualAfterPadding() {
+        byte[] key = new byte[31];
+        Arrays.fill(key, (byte)0x5a);
+        byte[] padded = Arrays.copyOf(key, 32);
+        padded[31] = (byte)0x01;
+        assertThrows(IllegalArgumentException.class, () -> new XtsMode(SerpentBitsliced::new, key, key.clone(), 512));
+        assertThrows(IllegalArgumentException.class, () -> new XtsMode(SerpentBitsliced::new, key, padded, 512));
+        byte[] shortKey = Arrays.copyOf(key, 16);
+        byte[] shortPadded = Arrays.copyOf(key, 32);
+        shortPadded[16] = (byte)0x01;
+        Arrays.fill(shortPadded, 17, 32, (byte)0);
+        assertThrows(IllegalArgumentException.class, () -> new XtsMode(SerpentBitsliced::new, shortPadded, shortKey, 512));
+    }
+}